@@ -0,0 +1,75 @@
+package trader.bench;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import trader.common.util.CSVDataSet;
+import trader.common.util.CSVUtil;
+import trader.common.util.ZipFileUtil;
+
+/**
+ * 行情文件读取和CSV解析
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CSVBenchmark {
+
+    private String csvText;
+    private List<String> csvLines;
+    private File zipFile;
+    private String zipEntry;
+    private int index;
+
+    @Setup
+    public void setup() throws Exception {
+        csvText = TickFixture.loadCsvText();
+        csvLines = TickFixture.loadCsvLines();
+        zipFile = TickFixture.getTickZipFile();
+        zipEntry = "20181011.tick-ctp.csv";
+    }
+
+    @Benchmark
+    public String[] parseLine() {
+        return CSVUtil.parseLine(csvLines.get(index++ % csvLines.size()), ',');
+    }
+
+    /**
+     * 解析一个交易日的CSV文本并遍历全部行
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public int csvDataSetDay() {
+        CSVDataSet csvDataSet = CSVUtil.parse(csvText);
+        int rows = 0;
+        while(csvDataSet.next()) {
+            rows += csvDataSet.getRow().length;
+        }
+        return rows;
+    }
+
+    /**
+     * 从归档zip读取一个交易日的TICK文件
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public String zipArchiveReadDay() throws Exception {
+        return ZipFileUtil.archiveRead(zipFile, zipEntry);
+    }
+
+}
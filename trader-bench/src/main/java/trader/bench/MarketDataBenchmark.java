@@ -0,0 +1,117 @@
+package trader.bench;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.jctp.CThostFtdcDepthMarketDataField;
+import trader.common.tick.PriceLevel;
+import trader.service.md.MarketData;
+import trader.service.md.ctp.CtpMarketData;
+import trader.service.md.synthetic.SyntheticTickGenerator;
+import trader.service.ta.TAEntry;
+import trader.service.ta.TimeSeriesLoader;
+import trader.service.trade.MarketTimeService;
+
+/**
+ * 行情转换和KBar计算
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MarketDataBenchmark {
+
+    private List<CThostFtdcDepthMarketDataField> fields;
+    private List<MarketData> marketDatas;
+    private SyntheticTickGenerator generator;
+    private int index;
+
+    @Setup
+    public void setup() throws Exception {
+        fields = TickFixture.loadCtpFields();
+        marketDatas = TickFixture.loadMarketDatas();
+        generator = new SyntheticTickGenerator(TickFixture.TRADING_DAY, 0).addInstruments(SyntheticTickGenerator.defaultInstruments(100), null);
+    }
+
+    /**
+     * CTP回调数据转换为 CtpMarketData
+     */
+    @Benchmark
+    public MarketData ctpMarketDataCreate() {
+        CThostFtdcDepthMarketDataField field = fields.get(index++ % fields.size());
+        return new CtpMarketData("bench", TickFixture.EXCHANGEABLE, field, TickFixture.TRADING_DAY);
+    }
+
+    /**
+     * 合成行情生成, 压力测试时行情源的开销
+     */
+    @Benchmark
+    public CThostFtdcDepthMarketDataField syntheticTickGenerate() {
+        return generator.next();
+    }
+
+    @Benchmark
+    public int getTickIndex() {
+        MarketData md = marketDatas.get(index++ % marketDatas.size());
+        return TimeSeriesLoader.getTickIndex(TickFixture.EXCHANGEABLE, PriceLevel.MIN1, md);
+    }
+
+    /**
+     * 一个交易日的TICK依次更新各级别KBar, 每次调用使用新加载历史数据的 TAEntry
+     */
+    @State(Scope.Thread)
+    public static class TAEntryState {
+        TAEntry entry;
+        List<MarketData> marketDatas;
+
+        @Setup(Level.Trial)
+        public void loadTicks() throws Exception {
+            marketDatas = TickFixture.loadMarketDatas();
+        }
+
+        @Setup(Level.Invocation)
+        public void createEntry() throws Exception {
+            LocalDateTime marketTime = LocalDateTime.of(2018, 10, 11, 8, 55);
+            entry = new TAEntry(TickFixture.EXCHANGEABLE);
+            entry.loadHistoryData(new MarketTimeService() {
+                @Override
+                public LocalDateTime getMarketTime() {
+                    return marketTime;
+                }
+
+                @Override
+                public LocalDate getMarketDay() {
+                    return TickFixture.TRADING_DAY;
+                }
+            }, TickFixture.getExchangeableData());
+        }
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 3, batchSize = 1)
+    @Measurement(iterations = 10, batchSize = 1)
+    public TAEntry taEntryOnMarketDataDay(TAEntryState state) {
+        for(MarketData md:state.marketDatas) {
+            state.entry.onMarketData(md);
+        }
+        return state.entry;
+    }
+
+}
@@ -0,0 +1,93 @@
+package trader.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.jctp.CThostFtdcDepthMarketDataField;
+import trader.common.exchangeable.Exchangeable;
+import trader.common.exchangeable.ExchangeableData;
+import trader.common.util.CSVDataSet;
+import trader.common.util.CSVUtil;
+import trader.common.util.TraderHomeUtil;
+import trader.common.util.csv.CtpCSVMarshallHelper;
+import trader.service.md.MarketData;
+import trader.service.repository.RepositoryCursor;
+import trader.service.repository.RepositoryQuery;
+
+/**
+ * 性能测试使用的已记录行情: trader-services 测试行情仓库中 ru1901 一个交易日的CTP TICK.
+ * <BR>行情仓库目录通过系统属性 trader.repositoryDir 指定, gradle jmh 任务会自动设置
+ */
+public class TickFixture {
+
+    public static final Exchangeable EXCHANGEABLE = Exchangeable.fromString("ru1901");
+    public static final LocalDate TRADING_DAY = LocalDate.of(2018, 10, 11);
+
+    public static ExchangeableData getExchangeableData() {
+        return TraderHomeUtil.getExchangeableData();
+    }
+
+    /**
+     * 行情仓库中的原始TICK文件
+     */
+    public static File getTickZipFile() {
+        return new File(getExchangeableData().getDataDir(), "shfe/ru1901/2018.tick-ctp.zip");
+    }
+
+    /**
+     * 原始CSV文本
+     */
+    public static String loadCsvText() throws IOException
+    {
+        return getExchangeableData().load(EXCHANGEABLE, ExchangeableData.TICK_CTP, TRADING_DAY);
+    }
+
+    /**
+     * 原始CSV数据行, 不包含标题行
+     */
+    public static List<String> loadCsvLines() throws IOException
+    {
+        List<String> result = new ArrayList<>();
+        CSVDataSet csvDataSet = CSVUtil.parse(loadCsvText());
+        while(csvDataSet.next()) {
+            result.add(csvDataSet.getLine());
+        }
+        return result;
+    }
+
+    /**
+     * CTP行情回调收到的原始数据
+     */
+    public static List<CThostFtdcDepthMarketDataField> loadCtpFields() throws IOException
+    {
+        List<CThostFtdcDepthMarketDataField> result = new ArrayList<>();
+        CtpCSVMarshallHelper csvMarshallHelper = new CtpCSVMarshallHelper();
+        CSVDataSet csvDataSet = CSVUtil.parse(loadCsvText());
+        while(csvDataSet.next()) {
+            result.add(csvMarshallHelper.unmarshall(csvDataSet.getRow()));
+        }
+        return result;
+    }
+
+    /**
+     * 转换后的行情数据, 按时间排序
+     */
+    public static List<MarketData> loadMarketDatas() throws IOException
+    {
+        List<MarketData> result = new ArrayList<>();
+        RepositoryQuery query = new RepositoryQuery(getExchangeableData())
+                .addExchangeables(EXCHANGEABLE)
+                .setData(ExchangeableData.TICK_CTP)
+                .setTradingDays(TRADING_DAY, TRADING_DAY);
+        try(RepositoryCursor cursor = query.open();){
+            while(cursor.next()) {
+                result.add(cursor.getMarketData());
+            }
+        }
+        return result;
+    }
+
+}
@@ -0,0 +1,64 @@
+package trader.service.md;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import trader.bench.TickFixture;
+
+/**
+ * MarketDataServiceImpl.onProducerData 分发给多个监听器.
+ * <BR>和 MarketDataServiceImpl 在同一个包中, 以便直接调用数据源回调入口
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MarketDataServiceBenchmark {
+
+    @Param({"1", "4", "16"})
+    public int listeners;
+
+    private MarketDataServiceImpl service;
+    private List<MarketData> marketDatas;
+    private int index;
+    private long timestamp;
+
+    @Setup
+    public void setup(Blackhole blackhole) throws Exception {
+        marketDatas = TickFixture.loadMarketDatas();
+        service = new MarketDataServiceImpl();
+        service.addSubscriptions(Arrays.asList(TickFixture.EXCHANGEABLE));
+        for(int i=0;i<listeners;i++) {
+            service.addListener((MarketData md)->{
+                blackhole.consume(md.lastPrice);
+            });
+        }
+    }
+
+    /**
+     * 时间戳每次递增, 避免被重复TICK检查丢弃
+     */
+    @Benchmark
+    public void onProducerData() {
+        MarketData md = marketDatas.get(index++ % marketDatas.size());
+        md.updateTimestamp = ++timestamp;
+        service.onProducerData(md);
+    }
+
+}
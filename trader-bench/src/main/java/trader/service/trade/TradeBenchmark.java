@@ -0,0 +1,183 @@
+package trader.service.trade;
+
+import java.lang.reflect.Proxy;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.lmax.disruptor.BlockingWaitStrategy;
+import com.lmax.disruptor.BusySpinWaitStrategy;
+import com.lmax.disruptor.RingBuffer;
+import com.lmax.disruptor.WaitStrategy;
+import com.lmax.disruptor.dsl.Disruptor;
+import com.lmax.disruptor.dsl.ProducerType;
+import com.lmax.disruptor.util.DaemonThreadFactory;
+
+import trader.bench.TickFixture;
+import trader.common.event.AsyncEvent;
+import trader.common.event.AsyncEventFactory;
+import trader.common.exchangeable.Exchangeable;
+import trader.common.util.PriceUtil;
+import trader.service.md.MarketData;
+import trader.service.trade.FutureFeeEvaluator.FutureFeeInfo;
+import trader.service.trade.TradeConstants.OrderDirection;
+import trader.service.trade.TradeConstants.OrderOffsetFlag;
+import trader.service.trade.TradeConstants.PosDirection;
+
+/**
+ * 交易相关计算: 手续费/保证金, 持仓盈亏, OrderRef生成, 账户RingBuffer发布.
+ * <BR>和 PositionImpl 在同一个包中, 以便调用行情更新入口
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TradeBenchmark implements TradeConstants {
+
+    /**
+     * 持仓明细数量
+     */
+    @Param({"1", "10", "100"})
+    public int positionDetails;
+
+    private FutureFeeEvaluator feeEvaluator;
+    private PositionImpl position;
+    private OrderRefGen orderRefGen;
+    private List<MarketData> marketDatas;
+    private long[] fees = new long[FutureFeeTable.FEE_COUNT];
+    private int index;
+
+    @Setup
+    public void setup() throws Exception {
+        Exchangeable e = TickFixture.EXCHANGEABLE;
+        marketDatas = TickFixture.loadMarketDatas();
+        //ru: 10吨/手, 最小变动价位5, 保证金10%, 手续费按金额万分之0.45
+        FutureFeeInfo feeInfo = new FutureFeeInfo();
+        feeInfo.setPriceTick(PriceUtil.price2long(5));
+        feeInfo.setVolumeMultiple(10);
+        feeInfo.setMarginRatio(MarginRatio_LongByMoney, 0.1);
+        feeInfo.setMarginRatio(MarginRatio_ShortByMoney, 0.1);
+        feeInfo.setCommissionRatio(CommissionRatio_OpenByMoney, 0.000045);
+        feeInfo.setCommissionRatio(CommissionRatio_CloseByMoney, 0.000045);
+        feeInfo.setCommissionRatio(CommissionRatio_CloseTodayByMoney, 0.000045);
+        Map<Exchangeable, FutureFeeInfo> feeInfos = new HashMap<>();
+        feeInfos.put(e, feeInfo);
+        feeEvaluator = new FutureFeeEvaluator(feeInfos);
+
+        List<PositionDetailImpl> details = new ArrayList<>();
+        long openPrice = marketDatas.get(0).lastPrice;
+        LocalDateTime openTime = marketDatas.get(0).updateTime;
+        for(int i=0;i<positionDetails;i++) {
+            PosDirection direction = (i%2==0)?PosDirection.Long:PosDirection.Short;
+            details.add(new PositionDetailImpl(direction, 1+(i%3), openPrice+i*feeInfo.getPriceTick(), openTime.plusSeconds(i), true));
+        }
+        position = new PositionImpl(feeEvaluator, e, PosDirection.Net, details);
+
+        Account account = (Account)Proxy.newProxyInstance(Account.class.getClassLoader(), new Class[] {Account.class}, (proxy, method, args)->{
+            if ( method.getName().equals("getId") ) {
+                return "bench";
+            }
+            return null;
+        });
+        orderRefGen = new OrderRefGen(account, null);
+    }
+
+    @Benchmark
+    public long[] feeEvaluatorCompute() {
+        MarketData md = marketDatas.get(index++ % marketDatas.size());
+        return feeEvaluator.compute(md.instrumentId, 1, md.lastPrice, OrderDirection.Buy, OrderOffsetFlag.OPEN);
+    }
+
+    /**
+     * 结果写入预先分配的数组, 不分配内存
+     */
+    @Benchmark
+    public long feeEvaluatorComputeNoAlloc() {
+        MarketData md = marketDatas.get(index++ % marketDatas.size());
+        feeEvaluator.compute(md.instrumentId, 1, md.lastPrice, OrderDirection.Buy, OrderOffsetFlag.OPEN, fees);
+        return fees[FutureFeeTable.FEE_COMMISSION];
+    }
+
+    /**
+     * 按最新价增量计算持仓盈亏, 耗时和持仓明细数量无关
+     */
+    @Benchmark
+    public long positionOnMarketData() {
+        position.onMarketData(marketDatas.get(index++ % marketDatas.size()));
+        return position.getMoney(PosMoney_PositionProfit);
+    }
+
+    @Benchmark
+    public String orderRefGenNextRefId() {
+        return orderRefGen.nextRefId();
+    }
+
+    /**
+     * 报单回报中的OrderRef解析
+     */
+    @Benchmark
+    public int orderRefGenCompareAndSetRef() {
+        orderRefGen.compareAndSetRef("  00a3f1");
+        return orderRefGen.getRefId();
+    }
+
+    /**
+     * 与 AccountImpl 相同配置的 RingBuffer, 按 CtpTxnSession.publishAsyncEvent 的方式发布事件
+     */
+    @State(Scope.Benchmark)
+    public static class RingBufferState {
+        @Param({"Blocking", "BusySpin"})
+        public String waitStrategy;
+
+        Disruptor<AsyncEvent> disruptor;
+        RingBuffer<AsyncEvent> ringBuffer;
+
+        @Setup
+        public void start() {
+            WaitStrategy strategy = "BusySpin".equals(waitStrategy)?new BusySpinWaitStrategy():new BlockingWaitStrategy();
+            disruptor = new Disruptor<AsyncEvent>(new AsyncEventFactory(), 65536, DaemonThreadFactory.INSTANCE, ProducerType.MULTI, strategy);
+            disruptor.handleEventsWith((AsyncEvent event, long sequence, boolean endOfBatch)->{
+                event.processor.process(event.dataType, event.data, event.data2);
+            });
+            ringBuffer = disruptor.start();
+        }
+
+        @TearDown
+        public void stop() {
+            disruptor.halt();
+        }
+    }
+
+    @Benchmark
+    public void ringBufferPublish(RingBufferState state) {
+        RingBuffer<AsyncEvent> ringBuffer = state.ringBuffer;
+        long seq = ringBuffer.next();
+        try {
+            AsyncEvent event = ringBuffer.get(seq);
+            event.setData(0, this, null);
+            event.processor = (int dataType, Object data, Object data2)->{};
+            event.eventType = AsyncEvent.EVENT_TYPE_PROCESSOR;
+        }finally {
+            ringBuffer.publish(seq);
+        }
+    }
+
+}
@@ -223,7 +223,7 @@ public abstract class Exchangeable implements Comparable<Exchangeable> {
     }
 
     public MarketTimeStage getTimeStage(LocalDateTime ldt){
-        if ( ldt.getHour()>=7 && ldt.getHour()<=16 ) {
+        if ( isDayMarketTime(ldt) ) {
             return getTimeStage(MarketType.Day, ldt.toLocalDate(), ldt);
         }   else {
             LocalDate tradingDay = MarketDayUtil.nextMarketDay(exchange(), ldt.toLocalDate());
@@ -235,7 +235,20 @@ public abstract class Exchangeable implements Comparable<Exchangeable> {
      * 根据交易日, 实际时间返回市场的时间段
      */
     public MarketTimeStage getTimeStage(MarketType marketType, LocalDate tradingDay, LocalDateTime time){
-        LocalDateTime[] marketTimes = getMarketTimes(marketType, tradingDay);
+        return getTimeStage(getMarketTimes(marketType, tradingDay), time);
+    }
+
+    /**
+     * getTimeStage(LocalDateTime) 使用的日市/夜盘划分: 7-16点属于当天日市, 其它时间属于下一交易日的夜盘
+     */
+    public static boolean isDayMarketTime(LocalDateTime ldt) {
+        return ldt.getHour()>=7 && ldt.getHour()<=16;
+    }
+
+    /**
+     * 根据交易时间段和实际时间返回市场的时间段, 调用者可以缓存交易时间段
+     */
+    public static MarketTimeStage getTimeStage(LocalDateTime[] marketTimes, LocalDateTime time){
         if ( marketTimes==null ){
             return MarketTimeStage.MarketClose;
         }
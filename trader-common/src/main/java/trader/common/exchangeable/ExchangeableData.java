@@ -4,6 +4,8 @@ import java.io.BufferedWriter;
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.time.LocalDate;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -12,15 +14,23 @@ import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
+import trader.common.exchangeable.ExchangeableDataCatalog.CatalogEntry;
+import trader.common.exchangeable.ExchangeableDataCatalog.InstrumentCatalog;
 import trader.common.tick.PriceLevel;
 import trader.common.util.*;
 import trader.common.util.concurrent.LockWrapper;
 
 /**
  * 历史数据访问
+ * <BR>并发模型: 数据文件和zip文件都是写临时文件后原子替换, 读操作不加锁;
+ * 写操作按品种目录加进程内锁, 并且只有写操作才加跨进程的文件锁
  */
 public class ExchangeableData {
 
@@ -181,6 +191,22 @@ public class ExchangeableData {
             ,COLUMN_OPENINT
     };
 
+    /**
+     * 期货日线: 交易日包含前一晚的夜市, 开始结束时间为实际的第一个和最后一个TICK时间
+     */
+    public static final String[] FUTURE_DAY_COLUMNS = new String[]{
+            COLUMN_DATE
+            ,COLUMN_BEGIN_TIME
+            ,COLUMN_END_TIME
+            ,COLUMN_OPEN
+            ,COLUMN_HIGH
+            ,COLUMN_LOW
+            ,COLUMN_CLOSE
+            ,COLUMN_VOLUME
+            ,COLUMN_TURNOVER
+            ,COLUMN_OPENINT
+    };
+
     /**
      * 股票的TICK数据
      */
@@ -192,13 +218,19 @@ public class ExchangeableData {
 
     public static final DataInfo MIN1 = new DataInfo("MIN1", PriceLevel.MIN1, FUTURE_MIN_COLUMNS);
     public static final DataInfo MIN3 = new DataInfo("MIN3", PriceLevel.MIN3, FUTURE_MIN_COLUMNS);
+    public static final DataInfo MIN5 = new DataInfo("MIN5", PriceLevel.MIN5, FUTURE_MIN_COLUMNS);
     public static final DataInfo MIN15 = new DataInfo("MIN15", PriceLevel.MIN15, FUTURE_MIN_COLUMNS);
     public static final DataInfo MIN30 = new DataInfo("MIN30", PriceLevel.MIN30, FUTURE_MIN_COLUMNS);
+    public static final DataInfo HOUR = new DataInfo("HOUR", PriceLevel.HOUR, FUTURE_MIN_COLUMNS);
 
     /**
      * 指数价格
      */
     public static final DataInfo DAY = new DataInfo("DAY", PriceLevel.DAY, STOCK_DAY_COLUMNS);
+    /**
+     * 期货日线, 按交易日和实际交易时间
+     */
+    public static final DataInfo DAY_FUTURE = new DataInfo("DAY_FUTURE", PriceLevel.DAY, FUTURE_DAY_COLUMNS);
 
     public static class TradingData{
         public LocalDate tradingDay;
@@ -230,7 +262,10 @@ public class ExchangeableData {
         @Override
         public void save(File exchangeableDir, String file, String content) throws IOException{
             exchangeableDir.mkdirs();
-            FileUtil.save(new File(exchangeableDir, file), content);
+            File dataFile = new File(exchangeableDir, file);
+            File tempFile = new File(exchangeableDir, file+".tmp");
+            FileUtil.save(tempFile, content);
+            Files.move(tempFile.toPath(), dataFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
         }
         @Override
         public boolean delete(File exchangeableDir, String file) throws IOException{
@@ -362,10 +397,10 @@ public class ExchangeableData {
 
     private boolean readOnly;
     private File dataDir;
-    private Map<String,Lock> workingLocks = new HashMap<>();
-    private Lock workingLock = new ReentrantLock();
+    private Map<String,Lock> workingLocks = new ConcurrentHashMap<>();
     private DataProvider regularProvider = new RegularFileDataProvider();
     private DataProvider zipProvider= new ZipDataProvider();
+    private ExchangeableDataCatalog catalog = new ExchangeableDataCatalog();
 
     public ExchangeableData(File dataDir){
         this(dataDir, true);
@@ -396,19 +431,15 @@ public class ExchangeableData {
     public DataInfo detectData(Exchangeable exchangeable, PriceLevel level, LocalDate tradingDay)
         throws IOException
     {
-    	try (FileLocker fileLocker = getFileLock(exchangeable);
-                LockWrapper lockWrapper = getInternalLock(exchangeable);)
-        {
-    		File edir = getExchangeableDir(exchangeable);
-    		List<DataInfo> possibleDataInfos = DataInfo.getByLevel(level);
-    		for(DataInfo c:possibleDataInfos){
-    			for(String dataFile : getDataFileName(c, tradingDay)){
-                    if(  exists0(edir, dataFile) ){
-                    	return c;
-                    }
-    			}
-    		}
-        }
+		File edir = getExchangeableDir(exchangeable);
+		List<DataInfo> possibleDataInfos = DataInfo.getByLevel(level);
+		for(DataInfo c:possibleDataInfos){
+			for(String dataFile : getDataFileName(c, tradingDay)){
+                if(  exists0(edir, dataFile) ){
+                	return c;
+                }
+			}
+		}
     	return null;
     }
 
@@ -450,20 +481,20 @@ public class ExchangeableData {
     public boolean exists(Exchangeable exchangeable, DataInfo dataInfo, LocalDate tradingDay)
             throws IOException
     {
-        try (FileLocker fileLocker = getFileLock(exchangeable);
-                LockWrapper lockWrapper = getInternalLock(exchangeable);)
-        {
-            File edir = getExchangeableDir(exchangeable);
-            for(String dataFile : getDataFileName(dataInfo, tradingDay)){
-                if ( exists0(edir, dataFile) ){
-                    return true;
-                }
+        File edir = getExchangeableDir(exchangeable);
+        InstrumentCatalog instrumentCatalog = getCatalog(edir, dataInfo, tradingDay);
+        if ( instrumentCatalog!=null ) {
+            return findEntry(instrumentCatalog, dataInfo, tradingDay)!=null;
+        }
+        for(String dataFile : getDataFileName(dataInfo, tradingDay)){
+            if ( exists0(edir, dataFile) ){
+                return true;
             }
-            return false;
         }
+        return false;
     }
 
-    public synchronized boolean exists(String subDir, LocalDate tradingDay, DataInfo dataInfo)
+    public boolean exists(String subDir, LocalDate tradingDay, DataInfo dataInfo)
             throws IOException
     {
         File edir = new File(dataDir, subDir);
@@ -479,11 +510,10 @@ public class ExchangeableData {
             throws IOException
     {
         checkReadOnly();
-        try(FileLocker fileLocker = getFileLock(exchangeable);
-                LockWrapper lockWrapper = getInternalLock(exchangeable); )
+        File edir = getExchangeableDir(exchangeable);
+        try(LockWrapper lockWrapper = getInternalLock(edir);
+                FileLocker fileLocker = getFileLock(edir); )
         {
-            File edir = getExchangeableDir(exchangeable);
-            edir.mkdirs();
             regularProvider.save(edir, miscFile, text);
         }
     }
@@ -491,39 +521,35 @@ public class ExchangeableData {
     public boolean existsMisc(Exchangeable exchangeable, String miscFile)
             throws IOException
     {
-        try(FileLocker fileLocker = getFileLock(exchangeable);
-                LockWrapper lockWrapper = getInternalLock(exchangeable); )
-        {
-            File edir = getExchangeableDir(exchangeable);
-            return  exists0(edir, miscFile);
-        }
+        File edir = getExchangeableDir(exchangeable);
+        return  exists0(edir, miscFile);
     }
 
     public String loadMisc(Exchangeable exchangeable, String miscFile)
             throws IOException
     {
-        try(FileLocker fileLocker = getFileLock(exchangeable);
-                LockWrapper lockWrapper = getInternalLock(exchangeable); )
-        {
-            File edir = getExchangeableDir(exchangeable);
-            return load0(edir, new String[]{miscFile});
-        }
+        File edir = getExchangeableDir(exchangeable);
+        return load0(edir, new String[]{miscFile});
     }
 
     public void save(Exchangeable exchangeable, DataInfo dataInfo, LocalDate tradingDay, String text )
             throws IOException
     {
         checkReadOnly();
-        try(FileLocker fileLocker = getFileLock(exchangeable);
-                LockWrapper lockWrapper = getInternalLock(exchangeable); )
+        File edir = getExchangeableDir(exchangeable);
+        try(LockWrapper lockWrapper = getInternalLock(edir);
+                FileLocker fileLocker = getFileLock(edir); )
         {
-            File edir = getExchangeableDir(exchangeable);
             String[] dataFiles = getDataFileName(dataInfo, tradingDay);
             regularProvider.save(edir, dataFiles[0], text);
+            if ( getCatalog(edir, dataInfo, tradingDay)!=null ) {
+                long size = (new File(edir, dataFiles[0])).length();
+                catalog.update(edir, new CatalogEntry(dataInfo.name(), tradingDay, dataFiles[0], size, ExchangeableDataCatalog.countRows(text)));
+            }
         }
     }
 
-    public synchronized LocalDate[] getTradingDays(Exchangeable exchangeable, LocalDate tradingDay, int count)
+    public LocalDate[] getTradingDays(Exchangeable exchangeable, LocalDate tradingDay, int count)
             throws IOException
     {
         List<LocalDate> tradingDays = new LinkedList<>();
@@ -547,16 +573,20 @@ public class ExchangeableData {
         return tradingDays.toArray(new LocalDate[tradingDays.size()]);
     }
 
-    public synchronized void save(String subDir, LocalDate tradingDay, DataInfo dataInfo, String text )
+    public void save(String subDir, LocalDate tradingDay, DataInfo dataInfo, String text )
             throws IOException
     {
         checkReadOnly();
         File edir = new File(dataDir, subDir);
-        String[] dataFiles = getDataFileName(dataInfo, tradingDay);
-        regularProvider.save(edir, dataFiles[0], text);
+        try(LockWrapper lockWrapper = getInternalLock(edir);
+                FileLocker fileLocker = getFileLock(edir); )
+        {
+            String[] dataFiles = getDataFileName(dataInfo, tradingDay);
+            regularProvider.save(edir, dataFiles[0], text);
+        }
     }
 
-    public synchronized String load(String subDir, DataInfo dataInfo, LocalDate tradingDay)
+    public String load(String subDir, DataInfo dataInfo, LocalDate tradingDay)
             throws IOException
     {
         File edir = new File(dataDir, subDir);
@@ -567,13 +597,17 @@ public class ExchangeableData {
     public String load(Exchangeable exchangeable, DataInfo dataInfo, LocalDate tradingDay)
             throws IOException
     {
-        try(FileLocker fileLocker = getFileLock(exchangeable);
-                LockWrapper lockWrapper = getInternalLock(exchangeable); )
-        {
-            File edir = getExchangeableDir(exchangeable);
-            String[] dataFiles = getDataFileName(dataInfo, tradingDay);
-            return load0(edir, dataFiles);
+        File edir = getExchangeableDir(exchangeable);
+        String[] dataFiles = getDataFileName(dataInfo, tradingDay);
+        InstrumentCatalog instrumentCatalog = getCatalog(edir, dataInfo, tradingDay);
+        if ( instrumentCatalog!=null ) {
+            CatalogEntry entry = findEntry(instrumentCatalog, dataInfo, tradingDay);
+            if ( entry==null ) {
+                throw new IOException("Data not exists: "+edir+"/"+dataFiles[0]);
+            }
+            return loadEntry(edir, entry);
         }
+        return load0(edir, dataFiles);
     }
 
     private boolean exists0(File edir, String dataFile) throws IOException
@@ -586,7 +620,14 @@ public class ExchangeableData {
     {
         for(String dataFile: dataFiles){
             if ( regularProvider.exists(edir, dataFile)){
-                return regularProvider.read(edir, dataFile);
+                try{
+                    return regularProvider.read(edir, dataFile);
+                }catch(IOException ioe){
+                    //读的同时文件被归档到zip中
+                    if ( regularProvider.exists(edir, dataFile) ){
+                        throw ioe;
+                    }
+                }
             }
             if ( zipProvider.exists(edir, dataFile)){
                 return zipProvider.read(edir, dataFile);
@@ -597,20 +638,103 @@ public class ExchangeableData {
 
     public LinkedList<TradingData> loadAll(Exchangeable exchangeable, DataInfo classfication, LocalDate beginDay, LocalDate endDay) throws IOException
     {
-        try(FileLocker fileLocker = getFileLock(exchangeable);
-                LockWrapper lockWrapper = getInternalLock(exchangeable); )
-        {
-            LinkedList<TradingData> result = new LinkedList<>();
-            LocalDate tradingDay = beginDay;
-            while(tradingDay.compareTo(endDay)<=0){
-                try{
-                    String text = load(exchangeable, classfication, tradingDay);
-                    result.add(new TradingData(tradingDay,text));
-                }catch(IOException ioe){}
-                tradingDay = MarketDayUtil.nextMarketDay(exchangeable.exchange(), tradingDay);
+        LinkedList<TradingData> result = new LinkedList<>();
+        File edir = getExchangeableDir(exchangeable);
+        InstrumentCatalog instrumentCatalog = getCatalog(edir, classfication, beginDay);
+        if ( instrumentCatalog!=null ) {
+            //根据索引直接读取存在的数据
+            for(CatalogEntry entry:findEntries(instrumentCatalog, classfication, beginDay, endDay).values()) {
+                result.add(new TradingData(entry.getTradingDay(), loadEntry(edir, entry)));
             }
             return result;
         }
+        LocalDate tradingDay = beginDay;
+        while(tradingDay.compareTo(endDay)<=0){
+            try{
+                String text = load0(edir, getDataFileName(classfication, tradingDay));
+                result.add(new TradingData(tradingDay,text));
+            }catch(IOException ioe){}
+            tradingDay = MarketDayUtil.nextMarketDay(exchangeable.exchange(), tradingDay);
+        }
+        return result;
+    }
+
+    /**
+     * 返回品种的数据索引, 没有建立索引返回null
+     */
+    public InstrumentCatalog getCatalog(Exchangeable exchangeable) throws IOException
+    {
+        return catalog.get(getExchangeableDir(exchangeable));
+    }
+
+    /**
+     * 返回某个分类存在数据的全部交易日, 按日期排序. 有索引时直接使用索引, 否则扫描品种目录
+     */
+    public List<LocalDate> listTradingDays(Exchangeable exchangeable, DataInfo dataInfo) throws IOException
+    {
+        File edir = getExchangeableDir(exchangeable);
+        InstrumentCatalog instrumentCatalog = catalog.get(edir);
+        if ( instrumentCatalog==null ) {
+            instrumentCatalog = catalog.scan(edir);
+        }
+        TreeSet<LocalDate> result = new TreeSet<>(instrumentCatalog.getEntries(dataInfo.name()).keySet());
+        if ( dataInfo.altName()!=null ) {
+            result.addAll(instrumentCatalog.getEntries(dataInfo.altName()).keySet());
+        }
+        return new ArrayList<>(result);
+    }
+
+    /**
+     * 扫描品种目录, 重建数据索引
+     */
+    public InstrumentCatalog rebuildCatalog(Exchangeable exchangeable) throws IOException
+    {
+        checkReadOnly();
+        File edir = getExchangeableDir(exchangeable);
+        try(LockWrapper lockWrapper = getInternalLock(edir);
+                FileLocker fileLocker = getFileLock(edir); )
+        {
+            return catalog.rebuild(edir);
+        }
+    }
+
+    /**
+     * 按日期保存的数据才会建立索引
+     */
+    private InstrumentCatalog getCatalog(File edir, DataInfo dataInfo, LocalDate tradingDay) throws IOException
+    {
+        if ( tradingDay==null || (dataInfo.getLevel()!=null && dataInfo.getLevel().ordinal()>=PriceLevel.DAY.ordinal()) ) {
+            return null;
+        }
+        return catalog.get(edir);
+    }
+
+    private CatalogEntry findEntry(InstrumentCatalog instrumentCatalog, DataInfo dataInfo, LocalDate tradingDay)
+    {
+        CatalogEntry result = instrumentCatalog.get(dataInfo.name(), tradingDay);
+        if ( result==null && dataInfo.altName()!=null ) {
+            result = instrumentCatalog.get(dataInfo.altName(), tradingDay);
+        }
+        return result;
+    }
+
+    private NavigableMap<LocalDate, CatalogEntry> findEntries(InstrumentCatalog instrumentCatalog, DataInfo dataInfo, LocalDate beginDay, LocalDate endDay)
+    {
+        NavigableMap<LocalDate, CatalogEntry> result = new TreeMap<>();
+        if ( dataInfo.altName()!=null ) {
+            result.putAll(instrumentCatalog.getEntries(dataInfo.altName()).subMap(beginDay, true, endDay, true));
+        }
+        result.putAll(instrumentCatalog.getEntries(dataInfo.name()).subMap(beginDay, true, endDay, true));
+        return result;
+    }
+
+    private String loadEntry(File edir, CatalogEntry entry) throws IOException
+    {
+        if ( entry.isArchived() ) {
+            return ZipFileUtil.archiveRead(new File(edir, entry.getContainer()), entry.getFileName());
+        }
+        //索引还没有更新时文件可能已经被归档, 按文件名重新查找
+        return load0(edir, new String[] {entry.getContainer()});
     }
 
     public List<LocalDate> getSuspensionDays(Exchangeable exchangeable)throws IOException{
@@ -713,7 +837,12 @@ public class ExchangeableData {
             return;
         }
         listener.onArchiveBegin(subDir);
-        int archivedFileCount= groupAndArchiveFiles(zipper, subDir, filesToArchive);
+        int archivedFileCount = 0;
+        try(LockWrapper lockWrapper = getInternalLock(subDir);
+                FileLocker fileLocker = getFileLock(subDir); )
+        {
+            archivedFileCount= groupAndArchiveFiles(zipper, subDir, filesToArchive);
+        }
         listener.onArchiveEnd(subDir, archivedFileCount);
     }
 
@@ -731,7 +860,12 @@ public class ExchangeableData {
         }
         Exchangeable e = Exchangeable.fromString(exchange.name(), edir.getName());
         listener.onArchiveBegin(e, edir);
-        int archivedFileCount= groupAndArchiveFiles(zipper, edir, filesToArchive);
+        int archivedFileCount = 0;
+        try(LockWrapper lockWrapper = getInternalLock(edir);
+                FileLocker fileLocker = getFileLock(edir); )
+        {
+            archivedFileCount= groupAndArchiveFiles(zipper, edir, filesToArchive);
+        }
         listener.onArchiveEnd(e, archivedFileCount);
     }
 
@@ -751,43 +885,44 @@ public class ExchangeableData {
             }
         }
         int archivedFileCount=0;
+        Map<String, String> containers = new HashMap<>();
         for(List list:groupedFiles.values()){
             zipper.saveAll(dir, (String[])list.toArray(new String[list.size()]), regularProvider);
             for(Object f:list){
-                (new File(dir,f.toString())).delete();
+                containers.put(f.toString(), zipper.getZipFileName(f.toString()));
             }
             archivedFileCount += list.size();
         }
+        //先更新索引再删除原始文件, 不加锁的读者总能找到数据
+        catalog.updateContainers(dir, containers);
+        for(String f:containers.keySet()){
+            (new File(dir,f)).delete();
+        }
         return archivedFileCount;
     }
 
-    private FileLocker getFileLock(Exchangeable exchangeable) throws IOException
+    /**
+     * 跨进程的写锁, 只在写操作时使用. 需要先获得同一目录的进程内锁
+     */
+    private FileLocker getFileLock(File dir) throws IOException
     {
         if ( readOnly ){
             return new FileLocker((File)null);
         }
-        File fileToLock = new File(dataDir,exchangeable.exchange().name()+"/"+exchangeable.id()+"/_filelock");
+        File fileToLock = new File(dir, "_filelock");
         if ( !fileToLock.exists() ){
-            fileToLock.getParentFile().mkdirs();
+            dir.mkdirs();
             FileUtil.copy(new ByteArrayInputStream("FileLock".getBytes()), fileToLock);
         }
         return new FileLocker(fileToLock);
     }
 
-    private LockWrapper getInternalLock(Exchangeable exchangeable)
+    /**
+     * 进程内按目录分段的写锁
+     */
+    private LockWrapper getInternalLock(File dir)
     {
-        workingLock.lock();
-        try{
-            String uniqueId = exchangeable.toString();
-            Lock lock = workingLocks.get(uniqueId);
-            if ( lock==null ){
-                lock = new ReentrantLock();
-                workingLocks.put(uniqueId, lock);
-            }
-            return new LockWrapper(lock);
-        }finally{
-            workingLock.unlock();
-        }
+        return new LockWrapper(workingLocks.computeIfAbsent(dir.getAbsolutePath(), (k)->new ReentrantLock()));
     }
 
     private File getExchangeDir(Exchange e){
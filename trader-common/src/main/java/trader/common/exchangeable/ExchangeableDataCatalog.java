@@ -0,0 +1,338 @@
+package trader.common.exchangeable;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import trader.common.util.CSVDataSet;
+import trader.common.util.CSVUtil;
+import trader.common.util.CSVWriter;
+import trader.common.util.DateUtil;
+import trader.common.util.FileUtil;
+
+/**
+ * 历史数据的目录索引: 每个品种每个分类有哪些交易日的数据, 保存在哪个文件(csv或zip), 字节数和行数.
+ * <BR>索引保存在品种目录的 _catalog 文件中, 由 data.catalog 命令重建, 之后由保存和归档操作维护.
+ * 索引文件存在即代表索引完整, 查询时不再探测文件和zip.
+ */
+public class ExchangeableDataCatalog {
+
+    public static final String FILE_CATALOG = "_catalog";
+
+    private static final String COLUMN_DATA = "Data";
+    private static final String COLUMN_TRADINGDAY = "TradingDay";
+    private static final String COLUMN_CONTAINER = "Container";
+    private static final String COLUMN_SIZE = "Size";
+    private static final String COLUMN_ROWS = "Rows";
+
+    private static final String[] COLUMNS = {COLUMN_DATA, COLUMN_TRADINGDAY, COLUMN_CONTAINER, COLUMN_SIZE, COLUMN_ROWS};
+
+    /**
+     * 一个交易日的一个分类数据
+     */
+    public static class CatalogEntry {
+        private String data;
+        private LocalDate tradingDay;
+        private String container;
+        private long size;
+        private int rows;
+
+        public CatalogEntry(String data, LocalDate tradingDay, String container, long size, int rows) {
+            this.data = data;
+            this.tradingDay = tradingDay;
+            this.container = container;
+            this.size = size;
+            this.rows = rows;
+        }
+
+        /**
+         * 数据分类名称, 例如 min1, tick-ctp
+         */
+        public String getData() {
+            return data;
+        }
+
+        public LocalDate getTradingDay() {
+            return tradingDay;
+        }
+
+        /**
+         * 实际存放的文件, 可能是csv文件本身或者zip文件
+         */
+        public String getContainer() {
+            return container;
+        }
+
+        public boolean isArchived() {
+            return container.endsWith(".zip");
+        }
+
+        /**
+         * 原始数据的字节数
+         */
+        public long getSize() {
+            return size;
+        }
+
+        /**
+         * 数据行数, 不含HEADER
+         */
+        public int getRows() {
+            return rows;
+        }
+
+        /**
+         * 数据文件名: yyyymmdd.classification.csv
+         */
+        public String getFileName() {
+            return toFileName(data, tradingDay);
+        }
+
+        CatalogEntry withContainer(String container) {
+            return new CatalogEntry(data, tradingDay, container, size, rows);
+        }
+    }
+
+    /**
+     * 一个品种目录的索引
+     */
+    public static class InstrumentCatalog {
+        private long lastModified;
+        private long length;
+        private Map<String, NavigableMap<LocalDate, CatalogEntry>> entries = new ConcurrentHashMap<>();
+
+        public CatalogEntry get(String data, LocalDate tradingDay) {
+            NavigableMap<LocalDate, CatalogEntry> dataEntries = entries.get(data);
+            if ( dataEntries==null ) {
+                return null;
+            }
+            return dataEntries.get(tradingDay);
+        }
+
+        /**
+         * 按交易日排序的某分类的全部数据
+         */
+        public NavigableMap<LocalDate, CatalogEntry> getEntries(String data) {
+            NavigableMap<LocalDate, CatalogEntry> dataEntries = entries.get(data);
+            if ( dataEntries==null ) {
+                return Collections.emptyNavigableMap();
+            }
+            return Collections.unmodifiableNavigableMap(dataEntries);
+        }
+
+        public Collection<String> getDatas(){
+            return Collections.unmodifiableCollection(entries.keySet());
+        }
+
+        void put(CatalogEntry entry) {
+            entries.computeIfAbsent(entry.getData(), (k)->new ConcurrentSkipListMap<>()).put(entry.getTradingDay(), entry);
+        }
+
+        String toCsv() {
+            CSVWriter csvWriter = new CSVWriter(COLUMNS);
+            for(NavigableMap<LocalDate, CatalogEntry> dataEntries:entries.values()) {
+                for(CatalogEntry entry:dataEntries.values()) {
+                    csvWriter.append(entry.getData(), DateUtil.date2str(entry.getTradingDay()), entry.getContainer(), entry.getSize(), entry.getRows());
+                }
+            }
+            return csvWriter.toString();
+        }
+    }
+
+    private Map<File, InstrumentCatalog> catalogs = new ConcurrentHashMap<>();
+
+    /**
+     * 返回品种目录的索引, 没有索引文件时返回null.
+     * <BR>索引文件被其它进程修改后会重新加载
+     */
+    public InstrumentCatalog get(File edir) throws IOException
+    {
+        File catalogFile = new File(edir, FILE_CATALOG);
+        long lastModified = catalogFile.lastModified();
+        if ( lastModified==0 ) {
+            catalogs.remove(edir);
+            return null;
+        }
+        InstrumentCatalog result = catalogs.get(edir);
+        if ( result==null || result.lastModified!=lastModified || result.length!=catalogFile.length() ) {
+            result = load(catalogFile);
+            catalogs.put(edir, result);
+        }
+        return result;
+    }
+
+    /**
+     * 更新已经存在的索引, 需要在品种锁内调用
+     */
+    public void update(File edir, CatalogEntry entry) throws IOException
+    {
+        InstrumentCatalog catalog = get(edir);
+        if ( catalog==null ) {
+            return;
+        }
+        catalog.put(entry);
+        save(edir, catalog);
+    }
+
+    /**
+     * 数据文件归档到zip文件后, 更新索引中的实际存放位置
+     *
+     * @param containers 数据文件名 --> zip文件名
+     */
+    public void updateContainers(File edir, Map<String, String> containers) throws IOException
+    {
+        InstrumentCatalog catalog = get(edir);
+        if ( catalog==null ) {
+            return;
+        }
+        for(NavigableMap<LocalDate, CatalogEntry> dataEntries:catalog.entries.values()) {
+            for(CatalogEntry entry:dataEntries.values()) {
+                String container = containers.get(entry.getFileName());
+                if ( container!=null ) {
+                    catalog.put(entry.withContainer(container));
+                }
+            }
+        }
+        save(edir, catalog);
+    }
+
+    /**
+     * 扫描品种目录的csv和zip文件, 重建索引
+     */
+    public InstrumentCatalog rebuild(File edir) throws IOException
+    {
+        InstrumentCatalog catalog = scan(edir);
+        save(edir, catalog);
+        return catalog;
+    }
+
+    /**
+     * 扫描品种目录的csv和zip文件, 不保存索引
+     */
+    public InstrumentCatalog scan(File edir) throws IOException
+    {
+        InstrumentCatalog catalog = new InstrumentCatalog();
+        String[] files = edir.list();
+        if ( files==null ) {
+            files = new String[0];
+        }
+        //先zip文件, 再csv文件覆盖: 与加载时的优先顺序一致
+        for(String f:files) {
+            if ( !f.endsWith(".zip") ) {
+                continue;
+            }
+            try(ZipFile zip = new ZipFile(new File(edir, f));){
+                Enumeration<? extends ZipEntry> zipEntries = zip.entries();
+                while(zipEntries.hasMoreElements()) {
+                    ZipEntry zipEntry = zipEntries.nextElement();
+                    String[] parts = parseFileName(zipEntry.getName());
+                    if ( zipEntry.isDirectory() || parts==null || zipEntry.getSize()<=2 ) {
+                        continue;
+                    }
+                    int rows = 0;
+                    try(InputStream is = zip.getInputStream(zipEntry);){
+                        rows = countRows(is.readAllBytes());
+                    }
+                    catalog.put(new CatalogEntry(parts[1], DateUtil.str2localdate(parts[0]), f, zipEntry.getSize(), rows));
+                }
+            }
+        }
+        for(String f:files) {
+            String[] parts = parseFileName(f);
+            if ( parts==null ) {
+                continue;
+            }
+            File file = new File(edir, f);
+            catalog.put(new CatalogEntry(parts[1], DateUtil.str2localdate(parts[0]), f, file.length(), countRows(FileUtil.loadAsBytes(file))));
+        }
+        return catalog;
+    }
+
+    public static String toFileName(String data, LocalDate tradingDay) {
+        return DateUtil.date2str(tradingDay)+"."+data+".csv";
+    }
+
+    /**
+     * 统计CSV数据行数, 不含HEADER
+     */
+    public static int countRows(byte[] data) {
+        int lines = 0;
+        for(int i=0;i<data.length;i++) {
+            if ( data[i]=='\n' ) {
+                lines++;
+            }
+        }
+        if ( data.length>0 && data[data.length-1]!='\n' ) {
+            lines++;
+        }
+        return Math.max(0, lines-1);
+    }
+
+    public static int countRows(String text) {
+        int lines = 0;
+        for(int i=0;i<text.length();i++) {
+            if ( text.charAt(i)=='\n' ) {
+                lines++;
+            }
+        }
+        if ( text.length()>0 && text.charAt(text.length()-1)!='\n' ) {
+            lines++;
+        }
+        return Math.max(0, lines-1);
+    }
+
+    /**
+     * 解析 yyyymmdd.classification.csv 格式文件名
+     *
+     * @return [yyyymmdd, classification], 不匹配返回null
+     */
+    private static String[] parseFileName(String f) {
+        String[] parts = f.split("\\.");
+        if ( parts.length!=3 || !parts[2].equals("csv") || parts[0].length()!=8 || DateUtil.str2localdate(parts[0])==null ) {
+            return null;
+        }
+        return parts;
+    }
+
+    private InstrumentCatalog load(File catalogFile) throws IOException
+    {
+        InstrumentCatalog result = new InstrumentCatalog();
+        result.lastModified = catalogFile.lastModified();
+        result.length = catalogFile.length();
+        CSVDataSet csvDataSet = CSVUtil.parse(FileUtil.load(catalogFile));
+        while(csvDataSet.next()) {
+            result.put(new CatalogEntry(
+                    csvDataSet.get(COLUMN_DATA),
+                    DateUtil.str2localdate(csvDataSet.get(COLUMN_TRADINGDAY)),
+                    csvDataSet.get(COLUMN_CONTAINER),
+                    csvDataSet.getLong(COLUMN_SIZE),
+                    csvDataSet.getInt(COLUMN_ROWS)));
+        }
+        return result;
+    }
+
+    private void save(File edir, InstrumentCatalog catalog) throws IOException
+    {
+        File catalogFile = new File(edir, FILE_CATALOG);
+        File tempFile = new File(edir, FILE_CATALOG+".tmp");
+        edir.mkdirs();
+        //先写临时文件再替换, 避免其它读者加载到不完整的索引
+        FileUtil.save(tempFile, catalog.toCsv());
+        Files.move(tempFile.toPath(), catalogFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        catalog.lastModified = catalogFile.lastModified();
+        catalog.length = catalogFile.length();
+        catalogs.put(edir, catalog);
+    }
+}
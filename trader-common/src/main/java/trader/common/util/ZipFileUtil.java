@@ -1,6 +1,8 @@
 package trader.common.util;
 
 import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
 import java.util.zip.*;
 
@@ -183,11 +185,12 @@ public class ZipFileUtil {
             }
         }
         append.close();
-        if ( !zip.exists() || zip.delete() ){
-            zipTemp.renameTo(zip);
-        }else{
+        //原子替换, 不加锁的读者要么看到旧文件, 要么看到新文件
+        try{
+            Files.move(zipTemp.toPath(), zip.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }catch(IOException ioe){
             zipTemp.delete();
-            throw new IOException("Unable to delete old zip archive "+zip);
+            throw new IOException("Unable to replace zip archive "+zip, ioe);
         }
     }
 
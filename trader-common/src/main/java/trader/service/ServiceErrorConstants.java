@@ -10,4 +10,6 @@ public interface ServiceErrorConstants {
     public static final int ERRCODE_TRADE_EXCHANGEABLE_INVALID              = 0X00010003;
     public static final int ERRCODE_TRADE_MARGIN_NOT_ENOUGH                 = 0X00010004;
     public static final int ERRCODE_TRADE_SEND_ORDER_FAILED                 = 0X00010005;
+    public static final int ERRCODE_TRADE_ORDER_NOT_FOUND                   = 0X00010006;
+    public static final int ERRCODE_TRADE_CANCEL_ORDER_FAILED               = 0X00010007;
 }
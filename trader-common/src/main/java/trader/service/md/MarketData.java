@@ -55,6 +55,11 @@ public abstract class MarketData implements Cloneable {
      */
     public long updateTimestamp;
 
+    /**
+     * 接收时间(System.nanoTime()), 用于报单延时跟踪
+     */
+    public long receiveNanos;
+
     /**
      * 昨收
      */
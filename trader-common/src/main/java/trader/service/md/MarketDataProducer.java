@@ -11,7 +11,7 @@ import trader.service.ServiceConstants.ConnState;
  * 一个行情数据源的运行时信息
  */
 public interface MarketDataProducer<T> extends JsonEnabled {
-    public static enum Type{ctp, femas};
+    public static enum Type{ctp, femas, synthetic};
 
     /**
      * 唯一ID
@@ -19,7 +19,7 @@ public interface MarketDataProducer<T> extends JsonEnabled {
     public String getId();
 
     /**
-     * 数据源类型: CTP/FEMAS/XTP等等
+     * 数据源类型: CTP/FEMAS/XTP等等, synthetic 为合成行情
      */
     public Type getType();
 
@@ -2,6 +2,7 @@ package trader.service.trade;
 
 import java.io.File;
 import java.util.Collection;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 
@@ -81,10 +82,39 @@ public interface Account extends JsonEnabled {
 
     public void addAccountListener(AccountListener listener);
 
+    /**
+     * 风险度: 保证金占用/动态权益, 随行情实时更新
+     */
+    public double getRiskRatio();
+
+    /**
+     * 增加风险度阈值监听, 风险度向上或向下穿越阈值时回调
+     */
+    public void addRiskListener(double threshold, AccountRiskListener listener);
+
     /**
      * 提交一个报单
      * @throws AppException 本地检查失败, 或报单归属的账户视图限额已满
      */
     public Order createOrder(OrderBuilder builder) throws AppException;
 
+    /**
+     * 提交一组报单(多腿), 全部通过本地检查后再连续发送.
+     * @throws AppException 任何一个报单本地检查失败时全部不发送; 发送失败时, 已发出的报单保留, 未发出的报单回退并标记为失败
+     */
+    public List<Order> createOrders(List<OrderBuilder> builders) throws AppException;
+
+    /**
+     * 撤单, 撤单优先于新报单发送, 撤单结果通过报单状态通知
+     * @return false 如果报单已经完成, 或者已经在撤单中
+     * @throws AppException 报单不存在, 或发送撤单失败
+     */
+    public boolean cancelOrder(String orderRef) throws AppException;
+
+    /**
+     * 撤销账户视图中某个品种的全部未完成报单, null代表不过滤
+     * @return 发出的撤单数量
+     */
+    public int cancelOrders(AccountView view, Exchangeable e) throws AppException;
+
 }
@@ -0,0 +1,15 @@
+package trader.service.trade;
+
+/**
+ * 账户风险度(保证金占用/动态权益)穿越阈值时的回调, 在账户事件线程中调用
+ */
+public interface AccountRiskListener {
+
+    /**
+     * @param threshold 注册的阈值
+     * @param riskRatio 当前风险度
+     * @param exceeded true 向上穿越阈值, false 回落到阈值以下
+     */
+    public void onRiskRatioCrossed(Account account, double threshold, double riskRatio, boolean exceeded);
+
+}
@@ -5,6 +5,7 @@ import com.google.gson.JsonObject;
 
 import trader.common.exchangeable.Exchangeable;
 import trader.common.util.JsonEnabled;
+import trader.service.md.MarketData;
 import trader.service.trade.TradeConstants.OrderDirection;
 import trader.service.trade.TradeConstants.OrderOffsetFlag;
 import trader.service.trade.TradeConstants.OrderPriceType;
@@ -22,6 +23,8 @@ public class OrderBuilder implements JsonEnabled {
     private int volume;
     private long limitPrice;
     private OrderVolumeCondition volumeCondition = OrderVolumeCondition.Any;
+    private long tickNanos;
+    private long decisionNanos;
 
     public OrderBuilder(AccountView view) {
         this.view = view;
@@ -94,6 +97,23 @@ public class OrderBuilder implements JsonEnabled {
         return volumeCondition;
     }
 
+    /**
+     * 设置触发报单的行情, 记录行情接收时间和策略决策时间(调用这个函数的时间), 用于报单延时跟踪
+     */
+    public OrderBuilder setTriggerTick(MarketData tick) {
+        this.tickNanos = tick.receiveNanos;
+        this.decisionNanos = System.nanoTime();
+        return this;
+    }
+
+    public long getTickNanos() {
+        return tickNanos;
+    }
+
+    public long getDecisionNanos() {
+        return decisionNanos;
+    }
+
     @Override
     public JsonElement toJson() {
         JsonObject json = new JsonObject();
@@ -3,7 +3,10 @@ package trader.service.trade;
 public interface TradeConstants {
 
 
-    public static enum TxnProvider{ctp, femas};
+    /**
+     * 交易通道: sim 为回测使用的模拟撮合
+     */
+    public static enum TxnProvider{ctp, femas, sim};
 
     public static enum OrderPriceType{
         /**
@@ -552,4 +555,46 @@ public interface TradeConstants {
      */
     public static final int OdrVolume_ShortUnfrozen = 5;
     public static final int OdrVolume_Count = OdrVolume_ShortUnfrozen+1;
+
+    /**
+     * 触发报单的行情接收时间
+     */
+    public static final int OdrTrace_TickReceived = 0;
+    /**
+     * 策略决定报单的时间
+     */
+    public static final int OdrTrace_TradletDecision = 1;
+    /**
+     * 进入 Account.createOrder() 的时间
+     */
+    public static final int OdrTrace_CreateOrder = 2;
+    /**
+     * 本地校验完成的时间
+     */
+    public static final int OdrTrace_Validated = 3;
+    /**
+     * 调用交易接口发送报单之前
+     */
+    public static final int OdrTrace_SendBegin = 4;
+    /**
+     * 调用交易接口发送报单之后
+     */
+    public static final int OdrTrace_SendEnd = 5;
+    /**
+     * 第一个报单回报到达的时间
+     */
+    public static final int OdrTrace_RtnOrder = 6;
+    /**
+     * 第一个报单回报在事件队列中处理完成的时间
+     */
+    public static final int OdrTrace_RtnOrderProcessed = 7;
+    /**
+     * 第一个成交回报到达的时间
+     */
+    public static final int OdrTrace_RtnTrade = 8;
+    /**
+     * 第一个成交回报在事件队列中处理完成的时间
+     */
+    public static final int OdrTrace_RtnTradeProcessed = 9;
+    public static final int OdrTrace_Count = OdrTrace_RtnTradeProcessed+1;
 }
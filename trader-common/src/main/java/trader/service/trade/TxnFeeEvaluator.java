@@ -28,6 +28,19 @@ public interface TxnFeeEvaluator extends JsonEnabled {
 
     public long[] compute(Transaction txn);
 
+    /**
+     * 计算保证金和手续费, 结果写入调用方提供的数组, 不分配内存.
+     *
+     * @param result 长度至少为3: 0 保证金, 1 手续费, 2 合约价值
+     * @return false 如果没有这个品种的费率
+     */
+    public boolean compute(Exchangeable e, int volume, long price, OrderDirection direction, OrderOffsetFlag offsetFlag, long[] result);
+
+    /**
+     * 计算保证金占用, 没有费率返回0
+     */
+    public long computeMargin(Exchangeable e, int volume, long price, OrderDirection direction);
+
     /**
      * 计算合约价值
      */
@@ -0,0 +1,72 @@
+package trader.common.exchangeable;
+
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import trader.common.util.FileUtil;
+
+public class TestExchangeableData {
+
+    private static final String MIN1_CSV = "\"BeginTime\",\"EndTime\"\n\"2018-10-10 09:00:00\",\"2018-10-10 09:01:00\"\n";
+
+    private File dataDir;
+
+    @Before
+    public void setup() throws Exception {
+        dataDir = Files.createTempDirectory("edata").toFile();
+    }
+
+    @After
+    public void cleanup() {
+        FileUtil.deleteDirectory(dataDir);
+    }
+
+    @Test
+    public void testConcurrentReadWrite() throws Exception
+    {
+        Exchangeable ru1901 = Exchangeable.fromString("shfe.ru1901");
+        LocalDate day1 = LocalDate.of(2018, 10, 10), day2 = LocalDate.of(2018, 10, 11);
+        ExchangeableData data = new ExchangeableData(dataDir, false);
+        data.save(ru1901, ExchangeableData.MIN1, day1, MIN1_CSV);
+        data.save(ru1901, ExchangeableData.MIN1, day2, MIN1_CSV);
+        //可写模式下loadAll不能重复获得文件锁
+        assertTrue(data.loadAll(ru1901, ExchangeableData.MIN1, day1, day2).size()==2);
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for(int i=0;i<4;i++) {
+                final boolean writer = (i==0);
+                futures.add(executor.submit(()->{
+                    for(int j=0;j<50;j++) {
+                        if ( writer ) {
+                            data.save(ru1901, ExchangeableData.MIN1, day2, MIN1_CSV);
+                        } else {
+                            //读者不加锁, 但是总能读到完整的文件
+                            assertTrue(data.load(ru1901, ExchangeableData.MIN1, day2).equals(MIN1_CSV));
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for(Future<?> f:futures) {
+                f.get();
+            }
+        }finally {
+            executor.shutdown();
+        }
+    }
+
+}
@@ -0,0 +1,65 @@
+package trader.common.exchangeable;
+
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.time.LocalDate;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import trader.common.exchangeable.ExchangeableDataCatalog.CatalogEntry;
+import trader.common.exchangeable.ExchangeableDataCatalog.InstrumentCatalog;
+import trader.common.util.FileUtil;
+
+public class TestExchangeableDataCatalog {
+
+    private static final String MIN1_CSV = "\"BeginTime\",\"EndTime\"\n\"2018-10-10 09:00:00\",\"2018-10-10 09:01:00\"\n\"2018-10-10 09:01:00\",\"2018-10-10 09:02:00\"\n";
+
+    private File dataDir;
+
+    @Before
+    public void setup() throws Exception {
+        dataDir = Files.createTempDirectory("catalog").toFile();
+    }
+
+    @After
+    public void cleanup() {
+        FileUtil.deleteDirectory(dataDir);
+    }
+
+    @Test
+    public void testSaveAndArchive() throws Exception
+    {
+        Exchangeable ru1901 = Exchangeable.fromString("shfe.ru1901");
+        LocalDate day1 = LocalDate.of(2018, 10, 10), day2 = LocalDate.of(2018, 10, 11), day3 = LocalDate.of(2018, 10, 12);
+        ExchangeableData data = new ExchangeableData(dataDir, false);
+        data.save(ru1901, ExchangeableData.MIN1, day1, MIN1_CSV);
+        assertTrue(data.getCatalog(ru1901)==null);
+
+        InstrumentCatalog catalog = data.rebuildCatalog(ru1901);
+        CatalogEntry entry = catalog.get("min1", day1);
+        assertTrue(entry!=null && entry.getRows()==2 && !entry.isArchived());
+
+        //保存时更新索引
+        data.save(ru1901, ExchangeableData.MIN1, day2, MIN1_CSV);
+        assertTrue(data.getCatalog(ru1901).get("min1", day2)!=null);
+        assertTrue(data.exists(ru1901, ExchangeableData.MIN1, day2));
+        assertTrue(!data.exists(ru1901, ExchangeableData.MIN1, day3));
+        assertTrue(data.loadAll(ru1901, ExchangeableData.MIN1, day1, day3).size()==2);
+
+        //归档后从zip读取
+        data.archive(new ExchangeableDataArchiveListener() {
+            public void onArchiveBegin(Exchangeable e, File edir) {}
+            public void onArchiveEnd(Exchangeable e, int archivedFileCount) {}
+            public void onArchiveBegin(File subDir) {}
+            public void onArchiveEnd(File subDir, int archivedFileCount) {}
+        });
+        entry = data.getCatalog(ru1901).get("min1", day2);
+        assertTrue(entry.isArchived() && entry.getContainer().equals("2018.min1.zip"));
+        assertTrue(data.load(ru1901, ExchangeableData.MIN1, day2).equals(MIN1_CSV));
+    }
+
+}
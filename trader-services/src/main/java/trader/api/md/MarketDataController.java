@@ -1,19 +1,31 @@
 package trader.api.md;
 
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
 import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
 
 import trader.api.ControllerConstants;
 import trader.common.exchangeable.Exchangeable;
+import trader.common.exchangeable.ExchangeableData.DataInfo;
+import trader.common.util.DateUtil;
+import trader.common.util.PriceUtil;
+import trader.common.util.StringUtil;
+import trader.common.util.TraderHomeUtil;
 import trader.service.md.MarketDataProducer;
 import trader.service.md.MarketDataService;
+import trader.service.repository.RepositoryCursor;
+import trader.service.repository.RepositoryQuery;
 
 @RestController
 public class MarketDataController {
@@ -57,4 +69,58 @@ public class MarketDataController {
         return ResponseEntity.ok(jsonArray.toString());
     }
 
+    /**
+     * 查询历史行情. begin/end 可以是交易日(yyyymmdd)或者市场时间, 时间范围为 [begin, end)
+     */
+    @RequestMapping(path=URL_PREFIX+"/history/{data}",
+            method=RequestMethod.GET,
+            produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<String> queryHistory(@PathVariable(value="data") String data,
+            @RequestParam(value="exchangeables") String exchangeables,
+            @RequestParam(value="begin") String begin,
+            @RequestParam(value="end") String end,
+            @RequestParam(value="minPrice", required=false) String minPrice,
+            @RequestParam(value="maxPrice", required=false) String maxPrice,
+            @RequestParam(value="limit", required=false, defaultValue="10000") int limit)
+    {
+        DataInfo dataInfo = DataInfo.parse(data);
+        LocalDateTime beginTime = DateUtil.str2localdatetime(begin), endTime = DateUtil.str2localdatetime(end);
+        LocalDate beginDay = beginTime==null?DateUtil.str2localdate(begin):null;
+        LocalDate endDay = endTime==null?DateUtil.str2localdate(end):null;
+        if ( dataInfo==null || (beginTime==null && beginDay==null) || (endTime==null && endDay==null) ) {
+            return ResponseEntity.badRequest().build();
+        }
+        RepositoryQuery query = new RepositoryQuery(TraderHomeUtil.getExchangeableData())
+                .setData(dataInfo)
+                .setTimeRange(beginTime, endTime)
+                .setTradingDays(beginDay, endDay)
+                .setPriceRange(
+                        StringUtil.isEmpty(minPrice)?Long.MIN_VALUE:PriceUtil.str2long(minPrice),
+                        StringUtil.isEmpty(maxPrice)?Long.MAX_VALUE:PriceUtil.str2long(maxPrice));
+        for(String e:StringUtil.split(exchangeables, ",")) {
+            query.addExchangeables(Exchangeable.fromString(e));
+        }
+        JsonArray array = new JsonArray();
+        try(RepositoryCursor cursor = query.open();){
+            while(array.size()<limit && cursor.next()) {
+                JsonObject json = new JsonObject();
+                json.addProperty("exchangeable", cursor.getExchangeable().toString());
+                json.addProperty("tradingDay", DateUtil.date2str(cursor.getTradingDay()));
+                json.addProperty("time", DateUtil.date2str(DateUtil.long2datetime(cursor.getExchangeable().exchange().getZoneId(), cursor.getTime())));
+                json.addProperty("timestamp", cursor.getTime());
+                json.addProperty("open", PriceUtil.long2str(cursor.getOpen()));
+                json.addProperty("max", PriceUtil.long2str(cursor.getHigh()));
+                json.addProperty("min", PriceUtil.long2str(cursor.getLow()));
+                json.addProperty("close", PriceUtil.long2str(cursor.getClose()));
+                json.addProperty("amount", PriceUtil.long2str(cursor.getTurnover()));
+                json.addProperty("volume", cursor.getVolume());
+                json.addProperty("openInt", cursor.getOpenInterest());
+                array.add(json);
+            }
+        }catch(Throwable t) {
+            return ResponseEntity.badRequest().body(t.toString());
+        }
+        return ResponseEntity.ok(array.toString());
+    }
+
 }
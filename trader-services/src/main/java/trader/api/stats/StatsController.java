@@ -21,6 +21,7 @@ import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RestController;
 
 import trader.api.ControllerConstants;
+import trader.service.lifecycle.StartupService;
 import trader.service.stats.StatsAggregator;
 import trader.service.stats.StatsCollector;
 import trader.service.stats.StatsItemAggregation;
@@ -41,6 +42,8 @@ public class StatsController {
 
     private StatsAggregator statsAggregator;
 
+    private StartupService startupService;
+
     /**
      * Connect collector to local aggregator
      */
@@ -53,6 +56,9 @@ public class StatsController {
         try {
             statsAggregator = appContext.getBean(StatsAggregator.class);
         }catch(Throwable t) {}
+        try {
+            startupService = appContext.getBean(StartupService.class);
+        }catch(Throwable t) {}
         if ( statsCollector!=null && statsAggregator!=null) {
             statsCollector.setEndpoint( (List<StatsItemPublishEvent> events)->{ statsAggregator.aggregate(events); });
         }
@@ -123,6 +129,20 @@ public class StatsController {
     }
 
 
+    /**
+     * 启动过程的分阶段时间线
+     */
+    @RequestMapping(path=URI_PREFIX+"/startup",
+            method=RequestMethod.GET,
+            produces = MediaType.APPLICATION_JSON_UTF8_VALUE)
+    public ResponseEntity<String> getStartupTimeline()
+    {
+        if( startupService==null ) {
+            return ResponseEntity.badRequest().build();
+        }
+        return ResponseEntity.ok().body(startupService.getTimeline().toJson().toString());
+    }
+
     @RequestMapping(path=URI_PREFIX+"/getLast",
             method=RequestMethod.GET,
             produces = MediaType.APPLICATION_JSON_UTF8_VALUE)
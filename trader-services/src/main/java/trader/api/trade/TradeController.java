@@ -12,6 +12,7 @@ import com.google.gson.JsonArray;
 
 import trader.api.ControllerConstants;
 import trader.service.trade.Account;
+import trader.service.trade.AccountImpl;
 import trader.service.trade.TradeService;
 
 @RestController
@@ -45,4 +46,19 @@ public class TradeController {
         return ResponseEntity.ok(account.toJson().toString());
     }
 
+    /**
+     * 报单各环节的延时统计
+     */
+    @RequestMapping(path=URL_PREFIX+"/account/{accountId}/latency",
+            method=RequestMethod.GET,
+            produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<String> getAccountLatency(@PathVariable(value="accountId") String accountId){
+
+        Account account=tradeService.getAccount(accountId);
+        if ( null==account || !(account instanceof AccountImpl) ) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(((AccountImpl)account).getOrderLatencyStats().toJson().toString());
+    }
+
 }
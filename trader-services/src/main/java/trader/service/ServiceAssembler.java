@@ -1,20 +1,44 @@
 package trader.service;
 
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
 import javax.annotation.PostConstruct;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import trader.common.beans.BeansContainer;
+import trader.common.config.ConfigUtil;
+import trader.common.util.ConversionUtil;
+import trader.common.util.DateUtil;
+import trader.common.util.StringUtil;
+import trader.service.lifecycle.StartupService;
 import trader.service.md.MarketDataService;
 import trader.service.ta.TAService;
 import trader.service.trade.TradeService;
+import trader.simulator.SimWarmupRunner;
 
 /**
  * 交易的服务实现类的组装代码
+ * <BR>启动顺序: 行情服务(确定订阅合约) -> 技术分析服务和交易服务并发初始化 -> 预热, 每个阶段记录在启动时间线中
  */
 @Service
 public class ServiceAssembler {
+    private final static Logger logger = LoggerFactory.getLogger(ServiceAssembler.class);
+
+    /**
+     * 预热时间预算(秒), 0 关闭预热
+     */
+    public static final String ITEM_WARMUP_SECONDS = "/WarmupService/seconds";
+    /**
+     * 预热使用的已记录行情交易日, 缺省为最近的交易日
+     */
+    public static final String ITEM_WARMUP_TRADINGDAY = "/WarmupService/tradingDay";
 
     @Autowired
     private BeansContainer beansContainer;
@@ -28,12 +52,60 @@ public class ServiceAssembler {
     @Autowired
     private TAService taService;
 
+    @Autowired
+    private StartupService startupService;
+
     @PostConstruct
     public void init() throws Exception
     {
-        marketDataService.init(beansContainer);
-        taService.init(beansContainer);
-        tradeService.init(beansContainer);
+        startupService.runPhase("marketData", ()->{
+            marketDataService.init(beansContainer);
+            return null;
+        });
+        //技术分析服务依赖行情服务的订阅合约, 交易服务只依赖配置, 两者互相独立
+        Future<?> taFuture = startupService.runPhaseAsync("ta", ()->{
+            taService.init(beansContainer);
+            return null;
+        });
+        startupService.runPhase("trade", ()->{
+            tradeService.init(beansContainer);
+            return null;
+        });
+        try {
+            taFuture.get();
+        }catch(ExecutionException e) {
+            Throwable cause = e.getCause();
+            if ( cause instanceof Exception ) {
+                throw (Exception)cause;
+            }
+            throw e;
+        }
+        startupService.runPhase("warmup", ()->{
+            warmup();
+            return null;
+        });
+    }
+
+    /**
+     * 在Ready之前用影子服务实例预热行情/技术分析/交易处理链
+     */
+    private void warmup() {
+        String secondsStr = StringUtil.trim(ConfigUtil.getString(ITEM_WARMUP_SECONDS));
+        int seconds = StringUtil.isEmpty(secondsStr)?30:ConversionUtil.toInt(secondsStr);
+        if ( seconds<=0 ) {
+            return;
+        }
+        SimWarmupRunner runner = new SimWarmupRunner(new ArrayList<>(marketDataService.getSubscriptions())).setSeconds(seconds);
+        String tradingDayStr = StringUtil.trim(ConfigUtil.getString(ITEM_WARMUP_TRADINGDAY));
+        if ( !StringUtil.isEmpty(tradingDayStr) ) {
+            LocalDate tradingDay = DateUtil.str2localdate(tradingDayStr);
+            runner.setTradingDay(tradingDay);
+        }
+        try {
+            runner.run();
+        }catch(Throwable t) {
+            logger.error("Warmup failed", t);
+        }
     }
 
 }
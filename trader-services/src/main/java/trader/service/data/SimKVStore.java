@@ -0,0 +1,63 @@
+package trader.service.data;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 内存KVStore, 回测和影子账户使用, 回测结束后内容作为策略输出的统计数据
+ */
+public class SimKVStore implements KVStore {
+
+    private TreeMap<String, byte[]> values = new TreeMap<>();
+
+    @Override
+    public byte[] get(String key) {
+        return values.get(key);
+    }
+
+    @Override
+    public String getAsString(String key) {
+        byte[] data = values.get(key);
+        if ( data==null ) {
+            return null;
+        }
+        return new String(data, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void put(String key, byte[] data) {
+        values.put(key, data);
+    }
+
+    @Override
+    public void put(String key, String value) {
+        values.put(key, value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public KVStoreIterator iterator() {
+        Iterator<Map.Entry<String, byte[]>> it = values.entrySet().iterator();
+        return new KVStoreIterator() {
+            private Map.Entry<String, byte[]> entry;
+
+            @Override
+            public boolean hasNext() {
+                return it.hasNext();
+            }
+
+            @Override
+            public String next() {
+                entry = it.next();
+                return entry.getKey();
+            }
+
+            @Override
+            public byte[] getValue() {
+                return entry.getValue();
+            }
+        };
+    }
+
+}
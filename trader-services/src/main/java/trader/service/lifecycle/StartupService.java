@@ -1,5 +1,13 @@
 package trader.service.lifecycle;
 
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
 import javax.annotation.PostConstruct;
 
 import org.slf4j.Logger;
@@ -9,32 +17,129 @@ import org.springframework.boot.context.event.ApplicationReadyEvent;
 import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Service;
 
-import trader.service.md.MarketDataService;
-import trader.service.trade.TradeService;
+import trader.common.beans.BeansContainer;
+import trader.service.lifecycle.StartupTimeline.Phase;
+import trader.service.stats.StatsCollector;
+import trader.service.stats.StatsItem;
+import trader.service.stats.StatsItemType;
 
 /**
- * 启动过程启动
+ * 启动过程编排: 记录各个阶段的时间线, 并发执行互相独立的初始化, 非关键任务推迟到Ready之后执行.
+ * <BR>每个阶段的耗时作为统计项 StartupService.&lt;阶段&gt;Millis 发布, 完整时间线通过 /api/stats/startup 查询.
  */
 @Service
 public class StartupService {
     private final static Logger logger = LoggerFactory.getLogger(StartupService.class);
 
+    public static final String SERVICE_ID = "StartupService";
+    public static final String PHASE_READY = "ready";
+    public static final String PHASE_DEFERRED_PREFIX = "deferred.";
+
     @Autowired
-    private MarketDataService marketDataService;
+    private BeansContainer beansContainer;
 
     @Autowired
-    private TradeService tradeService;
+    private ExecutorService executorService;
+
+    private StatsCollector statsCollector;
+
+    private StartupTimeline timeline = new StartupTimeline();
+
+    private Map<String, Runnable> deferredTasks = new LinkedHashMap<>();
+
+    private boolean ready;
 
     @PostConstruct
     public void init() {
+        statsCollector = beansContainer.getBean(StatsCollector.class);
+    }
+
+    public StartupTimeline getTimeline() {
+        return timeline;
+    }
 
+    public boolean isReady() {
+        return ready;
     }
 
     /**
-     * 初始化
+     * 在当前线程执行一个启动阶段
      */
+    public <T> T runPhase(String name, Callable<T> task) throws Exception {
+        try {
+            return timeline.run(name, task);
+        }finally {
+            registerPhaseStats(timeline.getPhase(name));
+        }
+    }
+
+    /**
+     * 在线程池中执行一个启动阶段, 用于和其它阶段并发执行
+     */
+    public <T> Future<T> runPhaseAsync(String name, Callable<T> task) {
+        return executorService.submit(()->{
+            return runPhase(name, task);
+        });
+    }
+
+    /**
+     * 推迟到Ready之后在线程池中执行, 已经Ready时立即执行
+     */
+    public void deferUntilReady(String name, Runnable task) {
+        synchronized(deferredTasks) {
+            if ( !ready ) {
+                deferredTasks.put(name, task);
+                return;
+            }
+        }
+        executeDeferred(name, task);
+    }
+
     @EventListener(ApplicationReadyEvent.class)
     public void onApplicationReady(){
+        Phase readyPhase = timeline.begin(PHASE_READY);
+        timeline.end(readyPhase, null);
+        registerPhaseStats(readyPhase);
+        List<Map.Entry<String, Runnable>> tasks;
+        synchronized(deferredTasks) {
+            ready = true;
+            tasks = new ArrayList<>(deferredTasks.entrySet());
+            deferredTasks.clear();
+        }
+        logger.info("Ready in "+readyPhase.getBeginMillis()+" ms since JVM start, timeline: "+timeline.toJson());
+        for(Map.Entry<String, Runnable> entry:tasks) {
+            executeDeferred(entry.getKey(), entry.getValue());
+        }
+    }
+
+    private void executeDeferred(String name, Runnable task) {
+        runPhaseAsync(PHASE_DEFERRED_PREFIX+name, ()->{
+            try {
+                task.run();
+            }catch(Throwable t) {
+                logger.error("Deferred startup task "+name+" failed", t);
+                throw t;
+            }
+            return null;
+        });
+    }
+
+    private void registerPhaseStats(Phase phase) {
+        if ( statsCollector==null || phase==null ) {
+            return;
+        }
+        StatsItem item = new StatsItem(SERVICE_ID, phase.getName()+"Millis");
+        item.setType(StatsItemType.Instant);
+        //ready 阶段记录从JVM启动开始的时间
+        if ( PHASE_READY.equals(phase.getName()) ) {
+            statsCollector.registerStatsItem(item, (StatsItem itemInfo)->{
+                return phase.getBeginMillis();
+            });
+        } else {
+            statsCollector.registerStatsItem(item, (StatsItem itemInfo)->{
+                return phase.getDurationMillis();
+            });
+        }
     }
 
 }
@@ -0,0 +1,161 @@
+package trader.service.lifecycle;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import trader.common.util.JsonEnabled;
+
+/**
+ * 启动过程的分阶段时间线, 时间从JVM启动开始计算.
+ * <BR>阶段可以在多个线程中并发执行, 每个阶段记录开始时间, 耗时和执行线程.
+ */
+public class StartupTimeline implements JsonEnabled {
+
+    public static class Phase implements JsonEnabled {
+        private String name;
+        private String thread;
+        private long beginMillis;
+        private volatile long durationMillis = -1;
+        private volatile String error;
+
+        Phase(String name, long beginMillis){
+            this.name = name;
+            this.beginMillis = beginMillis;
+            this.thread = Thread.currentThread().getName();
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getThread() {
+            return thread;
+        }
+
+        /**
+         * 开始时间, 相对JVM启动时间
+         */
+        public long getBeginMillis() {
+            return beginMillis;
+        }
+
+        /**
+         * 耗时, 没有结束返回-1
+         */
+        public long getDurationMillis() {
+            return durationMillis;
+        }
+
+        public boolean isDone() {
+            return durationMillis>=0;
+        }
+
+        public String getError() {
+            return error;
+        }
+
+        @Override
+        public JsonElement toJson() {
+            JsonObject json = new JsonObject();
+            json.addProperty("name", name);
+            json.addProperty("thread", thread);
+            json.addProperty("beginMillis", beginMillis);
+            json.addProperty("durationMillis", durationMillis);
+            if ( error!=null ) {
+                json.addProperty("error", error);
+            }
+            return json;
+        }
+    }
+
+    private long startTime;
+    private List<Phase> phases = new ArrayList<>();
+
+    public StartupTimeline() {
+        this(ManagementFactory.getRuntimeMXBean().getStartTime());
+    }
+
+    public StartupTimeline(long startTime) {
+        this.startTime = startTime;
+    }
+
+    public long getStartTime() {
+        return startTime;
+    }
+
+    /**
+     * 开始一个阶段
+     */
+    public Phase begin(String name) {
+        Phase phase = new Phase(name, System.currentTimeMillis()-startTime);
+        synchronized(phases) {
+            phases.add(phase);
+        }
+        return phase;
+    }
+
+    /**
+     * 结束一个阶段
+     */
+    public void end(Phase phase, Throwable error) {
+        if ( error!=null ) {
+            phase.error = error.toString();
+        }
+        phase.durationMillis = Math.max(0, System.currentTimeMillis()-startTime-phase.beginMillis);
+    }
+
+    /**
+     * 在当前线程中执行一个阶段, 异常原样抛出
+     */
+    public <T> T run(String name, Callable<T> task) throws Exception {
+        Phase phase = begin(name);
+        Throwable error = null;
+        try {
+            return task.call();
+        }catch(Throwable t) {
+            error = t;
+            throw t;
+        }finally {
+            end(phase, error);
+        }
+    }
+
+    public Phase getPhase(String name) {
+        synchronized(phases) {
+            for(Phase phase:phases) {
+                if ( phase.name.equals(name) ) {
+                    return phase;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 按开始时间排序的全部阶段
+     */
+    public List<Phase> getPhases() {
+        synchronized(phases) {
+            return new ArrayList<>(phases);
+        }
+    }
+
+    @Override
+    public JsonElement toJson() {
+        JsonObject json = new JsonObject();
+        json.addProperty("startTime", startTime);
+        JsonArray array = new JsonArray();
+        for(Phase phase:getPhases()) {
+            array.add(phase.toJson());
+        }
+        json.add("phases", array);
+        return json;
+    }
+
+}
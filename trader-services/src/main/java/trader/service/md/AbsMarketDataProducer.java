@@ -125,6 +125,7 @@ public abstract class AbsMarketDataProducer<T> implements AutoCloseable, MarketD
     }
 
     protected void notifyData(MarketData md) {
+        md.receiveNanos = System.nanoTime();
         tickCount++;
         service.onProducerData(md);
     }
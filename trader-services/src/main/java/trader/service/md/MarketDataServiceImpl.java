@@ -34,6 +34,7 @@ import trader.common.util.StringUtil;
 import trader.service.ServiceConstants.ConnState;
 import trader.service.md.MarketDataProducer.Type;
 import trader.service.md.ctp.CtpMarketDataProducer;
+import trader.service.md.synthetic.SyntheticMarketDataProducer;
 
 /**
  * 行情数据的接收和聚合
@@ -229,7 +230,10 @@ public class MarketDataServiceImpl implements MarketDataService {
     }
 
     void onProducerData(MarketData md) {
-        dataSaver.onMarketData(md);
+        //回放时不初始化, 不保存行情
+        if ( dataSaver!=null ) {
+            dataSaver.onMarketData(md);
+        }
 
         MarketDataListenerHolder holder= listenerHolders.get(md.instrumentId);
         if ( null!=holder && holder.checkTimestamp(md.updateTimestamp) ) {
@@ -414,6 +418,9 @@ public class MarketDataServiceImpl implements MarketDataService {
             case ctp:
                 result = new CtpMarketDataProducer(this, producerConfig);
                 break;
+            case synthetic:
+                result = new SyntheticMarketDataProducer(this, producerConfig);
+                break;
             default:
             }
         }
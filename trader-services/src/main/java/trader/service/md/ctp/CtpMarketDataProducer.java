@@ -233,6 +233,9 @@ public class CtpMarketDataProducer extends AbsMarketDataProducer<CThostFtdcDepth
         if ( timeInt>=80000 && timeInt<=185000 ) {
             //日市--tradingDay==actionDay
             result = actionDay;
+            if ( result==null ) {
+                result = DateUtil.str2localdate(rawMarketData.TradingDay);
+            }
             if ( result==null ) {
                 result = LocalDate.now();
             }
@@ -0,0 +1,175 @@
+package trader.service.md.synthetic;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import net.jctp.CThostFtdcDepthMarketDataField;
+import trader.common.exchangeable.Exchangeable;
+import trader.common.exchangeable.ExchangeableType;
+import trader.common.util.ConversionUtil;
+import trader.common.util.DateUtil;
+import trader.service.ServiceConstants.ConnState;
+import trader.service.md.AbsMarketDataProducer;
+import trader.service.md.MarketData;
+import trader.service.md.MarketDataServiceImpl;
+import trader.service.md.ctp.CtpMarketData;
+
+/**
+ * 合成行情数据源, 用 SyntheticTickGenerator 为订阅的合约生成CTP行情, 用于没有CTP前置时的压力测试.
+ * <BR>连接参数:
+ * <LI>rate: 所有合约合计每秒TICK数, 缺省为CTP实际频率(每合约每秒2个), 0 不限速
+ * <LI>seed: 随机数种子
+ * <LI>stepMillis: 每轮行情时间前进的毫秒数
+ * <BR>处理跟不上时不丢弃行情, 积压的TICK数记录在 maxBacklog
+ */
+public class SyntheticMarketDataProducer extends AbsMarketDataProducer<CThostFtdcDepthMarketDataField> {
+    private final static Logger logger = LoggerFactory.getLogger(SyntheticMarketDataProducer.class);
+
+    private Queue<Exchangeable> pendingSubscriptions = new ConcurrentLinkedQueue<>();
+    private volatile Thread thread;
+    private volatile long maxBacklog;
+    private Map<String, Exchangeable> exchangeableMap = new HashMap<>();
+
+    public SyntheticMarketDataProducer(MarketDataServiceImpl service, Map<String, Object> producerElemMap) {
+        super(service, producerElemMap);
+        subscriptions = new ArrayList<>();
+    }
+
+    @Override
+    public Type getType() {
+        return Type.synthetic;
+    }
+
+    public long getMaxBacklog() {
+        return maxBacklog;
+    }
+
+    @Override
+    public JsonElement toJson() {
+        JsonObject json = (JsonObject)super.toJson();
+        json.addProperty("maxBacklog", maxBacklog);
+        return json;
+    }
+
+    @Override
+    public boolean canSubscribe(Exchangeable e) {
+        return e.getType()==ExchangeableType.FUTURE;
+    }
+
+    @Override
+    public MarketData createMarketData(CThostFtdcDepthMarketDataField rawMarketData, LocalDate actionDay) {
+        Exchangeable exchangeable = exchangeableMap.get(rawMarketData.InstrumentID);
+        if ( exchangeable==null ) {
+            exchangeable = Exchangeable.fromString(rawMarketData.ExchangeID, rawMarketData.InstrumentID);
+            exchangeableMap.put(rawMarketData.InstrumentID, exchangeable);
+        }
+        if ( actionDay==null ) {
+            actionDay = DateUtil.str2localdate(rawMarketData.ActionDay);
+        }
+        return new CtpMarketData(getId(), exchangeable, rawMarketData, actionDay);
+    }
+
+    @Override
+    public synchronized void connect() {
+        if ( thread!=null ) {
+            return;
+        }
+        changeStatus(ConnState.Connecting);
+        long seed = ConversionUtil.toLong(getProperty("seed", "0"));
+        int stepMillis = ConversionUtil.toInt(getProperty("stepMillis", ""+SyntheticTickGenerator.DEFAULT_STEP_MILLIS));
+        String rateText = getProperty("rate", null);
+        SyntheticTickGenerator generator = new SyntheticTickGenerator(LocalDate.now(), seed).setStepMillis(stepMillis);
+        thread = new Thread(()->{
+            generate(generator, rateText==null?-1:ConversionUtil.toLong(rateText));
+        }, "md-synthetic-"+getId());
+        thread.setDaemon(true);
+        connectCount++;
+        changeStatus(ConnState.Connected);
+        thread.start();
+    }
+
+    @Override
+    public synchronized void subscribe(Collection<Exchangeable> exchangeables) {
+        for(Exchangeable e:exchangeables) {
+            if ( canSubscribe(e) && !subscriptions.contains(e.id()) ) {
+                subscriptions.add(e.id());
+                pendingSubscriptions.add(e);
+            }
+        }
+        logger.info(getId()+" subscribe: "+exchangeables);
+    }
+
+    @Override
+    protected synchronized void close0() {
+        changeStatus(ConnState.Disconnected);
+        if ( thread!=null ) {
+            LockSupport.unpark(thread);
+            thread = null;
+        }
+    }
+
+    private String getProperty(String key, String defaultValue) {
+        if ( connectionProps==null ) {
+            return defaultValue;
+        }
+        return connectionProps.getProperty(key, defaultValue);
+    }
+
+    /**
+     * 按照指定速率生成行情, rate<0 按CTP实际频率, rate==0 不限速
+     */
+    private void generate(SyntheticTickGenerator generator, long rate) {
+        long beginNanos = System.nanoTime(), sent = 0;
+        while(state==ConnState.Connected && thread==Thread.currentThread()) {
+            boolean subscriptionChanged = false;
+            Exchangeable e = null;
+            while( (e=pendingSubscriptions.poll())!=null ) {
+                generator.addInstrument(e, 0, 0, 0);
+                subscriptionChanged = true;
+            }
+            int instrumentCount = generator.getInstrumentCount();
+            if ( instrumentCount==0 ) {
+                LockSupport.parkNanos(10*1000*1000);
+                continue;
+            }
+            long ticksPerSecond = rate;
+            if ( rate<0 ) {
+                ticksPerSecond = instrumentCount*1000L/generator.getStepMillis();
+            }
+            if ( subscriptionChanged ) {
+                beginNanos = System.nanoTime();
+                sent = 0;
+            }
+            if ( ticksPerSecond>0 ) {
+                long due = (System.nanoTime()-beginNanos)*ticksPerSecond/1000000000L;
+                if ( sent>=due ) {
+                    LockSupport.parkNanos(Math.min(1000000L, 1000000000L/ticksPerSecond));
+                    continue;
+                }
+                long backlog = due-sent;
+                if ( backlog>maxBacklog ) {
+                    maxBacklog = backlog;
+                }
+            }
+            try {
+                notifyData(createMarketData(generator.next(), null));
+            }catch(Throwable t) {
+                logger.error(getId()+" notify synthetic market data failed", t);
+            }
+            sent++;
+        }
+    }
+
+}
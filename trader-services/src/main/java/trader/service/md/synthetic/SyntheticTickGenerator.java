@@ -0,0 +1,324 @@
+package trader.service.md.synthetic;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.SplittableRandom;
+
+import net.jctp.CThostFtdcDepthMarketDataField;
+import trader.common.exchangeable.Exchange;
+import trader.common.exchangeable.Exchangeable;
+import trader.common.util.DateUtil;
+import trader.common.util.PriceUtil;
+import trader.service.md.MarketData;
+import trader.service.md.ctp.CtpMarketData;
+import trader.service.trade.TxnFeeEvaluator;
+
+/**
+ * 合成CTP行情生成器, 不需要连接CTP前置就可以产生统计上接近真实的TICK:
+ * <LI>最新价按最小变动价位随机游走, 偏离昨收越远越容易回归, 不超过涨跌停
+ * <LI>5档买卖盘, 价位连续, 挂单量随机
+ * <LI>成交量/成交金额/持仓量逐笔累计, 更新开高低和均价
+ * <BR>多个合约轮流生成, 每轮所有合约的行情时间前进 stepMillis 毫秒, 不区分交易时段.
+ * <BR>非线程安全, 相同seed和合约产生相同的序列
+ */
+public class SyntheticTickGenerator {
+
+    /**
+     * 买卖盘档位
+     */
+    public static final int DEPTH = 5;
+
+    /**
+     * CTP每个合约每500毫秒推送一次快照
+     */
+    public static final int DEFAULT_STEP_MILLIS = 500;
+
+    private static final String[] DEFAULT_COMMODITIES = {"ru", "cu", "al", "zn", "rb", "au", "ag", "hc", "bu", "ni"};
+    private static final int DEFAULT_VOLUME_MULTIPLE = 10;
+    private static final long DEFAULT_PRICE_TICK = PriceUtil.price2long(1);
+    private static final long DAY_MILLIS = 24*3600*1000L;
+
+    private static class InstrumentState {
+        Exchangeable exchangeable;
+        String exchangeId;
+        String instrumentId;
+        long priceTick;
+        int volumeMultiple;
+        long preClosePrice;
+        long upperLimitPrice;
+        long lowerLimitPrice;
+        long lastPrice;
+        long openPrice;
+        long highestPrice;
+        long lowestPrice;
+        int volume;
+        double turnover;
+        long openInterest;
+        long preOpenInterest;
+    }
+
+    private LocalDate tradingDay;
+    private String tradingDayStr;
+    private SplittableRandom random;
+    private List<InstrumentState> instruments = new ArrayList<>();
+    private int stepMillis = DEFAULT_STEP_MILLIS;
+    private int nextIndex;
+    private long timeMillis;
+    private String actionDayStr;
+    private String updateTimeStr;
+    private int updateMillisec;
+    private long generatedCount;
+
+    public SyntheticTickGenerator(LocalDate tradingDay, long seed) {
+        this.tradingDay = tradingDay;
+        this.tradingDayStr = DateUtil.date2str(tradingDay);
+        this.random = new SplittableRandom(seed);
+        setTime(9*3600*1000L);
+    }
+
+    /**
+     * 每轮行情时间前进的毫秒数, 缺省500毫秒
+     */
+    public SyntheticTickGenerator setStepMillis(int stepMillis) {
+        this.stepMillis = Math.max(1, stepMillis);
+        return this;
+    }
+
+    public LocalDate getTradingDay() {
+        return tradingDay;
+    }
+
+    public int getStepMillis() {
+        return stepMillis;
+    }
+
+    public int getInstrumentCount() {
+        return instruments.size();
+    }
+
+    public long getGeneratedCount() {
+        return generatedCount;
+    }
+
+    public List<Exchangeable> getInstruments(){
+        List<Exchangeable> result = new ArrayList<>(instruments.size());
+        for(InstrumentState s:instruments) {
+            result.add(s.exchangeable);
+        }
+        return result;
+    }
+
+    /**
+     * 增加合约, 价格为 PriceUtil 的long格式
+     *
+     * @param priceTick 最小变动价位, 0 使用缺省值
+     * @param preClosePrice 昨收, 0 随机生成
+     */
+    public SyntheticTickGenerator addInstrument(Exchangeable e, long priceTick, int volumeMultiple, long preClosePrice) {
+        if ( priceTick<=0 ) {
+            priceTick = DEFAULT_PRICE_TICK;
+        }
+        if ( volumeMultiple<=0 ) {
+            volumeMultiple = DEFAULT_VOLUME_MULTIPLE;
+        }
+        if ( preClosePrice<=0 ) {
+            preClosePrice = priceTick*(2000+random.nextInt(8000));
+        }
+        preClosePrice = preClosePrice/priceTick*priceTick;
+        InstrumentState s = new InstrumentState();
+        s.exchangeable = e;
+        s.exchangeId = e.exchange().name();
+        s.instrumentId = e.id();
+        s.priceTick = priceTick;
+        s.volumeMultiple = volumeMultiple;
+        s.preClosePrice = preClosePrice;
+        //涨跌停: 昨收上下5%
+        long limit = preClosePrice/20/priceTick*priceTick;
+        s.upperLimitPrice = preClosePrice+limit;
+        s.lowerLimitPrice = preClosePrice-limit;
+        s.lastPrice = preClosePrice;
+        s.openPrice = preClosePrice;
+        s.highestPrice = preClosePrice;
+        s.lowestPrice = preClosePrice;
+        s.preOpenInterest = 10000+random.nextInt(200000);
+        s.openInterest = s.preOpenInterest;
+        instruments.add(s);
+        return this;
+    }
+
+    /**
+     * 增加合约, 最小变动价位从费率计算获得, 没有费率的合约使用缺省值
+     */
+    public SyntheticTickGenerator addInstruments(Collection<Exchangeable> exchangeables, TxnFeeEvaluator feeEvaluator) {
+        for(Exchangeable e:exchangeables) {
+            long priceTick = 0;
+            if ( feeEvaluator!=null ) {
+                priceTick = feeEvaluator.getPriceTick(e);
+            }
+            addInstrument(e, priceTick, 0, 0);
+        }
+        return this;
+    }
+
+    /**
+     * 生成N个上期所合约: ru1901, ru1902 ... cu1901 ...
+     */
+    public static List<Exchangeable> defaultInstruments(int count){
+        List<Exchangeable> result = new ArrayList<>(count);
+        for(int year=19; result.size()<count; year++) {
+            for(int i=0;i<DEFAULT_COMMODITIES.length && result.size()<count;i++) {
+                for(int month=1; month<=12 && result.size()<count; month++) {
+                    result.add(Exchangeable.create(Exchange.SHFE, DEFAULT_COMMODITIES[i]+year+(month<10?"0":"")+month));
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 生成下一个合约的CTP行情, 每次返回新的对象
+     */
+    public CThostFtdcDepthMarketDataField next() {
+        if ( instruments.isEmpty() ) {
+            throw new IllegalStateException("No instrument to generate");
+        }
+        if ( nextIndex>=instruments.size() ) {
+            nextIndex = 0;
+            setTime(timeMillis+stepMillis);
+        }
+        InstrumentState s = instruments.get(nextIndex++);
+        step(s);
+        generatedCount++;
+        return toField(s);
+    }
+
+    /**
+     * 生成下一个合约的行情并转换为 CtpMarketData
+     */
+    public MarketData nextMarketData(String producerId) {
+        CThostFtdcDepthMarketDataField field = next();
+        InstrumentState s = instruments.get(nextIndex-1);
+        return new CtpMarketData(producerId, s.exchangeable, field, DateUtil.str2localdate(field.ActionDay));
+    }
+
+    private void setTime(long millis) {
+        timeMillis = millis;
+        actionDayStr = DateUtil.date2str(tradingDay.plusDays(millis/DAY_MILLIS));
+        int secondOfDay = (int)((millis%DAY_MILLIS)/1000);
+        char[] buf = new char[8];
+        put2(buf, 0, secondOfDay/3600);
+        buf[2] = ':';
+        put2(buf, 3, (secondOfDay/60)%60);
+        buf[5] = ':';
+        put2(buf, 6, secondOfDay%60);
+        updateTimeStr = new String(buf);
+        updateMillisec = (int)(millis%1000);
+    }
+
+    private static void put2(char[] buf, int offset, int v) {
+        buf[offset] = (char)('0'+v/10);
+        buf[offset+1] = (char)('0'+v%10);
+    }
+
+    /**
+     * 价格随机游走一步并累计成交
+     */
+    private void step(InstrumentState s) {
+        int r = random.nextInt(100);
+        int move = 0;
+        if ( r<15 ) {
+            move = -1;
+        } else if ( r<30 ) {
+            move = 1;
+        } else if ( r<32 ) {
+            move = -2;
+        } else if ( r<34 ) {
+            move = 2;
+        }
+        long deviation = (s.lastPrice-s.preClosePrice)/s.priceTick;
+        if ( move*deviation>0 && random.nextInt(400)<Math.abs(deviation) ) {
+            move = -move;
+        }
+        s.lastPrice = Math.max(s.lowerLimitPrice, Math.min(s.upperLimitPrice, s.lastPrice+move*s.priceTick));
+        if ( s.lastPrice>s.highestPrice ) {
+            s.highestPrice = s.lastPrice;
+        }
+        if ( s.lastPrice<s.lowestPrice ) {
+            s.lowestPrice = s.lastPrice;
+        }
+        //成交量近似指数分布, 20%的快照没有成交
+        if ( random.nextInt(100)<80 ) {
+            int vol = 1+(int)(-10*Math.log(1-random.nextDouble()));
+            s.volume += vol;
+            s.turnover += vol*PriceUtil.long2price(s.lastPrice)*s.volumeMultiple;
+            s.openInterest = Math.max(0, s.openInterest+random.nextInt(vol+1)-vol/2);
+        }
+    }
+
+    private CThostFtdcDepthMarketDataField toField(InstrumentState s) {
+        CThostFtdcDepthMarketDataField f = new CThostFtdcDepthMarketDataField();
+        f.TradingDay = tradingDayStr;
+        f.ActionDay = actionDayStr;
+        f.InstrumentID = s.instrumentId;
+        f.ExchangeID = s.exchangeId;
+        f.UpdateTime = updateTimeStr;
+        f.UpdateMillisec = updateMillisec;
+        f.LastPrice = PriceUtil.long2price(s.lastPrice);
+        f.PreSettlementPrice = PriceUtil.long2price(s.preClosePrice);
+        f.PreClosePrice = f.PreSettlementPrice;
+        f.PreOpenInterest = s.preOpenInterest;
+        f.OpenPrice = PriceUtil.long2price(s.openPrice);
+        f.HighestPrice = PriceUtil.long2price(s.highestPrice);
+        f.LowestPrice = PriceUtil.long2price(s.lowestPrice);
+        f.Volume = s.volume;
+        f.Turnover = s.turnover;
+        f.OpenInterest = s.openInterest;
+        f.ClosePrice = Double.MAX_VALUE;
+        f.SettlementPrice = Double.MAX_VALUE;
+        f.UpperLimitPrice = PriceUtil.long2price(s.upperLimitPrice);
+        f.LowerLimitPrice = PriceUtil.long2price(s.lowerLimitPrice);
+        f.PreDelta = Double.MAX_VALUE;
+        f.CurrDelta = Double.MAX_VALUE;
+        if ( s.volume>0 ) {
+            f.AveragePrice = s.turnover/s.volume;
+        }
+        //买一为最新价或低一个价位, 买卖价差一个价位
+        long bid1 = s.lastPrice;
+        if ( bid1>s.lowerLimitPrice && random.nextBoolean() ) {
+            bid1 -= s.priceTick;
+        }
+        long ask1 = bid1+s.priceTick;
+        long tick = s.priceTick;
+        f.BidPrice1 = PriceUtil.long2price(bid1);
+        f.BidPrice2 = PriceUtil.long2price(bid1-tick);
+        f.BidPrice3 = PriceUtil.long2price(bid1-2*tick);
+        f.BidPrice4 = PriceUtil.long2price(bid1-3*tick);
+        f.BidPrice5 = PriceUtil.long2price(bid1-4*tick);
+        f.AskPrice1 = PriceUtil.long2price(ask1);
+        f.AskPrice2 = PriceUtil.long2price(ask1+tick);
+        f.AskPrice3 = PriceUtil.long2price(ask1+2*tick);
+        f.AskPrice4 = PriceUtil.long2price(ask1+3*tick);
+        f.AskPrice5 = PriceUtil.long2price(ask1+4*tick);
+        f.BidVolume1 = depthVolume(0);
+        f.BidVolume2 = depthVolume(1);
+        f.BidVolume3 = depthVolume(2);
+        f.BidVolume4 = depthVolume(3);
+        f.BidVolume5 = depthVolume(4);
+        f.AskVolume1 = depthVolume(0);
+        f.AskVolume2 = depthVolume(1);
+        f.AskVolume3 = depthVolume(2);
+        f.AskVolume4 = depthVolume(3);
+        f.AskVolume5 = depthVolume(4);
+        return f;
+    }
+
+    /**
+     * 越远的档位挂单越多
+     */
+    private int depthVolume(int level) {
+        return 1+random.nextInt(20+level*20);
+    }
+
+}
@@ -19,6 +19,7 @@ import trader.common.config.ConfigUtil;
 import trader.common.util.FileUtil;
 import trader.common.util.StringUtil;
 import trader.common.util.TraderHomeUtil;
+import trader.service.lifecycle.StartupService;
 
 @Service
 @SuppressWarnings("unchecked")
@@ -34,6 +35,9 @@ public class PluginServiceImpl implements PluginService {
     @Autowired
     private ExecutorService executorService;
 
+    @Autowired
+    private StartupService startupService;
+
     private List<PluginImpl> plugins = new ArrayList<>();
 
     private List<PluginListener> listeners = new ArrayList<>();
@@ -48,7 +52,14 @@ public class PluginServiceImpl implements PluginService {
     public void init() {
         pluginRootDirs = initPluginRootDirs();
         logger.info("Plugin root dirs: "+pluginRootDirs);
-        rescan();
+        //第一次扫描在启动时完成, 交易策略服务初始化时需要插件提供的Tradlet
+        try {
+            startupService.runPhase("pluginScan", ()->{
+                return rescan();
+            });
+        }catch(Throwable t) {
+            logger.error("scan plugins failed", t);
+        }
     }
 
     @PreDestroy
@@ -75,6 +86,13 @@ public class PluginServiceImpl implements PluginService {
 
     @Override
     public List<Plugin> reload() {
+        //启动期间的重新扫描推迟到Ready之后, 通过PluginListener通知交易策略服务
+        if ( !startupService.isReady() ) {
+            startupService.deferUntilReady("pluginRescan", ()->{
+                rescan();
+            });
+            return Collections.emptyList();
+        }
         return (List)rescan();
     }
 
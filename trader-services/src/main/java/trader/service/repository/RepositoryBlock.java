@@ -0,0 +1,179 @@
+package trader.service.repository;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.ta4j.core.Bar;
+
+import trader.common.exchangeable.Exchangeable;
+import trader.common.exchangeable.ExchangeableData;
+import trader.common.exchangeable.ExchangeableData.DataInfo;
+import trader.common.exchangeable.ExchangeableDataCatalog;
+import trader.common.util.CSVDataSet;
+import trader.common.util.CSVUtil;
+import trader.common.util.DateUtil;
+import trader.common.util.csv.CtpCSVMarshallHelper;
+import trader.service.md.MarketData;
+import trader.service.md.ctp.CtpMarketDataProducer;
+import trader.service.ta.FutureBar;
+import trader.service.ta.TimeSeriesLoader;
+
+/**
+ * 一个品种一个交易日的数据, 按时间排序. KBar按列保存为原始类型数组;
+ * TICK由CtpMarketDataProducer解析为MarketData对象, 同时复制常用字段到原始类型数组, MarketData对象保留给回放使用.
+ * <BR>加载时直接过滤掉时间和价格范围之外的数据.
+ */
+class RepositoryBlock {
+
+    final Exchangeable exchangeable;
+    final LocalDate tradingDay;
+    int size;
+    /**
+     * 数据时间: TICK为更新时间, KBar为结束时间
+     */
+    long[] times;
+    long[] beginTimes;
+    long[] opens;
+    long[] highs;
+    long[] lows;
+    long[] closes;
+    long[] volumes;
+    long[] turnovers;
+    long[] openInts;
+    /**
+     * 解析后的TICK对象, 每行一个, KBar为null
+     */
+    MarketData[] ticks;
+
+    private RepositoryBlock(Exchangeable exchangeable, LocalDate tradingDay, int capacity, boolean tick) {
+        this.exchangeable = exchangeable;
+        this.tradingDay = tradingDay;
+        times = new long[capacity];
+        beginTimes = new long[capacity];
+        opens = new long[capacity];
+        highs = new long[capacity];
+        lows = new long[capacity];
+        closes = new long[capacity];
+        volumes = new long[capacity];
+        turnovers = new long[capacity];
+        openInts = new long[capacity];
+        if ( tick ) {
+            ticks = new MarketData[capacity];
+        }
+    }
+
+    private boolean accept(RepositoryQuery query, long time, long price) {
+        return time>=query.getBeginTime() && time<query.getEndTime()
+                && price>=query.getMinPrice() && price<=query.getMaxPrice();
+    }
+
+    private void addTick(MarketData md) {
+        int i = size++;
+        times[i] = md.updateTimestamp;
+        beginTimes[i] = md.updateTimestamp;
+        opens[i] = md.openPrice;
+        highs[i] = md.highestPrice;
+        lows[i] = md.lowestPrice;
+        closes[i] = md.lastPrice;
+        volumes[i] = md.volume;
+        turnovers[i] = md.turnover;
+        openInts[i] = md.openInterest;
+        ticks[i] = md;
+    }
+
+    private void addBar(long beginTime, long endTime, long open, long high, long low, long close, long volume, long turnover, long openInt) {
+        int i = size++;
+        times[i] = endTime;
+        beginTimes[i] = beginTime;
+        opens[i] = open;
+        highs[i] = high;
+        lows[i] = low;
+        closes[i] = close;
+        volumes[i] = volume;
+        turnovers[i] = turnover;
+        openInts[i] = openInt;
+    }
+
+    /**
+     * 加载CTP TICK数据
+     */
+    static RepositoryBlock loadCtpTicks(ExchangeableData data, RepositoryQuery query, Exchangeable e, LocalDate tradingDay) throws IOException
+    {
+        List<MarketData> marketDatas = loadCtpMarketDatas(data, e, tradingDay);
+        RepositoryBlock result = new RepositoryBlock(e, tradingDay, marketDatas.size(), true);
+        for(MarketData md:marketDatas) {
+            if ( result.accept(query, md.updateTimestamp, md.lastPrice) ) {
+                result.addTick(md);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 加载KBar数据, 没有保存这个级别的数据时从TICK数据生成
+     */
+    static RepositoryBlock loadBars(ExchangeableData data, RepositoryQuery query, Exchangeable e, LocalDate tradingDay) throws IOException
+    {
+        DataInfo dataInfo = query.getData();
+        ZoneId zoneId = e.exchange().getZoneId();
+        if ( !data.exists(e, dataInfo, tradingDay) ) {
+            List<Bar> bars = TimeSeriesLoader.marketDatas2bars(e, dataInfo.getLevel(), loadCtpMarketDatas(data, e, tradingDay));
+            RepositoryBlock result = new RepositoryBlock(e, tradingDay, bars.size(), false);
+            for(Bar bar:bars) {
+                long endTime = DateUtil.date2epochMillis(bar.getEndTime());
+                long close = bar.getClosePrice().longValue();
+                if ( !result.accept(query, endTime, close) ) {
+                    continue;
+                }
+                long openInt = 0;
+                if ( bar instanceof FutureBar ) {
+                    openInt = ((FutureBar)bar).getOpenInterest().longValue();
+                }
+                result.addBar(DateUtil.date2epochMillis(bar.getBeginTime()), endTime,
+                        bar.getOpenPrice().longValue(), bar.getMaxPrice().longValue(), bar.getMinPrice().longValue(), close,
+                        bar.getVolume().longValue(), bar.getAmount().longValue(), openInt);
+            }
+            return result;
+        }
+        String csv = data.load(e, dataInfo, tradingDay);
+        RepositoryBlock result = new RepositoryBlock(e, tradingDay, ExchangeableDataCatalog.countRows(csv), false);
+        CSVDataSet csvDataSet = CSVUtil.parse(csv);
+        boolean hasOpenInt = csvDataSet.hasColumn(ExchangeableData.COLUMN_OPENINT);
+        while(csvDataSet.next()) {
+            long endTime = DateUtil.localdatetime2long(zoneId, csvDataSet.getDateTime(ExchangeableData.COLUMN_END_TIME));
+            long close = csvDataSet.getPrice(ExchangeableData.COLUMN_CLOSE);
+            if ( !result.accept(query, endTime, close) ) {
+                continue;
+            }
+            result.addBar(DateUtil.localdatetime2long(zoneId, csvDataSet.getDateTime(ExchangeableData.COLUMN_BEGIN_TIME)), endTime,
+                    csvDataSet.getPrice(ExchangeableData.COLUMN_OPEN),
+                    csvDataSet.getPrice(ExchangeableData.COLUMN_HIGH),
+                    csvDataSet.getPrice(ExchangeableData.COLUMN_LOW),
+                    close,
+                    csvDataSet.getLong(ExchangeableData.COLUMN_VOLUME),
+                    csvDataSet.getPrice(ExchangeableData.COLUMN_TURNOVER),
+                    hasOpenInt?csvDataSet.getLong(ExchangeableData.COLUMN_OPENINT):0);
+        }
+        return result;
+    }
+
+    private static List<MarketData> loadCtpMarketDatas(ExchangeableData data, Exchangeable e, LocalDate tradingDay) throws IOException
+    {
+        List<MarketData> result = new ArrayList<>();
+        if ( !data.exists(e, ExchangeableData.TICK_CTP, tradingDay) ) {
+            return result;
+        }
+        //CtpMarketDataProducer 不是线程安全的, 每次加载单独创建
+        CtpMarketDataProducer mdProducer = new CtpMarketDataProducer();
+        CtpCSVMarshallHelper csvMarshallHelper = new CtpCSVMarshallHelper();
+        CSVDataSet csvDataSet = CSVUtil.parse(data.load(e, ExchangeableData.TICK_CTP, tradingDay));
+        while(csvDataSet.next()) {
+            result.add(mdProducer.createMarketData(csvMarshallHelper.unmarshall(csvDataSet.getRow()), null));
+        }
+        return result;
+    }
+
+}
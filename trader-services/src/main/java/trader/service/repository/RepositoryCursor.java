@@ -0,0 +1,236 @@
+package trader.service.repository;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.TreeSet;
+
+import trader.common.exchangeable.Exchangeable;
+import trader.common.exchangeable.ExchangeableData;
+import trader.common.exchangeable.ExchangeableData.DataInfo;
+import trader.common.exchangeable.ExchangeableDataCatalog.InstrumentCatalog;
+import trader.common.exchangeable.MarketDayUtil;
+import trader.common.util.DateUtil;
+import trader.service.md.MarketData;
+
+/**
+ * 历史行情查询结果游标, 多个品种按时间合并, 时间相同按查询品种顺序.
+ * <BR>当前行的数据通过 getXXX() 以原始类型返回, 调用next()后失效.
+ */
+public class RepositoryCursor implements AutoCloseable {
+
+    /**
+     * 单个品种的游标, 按交易日逐个加载数据
+     */
+    private static class InstrumentCursor {
+        final int order;
+        final Exchangeable exchangeable;
+        final LocalDate[] tradingDays;
+        int nextDayIndex;
+        RepositoryBlock block;
+        int rowIndex;
+
+        InstrumentCursor(int order, Exchangeable exchangeable, LocalDate[] tradingDays){
+            this.order = order;
+            this.exchangeable = exchangeable;
+            this.tradingDays = tradingDays;
+        }
+
+        long time() {
+            return block.times[rowIndex];
+        }
+    }
+
+    private static final Comparator<InstrumentCursor> CURSOR_COMPARATOR = (c1, c2)->{
+        int result = Long.compare(c1.time(), c2.time());
+        if ( result==0 ) {
+            result = Integer.compare(c1.order, c2.order);
+        }
+        return result;
+    };
+
+    private ExchangeableData data;
+    private RepositoryQuery query;
+    private PriorityQueue<InstrumentCursor> pending = new PriorityQueue<>(CURSOR_COMPARATOR);
+    private List<InstrumentCursor> unopened = new ArrayList<>();
+    private InstrumentCursor current;
+
+    RepositoryCursor(ExchangeableData data, RepositoryQuery query) throws IOException
+    {
+        this.data = data;
+        this.query = query;
+        List<Exchangeable> exchangeables = query.getExchangeables();
+        for(int i=0;i<exchangeables.size();i++) {
+            Exchangeable e = exchangeables.get(i);
+            unopened.add(new InstrumentCursor(i, e, getTradingDays(e)));
+        }
+    }
+
+    /**
+     * 移动到下一行, 没有数据返回false
+     */
+    public boolean next() throws IOException
+    {
+        if ( !unopened.isEmpty() ) {
+            for(InstrumentCursor cursor:unopened) {
+                if ( advance(cursor) ) {
+                    pending.add(cursor);
+                }
+            }
+            unopened.clear();
+        } else if ( current!=null ) {
+            current.rowIndex++;
+            if ( advance(current) ) {
+                pending.add(current);
+            }
+        }
+        current = pending.poll();
+        return current!=null;
+    }
+
+    public Exchangeable getExchangeable() {
+        return current.exchangeable;
+    }
+
+    public LocalDate getTradingDay() {
+        return current.block.tradingDay;
+    }
+
+    /**
+     * 数据时间 epoch 毫秒: TICK为更新时间, KBar为结束时间
+     */
+    public long getTime() {
+        return current.block.times[current.rowIndex];
+    }
+
+    /**
+     * KBar开始时间 epoch 毫秒, TICK与getTime()相同
+     */
+    public long getBeginTime() {
+        return current.block.beginTimes[current.rowIndex];
+    }
+
+    /**
+     * 开盘价, TICK为当日开盘价
+     */
+    public long getOpen() {
+        return current.block.opens[current.rowIndex];
+    }
+
+    /**
+     * 最高价, TICK为当日最高价
+     */
+    public long getHigh() {
+        return current.block.highs[current.rowIndex];
+    }
+
+    /**
+     * 最低价, TICK为当日最低价
+     */
+    public long getLow() {
+        return current.block.lows[current.rowIndex];
+    }
+
+    /**
+     * 收盘价, TICK为最新价
+     */
+    public long getClose() {
+        return current.block.closes[current.rowIndex];
+    }
+
+    /**
+     * 成交量, TICK为当日累计成交量
+     */
+    public long getVolume() {
+        return current.block.volumes[current.rowIndex];
+    }
+
+    /**
+     * 成交金额, TICK为当日累计成交金额
+     */
+    public long getTurnover() {
+        return current.block.turnovers[current.rowIndex];
+    }
+
+    public long getOpenInterest() {
+        return current.block.openInts[current.rowIndex];
+    }
+
+    /**
+     * 当前行的TICK对象, 加载时已经创建, 不是按需生成; KBar数据返回null
+     */
+    public MarketData getMarketData() {
+        if ( current.block.ticks==null ) {
+            return null;
+        }
+        return current.block.ticks[current.rowIndex];
+    }
+
+    @Override
+    public void close() {
+        pending.clear();
+        unopened.clear();
+        current = null;
+    }
+
+    /**
+     * 移动到当前或后续交易日中第一个满足时间范围的数据, 超过结束时间后返回false
+     */
+    private boolean advance(InstrumentCursor cursor) throws IOException
+    {
+        while(true) {
+            if ( cursor.block!=null && cursor.rowIndex<cursor.block.size ) {
+                return true;
+            }
+            cursor.block = null;
+            if ( cursor.nextDayIndex>=cursor.tradingDays.length ) {
+                return false;
+            }
+            LocalDate tradingDay = cursor.tradingDays[cursor.nextDayIndex++];
+            if ( query.isTick() ) {
+                cursor.block = RepositoryBlock.loadCtpTicks(data, query, cursor.exchangeable, tradingDay);
+            } else {
+                cursor.block = RepositoryBlock.loadBars(data, query, cursor.exchangeable, tradingDay);
+            }
+            cursor.rowIndex = 0;
+        }
+    }
+
+    /**
+     * 返回可能包含数据的交易日, 有索引时只返回索引中存在的交易日
+     */
+    private LocalDate[] getTradingDays(Exchangeable e) throws IOException
+    {
+        LocalDate beginDay = query.getBeginTradingDay();
+        if ( beginDay==null ) {
+            beginDay = DateUtil.long2datetime(e.exchange().getZoneId(), query.getBeginTime()).toLocalDate();
+        }
+        LocalDate endDay = query.getEndTradingDay();
+        if ( endDay==null ) {
+            //夜市数据属于下一个交易日
+            LocalDate endDate = DateUtil.long2datetime(e.exchange().getZoneId(), query.getEndTime()).toLocalDate();
+            endDay = MarketDayUtil.nextMarketDay(e.exchange(), endDate);
+        }
+        InstrumentCatalog catalog = data.getCatalog(e);
+        if ( catalog==null ) {
+            return MarketDayUtil.getMarketDays(e.exchange(), beginDay, endDay);
+        }
+        TreeSet<LocalDate> result = new TreeSet<>();
+        List<DataInfo> dataInfos = new ArrayList<>(Arrays.asList(query.getData()));
+        if ( !query.isTick() ) {
+            dataInfos.add(ExchangeableData.TICK_CTP);
+        }
+        for(DataInfo dataInfo:dataInfos) {
+            result.addAll(catalog.getEntries(dataInfo.name()).subMap(beginDay, true, endDay, true).keySet());
+            if ( dataInfo.altName()!=null ) {
+                result.addAll(catalog.getEntries(dataInfo.altName()).subMap(beginDay, true, endDay, true).keySet());
+            }
+        }
+        return result.toArray(new LocalDate[result.size()]);
+    }
+
+}
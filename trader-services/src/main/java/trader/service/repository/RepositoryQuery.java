@@ -0,0 +1,163 @@
+package trader.service.repository;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import trader.common.exchangeable.Exchangeable;
+import trader.common.exchangeable.ExchangeableData;
+import trader.common.exchangeable.ExchangeableData.DataInfo;
+import trader.common.tick.PriceLevel;
+import trader.common.util.DateUtil;
+
+/**
+ * 历史行情查询: 品种集合 x 数据分类 x [开始时间, 结束时间)
+ * <BR>返回按时间排序的游标, 多个品种的数据按时间合并. 时间和价格条件在加载每个交易日数据时过滤.
+ * <BR>KBar数据优先读取保存的级别, 不存在时从TICK数据生成.
+ *
+ * <pre>
+ * try(RepositoryCursor cursor = new RepositoryQuery(data)
+ *     .addExchangeables(ru1901, rb1901)
+ *     .setData(ExchangeableData.MIN1)
+ *     .setTimeRange(beginTime, endTime)
+ *     .open();)
+ * {
+ *     while(cursor.next()) {
+ *         cursor.getExchangeable(); cursor.getTime(); cursor.getClose();
+ *     }
+ * }
+ * </pre>
+ */
+public class RepositoryQuery {
+
+    private ExchangeableData data;
+    private List<Exchangeable> exchangeables = new ArrayList<>();
+    private DataInfo dataInfo = ExchangeableData.TICK_CTP;
+    private long beginTime = Long.MIN_VALUE;
+    private long endTime = Long.MAX_VALUE;
+    private LocalDate beginTradingDay;
+    private LocalDate endTradingDay;
+    private long minPrice = Long.MIN_VALUE;
+    private long maxPrice = Long.MAX_VALUE;
+
+    public RepositoryQuery(ExchangeableData data) {
+        this.data = data;
+    }
+
+    public RepositoryQuery addExchangeables(Exchangeable ...exchangeables) {
+        return addExchangeables(Arrays.asList(exchangeables));
+    }
+
+    public RepositoryQuery addExchangeables(Collection<Exchangeable> exchangeables) {
+        for(Exchangeable e:exchangeables) {
+            if ( !this.exchangeables.contains(e) ) {
+                this.exchangeables.add(e);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * 设置数据分类, 缺省为 TICK_CTP
+     */
+    public RepositoryQuery setData(DataInfo dataInfo) {
+        this.dataInfo = dataInfo;
+        return this;
+    }
+
+    /**
+     * 设置时间范围 [beginTime, endTime), epoch 毫秒
+     */
+    public RepositoryQuery setTimeRange(long beginTime, long endTime) {
+        this.beginTime = beginTime;
+        this.endTime = endTime;
+        return this;
+    }
+
+    /**
+     * 设置时间范围 [beginTime, endTime), 交易所时区的市场时间, null代表不限制
+     */
+    public RepositoryQuery setTimeRange(LocalDateTime beginTime, LocalDateTime endTime) {
+        this.beginTime = beginTime!=null?DateUtil.localdatetime2long(DateUtil.CTT, beginTime):Long.MIN_VALUE;
+        this.endTime = endTime!=null?DateUtil.localdatetime2long(DateUtil.CTT, endTime):Long.MAX_VALUE;
+        return this;
+    }
+
+    /**
+     * 设置交易日范围, 包含开始和结束交易日. 没有设置时根据时间范围推算
+     */
+    public RepositoryQuery setTradingDays(LocalDate beginTradingDay, LocalDate endTradingDay) {
+        this.beginTradingDay = beginTradingDay;
+        this.endTradingDay = endTradingDay;
+        return this;
+    }
+
+    /**
+     * 设置价格范围 [minPrice, maxPrice], TICK为最新价, KBar为收盘价
+     */
+    public RepositoryQuery setPriceRange(long minPrice, long maxPrice) {
+        this.minPrice = minPrice;
+        this.maxPrice = maxPrice;
+        return this;
+    }
+
+    public List<Exchangeable> getExchangeables(){
+        return Collections.unmodifiableList(exchangeables);
+    }
+
+    public DataInfo getData() {
+        return dataInfo;
+    }
+
+    public long getBeginTime() {
+        return beginTime;
+    }
+
+    public long getEndTime() {
+        return endTime;
+    }
+
+    public LocalDate getBeginTradingDay() {
+        return beginTradingDay;
+    }
+
+    public LocalDate getEndTradingDay() {
+        return endTradingDay;
+    }
+
+    public long getMinPrice() {
+        return minPrice;
+    }
+
+    public long getMaxPrice() {
+        return maxPrice;
+    }
+
+    boolean isTick() {
+        return dataInfo.getLevel()==PriceLevel.TICKET;
+    }
+
+    /**
+     * 执行查询, 数据在游标移动时按交易日逐步加载
+     */
+    public RepositoryCursor open() throws IOException
+    {
+        if ( isTick() ) {
+            if ( dataInfo!=ExchangeableData.TICK_CTP ) {
+                throw new IOException("不支持的TICK数据: "+dataInfo);
+            }
+        } else if ( dataInfo.getLevel()==null || dataInfo.getLevel().getMinutePeriod()<=0 ) {
+            throw new IOException("不支持的KBar数据: "+dataInfo);
+        }
+        if ( (beginTradingDay==null && beginTime==Long.MIN_VALUE) || (endTradingDay==null && endTime==Long.MAX_VALUE) ) {
+            throw new IOException("查询需要设置时间范围或交易日范围");
+        }
+        return new RepositoryCursor(data, this);
+    }
+
+}
@@ -0,0 +1,83 @@
+package trader.service.stats;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import trader.common.util.JsonEnabled;
+
+/**
+ * 按2的幂次分桶的延时统计, 记录时不分配内存, 分位值返回桶的上限
+ * <BR>非线程安全
+ */
+public class LatencyHistogram implements JsonEnabled {
+    private long[] buckets = new long[64];
+    private long count;
+    private long total;
+    private long max;
+
+    public void record(long nanos) {
+        buckets[63-Long.numberOfLeadingZeros(Math.max(1, nanos))]++;
+        count++;
+        total += nanos;
+        if ( nanos>max ) {
+            max = nanos;
+        }
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    public long avg() {
+        if ( count==0 ) {
+            return 0;
+        }
+        return total/count;
+    }
+
+    public long percentile(double percent) {
+        long threshold = (long)Math.ceil(count*percent), sum = 0;
+        for(int i=0;i<buckets.length;i++) {
+            sum += buckets[i];
+            if ( sum>=threshold && sum>0 ) {
+                return Math.min(max, (1L<<(i+1))-1);
+            }
+        }
+        return max;
+    }
+
+    @Override
+    public JsonElement toJson() {
+        JsonObject json = new JsonObject();
+        json.addProperty("count", count);
+        json.addProperty("total", total);
+        json.addProperty("max", max);
+        json.addProperty("avg", avg());
+        json.addProperty("p50", percentile(0.5));
+        json.addProperty("p99", percentile(0.99));
+        json.addProperty("p999", percentile(0.999));
+        JsonArray a = new JsonArray();
+        for(long bucket:buckets) {
+            a.add(bucket);
+        }
+        json.add("buckets", a);
+        return json;
+    }
+
+    public static LatencyHistogram fromJson(JsonObject json) {
+        LatencyHistogram result = new LatencyHistogram();
+        result.count = json.get("count").getAsLong();
+        result.total = json.get("total").getAsLong();
+        result.max = json.get("max").getAsLong();
+        JsonArray a = json.getAsJsonArray("buckets");
+        for(int i=0;i<a.size() && i<result.buckets.length;i++) {
+            result.buckets[i] = a.get(i).getAsLong();
+        }
+        return result;
+    }
+}
@@ -19,7 +19,11 @@ public class FutureBar extends BaseBar {
     private static final long serialVersionUID = -5989316287411952601L;
 
     private Num openInterest;
-    private MarketData beginTick;
+    /**
+     * 开始TICK的累计成交量和成交金额, 不保留TICK对象: 回测时TICK对象会被复用
+     */
+    private long beginVolume;
+    private long beginTurnover;
 
     public FutureBar(Duration timePeriod, ZonedDateTime endTime, Num openPrice, Num highPrice, Num lowPrice, Num closePrice, Num volume, Num amount, Num openInterest) {
         super(timePeriod, endTime, openPrice, highPrice, lowPrice, closePrice, volume, amount);
@@ -39,8 +43,8 @@ public class FutureBar extends BaseBar {
         if ( closePrice.isLessThan(minPrice)) {
             minPrice = closePrice;
         }
-        volume = new LongNum(tick.volume-beginTick.volume);
-        amount = new LongNum(tick.turnover-beginTick.turnover);
+        volume = new LongNum(tick.volume-beginVolume);
+        amount = new LongNum(tick.turnover-beginTurnover);
         openInterest = new LongNum(tick.openInterest);
     }
 
@@ -60,7 +64,8 @@ public class FutureBar extends BaseBar {
             LongNum.ZERO,
             LongNum.ZERO,
             new LongNum(tick.openInterest));
-       bar.beginTick = tick;
+       bar.beginVolume = tick.volume;
+       bar.beginTurnover = tick.turnover;
        return bar;
     }
 
@@ -1,9 +1,13 @@
 package trader.service.ta;
 
 import java.time.LocalDate;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import javax.annotation.PreDestroy;
 
@@ -53,15 +57,48 @@ public class TAServiceImpl implements TAService, MarketDataListener {
             }
             entries.put(e, new TAEntry(e));
         }
-        for(TAEntry entry:entries.values()) {
+        loadHistoryData(beansContainer.getBean(ExecutorService.class));
+        long t1=System.currentTimeMillis();
+        logger.info("Start TASevice with data dir "+data.getDataDir()+" in "+(t1-t0)+" ms, exchangeables loaded: "+(new TreeSet<>(entries.keySet())));
+    }
+
+    /**
+     * 加载历史数据, 有线程池时按CPU数量分组并发加载
+     */
+    private void loadHistoryData(ExecutorService executorService) {
+        List<TAEntry> allEntries = new ArrayList<>(entries.values());
+        int groupCount = Math.min(allEntries.size(), Runtime.getRuntime().availableProcessors());
+        if ( executorService==null || groupCount<=1 ) {
+            loadHistoryData(allEntries);
+            return;
+        }
+        List<Future<?>> futures = new ArrayList<>();
+        for(int i=0;i<groupCount;i++) {
+            List<TAEntry> group = new ArrayList<>();
+            for(int j=i;j<allEntries.size();j+=groupCount) {
+                group.add(allEntries.get(j));
+            }
+            futures.add(executorService.submit(()->{
+                loadHistoryData(group);
+            }));
+        }
+        for(Future<?> future:futures) {
+            try {
+                future.get();
+            }catch(Throwable t) {
+                logger.error("加载历史数据失败", t);
+            }
+        }
+    }
+
+    private void loadHistoryData(List<TAEntry> group) {
+        for(TAEntry entry:group) {
             try{
                 entry.loadHistoryData(mtService, data);
             }catch(Throwable t) {
                 logger.error("加载 "+entry.getExchangeable()+" 历史数据失败", t);
             }
         }
-        long t1=System.currentTimeMillis();
-        logger.info("Start TASevice with data dir "+data.getDataDir()+" in "+(t1-t0)+" ms, exchangeables loaded: "+(new TreeSet<>(entries.keySet())));
     }
 
     @Override
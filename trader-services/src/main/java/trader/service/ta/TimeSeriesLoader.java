@@ -1,6 +1,8 @@
 package trader.service.ta;
 
 import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.LocalTime;
@@ -17,6 +19,7 @@ import org.ta4j.core.num.Num;
 
 import trader.common.exchangeable.Exchangeable;
 import trader.common.exchangeable.ExchangeableData;
+import trader.common.exchangeable.ExchangeableData.DataInfo;
 import trader.common.exchangeable.ExchangeableType;
 import trader.common.exchangeable.MarketDayUtil;
 import trader.common.exchangeable.MarketTimeStage;
@@ -25,9 +28,9 @@ import trader.common.tick.PriceLevel;
 import trader.common.util.CSVDataSet;
 import trader.common.util.CSVUtil;
 import trader.common.util.DateUtil;
-import trader.common.util.csv.CtpCSVMarshallHelper;
 import trader.service.md.MarketData;
-import trader.service.md.ctp.CtpMarketDataProducer;
+import trader.service.repository.RepositoryCursor;
+import trader.service.repository.RepositoryQuery;
 
 /**
  * 行情数据加载和转换为分钟级别数据
@@ -102,11 +105,15 @@ public class TimeSeriesLoader {
         LinkedList<Bar> bars = new LinkedList<>();
         LocalDate tradingDay = endTradingDay;
 
+        //保存的同级别K线
+        DataInfo levelDataInfo = DataInfo.parse(level.name());
         //从后向前
         while(tradingDay.compareTo(startTradingDay)>=0) {
             List<Bar> dayBars = new ArrayList<>();
-            if ( data.exists(exchangeable, ExchangeableData.MIN1, tradingDay) ) {
-                dayBars = loadMin1Bars(tradingDay);
+            if ( levelDataInfo!=null && data.exists(exchangeable, levelDataInfo, tradingDay) ) {
+                dayBars = loadBars(levelDataInfo, tradingDay);
+            } else if ( data.exists(exchangeable, ExchangeableData.MIN1, tradingDay) ) {
+                dayBars = loadBars(ExchangeableData.MIN1, tradingDay);
                 if ( level!=PriceLevel.MIN1 ) {
                     dayBars = mergeMin1Bars(dayBars);
                 }
@@ -177,31 +184,26 @@ public class TimeSeriesLoader {
     }
 
     /**
-     * 加载某日的MIN1数据
+     * 加载某日保存的K线数据
      */
-    private List<Bar> loadMin1Bars(LocalDate actionDay) throws IOException {
+    private List<Bar> loadBars(DataInfo dataInfo, LocalDate tradingDay) throws IOException {
         List<Bar> result = new ArrayList<>();
         ZoneId zoneId = exchangeable.exchange().getZoneId();
-        String csv = data.load(exchangeable, ExchangeableData.MIN1, actionDay);
-        CSVDataSet csvDataSet = CSVUtil.parse(csv);
-        while(csvDataSet.next()) {
-            LocalDateTime beginTime = csvDataSet.getDateTime(ExchangeableData.COLUMN_BEGIN_TIME);
-            LocalDateTime endTime = csvDataSet.getDateTime(ExchangeableData.COLUMN_END_TIME);
-            if ( this.endTime!=null && this.endTime.isBefore(endTime)) {
-                continue;
+        try(RepositoryCursor cursor = createQuery(dataInfo, tradingDay).open();){
+            while(cursor.next()) {
+                ZonedDateTime beginTime = Instant.ofEpochMilli(cursor.getBeginTime()).atZone(zoneId);
+                ZonedDateTime endTime = Instant.ofEpochMilli(cursor.getTime()).atZone(zoneId);
+                FutureBar bar = new FutureBar(Duration.between(beginTime, endTime),
+                    endTime,
+                    new LongNum(cursor.getOpen()),
+                    new LongNum(cursor.getHigh()),
+                    new LongNum(cursor.getLow()),
+                    new LongNum(cursor.getClose()),
+                    new LongNum(cursor.getVolume()),
+                    new LongNum(cursor.getTurnover()),
+                    new LongNum(cursor.getOpenInterest()));
+                result.add(bar);
             }
-            ZonedDateTime zonedBeginTime = beginTime.atZone(zoneId);
-            ZonedDateTime zonedEndTime = endTime.atZone(zoneId);
-            FutureBar bar = new FutureBar(DateUtil.between(beginTime, endTime),
-                zonedEndTime,
-                new LongNum(csvDataSet.getPrice(ExchangeableData.COLUMN_OPEN)),
-                new LongNum(csvDataSet.getPrice(ExchangeableData.COLUMN_HIGH)),
-                new LongNum(csvDataSet.getPrice(ExchangeableData.COLUMN_LOW)),
-                new LongNum(csvDataSet.getPrice(ExchangeableData.COLUMN_CLOSE)),
-                new LongNum(csvDataSet.getInt(ExchangeableData.COLUMN_VOLUME)),
-                new LongNum(csvDataSet.getPrice(ExchangeableData.COLUMN_TURNOVER)),
-                new LongNum(csvDataSet.getLong(ExchangeableData.COLUMN_OPENINT)));
-            result.add(bar);
         }
         return result;
     }
@@ -218,33 +220,88 @@ public class TimeSeriesLoader {
     }
 
     /**
-     * 加载日线数据
+     * 加载日线数据, 优先读取保存的日线, 没有日线时从TICK数据逐日生成.
+     * <BR>没有设置开始交易日时加载全部日线
      */
     private LeveledTimeSeries loadDaySeries() throws IOException
     {
-        throw new IOException("日线数据未实现加载");
+        if ( endTradingDay==null ) {
+            endTradingDay = LocalDate.now();
+        }
+        List<Bar> bars = new ArrayList<>();
+        DataInfo dayDataInfo = exchangeable.getType()==ExchangeableType.FUTURE?ExchangeableData.DAY_FUTURE:ExchangeableData.DAY;
+        if ( data.exists(exchangeable, dayDataInfo, null) ) {
+            ZoneId zoneId = exchangeable.exchange().getZoneId();
+            CSVDataSet csvDataSet = CSVUtil.parse(data.load(exchangeable, dayDataInfo, null));
+            boolean hasTimes = csvDataSet.hasColumn(ExchangeableData.COLUMN_BEGIN_TIME);
+            boolean hasOpenInt = csvDataSet.hasColumn(ExchangeableData.COLUMN_OPENINT);
+            while(csvDataSet.next()) {
+                LocalDate tradingDay = DateUtil.str2localdate(csvDataSet.get(ExchangeableData.COLUMN_DATE));
+                if ( (startTradingDay!=null && tradingDay.isBefore(startTradingDay)) || tradingDay.isAfter(endTradingDay) ) {
+                    continue;
+                }
+                LocalDateTime beginTime = tradingDay.atStartOfDay(), endTime = tradingDay.plusDays(1).atStartOfDay();
+                if ( hasTimes ) {
+                    beginTime = csvDataSet.getDateTime(ExchangeableData.COLUMN_BEGIN_TIME);
+                    endTime = csvDataSet.getDateTime(ExchangeableData.COLUMN_END_TIME);
+                }
+                bars.add(new FutureBar(DateUtil.between(beginTime, endTime),
+                        endTime.atZone(zoneId),
+                        new LongNum(csvDataSet.getPrice(ExchangeableData.COLUMN_OPEN)),
+                        new LongNum(csvDataSet.getPrice(ExchangeableData.COLUMN_HIGH)),
+                        new LongNum(csvDataSet.getPrice(ExchangeableData.COLUMN_LOW)),
+                        new LongNum(csvDataSet.getPrice(ExchangeableData.COLUMN_CLOSE)),
+                        new LongNum(csvDataSet.getLong(ExchangeableData.COLUMN_VOLUME)),
+                        new LongNum(csvDataSet.getPrice(ExchangeableData.COLUMN_TURNOVER)),
+                        new LongNum(hasOpenInt?csvDataSet.getLong(ExchangeableData.COLUMN_OPENINT):0)));
+                loadedDates.add(tradingDay);
+            }
+        } else if ( startTradingDay!=null && exchangeable.getType()==ExchangeableType.FUTURE ) {
+            List<MarketData> lastTicks = Collections.emptyList();
+            for(LocalDate tradingDay:MarketDayUtil.getMarketDays(exchangeable.exchange(), startTradingDay, endTradingDay)) {
+                List<MarketData> ticks = loadCtpTicks(tradingDay);
+                List<MarketData> dayTicks = new ArrayList<>(lastTicks);
+                dayTicks.addAll(ticks);
+                Bar bar = marketDatas2dayBar(exchangeable, tradingDay, dayTicks);
+                if ( bar!=null ) {
+                    bars.add(bar);
+                    loadedDates.add(tradingDay);
+                }
+                lastTicks = ticks;
+            }
+        }
+        BaseLeveledTimeSeries result = new BaseLeveledTimeSeries(exchangeable.name()+"-"+level, level, LongNum::valueOf);
+        for(Bar bar:bars) {
+            result.addBar(bar);
+        }
+        return result;
     }
 
     private List<MarketData> loadCtpTicks(LocalDate tradingDay) throws IOException
     {
-        if ( !data.exists(exchangeable, ExchangeableData.TICK_CTP, tradingDay) ) {
-            return Collections.emptyList();
-        }
         List<MarketData> result = new ArrayList<>();
-        CtpMarketDataProducer mdProducer = new CtpMarketDataProducer();
-        CtpCSVMarshallHelper csvMarshallHelper = new CtpCSVMarshallHelper();
-        String csv = data.load(exchangeable, ExchangeableData.TICK_CTP, tradingDay);
-        CSVDataSet csvDataSet = CSVUtil.parse(csv);
-        while(csvDataSet.next()) {
-            MarketData marketData = mdProducer.createMarketData(csvMarshallHelper.unmarshall(csvDataSet.getRow()), tradingDay);
-            if ( this.endTime!=null && this.endTime.isBefore(marketData.updateTime)) {
-                continue;
+        try(RepositoryCursor cursor = createQuery(ExchangeableData.TICK_CTP, tradingDay).open();){
+            while(cursor.next()) {
+                result.add(cursor.getMarketData());
             }
-            result.add(marketData);
         }
         return result;
     }
 
+    /**
+     * 查询某个交易日的数据, 结束时间之后的数据在加载时过滤
+     */
+    private RepositoryQuery createQuery(DataInfo dataInfo, LocalDate tradingDay) {
+        RepositoryQuery query = new RepositoryQuery(data)
+                .addExchangeables(exchangeable)
+                .setData(dataInfo)
+                .setTradingDays(tradingDay, tradingDay);
+        if ( endTime!=null ) {
+            query.setTimeRange(Long.MIN_VALUE, DateUtil.localdatetime2long(exchangeable.exchange().getZoneId(), endTime)+1);
+        }
+        return query;
+    }
+
     /**
      * 将原始CTP TICK转为MIN1 Bar
      */
@@ -307,6 +364,42 @@ public class TimeSeriesLoader {
         return result;
     }
 
+    /**
+     * 将一个交易日的TICK(包含夜市和日市)转为日线, 没有数据返回null.
+     * <BR>只统计TradingDay属于这个交易日的TICK, 按自然日保存的旧数据需要同时传入前一天的TICK.
+     * <BR>CTP的成交量和成交金额是交易日累计值, 直接使用最后一个TICK的数值
+     */
+    public static FutureBar marketDatas2dayBar(Exchangeable exchangeable, LocalDate tradingDay, List<MarketData> marketDatas) {
+        String tradingDayStr = DateUtil.date2str(tradingDay);
+        MarketData beginTick = null, lastTick = null;
+        long high = 0, low = 0;
+        for(MarketData tick:marketDatas) {
+            if ( tick.tradingDay!=null && !tick.tradingDay.equals(tradingDayStr) ) {
+                continue;
+            }
+            if ( beginTick==null ) {
+                beginTick = tick;
+                high = low = tick.lastPrice;
+            }
+            high = Math.max(high, tick.lastPrice);
+            low = Math.min(low, tick.lastPrice);
+            lastTick = tick;
+        }
+        if ( beginTick==null ) {
+            return null;
+        }
+        return new FutureBar(DateUtil.between(beginTick.updateTime, lastTick.updateTime),
+                lastTick.updateTime.atZone(exchangeable.exchange().getZoneId()),
+                new LongNum(beginTick.lastPrice),
+                new LongNum(high),
+                new LongNum(low),
+                new LongNum(lastTick.lastPrice),
+                new LongNum(lastTick.volume),
+                new LongNum(lastTick.turnover),
+                new LongNum(lastTick.openInterest)
+                );
+    }
+
     /**
      * Return the tick index for a market data point
      */
@@ -1,6 +1,7 @@
 package trader.service.trade;
 
 import java.util.List;
+import java.util.Properties;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -9,6 +10,7 @@ import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 
 import trader.common.exception.AppException;
+import trader.common.util.ConversionUtil;
 import trader.service.ServiceConstants.ConnState;
 import trader.service.md.MarketData;
 import trader.service.trade.TradeConstants.TxnProvider;
@@ -23,6 +25,7 @@ public abstract class AbsTxnSession implements TxnSession {
     protected Logger logger;
     protected volatile ConnState state;
     protected long stateTime;
+    private TxnQueryScheduler queryScheduler;
 
     public AbsTxnSession(TradeServiceImpl tradeService, AccountImpl account) {
         this.tradeService = tradeService;
@@ -75,15 +78,50 @@ public abstract class AbsTxnSession implements TxnSession {
      */
     public abstract void asyncSendOrder(OrderImpl order) throws AppException;
 
+    /**
+     * 连续发送多个报单, 用于多腿策略.
+     * <BR>某个报单发送失败时抛出异常, 之前的报单已经发出, 之后的报单不再发送
+     */
+    public void asyncSendOrders(List<OrderImpl> orders) throws AppException {
+        for(int i=0;i<orders.size();i++) {
+            asyncSendOrder(orders.get(i));
+        }
+    }
+
+    /**
+     * 发送撤单, 撤单结果通过报单状态通知
+     */
+    public abstract void asyncCancelOrder(OrderImpl order) throws AppException;
+
     /**
      * 查询市场所有合约
      */
     public abstract List<MarketData> syncQueryMarketDatas() throws Exception;
 
+    /**
+     * 查询调度, 第一次使用时创建.
+     * <BR>连接参数 queryRate 为每秒查询数, 缺省1; queryBurst 为空闲后允许连续执行的查询数, 缺省1
+     */
+    public synchronized TxnQueryScheduler getQueryScheduler() {
+        if ( queryScheduler==null ) {
+            Properties props = account.getConnectionProps();
+            double rate = ConversionUtil.toDouble(props.getProperty("queryRate", "1"));
+            int burst = ConversionUtil.toInt(props.getProperty("queryBurst", "1"));
+            queryScheduler = new TxnQueryScheduler("TxnQuery-"+account.getId(), rate, burst);
+        }
+        return queryScheduler;
+    }
+
     protected abstract void closeImpl();
 
     public void close() {
         closeImpl();
+        synchronized(this) {
+            if ( queryScheduler!=null ) {
+                queryScheduler.close();
+                queryScheduler = null;
+            }
+        }
     }
 
     @Override
@@ -91,6 +129,10 @@ public abstract class AbsTxnSession implements TxnSession {
         JsonObject json = new JsonObject();
         json.addProperty("state", state.name());
         json.addProperty("stateTime", stateTime);
+        TxnQueryScheduler queryScheduler = this.queryScheduler;
+        if ( queryScheduler!=null ) {
+            json.add("queryScheduler", queryScheduler.toJson());
+        }
         return json;
     }
 
@@ -103,7 +145,9 @@ public abstract class AbsTxnSession implements TxnSession {
             state = newState;
             stateTime = System.currentTimeMillis();
             logger.info(account.getId()+" status changes from "+lastState+" to "+state);
-            tradeService.onTxnSessionStateChanged(account, lastState);
+            if ( null!=tradeService ) {
+                tradeService.onTxnSessionStateChanged(account, lastState);
+            }
         }
     }
 
@@ -4,23 +4,33 @@ import java.io.File;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.slf4j.LoggerFactory;
 
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
-import com.lmax.disruptor.BatchEventProcessor;
+import com.google.gson.JsonParser;
 import com.lmax.disruptor.BlockingWaitStrategy;
 import com.lmax.disruptor.BusySpinWaitStrategy;
 import com.lmax.disruptor.EventHandler;
+import com.lmax.disruptor.LifecycleAware;
 import com.lmax.disruptor.RingBuffer;
 import com.lmax.disruptor.SleepingWaitStrategy;
 import com.lmax.disruptor.WaitStrategy;
@@ -28,6 +38,7 @@ import com.lmax.disruptor.dsl.Disruptor;
 import com.lmax.disruptor.dsl.ProducerType;
 import com.lmax.disruptor.util.DaemonThreadFactory;
 
+import ch.qos.logback.classic.Level;
 import ch.qos.logback.classic.Logger;
 import ch.qos.logback.classic.LoggerContext;
 import ch.qos.logback.classic.encoder.PatternLayoutEncoder;
@@ -37,6 +48,7 @@ import trader.common.beans.Lifecycle;
 import trader.common.config.ConfigUtil;
 import trader.common.event.AsyncEvent;
 import trader.common.event.AsyncEventFactory;
+import trader.common.event.AsyncEventProcessor;
 import trader.common.exception.AppException;
 import trader.common.exchangeable.Exchange;
 import trader.common.exchangeable.Exchangeable;
@@ -51,15 +63,41 @@ import trader.service.ServiceConstants.AccountState;
 import trader.service.ServiceErrorConstants;
 import trader.service.data.KVStore;
 import trader.service.data.KVStoreService;
+import trader.service.data.SimKVStore;
+import trader.service.lifecycle.StartupService;
 import trader.service.md.MarketData;
+import trader.service.md.MarketDataListener;
+import trader.service.md.MarketDataService;
+import trader.service.trade.FutureFeeEvaluator.FutureFeeInfo;
 import trader.service.trade.ctp.CtpTxnSession;
+import trader.simulator.trade.SimTxnSession;
 
 /**
  * 一个交易账户和通道实例对象.
  * <BR>每个Account对象实例有自己的RingBuffer, 有独立的Log文件, 有独立的多线程处理策略.
  * <BR>每个交易策略实例是运行在独立的线程中, 使用disruptor作为独立的调度
+ * <BR>账户状态(资金, 持仓, 报单)只由RingBuffer的事件线程修改: 报单, 报单/成交回报, 行情, 查询结果都作为事件按顺序处理.
+ * 其它线程通过每批事件处理后发布的 AccountSnapshot 读取资金和持仓列表. 没有启动RingBuffer时(模拟, 预热)在调用线程直接处理.
  */
-public class AccountImpl implements Account, Lifecycle, EventHandler<AsyncEvent>, TradeConstants, ServiceErrorConstants {
+public class AccountImpl implements Account, Lifecycle, EventHandler<AsyncEvent>, LifecycleAware, AsyncEventProcessor, MarketDataListener, TradeConstants, ServiceErrorConstants {
+
+    private static final int DATA_TYPE_TASK = 1;
+    private static final int DATA_TYPE_DRAIN_ORDER_ACTIONS = 2;
+    private static final long NO_PRICE = Long.MIN_VALUE;
+
+    /**
+     * 风险度阈值和监听, 记录当前是否超过阈值
+     */
+    private static class RiskThreshold {
+        final double threshold;
+        final AccountRiskListener listener;
+        boolean exceeded;
+
+        RiskThreshold(double threshold, AccountRiskListener listener){
+            this.threshold = threshold;
+            this.listener = listener;
+        }
+    }
 
     private String id;
     private String loggerPackage;
@@ -77,13 +115,36 @@ public class AccountImpl implements Account, Lifecycle, EventHandler<AsyncEvent>
     private Map<Exchangeable, PositionImpl> positions = new HashMap<>();
     private Map<String, AccountViewImpl> views = new LinkedHashMap<>();
     private Map<String, OrderImpl> orders = new ConcurrentHashMap<>();
+    private OrderLatencyStats orderLatencyStats = new OrderLatencyStats();
     private Disruptor<AsyncEvent> disruptor;
     private RingBuffer<AsyncEvent> ringBuffer;
     private BeansContainer beansContainer;
-    private BatchEventProcessor<AsyncEvent> ringProcessor;
+    /**
+     * RingBuffer事件线程, 唯一修改账户状态的线程
+     */
+    private volatile Thread ringThread;
+    private volatile AccountSnapshot snapshot;
+    /**
+     * 每个品种待处理的最新价: 事件线程还没有处理上一个价格时只替换, 不再发布新事件.
+     * <BR>只保存价格不保存MarketData引用, 模拟行情等数据源会复用MarketData对象
+     */
+    private Map<Exchangeable, AtomicLong> pendingPrices = new ConcurrentHashMap<>();
+    private volatile RiskThreshold[] riskThresholds = new RiskThreshold[0];
+    /**
+     * 报单检查和成交费用计算用的临时数组, 只在事件线程中使用
+     */
+    private OrderValidator orderValidator = new OrderValidator(this);
+    private long[] localOrderMoney = new long[OdrMoney_Count];
+    private long[] txnFees = new long[FutureFeeTable.FEE_COUNT];
+    /**
+     * 报单/撤单限速队列, 只在事件线程中使用
+     */
+    private OrderActionQueue orderActionQueue = new OrderActionQueue(0, 0);
+    private boolean orderActionsScheduled;
 
     public AccountImpl(TradeServiceImpl tradeService, BeansContainer beansContainer, Map elem) {
         this.tradeService = tradeService;
+        this.beansContainer = beansContainer;
         id = ConversionUtil.toString(elem.get("id"));
         state = AccountState.Created;
         TxnProvider provider = ConversionUtil.toEnum(TxnProvider.class, elem.get("txnProvider"));
@@ -102,11 +163,47 @@ public class AccountImpl implements Account, Lifecycle, EventHandler<AsyncEvent>
         orderRefGen = new OrderRefGen(this, beansContainer);
 
         update(elem);
+        orderActionQueue = new OrderActionQueue(
+                ConversionUtil.toDouble(connectionProps.getProperty("orderRate", "0")),
+                ConversionUtil.toDouble(connectionProps.getProperty("actionRate", "0")));
 
         txnSession = createTxnSession(provider);
         createDiruptor();
     }
 
+    /**
+     * 预热使用的影子账户: 内存KVStore, 模拟交易通道, 不创建账户目录和日志文件, 不保存OrderRef.
+     * <BR>视图允许费率中的全部品种, beansContainer 需要提供 MarketDataService 和 MarketTimeService
+     */
+    public AccountImpl(String id, BeansContainer beansContainer, TxnFeeEvaluator feeEvaluator, long initMoney) {
+        this.id = id;
+        this.beansContainer = beansContainer;
+        this.feeEvaluator = feeEvaluator;
+        state = AccountState.Created;
+        LoggerContext loggerContext = (LoggerContext) LoggerFactory.getILoggerFactory();
+        loggerPackage = AccountImpl.class.getPackageName()+".shadow."+id;
+        loggerContext.getLogger(loggerPackage).setLevel(Level.WARN);
+        logger = loggerContext.getLogger(loggerPackage+"."+AccountImpl.class.getSimpleName());
+        kvStore = new SimKVStore();
+        orderRefGen = new OrderRefGen(this, null);
+        connectionProps = new Properties();
+        money[AccMoney_Balance] = initMoney;
+        money[AccMoney_Available] = initMoney;
+        StringBuilder maxVolumes = new StringBuilder();
+        for(Exchangeable e:feeEvaluator.getExchangeables()) {
+            if ( maxVolumes.length()>0 ) {
+                maxVolumes.append(",");
+            }
+            maxVolumes.append(e.id()).append("=").append(Integer.MAX_VALUE/2);
+        }
+        Map<String, Object> viewElem = new HashMap<>();
+        viewElem.put("id", id);
+        viewElem.put("maxVolumes", maxVolumes.toString());
+        views.put(id, new AccountViewImpl(this, viewElem));
+        txnSession = new SimTxnSession(null, this);
+        changeState(AccountState.Ready);
+    }
+
     @Override
     public String getId() {
         return id;
@@ -124,7 +221,10 @@ public class AccountImpl implements Account, Lifecycle, EventHandler<AsyncEvent>
 
     @Override
     public long getMoney(int moneyIdx) {
-        return this.money[moneyIdx];
+        if ( isRingThread() ) {
+            return money[moneyIdx];
+        }
+        return getSnapshot().getMoney(moneyIdx);
     }
 
     public long addMoney(int moneyIdx, long toAdd) {
@@ -177,17 +277,21 @@ public class AccountImpl implements Account, Lifecycle, EventHandler<AsyncEvent>
 
     @Override
     public Position getPosition(Exchangeable e) {
-        return positions.get(e);
+        if ( isRingThread() ) {
+            return positions.get(e);
+        }
+        return getSnapshot().getPosition(e);
     }
 
     @Override
     public Collection<? extends Position> getPositions(AccountView view){
+        Collection<? extends Position> allPositions = isRingThread()?positions.values():getSnapshot().getPositions();
         Collection<? extends Position> result = null;
         if ( view==null ) {
-            result = positions.values();
+            result = allPositions;
         } else {
-            var viewPos = new ArrayList<PositionImpl>();
-            for(PositionImpl pos:positions.values()) {
+            var viewPos = new ArrayList<Position>();
+            for(Position pos:allPositions) {
                 if ( ((AccountViewImpl)view).accept(pos.getExchangeable())) {
                     viewPos.add(pos);
                 }
@@ -202,6 +306,18 @@ public class AccountImpl implements Account, Lifecycle, EventHandler<AsyncEvent>
         return views;
     }
 
+    @Override
+    public double getRiskRatio() {
+        return computeRiskRatio(getMoney(AccMoney_CurrMargin), getMoney(AccMoney_Balance));
+    }
+
+    @Override
+    public synchronized void addRiskListener(double threshold, AccountRiskListener listener) {
+        RiskThreshold[] thresholds = Arrays.copyOf(riskThresholds, riskThresholds.length+1);
+        thresholds[thresholds.length-1] = new RiskThreshold(threshold, listener);
+        riskThresholds = thresholds;
+    }
+
     @Override
     public void addAccountListener(AccountListener listener) {
         if ( listener!=null && !listeners.contains(listener)) {
@@ -211,38 +327,245 @@ public class AccountImpl implements Account, Lifecycle, EventHandler<AsyncEvent>
         }
     }
 
+    /**
+     * 在账户事件线程中检查和发送报单, 调用线程等待结果
+     */
     @Override
-    public synchronized Order createOrder(OrderBuilder builder) throws AppException {
-        long[] localOrderMoney = (new OrderValidator(this, builder)).validate();
-        //创建Order
-        Exchangeable e = builder.getExchangeable();
-        OrderImpl order = new OrderImpl(e, orderRefGen.nextRefId(),
-            builder.getPriceType(), builder.getOffsetFlag(), builder.getLimitPrice(), builder.getVolume(), builder.getVolumeCondition());
-        PositionImpl pos = null;
+    public Order createOrder(OrderBuilder builder) throws AppException {
+        return executeOnRing(()->{
+            return createOrder0(builder);
+        });
+    }
+
+    @Override
+    public List<Order> createOrders(List<OrderBuilder> builders) throws AppException {
+        return executeOnRing(()->{
+            return createOrders0(builders);
+        });
+    }
+
+    /**
+     * 取消报单: 还在限速队列中的报单直接删除, 已发出的报单发送撤单请求, 超过撤单速度时排队发送
+     */
+    @Override
+    public boolean cancelOrder(String orderRef) throws AppException {
+        return executeOnRing(()->{
+            OrderImpl order = orders.get(orderRef);
+            if ( order==null ) {
+                throw new AppException(ERRCODE_TRADE_ORDER_NOT_FOUND, "Order "+orderRef+" is not found");
+            }
+            return cancelOrder0(order);
+        });
+    }
+
+    @Override
+    public int cancelOrders(AccountView view, Exchangeable e) throws AppException {
+        return executeOnRing(()->{
+            int result = 0;
+            for(OrderImpl order:orders.values()) {
+                if ( order.getState().getState().isDone()
+                        || (e!=null && !e.equals(order.getExchangeable()))
+                        || (view!=null && !((AccountViewImpl)view).accept(order.getExchangeable())) )
+                {
+                    continue;
+                }
+                try {
+                    if ( cancelOrder0(order) ) {
+                        result++;
+                    }
+                }catch(AppException t) {
+                    logger.error("撤单错误 "+order.getRef(), t);
+                }
+            }
+            return result;
+        });
+    }
+
+    private Order createOrder0(OrderBuilder builder) throws AppException {
+        OrderImpl order = prepareOrder(builder);
+        if ( !orderActionQueue.tryInsert(1, System.nanoTime()) ) {
+            //超过报单速度, 排队发送
+            orderActionQueue.queueInsert(order);
+            scheduleOrderActions();
+            return order;
+        }
         try {
-            orders.put(order.getRef(), order);
-            //关联Position
-            pos = getOrCreatePosition(e, true);
-            //本地计算和冻结仓位和保证金
-            order.setMoney(OdrMoney_LocalFrozenMargin, localOrderMoney[OdrMoney_LocalFrozenMargin]);
-            order.setMoney(OdrMoney_LocalFrozenCommission, localOrderMoney[OdrMoney_LocalFrozenCommission]);
-            localFreeze(order);
-            //仓位管理
-            pos.localFreeze(order);
-            order.attachPosition(pos);
             //异步发送
             txnSession.asyncSendOrder(order);
             return order;
         }catch(AppException t) {
             logger.error("报单错误", t);
-            //回退本地已冻结资金和仓位
-            localUnfreeze(order);
-            pos.localUnfreeze(order);
-            if ( order.getState()==OrderStateTuple.STATE_UNKNOWN ) {
-                order.changeState(new OrderStateTuple(OrderState.Failed, OrderSubmitState.Unsubmitted, System.currentTimeMillis(), t.toString()));
+            rollbackOrder(order, t);
+            throw t;
+        }
+    }
+
+    /**
+     * 多腿报单: 逐个检查并冻结(后面的腿检查时已经计入前面腿的冻结), 全部通过后在同一个事件中连续发送
+     */
+    private List<Order> createOrders0(List<OrderBuilder> builders) throws AppException {
+        List<OrderImpl> orders = new ArrayList<>(builders.size());
+        try {
+            for(OrderBuilder builder:builders) {
+                orders.add(prepareOrder(builder));
+            }
+        }catch(AppException t) {
+            logger.error("多腿报单检查失败", t);
+            for(OrderImpl order:orders) {
+                rollbackOrder(order, t);
+            }
+            throw t;
+        }
+        if ( !orderActionQueue.tryInsert(orders.size(), System.nanoTime()) ) {
+            for(OrderImpl order:orders) {
+                orderActionQueue.queueInsert(order);
+            }
+            scheduleOrderActions();
+            return new ArrayList<>(orders);
+        }
+        try {
+            txnSession.asyncSendOrders(orders);
+        }catch(AppException t) {
+            logger.error("多腿报单错误", t);
+            //回退没有发出的报单
+            for(OrderImpl order:orders) {
+                if ( order.getTraceNanos(OdrTrace_SendEnd)==0 ) {
+                    rollbackOrder(order, t);
+                }
             }
             throw t;
         }
+        return new ArrayList<>(orders);
+    }
+
+    /**
+     * 本地检查, 创建报单, 冻结资金和仓位
+     */
+    private OrderImpl prepareOrder(OrderBuilder builder) throws AppException {
+        long createNanos = System.nanoTime();
+        orderValidator.validate(builder, localOrderMoney);
+        long validatedNanos = System.nanoTime();
+        //创建Order
+        Exchangeable e = builder.getExchangeable();
+        OrderImpl order = new OrderImpl(e, orderRefGen.nextRefId(), builder.getDirection(),
+            builder.getPriceType(), builder.getOffsetFlag(), builder.getLimitPrice(), builder.getVolume(), builder.getVolumeCondition());
+        order.trace(OdrTrace_TickReceived, builder.getTickNanos());
+        order.trace(OdrTrace_TradletDecision, builder.getDecisionNanos());
+        order.trace(OdrTrace_CreateOrder, createNanos);
+        order.trace(OdrTrace_Validated, validatedNanos);
+        orders.put(order.getRef(), order);
+        //关联Position
+        PositionImpl pos = getOrCreatePosition(e, true);
+        //本地计算和冻结仓位和保证金
+        order.setMoney(OdrMoney_LocalFrozenMargin, localOrderMoney[OdrMoney_LocalFrozenMargin]);
+        order.setMoney(OdrMoney_LocalFrozenCommission, localOrderMoney[OdrMoney_LocalFrozenCommission]);
+        localFreeze(order);
+        //仓位管理
+        pos.localFreeze(order);
+        order.attachPosition(pos);
+        return order;
+    }
+
+    /**
+     * 回退本地已冻结资金和仓位
+     */
+    private void rollbackOrder(OrderImpl order, AppException t) {
+        //先解冻仓位: 账户解冻后报单剩余冻结为0
+        PositionImpl pos = (PositionImpl)order.getPosition();
+        if ( pos!=null ) {
+            pos.localUnfreeze(order);
+        }
+        localUnfreeze(order);
+        //没有发出的报单可能已经进入Submitting, 直接修改状态, 不再触发解冻
+        if ( !order.getState().getState().isDone() ) {
+            order.changeState(new OrderStateTuple(OrderState.Failed, OrderSubmitState.Unsubmitted, System.currentTimeMillis(), t.toString()));
+        }
+    }
+
+    private boolean cancelOrder0(OrderImpl order) throws AppException {
+        if ( orderActionQueue.removeInsert(order) ) {
+            //还没有发出, 直接删除并解冻
+            OrderStateTuple oldState = order.changeState(new OrderStateTuple(OrderState.Deleted, OrderSubmitState.Unsubmitted, System.currentTimeMillis()));
+            if ( oldState!=null ) {
+                onOrderStateChanged(order, oldState);
+            }
+            return true;
+        }
+        OrderStateTuple state = order.getState();
+        if ( !state.getState().isCancelable()
+                || state.getSubmitState()==OrderSubmitState.DeleteSubmitting
+                || orderActionQueue.isCancelQueued(order) )
+        {
+            return false;
+        }
+        if ( orderActionQueue.tryCancel(System.nanoTime()) ) {
+            txnSession.asyncCancelOrder(order);
+        } else {
+            orderActionQueue.queueCancel(order);
+            scheduleOrderActions();
+        }
+        return true;
+    }
+
+    /**
+     * 在事件线程中发送排队的撤单和报单, 撤单优先
+     */
+    private void drainOrderActions() {
+        orderActionsScheduled = false;
+        long nanos = System.nanoTime();
+        OrderImpl order = null;
+        while( (order=orderActionQueue.pollCancel(nanos))!=null ) {
+            if ( order.getState().getState().isDone() ) {
+                continue;
+            }
+            try {
+                txnSession.asyncCancelOrder(order);
+            }catch(AppException t) {
+                logger.error("撤单错误 "+order.getRef(), t);
+            }
+        }
+        while( (order=orderActionQueue.pollInsert(nanos))!=null ) {
+            try {
+                txnSession.asyncSendOrder(order);
+            }catch(AppException t) {
+                logger.error("报单错误", t);
+                rollbackOrder(order, t);
+            }
+        }
+        scheduleOrderActions();
+    }
+
+    /**
+     * 队列中还有报单/撤单时, 在令牌补充后发布事件继续发送
+     */
+    private void scheduleOrderActions() {
+        long waitNanos = orderActionQueue.nanosToNext(System.nanoTime());
+        if ( waitNanos<0 || orderActionsScheduled ) {
+            return;
+        }
+        orderActionsScheduled = true;
+        Runnable task = ()->{
+            RingBuffer<AsyncEvent> ringBuffer = this.ringBuffer;
+            if ( ringBuffer==null || ringThread==null ) {
+                drainOrderActions();
+                return;
+            }
+            long seq = ringBuffer.next();
+            try {
+                AsyncEvent event = ringBuffer.get(seq);
+                event.setData(DATA_TYPE_DRAIN_ORDER_ACTIONS, null);
+                event.processor = this;
+                event.eventType = AsyncEvent.EVENT_TYPE_PROCESSOR;
+            }finally {
+                ringBuffer.publish(seq);
+            }
+        };
+        ScheduledExecutorService scheduledExecutorService = beansContainer!=null?beansContainer.getBean(ScheduledExecutorService.class):null;
+        if ( scheduledExecutorService!=null ) {
+            scheduledExecutorService.schedule(task, waitNanos, TimeUnit.NANOSECONDS);
+        } else {
+            CompletableFuture.delayedExecutor(waitNanos, TimeUnit.NANOSECONDS).execute(task);
+        }
     }
 
     @Override
@@ -253,6 +576,7 @@ public class AccountImpl implements Account, Lifecycle, EventHandler<AsyncEvent>
         json.addProperty("state", state.name());
         json.add("txnSession", txnSession.toJson());
         json.add("connectionProps", JsonUtil.object2json(connectionProps));
+        json.add("orderActionQueue", orderActionQueue.toJson());
         JsonArray viewsArray = new JsonArray();
         for(AccountViewImpl view:views.values()) {
             viewsArray.add(view.toJson());
@@ -302,6 +626,71 @@ public class AccountImpl implements Account, Lifecycle, EventHandler<AsyncEvent>
         return ringBuffer;
     }
 
+    public OrderLatencyStats getOrderLatencyStats() {
+        return orderLatencyStats;
+    }
+
+    /**
+     * 资金和持仓的最新快照. 没有启动RingBuffer时即时生成
+     */
+    public AccountSnapshot getSnapshot() {
+        AccountSnapshot result = snapshot;
+        if ( result==null || ringThread==null ) {
+            result = createSnapshot(-1);
+        }
+        return result;
+    }
+
+    /**
+     * 在账户事件线程中执行, 调用线程等待结果. 已经在事件线程中或者没有启动RingBuffer时直接执行
+     */
+    public <T> T executeOnRing(Callable<T> task) throws AppException {
+        RingBuffer<AsyncEvent> ringBuffer = this.ringBuffer;
+        if ( ringBuffer==null || ringThread==null || Thread.currentThread()==ringThread ) {
+            try {
+                return task.call();
+            }catch(AppException | RuntimeException e) {
+                throw e;
+            }catch(Exception e) {
+                throw new RuntimeException(e);
+            }
+        }
+        FutureTask<T> future = new FutureTask<>(task);
+        long seq = ringBuffer.next();
+        try {
+            AsyncEvent event = ringBuffer.get(seq);
+            event.setData(DATA_TYPE_TASK, future);
+            event.processor = this;
+            event.eventType = AsyncEvent.EVENT_TYPE_PROCESSOR;
+        }finally {
+            ringBuffer.publish(seq);
+        }
+        try {
+            return future.get();
+        }catch(ExecutionException ee) {
+            Throwable cause = ee.getCause();
+            if ( cause instanceof AppException ) {
+                throw (AppException)cause;
+            }
+            if ( cause instanceof RuntimeException ) {
+                throw (RuntimeException)cause;
+            }
+            throw new RuntimeException(cause);
+        }catch(InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(ie);
+        }
+    }
+
+    /**
+     * 记录报单跟踪点, 第一次到达时更新延时统计
+     */
+    public void traceOrder(OrderImpl order, int traceIndex) {
+        if ( order.trace(traceIndex, System.nanoTime()) ) {
+            orderLatencyStats.record(order, traceIndex);
+        }
+    }
+
     /**
      * 更新配置属性
      * @return true 如果有变化, false 如果相同
@@ -326,12 +715,113 @@ public class AccountImpl implements Account, Lifecycle, EventHandler<AsyncEvent>
     }
 
     /**
-     * 当市场价格发生变化, 更新持仓盈亏
+     * 行情回调, 有持仓的品种发送到账户事件线程更新持仓盈亏.
+     * <BR>按品种合并: 同一品种上一个行情还没有被处理时, 只替换为最新行情
+     */
+    @Override
+    public void onMarketData(MarketData marketData) {
+        RingBuffer<AsyncEvent> ringBuffer = this.ringBuffer;
+        if ( ringBuffer==null || ringThread==null ) {
+            processLastPrice(marketData.instrumentId, marketData.lastPrice);
+            return;
+        }
+        Exchangeable e = marketData.instrumentId;
+        if ( getSnapshot().getPosition(e)==null ) {
+            return;
+        }
+        AtomicLong pending = pendingPrices.get(e);
+        if ( pending==null ) {
+            pending = pendingPrices.computeIfAbsent(e, (k)->new AtomicLong(NO_PRICE));
+        }
+        if ( pending.getAndSet(marketData.lastPrice)!=NO_PRICE ) {
+            return;
+        }
+        long seq = ringBuffer.next();
+        try {
+            AsyncEvent event = ringBuffer.get(seq);
+            event.setData(0, pending, e);
+            event.processor = null;
+            event.eventType = AsyncEvent.EVENT_TYPE_MARKETDATA;
+        }finally {
+            ringBuffer.publish(seq);
+        }
+    }
+
+    /**
+     * 日终结算, 用于多个交易日的连续回测: 持仓按最新价逐日盯市并转为昨仓, 清除当日手续费/平仓盈亏和已结束的报单.
+     * <BR>动态权益不变, 持仓盈亏计入权益后清零. 未完成的报单需要先撤销或者由交易通道过期
+     */
+    public void settle() throws AppException {
+        executeOnRing(()->{
+            for(PositionImpl pos:positions.values()) {
+                pos.settle();
+            }
+            money[AccMoney_PreMargin] = money[AccMoney_CurrMargin];
+            money[AccMoney_Commission] = 0;
+            money[AccMoney_CloseProfit] = 0;
+            money[AccMoney_PositionProfit] = 0;
+            orders.values().removeIf(order->order.getState().getState().isDone());
+            return null;
+        });
+    }
+
+    /**
+     * 当市场价格发生变化, 更新持仓盈亏, 保证金占用, 动态权益和风险度
      */
-    void onMarketData(MarketData marketData) {
-        PositionImpl pos = positions.get(marketData.instrumentId);
+    private void processLastPrice(Exchangeable e, long lastPrice) {
+        PositionImpl pos = positions.get(e);
         if( pos!=null && pos.getVolume(PosVolume_Position)>0 ) {
-            pos.onMarketData(marketData);
+            long posProfit0 = pos.getMoney(PosMoney_PositionProfit);
+            long posMargin0 = pos.getMoney(PosMoney_UseMargin);
+            pos.onLastPrice(lastPrice);
+            applyPositionChange(pos, posProfit0, posMargin0);
+            checkRiskThresholds();
+        }
+    }
+
+    /**
+     * 持仓盈亏和保证金变化计入账户: 持仓盈亏计入动态权益和可用资金, 保证金变化从可用资金扣除
+     */
+    private void applyPositionChange(PositionImpl pos, long posProfit0, long posMargin0) {
+        long profitChange = pos.getMoney(PosMoney_PositionProfit)-posProfit0;
+        long marginChange = pos.getMoney(PosMoney_UseMargin)-posMargin0;
+        money[AccMoney_PositionProfit] += profitChange;
+        money[AccMoney_Balance] += profitChange;
+        money[AccMoney_CurrMargin] += marginChange;
+        money[AccMoney_Available] += profitChange-marginChange;
+    }
+
+    private static double computeRiskRatio(long margin, long balance) {
+        if ( balance<=0 ) {
+            return margin>0?Double.POSITIVE_INFINITY:0;
+        }
+        return ((double)margin)/balance;
+    }
+
+    /**
+     * 检查风险度是否穿越阈值
+     */
+    private void checkRiskThresholds() {
+        RiskThreshold[] thresholds = riskThresholds;
+        if ( thresholds.length==0 ) {
+            return;
+        }
+        double riskRatio = computeRiskRatio(money[AccMoney_CurrMargin], money[AccMoney_Balance]);
+        for(int i=0;i<thresholds.length;i++) {
+            RiskThreshold threshold = thresholds[i];
+            boolean exceeded = riskRatio>=threshold.threshold;
+            if ( exceeded==threshold.exceeded ) {
+                continue;
+            }
+            threshold.exceeded = exceeded;
+            if ( exceeded ) {
+                logger.warn("Account "+id+" risk ratio "+riskRatio+" exceeds "+threshold.threshold);
+            }
+            try{
+                threshold.listener.onRiskRatioCrossed(this, threshold.threshold, riskRatio, exceeded);
+            }catch(Throwable t) {
+                logger.error("notify risk listener failed", t);
+            }
         }
     }
 
@@ -346,11 +836,13 @@ public class AccountImpl implements Account, Lifecycle, EventHandler<AsyncEvent>
         OrderStateTuple lastState = order.getState();
         switch(lastState.getState()) {
         case Failed:
-            //报单失败, 本地回退冻结仓位和资金
-            synchronized(this) {
-                localUnfreeze(order);
+        case Deleted:
+        case PartiallyDeleted:
+            //报单失败或撤单, 本地回退剩余的冻结仓位和资金. 先解冻仓位: 账户解冻后报单剩余冻结为0
+            if ( pos!=null ) {
                 pos.localUnfreeze(order);
             }
+            localUnfreeze(order);
             break;
         }
     }
@@ -360,9 +852,13 @@ public class AccountImpl implements Account, Lifecycle, EventHandler<AsyncEvent>
      */
     void onTransaction(OrderImpl order, Transaction txn, long timestamp) {
         long[] lastOrderMoney = order.getMoney();
+        long odrUnfrozenMargin0 = order.getMoney(OdrMoney_LocalUnfrozenMargin);
         long odrUnfrozenCommision0 = order.getMoney(OdrMoney_LocalUnfrozenCommission);
         long odrUsedCommission0 = order.getMoney(OdrMoney_LocalUsedCommission);
-        long[] txnFees = feeEvaluator.compute(txn);
+        if ( !feeEvaluator.compute(order.getExchangeable(), txn.getVolume(), txn.getPrice(), txn.getDirection(), txn.getOffsetFlags(), txnFees) ) {
+            logger.error("成交 "+txn.getId()+" 品种 "+order.getExchangeable()+" 没有费率信息");
+            return;
+        }
         if ( !order.attachTransaction(txn, txnFees, timestamp) ) {
             if( logger.isErrorEnabled() ) {
                 logger.error("报单 "+order.getRef()+" 拒绝成交事件: "+txn.getId()+" "+txn.getDirection()+" 价 "+PriceUtil.long2price(txn.getPrice())+" 量 "+txn.getVolume());
@@ -383,17 +879,28 @@ public class AccountImpl implements Account, Lifecycle, EventHandler<AsyncEvent>
             transferMoney(AccMoney_Available, AccMoney_Commission, txnUsedCommission);
             addMoney(AccMoney_Balance, -1*txnUsedCommission);
         }
+        //解冻保证金
+        long txnUnfrozenMargin = order.getMoney(OdrMoney_LocalUnfrozenMargin)-odrUnfrozenMargin0;
+        if ( txnUnfrozenMargin!=0 ) {
+            transferMoney(AccMoney_FrozenMargin, AccMoney_Available, Math.abs(txnUnfrozenMargin));
+        }
         //更新账户保证金占用等等
         PositionImpl position = ((PositionImpl)order.getPosition());
         long closeProfit0 = position.getMoney(PosMoney_CloseProfit);
+        long posProfit0 = position.getMoney(PosMoney_PositionProfit);
+        long posMargin0 = position.getMoney(PosMoney_UseMargin);
         //更新持仓和资金
         position.onTransaction(order, txn, txnFees, lastOrderMoney);
         long txnProfit2 = position.getMoney(PosMoney_CloseProfit)-closeProfit0;
         //更新平仓利润
         if ( txnProfit2!=0 ) {
             addMoney(AccMoney_CloseProfit, txnProfit2);
+            addMoney(AccMoney_Balance, txnProfit2);
+            addMoney(AccMoney_Available, txnProfit2);
         }
-        //更新
+        //更新持仓盈亏和保证金占用
+        applyPositionChange(position, posProfit0, posMargin0);
+        checkRiskThresholds();
     }
 
     /**
@@ -403,70 +910,229 @@ public class AccountImpl implements Account, Lifecycle, EventHandler<AsyncEvent>
     public void init(BeansContainer beansContainer) {
         this.beansContainer = beansContainer;
         changeState(AccountState.Initialzing);
-        ringBuffer = disruptor.start();
-
-        ringProcessor = new BatchEventProcessor<AsyncEvent>(ringBuffer, ringBuffer.newBarrier(), this);
-        ringBuffer.addGatingSequences(ringProcessor.getSequence());
+        //断线重连后再次初始化, 继续使用已经启动的RingBuffer
+        if ( ringBuffer==null ) {
+            disruptor.handleEventsWith(this);
+            ringBuffer = disruptor.start();
+            MarketDataService mdService = beansContainer.getBean(MarketDataService.class);
+            if ( mdService!=null ) {
+                mdService.addListener(this);
+            }
+        }
 
+        StartupService startupService = beansContainer.getBean(StartupService.class);
         long t0 = System.currentTimeMillis();
         try{
             //查询并确认结算单
-            String settlement = txnSession.syncConfirmSettlement();
+            String settlement = runStartupPhase(startupService, "settlement", ()->{
+                return txnSession.syncConfirmSettlement();
+            });
             if ( !StringUtil.isEmpty(settlement)) {
                 logger.info("Account "+getId()+" settlement: \n"+settlement);
             }
-            //加载品种的交易数据
+            //加载品种的交易数据, 优先使用当天的缓存
+            boolean feeCached = false;
             if ( null==feeEvaluator ) {
-                feeEvaluator = txnSession.syncLoadFeeEvaluator();
+                feeEvaluator = runStartupPhase(startupService, "feeEvaluator", ()->{
+                    return loadCachedFeeEvaluator();
+                });
+                feeCached = feeEvaluator!=null;
+                if ( !feeCached ) {
+                    feeEvaluator = runStartupPhase(startupService, "feeEvaluator.query", ()->{
+                        return txnSession.syncLoadFeeEvaluator();
+                    });
+                    saveFeeEvaluator(feeEvaluator);
+                }
                 logger.info("Exchangeable fee infos: \n"+feeEvaluator.toJson().toString());
             }
             for(AccountViewImpl view:views.values()) {
                 view.resolveExchangeables();
             }
             //查询账户
-            money = txnSession.syncQryAccounts();
+            long[] qryMoney = runStartupPhase(startupService, "accounts", ()->{
+                return txnSession.syncQryAccounts();
+            });
             //查询持仓
-            positions = new HashMap<>();
-            for(PositionImpl pos:txnSession.syncQryPositions()) {
-                positions.put(pos.getExchangeable(), pos);
-            }
-            //分配持仓到View
-            for(PositionImpl p:positions.values()) {
-                assignPositionView(p);
-            }
+            List<PositionImpl> qryPositions = runStartupPhase(startupService, "positions", ()->{
+                return txnSession.syncQryPositions();
+            });
+            //查询结果在事件线程中替换账户状态
+            executeOnRing(()->{
+                money = qryMoney;
+                positions = new HashMap<>();
+                for(PositionImpl pos:qryPositions) {
+                    positions.put(pos.getExchangeable(), pos);
+                }
+                //分配持仓到View
+                for(PositionImpl p:positions.values()) {
+                    assignPositionView(p);
+                }
+                return null;
+            });
             long t1 = System.currentTimeMillis();
             changeState(AccountState.Ready);
             logger.info("Account "+getId()+" initialize in "+(t1-t0)+" ms");
+            if ( feeCached ) {
+                asyncRefreshFeeEvaluator();
+            }
         }catch(Throwable t) {
             logger.error("Account "+getId()+" initialize failed", t);
             changeState(AccountState.NotReady);
         }
     }
 
+    /**
+     * 从KVStore加载当天缓存的费率. KVStore按交易日分目录, 所以缓存只在同一交易日内有效
+     */
+    private TxnFeeEvaluator loadCachedFeeEvaluator() {
+        if ( kvStore==null ) {
+            return null;
+        }
+        String json = kvStore.getAsString(getFeeCacheKey());
+        if ( StringUtil.isEmpty(json) ) {
+            return null;
+        }
+        try {
+            FutureFeeEvaluator result = FutureFeeEvaluator.fromJson((JsonObject)(new JsonParser()).parse(json));
+            logger.info("Load "+result.getExchangeables().size()+" fee infos from cache");
+            return result;
+        }catch(Throwable t) {
+            logger.error("Load fee infos from cache failed", t);
+            return null;
+        }
+    }
+
+    private void saveFeeEvaluator(TxnFeeEvaluator feeEvaluator) {
+        if ( kvStore!=null ) {
+            kvStore.put(getFeeCacheKey(), feeEvaluator.toJson().toString());
+        }
+    }
+
+    private String getFeeCacheKey() {
+        return id+".feeEvaluator";
+    }
+
+    /**
+     * 使用缓存启动后, 在后台重新查询费率, 有变化的品种在事件线程中更新并重新保存缓存
+     */
+    private void asyncRefreshFeeEvaluator() {
+        Runnable task = ()->{
+            try {
+                long t0 = System.currentTimeMillis();
+                TxnFeeEvaluator feeEvaluator2 = txnSession.syncLoadFeeEvaluator();
+                if ( !(feeEvaluator instanceof FutureFeeEvaluator) || !(feeEvaluator2 instanceof FutureFeeEvaluator) ) {
+                    return;
+                }
+                FutureFeeEvaluator futureFeeEvaluator = (FutureFeeEvaluator)feeEvaluator;
+                Map<Exchangeable, FutureFeeInfo> changedFeeInfos = futureFeeEvaluator.diff((FutureFeeEvaluator)feeEvaluator2);
+                if ( !changedFeeInfos.isEmpty() ) {
+                    executeOnRing(()->{
+                        futureFeeEvaluator.update(changedFeeInfos);
+                        for(Exchangeable e:changedFeeInfos.keySet()) {
+                            PositionImpl pos = positions.get(e);
+                            if ( pos!=null ) {
+                                pos.onFeeInfoChanged();
+                            }
+                        }
+                        return null;
+                    });
+                    saveFeeEvaluator(futureFeeEvaluator);
+                }
+                long t1 = System.currentTimeMillis();
+                logger.info("Refresh fee infos in "+(t1-t0)+" ms, "+changedFeeInfos.size()+" changed: "+changedFeeInfos.keySet());
+            }catch(Throwable t) {
+                logger.error("Refresh fee infos failed", t);
+            }
+        };
+        ExecutorService executorService = beansContainer.getBean(ExecutorService.class);
+        if ( executorService!=null ) {
+            executorService.execute(task);
+        } else {
+            task.run();
+        }
+    }
+
+    /**
+     * 第一次初始化时在启动时间线中记录账户查询阶段, 断线重连后的初始化不再记录
+     */
+    private <T> T runStartupPhase(StartupService startupService, String name, Callable<T> task) throws Exception {
+        String phaseName = "account."+id+"."+name;
+        if ( startupService==null || startupService.getTimeline().getPhase(phaseName)!=null ) {
+            return task.call();
+        }
+        return startupService.runPhase(phaseName, task);
+    }
+
     @Override
     public void destroy() {
         if ( ringBuffer!=null ) {
-            ringBuffer.removeGatingSequence(ringProcessor.getSequence());
             disruptor.shutdown();
             ringBuffer = null;
-            ringProcessor = null;
         }
     }
 
     /**
-     * 处理从CtpTxnSession过来的事件, 和MarketData事件
+     * 处理从CtpTxnSession过来的事件, 账户自身的任务和MarketData事件.
+     * <BR>每批事件处理完后发布快照
      */
     @Override
     public void onEvent(AsyncEvent event, long sequence, boolean endOfBatch) throws Exception {
-        switch(event.eventType) {
-        case AsyncEvent.EVENT_TYPE_PROCESSOR:
-            event.processor.process(event.dataType, event.data, event.data2);
+        try {
+            switch(event.eventType) {
+            case AsyncEvent.EVENT_TYPE_PROCESSOR:
+                event.processor.process(event.dataType, event.data, event.data2);
+                break;
+            case AsyncEvent.EVENT_TYPE_MARKETDATA:
+                long lastPrice = ((AtomicLong)event.data).getAndSet(NO_PRICE);
+                if ( lastPrice!=NO_PRICE ) {
+                    processLastPrice((Exchangeable)event.data2, lastPrice);
+                }
+                break;
+            }
+        }catch(Throwable t) {
+            logger.error("Account "+getId()+" process event "+event.eventType+"/"+event.dataType+" failed", t);
+        }
+        //释放引用
+        event.setData(0, null);
+        event.processor = null;
+        if ( endOfBatch ) {
+            snapshot = createSnapshot(sequence);
+        }
+    }
+
+    @Override
+    public void process(int dataType, Object data, Object data2) {
+        switch(dataType) {
+        case DATA_TYPE_TASK:
+            ((FutureTask<?>)data).run();
             break;
-        case AsyncEvent.EVENT_TYPE_MARKETDATA:
-            //TODO 更新Account当前持仓和可用资金
+        case DATA_TYPE_DRAIN_ORDER_ACTIONS:
+            drainOrderActions();
             break;
         }
+    }
+
+    @Override
+    public void onStart() {
+        snapshot = createSnapshot(-1);
+        ringThread = Thread.currentThread();
+    }
 
+    @Override
+    public void onShutdown() {
+        ringThread = null;
+    }
+
+    private boolean isRingThread() {
+        Thread thread = ringThread;
+        return thread==null || thread==Thread.currentThread();
+    }
+
+    /**
+     * 生成快照, 复制资金和每个持仓的资金/数量
+     */
+    private AccountSnapshot createSnapshot(long sequence) {
+        return new AccountSnapshot(sequence, money, positions.values());
     }
 
     private void createAccountLogger(TxnProvider provider) {
@@ -502,6 +1168,8 @@ public class AccountImpl implements Account, Lifecycle, EventHandler<AsyncEvent>
         switch(provider) {
         case ctp:
             return new CtpTxnSession(tradeService, this);
+        case sim:
+            return new SimTxnSession(tradeService, this);
         default:
             throw new RuntimeException("Unsupported account txn provider: "+provider);
         }
@@ -563,7 +1231,7 @@ public class AccountImpl implements Account, Lifecycle, EventHandler<AsyncEvent>
     PositionImpl getOrCreatePosition(Exchangeable e, boolean create) {
         PositionImpl pos = positions.get(e);
         if ( pos==null && create ) {
-            pos = new PositionImpl(e);
+            pos = new PositionImpl(this, e, PosDirection.Net, new long[PosMoney_Count], new int[PosVolume_Count], new ArrayList<>());
             positions.put(e, pos);
         }
         return pos;
@@ -589,12 +1257,12 @@ public class AccountImpl implements Account, Lifecycle, EventHandler<AsyncEvent>
     }
 
     /**
-     * 本地订单解冻, 如果报单失败
+     * 本地订单解冻剩余的冻结资金, 如果报单失败或撤单
      */
     private void localUnfreeze(OrderImpl order) {
         localFreeze0(order, -1);
-        order.addMoney(OdrMoney_LocalUnfrozenMargin, order.getMoney(OdrMoney_LocalFrozenMargin) );
-        order.addMoney(OdrMoney_LocalUnfrozenCommission, order.getMoney(OdrMoney_LocalFrozenCommission) );
+        order.addMoney(OdrMoney_LocalUnfrozenMargin, order.getMoney(OdrMoney_LocalFrozenMargin)-order.getMoney(OdrMoney_LocalUnfrozenMargin) );
+        order.addMoney(OdrMoney_LocalUnfrozenCommission, order.getMoney(OdrMoney_LocalFrozenCommission)-order.getMoney(OdrMoney_LocalUnfrozenCommission) );
     }
 
     /**
@@ -0,0 +1,115 @@
+package trader.service.trade;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import trader.common.exchangeable.Exchangeable;
+import trader.common.util.JsonEnabled;
+import trader.common.util.JsonUtil;
+
+/**
+ * 账户状态的不可变快照, 由账户事件线程在每批事件处理完后发布.
+ * <BR>其它线程读取资金和持仓时使用快照, 不需要和事件线程加锁. 持仓为发布时复制的资金和数量, 不引用事件线程修改的 PositionImpl.
+ * <BR>sequence 为发布时已处理的RingBuffer序号
+ */
+public class AccountSnapshot implements JsonEnabled, TradeConstants {
+
+    /**
+     * 持仓的不可变副本
+     */
+    private static class PositionSnapshot implements Position {
+        private final Exchangeable exchangeable;
+        private final PosDirection direction;
+        private final long[] money = new long[PosMoney_Count];
+        private final int[] volumes = new int[PosVolume_Count];
+
+        PositionSnapshot(Position pos){
+            exchangeable = pos.getExchangeable();
+            direction = pos.getDirection();
+            for(int i=0;i<money.length;i++) {
+                money[i] = pos.getMoney(i);
+            }
+            for(int i=0;i<volumes.length;i++) {
+                volumes[i] = pos.getVolume(i);
+            }
+        }
+
+        @Override
+        public Exchangeable getExchangeable() {
+            return exchangeable;
+        }
+
+        @Override
+        public PosDirection getDirection() {
+            return direction;
+        }
+
+        @Override
+        public long getMoney(int posMoneyIdx) {
+            return money[posMoneyIdx];
+        }
+
+        @Override
+        public int getVolume(int posVolumeIdx) {
+            return volumes[posVolumeIdx];
+        }
+
+        @Override
+        public List<Order> getActiveOrders() {
+            return Collections.emptyList();
+        }
+    }
+
+    private final long sequence;
+    private final long time;
+    private final long[] money;
+    private final Map<Exchangeable, Position> positions;
+
+    AccountSnapshot(long sequence, long[] money, Collection<PositionImpl> positions) {
+        this.sequence = sequence;
+        this.time = System.currentTimeMillis();
+        this.money = money.clone();
+        Map<Exchangeable, Position> positions0 = new HashMap<>();
+        for(PositionImpl pos:positions) {
+            positions0.put(pos.getExchangeable(), new PositionSnapshot(pos));
+        }
+        this.positions = Collections.unmodifiableMap(positions0);
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public long getTime() {
+        return time;
+    }
+
+    public long getMoney(int moneyIdx) {
+        return money[moneyIdx];
+    }
+
+    public Position getPosition(Exchangeable e) {
+        return positions.get(e);
+    }
+
+    public Collection<Position> getPositions(){
+        return positions.values();
+    }
+
+    @Override
+    public JsonElement toJson() {
+        JsonObject json = new JsonObject();
+        json.addProperty("sequence", sequence);
+        json.addProperty("time", time);
+        json.add("money", JsonUtil.object2json(money));
+        json.add("positions", JsonUtil.object2json(positions.keySet()));
+        return json;
+    }
+
+}
@@ -1,9 +1,12 @@
 package trader.service.trade;
 
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.TreeSet;
 
+import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 
@@ -74,6 +77,44 @@ public class FutureFeeEvaluator implements TxnFeeEvaluator, TradeConstants {
             commissionRatios[idx] = v;
         }
 
+        /**
+         * 从toJson()的输出恢复
+         */
+        public static FutureFeeInfo fromJson(JsonObject json) {
+            FutureFeeInfo result = new FutureFeeInfo();
+            result.setPriceTick(PriceUtil.price2long(json.get("priceTick").getAsDouble()));
+            result.setVolumeMultiple(json.get("volumeMultiple").getAsInt());
+            JsonArray marginRatios = json.getAsJsonArray("marginRatios");
+            for(int i=0;i<marginRatios.size() && i<MarginRatio_Count;i++) {
+                result.setMarginRatio(i, marginRatios.get(i).getAsDouble());
+            }
+            JsonArray commissionRatios = json.getAsJsonArray("commissionRatios");
+            for(int i=0;i<commissionRatios.size() && i<CommissionRatio_Count;i++) {
+                result.setCommissionRatio(i, commissionRatios.get(i).getAsDouble());
+            }
+            return result;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if ( o==this ) {
+                return true;
+            }
+            if ( !(o instanceof FutureFeeInfo) ) {
+                return false;
+            }
+            FutureFeeInfo info = (FutureFeeInfo)o;
+            return priceTick==info.priceTick
+                    && volumeMultiple==info.volumeMultiple
+                    && Arrays.equals(marginRatios, info.marginRatios)
+                    && Arrays.equals(commissionRatios, info.commissionRatios);
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(priceTick)*31+volumeMultiple;
+        }
+
         @Override
         public JsonElement toJson() {
             JsonObject json = new JsonObject();
@@ -86,11 +127,30 @@ public class FutureFeeEvaluator implements TxnFeeEvaluator, TradeConstants {
 
     }
 
-    Map<Exchangeable, FutureFeeInfo> feeInfos;
+    /**
+     * 更新时整体替换, 其它线程遍历时不会冲突
+     */
+    volatile Map<Exchangeable, FutureFeeInfo> feeInfos;
+    /**
+     * 计算使用的定点费率表
+     */
+    private FutureFeeTable feeTable;
 
     public FutureFeeEvaluator(Map<Exchangeable, FutureFeeInfo> feeInfos)
     {
         this.feeInfos = feeInfos;
+        feeTable = new FutureFeeTable(feeInfos);
+    }
+
+    /**
+     * 从toJson()保存的费率快照恢复, 用于回测等不能查询交易通道的场合
+     */
+    public static FutureFeeEvaluator fromJson(JsonObject json) {
+        Map<Exchangeable, FutureFeeInfo> feeInfos = new LinkedHashMap<>();
+        for(Map.Entry<String, JsonElement> entry:json.entrySet()) {
+            feeInfos.put(Exchangeable.fromString(entry.getKey()), FutureFeeInfo.fromJson(entry.getValue().getAsJsonObject()));
+        }
+        return new FutureFeeEvaluator(feeInfos);
     }
 
     @Override
@@ -98,16 +158,40 @@ public class FutureFeeEvaluator implements TxnFeeEvaluator, TradeConstants {
         return feeInfos.keySet();
     }
 
-    @Override
-    public long getPriceTick(Exchangeable e) {
-        FutureFeeInfo feeInfo = feeInfos.get(e);
-        long result = 0;
-        if ( feeInfo!=null ) {
-            result = feeInfo.getPriceTick();
+    public FutureFeeInfo getFeeInfo(Exchangeable e) {
+        return feeInfos.get(e);
+    }
+
+    /**
+     * 返回other中新增或者费率有变化的品种
+     */
+    public Map<Exchangeable, FutureFeeInfo> diff(FutureFeeEvaluator other){
+        Map<Exchangeable, FutureFeeInfo> result = new LinkedHashMap<>();
+        for(Map.Entry<Exchangeable, FutureFeeInfo> entry:other.feeInfos.entrySet()) {
+            if ( !entry.getValue().equals(feeInfos.get(entry.getKey())) ) {
+                result.put(entry.getKey(), entry.getValue());
+            }
         }
         return result;
     }
 
+    /**
+     * 增加或更新品种费率. 同一时间只能有一个线程调用, 一般在账户事件线程中
+     */
+    public void update(Map<Exchangeable, FutureFeeInfo> changedFeeInfos) {
+        Map<Exchangeable, FutureFeeInfo> feeInfos2 = new LinkedHashMap<>(feeInfos);
+        for(Map.Entry<Exchangeable, FutureFeeInfo> entry:changedFeeInfos.entrySet()) {
+            feeTable.update(entry.getKey(), entry.getValue());
+            feeInfos2.put(entry.getKey(), entry.getValue());
+        }
+        feeInfos = feeInfos2;
+    }
+
+    @Override
+    public long getPriceTick(Exchangeable e) {
+        return feeTable.getPriceTick(e);
+    }
+
     @Override
     public long[] compute(Transaction txn) {
         return compute(txn.getOrder().getExchangeable(), txn.getVolume(), txn.getPrice(), txn.getDirection(), txn.getOffsetFlags());
@@ -115,57 +199,26 @@ public class FutureFeeEvaluator implements TxnFeeEvaluator, TradeConstants {
 
     @Override
     public long[] compute(Exchangeable e, int volume, long price, OrderDirection direction, OrderOffsetFlag offsetFlag) {
-        FutureFeeInfo feeInfo = feeInfos.get(e);
-        if ( feeInfo==null ) {
+        long[] result = new long[FutureFeeTable.FEE_COUNT];
+        if ( !feeTable.compute(e, volume, price, direction, offsetFlag, result) ) {
             return null;
         }
-        long turnover = volume*price*feeInfo.getVolumeMultiple();
-        long margin=0, commission=0;
-        {//保证金
-            if ( direction==OrderDirection.Buy ) {
-                double longByMoney = feeInfo.marginRatios[MarginRatio_LongByMoney];
-                double longByVolume = feeInfo.marginRatios[MarginRatio_LongByVolume];
-                long marginByMoney = (long)(longByMoney*turnover);
-                margin = marginByMoney;
-            }else {
-                double shortByMoney = feeInfo.marginRatios[MarginRatio_ShortByMoney];
-                double shortByVolume = feeInfo.marginRatios[MarginRatio_ShortByVolume];
-                long marginByMoney = (long)(shortByMoney*turnover);
-                margin = marginByMoney;
-            }
-        }
-        {//手续费
-            switch(offsetFlag) {
-            case OPEN:
-                long openMoney = (long)( turnover*feeInfo.commissionRatios[CommissionRatio_OpenByMoney] );
-                long openVolume = (long)( volume*feeInfo.commissionRatios[CommissionRatio_OpenByVolume] );
-                commission = (openMoney+openVolume);
-                break;
-            case CLOSE:
-            case CLOSE_YESTERDAY:
-            case FORCE_CLOSE:
-                long closeMoney = (long)( turnover*feeInfo.commissionRatios[CommissionRatio_CloseByMoney] );
-                long closeVolume = (long)( volume*feeInfo.commissionRatios[CommissionRatio_CloseByVolume] );
-                commission = closeMoney+closeVolume;
-                break;
-            case CLOSE_TODAY:
-                long closeTodayMoney = (long)( turnover*feeInfo.commissionRatios[CommissionRatio_CloseTodayByMoney] );
-                long closeTodayVolume = (long)( volume*feeInfo.commissionRatios[CommissionRatio_CloseTodayByVolume] );
-                commission = closeTodayMoney+closeTodayVolume;
-                break;
-            }
-        }
-        return  new long[] {margin, commission, turnover};
+        return result;
+    }
+
+    @Override
+    public boolean compute(Exchangeable e, int volume, long price, OrderDirection direction, OrderOffsetFlag offsetFlag, long[] result) {
+        return feeTable.compute(e, volume, price, direction, offsetFlag, result);
+    }
+
+    @Override
+    public long computeMargin(Exchangeable e, int volume, long price, OrderDirection direction) {
+        return feeTable.computeMargin(e, volume, price, direction);
     }
 
     @Override
     public long computeValue(Exchangeable e, int volume, long price){
-        FutureFeeInfo feeInfo = feeInfos.get(e);
-        if ( feeInfo==null ) {
-            return 0;
-        }
-        long turnover = volume*price*feeInfo.getVolumeMultiple();
-        return turnover;
+        return feeTable.computeValue(e, volume, price);
     }
 
     @Override
@@ -0,0 +1,204 @@
+package trader.service.trade;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import trader.common.exchangeable.Exchangeable;
+import trader.common.util.PriceUtil;
+import trader.service.trade.FutureFeeEvaluator.FutureFeeInfo;
+
+/**
+ * 期货费率的扁平表: 每个字段一个基本类型数组, 按 Exchangeable.uniqueIntId() 索引, 查找不需要HashMap.
+ * <BR>按金额的比例保存为 RATIO_SCALE 的定点整数, 按手数的保证金/手续费保存为 PriceUtil 定点金额, 计算过程不使用double, 不分配内存.
+ * <BR>修改时复制全部数组后通过volatile引用整体替换, 其它线程读取时只读取一次引用, 看到的数组长度和内容总是一致. 修改只在一个线程中进行
+ */
+public class FutureFeeTable implements TradeConstants {
+
+    /**
+     * 比例的定点精度, 可以精确表示万分之0.01的手续费率
+     */
+    public static final long RATIO_SCALE = 100_000_000L;
+
+    public static final int FEE_MARGIN = 0;
+    public static final int FEE_COMMISSION = 1;
+    public static final int FEE_TURNOVER = 2;
+    public static final int FEE_COUNT = FEE_TURNOVER+1;
+
+    /**
+     * 一个版本的费率数组, 发布后不再修改
+     */
+    private static class Columns {
+        final boolean[] present;
+        final long[] priceTicks;
+        final long[] volumeMultiples;
+        /**
+         * [MarginRatio_XXX][id], ByMoney为定点比例, ByVolume为每手金额
+         */
+        final long[][] marginRatios = new long[MarginRatio_Count][];
+        /**
+         * [CommissionRatio_XXX][id], ByMoney为定点比例, ByVolume为每手金额
+         */
+        final long[][] commissionRatios = new long[CommissionRatio_Count][];
+
+        Columns(Columns c, int capacity){
+            present = Arrays.copyOf(c.present, capacity);
+            priceTicks = Arrays.copyOf(c.priceTicks, capacity);
+            volumeMultiples = Arrays.copyOf(c.volumeMultiples, capacity);
+            for(int i=0;i<marginRatios.length;i++) {
+                marginRatios[i] = Arrays.copyOf(c.marginRatios[i], capacity);
+            }
+            for(int i=0;i<commissionRatios.length;i++) {
+                commissionRatios[i] = Arrays.copyOf(c.commissionRatios[i], capacity);
+            }
+        }
+
+        Columns(){
+            present = new boolean[0];
+            priceTicks = new long[0];
+            volumeMultiples = new long[0];
+            Arrays.fill(marginRatios, new long[0]);
+            Arrays.fill(commissionRatios, new long[0]);
+        }
+
+        void set(int id, FutureFeeInfo feeInfo) {
+            present[id] = true;
+            priceTicks[id] = feeInfo.getPriceTick();
+            volumeMultiples[id] = feeInfo.getVolumeMultiple();
+            marginRatios[MarginRatio_LongByMoney][id] = fixedRatio(feeInfo.getMarginRatio(MarginRatio_LongByMoney));
+            marginRatios[MarginRatio_LongByVolume][id] = PriceUtil.price2long(feeInfo.getMarginRatio(MarginRatio_LongByVolume));
+            marginRatios[MarginRatio_ShortByMoney][id] = fixedRatio(feeInfo.getMarginRatio(MarginRatio_ShortByMoney));
+            marginRatios[MarginRatio_ShortByVolume][id] = PriceUtil.price2long(feeInfo.getMarginRatio(MarginRatio_ShortByVolume));
+            for(int i=0;i<CommissionRatio_Count;i++) {
+                double ratio = feeInfo.getCommissionRatio(i);
+                boolean byVolume = (i==CommissionRatio_OpenByVolume || i==CommissionRatio_CloseByVolume || i==CommissionRatio_CloseTodayByVolume);
+                commissionRatios[i][id] = byVolume?PriceUtil.price2long(ratio):fixedRatio(ratio);
+            }
+        }
+
+        long computeMargin(int id, int volume, long price, OrderDirection direction) {
+            long turnover = volume*price*volumeMultiples[id];
+            if ( direction==OrderDirection.Buy ) {
+                return mulRatio(turnover, marginRatios[MarginRatio_LongByMoney][id]) + volume*marginRatios[MarginRatio_LongByVolume][id];
+            } else {
+                return mulRatio(turnover, marginRatios[MarginRatio_ShortByMoney][id]) + volume*marginRatios[MarginRatio_ShortByVolume][id];
+            }
+        }
+    }
+
+    private volatile Columns columns;
+
+    public FutureFeeTable(Map<Exchangeable, FutureFeeInfo> feeInfos) {
+        int capacity = 0;
+        for(Exchangeable e:feeInfos.keySet()) {
+            capacity = Math.max(capacity, e.uniqueIntId()+1);
+        }
+        Columns c = new Columns(new Columns(), capacity);
+        for(Map.Entry<Exchangeable, FutureFeeInfo> entry:feeInfos.entrySet()) {
+            c.set(entry.getKey().uniqueIntId(), entry.getValue());
+        }
+        columns = c;
+    }
+
+    /**
+     * 增加或更新一个品种的费率: 复制后修改, 再发布新版本
+     */
+    public void update(Exchangeable e, FutureFeeInfo feeInfo) {
+        int id = e.uniqueIntId();
+        Columns c0 = columns;
+        Columns c = new Columns(c0, Math.max(id+1, c0.present.length));
+        c.set(id, feeInfo);
+        columns = c;
+    }
+
+    public boolean contains(Exchangeable e) {
+        int id = e.uniqueIntId();
+        Columns c = columns;
+        return id<c.present.length && c.present[id];
+    }
+
+    public long getPriceTick(Exchangeable e) {
+        int id = e.uniqueIntId();
+        Columns c = columns;
+        return id<c.present.length?c.priceTicks[id]:0;
+    }
+
+    public long getVolumeMultiple(Exchangeable e) {
+        int id = e.uniqueIntId();
+        Columns c = columns;
+        return id<c.present.length?c.volumeMultiples[id]:0;
+    }
+
+    /**
+     * 合约价值, 没有费率返回0
+     */
+    public long computeValue(Exchangeable e, int volume, long price) {
+        int id = e.uniqueIntId();
+        Columns c = columns;
+        if ( id>=c.present.length ) {
+            return 0;
+        }
+        return volume*price*c.volumeMultiples[id];
+    }
+
+    /**
+     * 保证金: 合约价值*按金额比例 + 手数*每手保证金, 没有费率返回0
+     */
+    public long computeMargin(Exchangeable e, int volume, long price, OrderDirection direction) {
+        int id = e.uniqueIntId();
+        Columns c = columns;
+        if ( id>=c.present.length ) {
+            return 0;
+        }
+        return c.computeMargin(id, volume, price, direction);
+    }
+
+    /**
+     * 计算保证金, 手续费和合约价值, 写入 result[FEE_MARGIN], result[FEE_COMMISSION], result[FEE_TURNOVER]
+     *
+     * @return false 如果没有这个品种的费率
+     */
+    public boolean compute(Exchangeable e, int volume, long price, OrderDirection direction, OrderOffsetFlag offsetFlag, long[] result) {
+        int id = e.uniqueIntId();
+        Columns c = columns;
+        if ( id>=c.present.length || !c.present[id] ) {
+            return false;
+        }
+        long turnover = volume*price*c.volumeMultiples[id];
+        int byMoney, byVolume;
+        switch(offsetFlag) {
+        case OPEN:
+            byMoney = CommissionRatio_OpenByMoney;
+            byVolume = CommissionRatio_OpenByVolume;
+            break;
+        case CLOSE_TODAY:
+            byMoney = CommissionRatio_CloseTodayByMoney;
+            byVolume = CommissionRatio_CloseTodayByVolume;
+            break;
+        default:
+            byMoney = CommissionRatio_CloseByMoney;
+            byVolume = CommissionRatio_CloseByVolume;
+            break;
+        }
+        result[FEE_MARGIN] = c.computeMargin(id, volume, price, direction);
+        result[FEE_COMMISSION] = mulRatio(turnover, c.commissionRatios[byMoney][id]) + volume*c.commissionRatios[byVolume][id];
+        result[FEE_TURNOVER] = turnover;
+        return true;
+    }
+
+    /**
+     * 金额*定点比例, 截断小数. 乘积超出long范围时使用double
+     */
+    static long mulRatio(long value, long ratio) {
+        long hi = Math.multiplyHigh(value, ratio);
+        long lo = value*ratio;
+        if ( (hi==0 && lo>=0) || (hi==-1 && lo<0) ) {
+            return lo/RATIO_SCALE;
+        }
+        return (long)(((double)value)*ratio/RATIO_SCALE);
+    }
+
+    static long fixedRatio(double ratio) {
+        return Math.round(ratio*RATIO_SCALE);
+    }
+
+}
@@ -0,0 +1,162 @@
+package trader.service.trade;
+
+import java.util.ArrayDeque;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import trader.common.util.JsonEnabled;
+
+/**
+ * 报单和撤单的发送队列, 按经纪商/交易所的每秒报单数和每秒撤单数限速, 撤单优先于报单.
+ * <BR>没有积压并且有令牌时直接发送, 否则进入队列, 由账户事件线程在令牌补充后按顺序发送.
+ * 有撤单在排队时新报单也排队, 保证撤单-重报的顺序. 只在账户事件线程中使用
+ */
+public class OrderActionQueue implements JsonEnabled {
+
+    /**
+     * 报单限速, null 表示不限
+     */
+    private TokenBucket insertBucket;
+    /**
+     * 撤单限速, null 表示不限
+     */
+    private TokenBucket cancelBucket;
+    private ArrayDeque<OrderImpl> inserts = new ArrayDeque<>();
+    private ArrayDeque<OrderImpl> cancels = new ArrayDeque<>();
+
+    private long insertCount;
+    private long cancelCount;
+    private long throttledInserts;
+    private long throttledCancels;
+    private int maxQueueDepth;
+
+    /**
+     * @param orderRate 每秒报单数, 0 不限速
+     * @param actionRate 每秒撤单数, 0 不限速
+     */
+    public OrderActionQueue(double orderRate, double actionRate) {
+        if ( orderRate>0 ) {
+            insertBucket = new TokenBucket(orderRate, Math.max(1, orderRate));
+        }
+        if ( actionRate>0 ) {
+            cancelBucket = new TokenBucket(actionRate, Math.max(1, actionRate));
+        }
+    }
+
+    /**
+     * 是否可以立即发送count个报单, 可以时扣减令牌
+     */
+    public boolean tryInsert(int count, long nanos) {
+        if ( inserts.isEmpty() && cancels.isEmpty() && acquire(insertBucket, count, nanos) ) {
+            insertCount += count;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 是否可以立即发送撤单, 可以时扣减令牌
+     */
+    public boolean tryCancel(long nanos) {
+        if ( cancels.isEmpty() && acquire(cancelBucket, 1, nanos) ) {
+            cancelCount++;
+            return true;
+        }
+        return false;
+    }
+
+    public void queueInsert(OrderImpl order) {
+        inserts.add(order);
+        throttledInserts++;
+        updateMaxDepth();
+    }
+
+    public void queueCancel(OrderImpl order) {
+        cancels.add(order);
+        throttledCancels++;
+        updateMaxDepth();
+    }
+
+    /**
+     * 从报单队列中删除还没有发送的报单
+     */
+    public boolean removeInsert(OrderImpl order) {
+        return inserts.remove(order);
+    }
+
+    public boolean isInsertQueued(OrderImpl order) {
+        return inserts.contains(order);
+    }
+
+    public boolean isCancelQueued(OrderImpl order) {
+        return cancels.contains(order);
+    }
+
+    /**
+     * 返回下一个可以发送的撤单, 没有或者没有令牌返回null
+     */
+    public OrderImpl pollCancel(long nanos) {
+        if ( !cancels.isEmpty() && acquire(cancelBucket, 1, nanos) ) {
+            cancelCount++;
+            return cancels.poll();
+        }
+        return null;
+    }
+
+    /**
+     * 返回下一个可以发送的报单, 还有撤单排队时不发送报单
+     */
+    public OrderImpl pollInsert(long nanos) {
+        if ( cancels.isEmpty() && !inserts.isEmpty() && acquire(insertBucket, 1, nanos) ) {
+            insertCount++;
+            return inserts.poll();
+        }
+        return null;
+    }
+
+    /**
+     * 距离下一个排队的撤单/报单可以发送的纳秒数, 没有排队返回-1
+     */
+    public long nanosToNext(long nanos) {
+        if ( !cancels.isEmpty() ) {
+            return cancelBucket!=null?cancelBucket.nanosToAcquire(1, nanos):0;
+        }
+        if ( !inserts.isEmpty() ) {
+            return insertBucket!=null?insertBucket.nanosToAcquire(1, nanos):0;
+        }
+        return -1;
+    }
+
+    public int getInsertQueueDepth() {
+        return inserts.size();
+    }
+
+    public int getCancelQueueDepth() {
+        return cancels.size();
+    }
+
+    @Override
+    public JsonElement toJson() {
+        JsonObject json = new JsonObject();
+        json.addProperty("orderRate", insertBucket!=null?insertBucket.getRate():0);
+        json.addProperty("actionRate", cancelBucket!=null?cancelBucket.getRate():0);
+        json.addProperty("insertQueueDepth", inserts.size());
+        json.addProperty("cancelQueueDepth", cancels.size());
+        json.addProperty("maxQueueDepth", maxQueueDepth);
+        json.addProperty("insertCount", insertCount);
+        json.addProperty("cancelCount", cancelCount);
+        json.addProperty("throttledInserts", throttledInserts);
+        json.addProperty("throttledCancels", throttledCancels);
+        return json;
+    }
+
+    private static boolean acquire(TokenBucket bucket, int permits, long nanos) {
+        return bucket==null || bucket.tryAcquire(permits, nanos);
+    }
+
+    private void updateMaxDepth() {
+        maxQueueDepth = Math.max(maxQueueDepth, inserts.size()+cancels.size());
+    }
+
+}
@@ -27,11 +27,16 @@ public class OrderImpl implements Order {
     private Properties attrs = new Properties();
     protected long money[] = new long[OdrMoney_Count];
     protected int[] volumes = new int[OdrVolume_Count];
+    /**
+     * 各个跟踪点的System.nanoTime(), 0代表未到达
+     */
+    protected long[] traceNanos = new long[OdrTrace_Count];
 
-    public OrderImpl(Exchangeable e, String ref, OrderPriceType priceType, OrderOffsetFlag offsetFlag, long limitPrice, int volume, OrderVolumeCondition volumeCondition)
+    public OrderImpl(Exchangeable e, String ref, OrderDirection direction, OrderPriceType priceType, OrderOffsetFlag offsetFlag, long limitPrice, int volume, OrderVolumeCondition volumeCondition)
     {
         exchangeable = e;
         this.ref = ref;
+        this.direction = direction;
         this.priceType = priceType;
         this.offsetFlag = offsetFlag;
         this.limitPrice = limitPrice;
@@ -124,6 +129,23 @@ public class OrderImpl implements Order {
         return result;
     }
 
+    public long getTraceNanos(int index) {
+        return traceNanos[index];
+    }
+
+    /**
+     * 记录跟踪点时间, 只记录第一次到达
+     *
+     * @return true 如果是第一次到达
+     */
+    public boolean trace(int index, long nanos) {
+        if ( traceNanos[index]!=0 || nanos==0 ) {
+            return false;
+        }
+        traceNanos[index] = nanos;
+        return true;
+    }
+
     @Override
     public String getAttr(String attr) {
         return attrs.getProperty(attr);
@@ -164,6 +186,9 @@ public class OrderImpl implements Order {
         }
         json.add("money", JsonUtil.pricelong2array(money));
         json.add("volumes", JsonUtil.object2json(volumes));
+        if ( traceNanos[OdrTrace_CreateOrder]!=0 ) {
+            json.add("traceNanos", JsonUtil.object2json(traceNanos));
+        }
         return json;
     }
 
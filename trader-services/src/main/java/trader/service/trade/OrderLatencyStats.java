@@ -0,0 +1,102 @@
+package trader.service.trade;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import trader.common.util.JsonEnabled;
+import trader.service.stats.LatencyHistogram;
+
+/**
+ * 账户的报单延时统计: 按报单跟踪点(OdrTrace_XXX)之间的区间分别记录纳秒延时.
+ * <BR>tickToSend 为内部延时(行情接收到报单发出), sendToRtnOrder/sendToRtnTrade 为经纪商和交易所延时.
+ */
+public class OrderLatencyStats implements JsonEnabled, TradeConstants {
+
+    public static final String SPAN_TICK_TO_DECISION = "tickToDecision";
+    public static final String SPAN_DECISION_TO_CREATE = "decisionToCreate";
+    public static final String SPAN_VALIDATE = "validate";
+    public static final String SPAN_VALIDATED_TO_SEND = "validatedToSend";
+    public static final String SPAN_SEND = "send";
+    public static final String SPAN_TICK_TO_SEND = "tickToSend";
+    public static final String SPAN_CREATE_TO_SEND = "createToSend";
+    public static final String SPAN_SEND_TO_RTN_ORDER = "sendToRtnOrder";
+    public static final String SPAN_RTN_ORDER_QUEUE = "rtnOrderQueue";
+    public static final String SPAN_SEND_TO_RTN_TRADE = "sendToRtnTrade";
+    public static final String SPAN_RTN_TRADE_QUEUE = "rtnTradeQueue";
+
+    public static final String[] SPAN_NAMES = {
+            SPAN_TICK_TO_DECISION, SPAN_DECISION_TO_CREATE, SPAN_VALIDATE, SPAN_VALIDATED_TO_SEND, SPAN_SEND,
+            SPAN_TICK_TO_SEND, SPAN_CREATE_TO_SEND, SPAN_SEND_TO_RTN_ORDER, SPAN_RTN_ORDER_QUEUE, SPAN_SEND_TO_RTN_TRADE, SPAN_RTN_TRADE_QUEUE
+    };
+    private static final int[] SPAN_BEGINS = {
+            OdrTrace_TickReceived, OdrTrace_TradletDecision, OdrTrace_CreateOrder, OdrTrace_Validated, OdrTrace_SendBegin,
+            OdrTrace_TickReceived, OdrTrace_CreateOrder, OdrTrace_SendEnd, OdrTrace_RtnOrder, OdrTrace_SendEnd, OdrTrace_RtnTrade
+    };
+    private static final int[] SPAN_ENDS = {
+            OdrTrace_TradletDecision, OdrTrace_CreateOrder, OdrTrace_Validated, OdrTrace_SendBegin, OdrTrace_SendEnd,
+            OdrTrace_SendEnd, OdrTrace_SendEnd, OdrTrace_RtnOrder, OdrTrace_RtnOrderProcessed, OdrTrace_RtnTrade, OdrTrace_RtnTradeProcessed
+    };
+
+    private LatencyHistogram[] histograms = new LatencyHistogram[SPAN_NAMES.length];
+
+    public OrderLatencyStats() {
+        for(int i=0;i<histograms.length;i++) {
+            histograms[i] = new LatencyHistogram();
+        }
+    }
+
+    /**
+     * 报单到达一个跟踪点时, 记录以这个跟踪点结束的全部区间.
+     * <BR>报单线程和事件队列线程都会调用, 需要同步
+     */
+    public synchronized void record(OrderImpl order, int traceIndex) {
+        long end = order.getTraceNanos(traceIndex);
+        if ( end==0 ) {
+            return;
+        }
+        for(int i=0;i<SPAN_ENDS.length;i++) {
+            if ( SPAN_ENDS[i]!=traceIndex ) {
+                continue;
+            }
+            long begin = order.getTraceNanos(SPAN_BEGINS[i]);
+            if ( begin!=0 ) {
+                histograms[i].record(Math.max(0, end-begin));
+            }
+        }
+    }
+
+    public synchronized long getCount(String span) {
+        return histograms[spanIndex(span)].getCount();
+    }
+
+    public synchronized long getAvgNanos(String span) {
+        return histograms[spanIndex(span)].avg();
+    }
+
+    public synchronized long getPercentileNanos(String span, double percent) {
+        return histograms[spanIndex(span)].percentile(percent);
+    }
+
+    public synchronized long getMaxNanos(String span) {
+        return histograms[spanIndex(span)].getMax();
+    }
+
+    @Override
+    public synchronized JsonElement toJson() {
+        JsonObject json = new JsonObject();
+        for(int i=0;i<SPAN_NAMES.length;i++) {
+            json.add(SPAN_NAMES[i], histograms[i].toJson());
+        }
+        return json;
+    }
+
+    private static int spanIndex(String span) {
+        for(int i=0;i<SPAN_NAMES.length;i++) {
+            if ( SPAN_NAMES[i].equals(span) ) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Unknown latency span: "+span);
+    }
+
+}
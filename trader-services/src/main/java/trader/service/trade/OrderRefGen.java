@@ -1,8 +1,8 @@
 package trader.service.trade;
 
-import java.util.Formatter;
 import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import trader.common.beans.BeansContainer;
 import trader.common.util.ConversionUtil;
@@ -10,97 +10,234 @@ import trader.common.util.StringUtil;
 import trader.service.data.KVStore;
 
 /**
- * OrderRef ID顺序生成, 基于KVStore实现序列化和反序列化
+ * OrderRef ID顺序生成, 000xxx 格式的16进制字符串.
+ * <BR>按块预留OrderRef: 每块的上限先写入KVStore(write-ahead)再使用, 重启后从已预留的上限之后开始, 崩溃后不会重用OrderRef.
+ * <BR>每块的OrderRef字符串在预留时预先生成, nextRefId() 只有原子递增和数组访问, 不加锁不分配内存.
+ * 第一块在创建时预留, 块使用过半时在后台预留下一块, 正常情况下报单路径上不会同步写KVStore.
  */
 public class OrderRefGen {
-    private Formatter formatter = new Formatter();
-    private volatile int refId;
+    public static final int REF_WIDTH = 6;
+    public static final int BLOCK_SIZE = 1024;
+    private static final char[] HEX_CHARS = "0123456789abcdef".toCharArray();
+
+    /**
+     * 一块预留的OrderRef: [begin, end]
+     */
+    private static class RefBlock {
+        final int begin;
+        final int end;
+        final String[] refs;
+
+        RefBlock(int begin, int end){
+            this.begin = begin;
+            this.end = end;
+            refs = new String[end-begin+1];
+            for(int i=0;i<refs.length;i++) {
+                refs[i] = formatRef(begin+i);
+            }
+        }
+    }
+
+    private AtomicInteger refId = new AtomicInteger();
 
     private KVStore kvStore;
     private String key;
-    private volatile int savedRefId;
+    private ScheduledExecutorService scheduledExecutorService;
+    /**
+     * 当前使用的块
+     */
+    private volatile RefBlock block;
+    /**
+     * 前一块: 并发时其它线程可能已经切换到新块, 较早递增的ref仍然在前一块中
+     */
+    private volatile RefBlock prevBlock;
+    /**
+     * 提前预留的下一块
+     */
+    private volatile RefBlock nextBlock;
+    /**
+     * 已经写入KVStore的上限
+     */
+    private volatile int reservedRefId;
+    private AtomicBoolean reserving = new AtomicBoolean();
 
     public OrderRefGen(Account account, BeansContainer beansContainer) {
         key = account.getId()+".orderRef";
         kvStore = account.getStore();
         if ( beansContainer!=null ) {
-            ScheduledExecutorService scheduledExecutorService = beansContainer.getBean(ScheduledExecutorService.class);
-            loadRefId();
-            scheduledExecutorService.scheduleAtFixedRate(()->{
-                saveRefId();
-            }, 5, 5, TimeUnit.SECONDS);
+            scheduledExecutorService = beansContainer.getBean(ScheduledExecutorService.class);
         }
+        loadRefId();
     }
 
     public String nextRefId() {
-        int ref0 = 0;
-        synchronized(this) {
-            refId++;
-            ref0 = refId;
-        }
-        //多线程方式设置 000xxx 格式的OrderRef
-        StringBuilder builder = new StringBuilder();
-        String hex = Integer.toHexString(ref0);
-        int prefix0 = 6-hex.length();
-        switch(prefix0) {
-        case 5:
-            builder.append("00000");
-            break;
-        case 4:
-            builder.append("0000");
-            break;
-        case 3:
-            builder.append("000");
-            break;
-        case 2:
-            builder.append("00");
-            break;
-        case 1:
-            builder.append("0");
-            break;
-        }
-        return builder.append(hex).toString();
+        int ref0 = refId.incrementAndGet();
+        RefBlock b = block;
+        if ( ref0>b.end ) {
+            b = switchBlock(ref0);
+        } else if ( ref0<b.begin ) {
+            b = prevBlock;
+        }
+        if ( b==null || ref0<b.begin || ref0>b.end ) {
+            //只有在一个线程递增后另一个线程连续切换两块时发生
+            return formatRef(ref0);
+        }
+        if ( ref0==b.begin+BLOCK_SIZE/2 ) {
+            prefetchBlock(b);
+        }
+        return b.refs[ref0-b.begin];
     }
 
     /**
-     * 判断是否要调整OrderRefId
+     * 判断是否要调整OrderRefId, 从报单回报调用, 解析时不分配内存
      */
     public void compareAndSetRef(String ref) {
         if ( StringUtil.isEmpty(ref) ) {
             return;
         }
-        int firstNonZero = 0;
-        for(int i=0;i<ref.length();i++) {
-            if ( ref.charAt(i)!='0' ) {
-                firstNonZero = i;
+        int refValue = parseRef(ref);
+        if ( refValue<=0 ) {
+            return;
+        }
+        int curr = refId.get();
+        while( refValue>curr ) {
+            if ( refId.compareAndSet(curr, refValue) ) {
                 break;
             }
+            curr = refId.get();
+        }
+    }
+
+    /**
+     * 当前的OrderRef ID
+     */
+    public int getRefId() {
+        return refId.get();
+    }
+
+    /**
+     * 已经预留(写入KVStore)的OrderRef ID上限
+     */
+    public int getReservedRefId() {
+        return reservedRefId;
+    }
+
+    /**
+     * 解析16进制的OrderRef, 忽略前后空格, 非法格式返回-1
+     */
+    public static int parseRef(String ref) {
+        int result = 0, digits = 0;
+        for(int i=0;i<ref.length();i++) {
+            char c = ref.charAt(i);
+            int v;
+            if ( c>='0' && c<='9' ) {
+                v = c-'0';
+            } else if ( c>='a' && c<='f' ) {
+                v = c-'a'+10;
+            } else if ( c>='A' && c<='F' ) {
+                v = c-'A'+10;
+            } else if ( c==' ' ) {
+                continue;
+            } else {
+                return -1;
+            }
+            if ( ++digits>7 ) {
+                return -1;
+            }
+            result = (result<<4)|v;
+        }
+        return digits>0?result:-1;
+    }
+
+    static String formatRef(int ref) {
+        int width = Math.max(REF_WIDTH, (32-Integer.numberOfLeadingZeros(ref)+3)/4);
+        char[] chars = new char[width];
+        for(int i=width-1;i>=0;i--) {
+            chars[i] = HEX_CHARS[ref&0xf];
+            ref >>>= 4;
+        }
+        return new String(chars);
+    }
+
+    /**
+     * 当前块用完或者OrderRef被报单回报调整, 切换到包含这个ref的块
+     */
+    private synchronized RefBlock switchBlock(int ref) {
+        RefBlock b = block;
+        if ( ref>=b.begin && ref<=b.end ) {
+            return b;
+        }
+        if ( ref<b.begin ) {
+            //块已经被其它线程切换, 这个ref在已预留的范围内
+            return prevBlock;
         }
-        String refHex = ref.substring(firstNonZero);
-        int refValue = Integer.parseInt(refHex, 16);
-        if ( refValue<refId ) {
+        prevBlock = b;
+        RefBlock next = nextBlock;
+        if ( next!=null && ref>=next.begin && ref<=next.end ) {
+            nextBlock = null;
+            block = next;
+            return next;
+        }
+        block = reserveBlock(ref);
+        return block;
+    }
+
+    /**
+     * 块使用过半, 后台预留下一块
+     */
+    private void prefetchBlock(RefBlock b) {
+        if ( nextBlock!=null || !reserving.compareAndSet(false, true) ) {
             return;
         }
-        synchronized(this) {
-            if ( refValue>refId ) {
-                refId = refValue;
+        Runnable task = ()->{
+            try {
+                synchronized(this) {
+                    if ( nextBlock==null && block==b ) {
+                        nextBlock = reserveBlock(b.end+1);
+                    }
+                }
+            }finally {
+                reserving.set(false);
             }
+        };
+        if ( scheduledExecutorService!=null ) {
+            scheduledExecutorService.execute(task);
+        } else {
+            task.run();
         }
     }
 
+    /**
+     * 预留从begin开始的一块, 先写入KVStore再返回
+     */
+    private RefBlock reserveBlock(int begin) {
+        int end = begin+BLOCK_SIZE-1;
+        if ( end>reservedRefId ) {
+            saveRefId(end);
+        }
+        return new RefBlock(begin, end);
+    }
+
+    /**
+     * 加载已预留的上限, 然后预留第一块
+     */
     private void loadRefId() {
-        String value = kvStore.getAsString(key);
-        if ( !StringUtil.isEmpty(value)) {
-            refId = ConversionUtil.toInt(value);
-            savedRefId = refId;
+        if ( kvStore!=null ) {
+            String value = kvStore.getAsString(key);
+            if ( !StringUtil.isEmpty(value)) {
+                //从已预留的上限之后开始
+                int savedRefId = ConversionUtil.toInt(value);
+                refId.set(savedRefId);
+                reservedRefId = savedRefId;
+            }
         }
+        block = reserveBlock(refId.get()+1);
     }
 
-    private void saveRefId() {
-        if ( savedRefId!=refId ) {
-            savedRefId = refId;
-            String value = ""+savedRefId;
-            kvStore.put(key, value);
+    private void saveRefId(int value) {
+        if ( kvStore!=null ) {
+            kvStore.put(key, ""+value);
         }
+        reservedRefId = value;
     }
 }
@@ -7,19 +7,25 @@ import trader.service.ServiceErrorConstants;
 import trader.service.md.MarketData;
 import trader.service.md.MarketDataService;
 
+/**
+ * 报单的本地检查. 每个账户一个实例, 只在账户事件线程中使用, 费用计算使用内部的数组, 不分配内存
+ */
 public class OrderValidator implements TradeConstants, ServiceErrorConstants {
     private AccountImpl account;
-    private OrderBuilder builder;
+    private MarketDataService mdService;
+    private long[] odrFees = new long[FutureFeeTable.FEE_COUNT];
 
-    public OrderValidator(AccountImpl account, OrderBuilder builder) {
+    public OrderValidator(AccountImpl account) {
         this.account = account;
-        this.builder = builder;
     }
 
-    public long[] validate() throws AppException
+    /**
+     * 检查报单, 计算的冻结保证金/手续费写入orderMoney
+     */
+    public void validate(OrderBuilder builder, long[] orderMoney) throws AppException
     {
         validateOrderVolume(builder);
-        return validateOrderMargin(builder);
+        validateOrderMargin(builder, orderMoney);
     }
 
     /**
@@ -72,15 +78,15 @@ public class OrderValidator implements TradeConstants, ServiceErrorConstants {
     /**
      * 校验报单的保证金
      */
-    private long[] validateOrderMargin(OrderBuilder builder) throws AppException
+    private void validateOrderMargin(OrderBuilder builder, long[] orderMoney) throws AppException
     {
-        long[] orderMoney = new long[OdrMoney_Count];
-        AccountView view = builder.getView();
         Exchangeable e = builder.getExchangeable();
         long priceCandidate = getOrderPriceCandidate(builder);
         orderMoney[OdrMoney_PriceCandidate] = priceCandidate;
-        long[] odrFees = account.getFeeEvaluator().compute(e, builder.getVolume(), priceCandidate, builder.getDirection(), builder.getOffsetFlag());
-        long commission = odrFees[1];
+        if ( !account.getFeeEvaluator().compute(e, builder.getVolume(), priceCandidate, builder.getDirection(), builder.getOffsetFlag(), odrFees) ) {
+            throw new AppException(ERRCODE_TRADE_EXCHANGEABLE_INVALID, "开单品种 "+e+" 没有费率信息");
+        }
+        long commission = odrFees[FutureFeeTable.FEE_COMMISSION];
         if ( builder.getOffsetFlag()==OrderOffsetFlag.OPEN) {
             //开仓, 检查是否有新的保证金需求
             long longMargin=0, shortMargin=0, longMargin2=0, shortMargin2=0;
@@ -92,9 +98,9 @@ public class OrderValidator implements TradeConstants, ServiceErrorConstants {
                 shortMargin2 = shortMargin;
             }
             if ( builder.getDirection()==OrderDirection.Buy) {
-                longMargin2 += odrFees[0];
+                longMargin2 += odrFees[FutureFeeTable.FEE_MARGIN];
             } else {
-                shortMargin2 += odrFees[0];
+                shortMargin2 += odrFees[FutureFeeTable.FEE_MARGIN];
             }
             //计算新的保证金需求
             long posMargin = Math.max(longMargin, shortMargin);
@@ -107,10 +113,9 @@ public class OrderValidator implements TradeConstants, ServiceErrorConstants {
             orderMoney[OdrMoney_LocalFrozenMargin] = orderMarginReq;
         }else {
             //平仓, 解冻保证金这里没法计算
+            orderMoney[OdrMoney_LocalFrozenMargin] = 0;
         }
         orderMoney[OdrMoney_LocalFrozenCommission] = commission;
-
-        return orderMoney;
     }
 
 
@@ -118,7 +123,9 @@ public class OrderValidator implements TradeConstants, ServiceErrorConstants {
      * 返回订单的保证金冻结用的价格, 市价使用最高/最低价格
      */
     long getOrderPriceCandidate(OrderBuilder builder) {
-        MarketDataService mdService = account.getBeansContainer().getBean(MarketDataService.class);
+        if ( mdService==null ) {
+            mdService = account.getBeansContainer().getBean(MarketDataService.class);
+        }
         MarketData md = mdService.getLastData(builder.getExchangeable());
         switch(builder.getPriceType()) {
         case Unknown:
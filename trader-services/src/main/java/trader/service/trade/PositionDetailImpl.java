@@ -60,6 +60,14 @@ public class PositionDetailImpl implements PositionDetail, Comparable<PositionDe
         return volume;
     }
 
+    /**
+     * 日终结算: 按结算价逐日盯市, 之后的价格为结算价, 转为昨仓
+     */
+    void settle(long settlePrice) {
+        price = settlePrice;
+        today = false;
+    }
+
     @Override
     public String toString() {
         return "PosDetail["+direction+" "+volume+" "+PriceUtil.long2price(price)+" "+openTime+"]";
@@ -32,6 +32,25 @@ public class PositionImpl implements Position, TradeConstants {
 
     private long lastPrice;
 
+    /**
+     * 持仓明细的汇总: 按 多今/多昨/空今/空昨 分别记录数量和开仓金额(价格*数量), 只在成交时从明细重新计算
+     */
+    private static final int AGG_LONG_TODAY = 0;
+    private static final int AGG_LONG_YD = 1;
+    private static final int AGG_SHORT_TODAY = 2;
+    private static final int AGG_SHORT_YD = 3;
+    private int[] aggVolumes = new int[4];
+    private long[] aggOpenAmounts = new long[4];
+    /**
+     * 合约乘数, 第一次计算盈亏时从费率取得, 费率更新后清除
+     */
+    private long volumeMultiple;
+
+    /**
+     * 不属于账户的持仓使用的费率计算
+     */
+    private TxnFeeEvaluator feeEvaluator;
+
     public PositionImpl(AccountImpl account, Exchangeable e, PosDirection direction, long[] money, int[] volumes, List<PositionDetailImpl> details) {
         this.account = account;
         this.exchangeable = e;
@@ -41,6 +60,22 @@ public class PositionImpl implements Position, TradeConstants {
         this.details = new LinkedList<>(details);
         java.util.Collections.sort(this.details);
         logger = LoggerFactory.getLogger(account.getLoggerPackage()+"."+PositionImpl.class.getSimpleName());
+        //持仓数量使用查询结果, 只汇总明细
+        computeAggregates(false);
+    }
+
+    /**
+     * 不属于账户的持仓, 只计算持仓盈亏, 用于性能测试
+     */
+    PositionImpl(TxnFeeEvaluator feeEvaluator, Exchangeable e, PosDirection direction, List<PositionDetailImpl> details) {
+        this.feeEvaluator = feeEvaluator;
+        this.exchangeable = e;
+        this.direction = direction;
+        this.details = new LinkedList<>(details);
+        java.util.Collections.sort(this.details);
+        logger = LoggerFactory.getLogger(PositionImpl.class);
+        computeAggregates(true);
+        computePositionProfit();
     }
 
     public PositionImpl(Exchangeable e) {
@@ -147,9 +182,16 @@ public class PositionImpl implements Position, TradeConstants {
         }
     }
 
+    /**
+     * 行情更新持仓盈亏, 只使用汇总数据, 和持仓明细数量无关
+     */
     void onMarketData(MarketData marketData) {
-        lastPrice = marketData.lastPrice;
-        computePositionProfit(false);
+        onLastPrice(marketData.lastPrice);
+    }
+
+    void onLastPrice(long price) {
+        lastPrice = price;
+        computePositionProfit();
     }
 
     /**
@@ -198,12 +240,40 @@ public class PositionImpl implements Position, TradeConstants {
         addMoney(PosMoney_Commission, txnCommission);
         addMoney(PosMoney_FrozenCommission, -1*Math.abs(txnUnfrozenCommission) );
 
-        //计算持仓利润
-        computePositionProfit(true);
+        //重新汇总持仓明细, 计算持仓利润
+        computeAggregates(true);
+        computePositionProfit();
         //计算持仓方向
         computeDirection();
     }
 
+    /**
+     * 合约费率更新后清除缓存的合约乘数, 下次计算盈亏时重新取得
+     */
+    void onFeeInfoChanged() {
+        volumeMultiple = 0;
+    }
+
+    /**
+     * 日终结算: 持仓明细按最新价盯市并转为昨仓, 清除当日开平仓数量, 手续费和平仓盈亏.
+     * <BR>结算后持仓盈亏为0, 之后的持仓盈亏和平仓盈亏按结算价计算
+     */
+    void settle() {
+        if ( lastPrice>0 && details!=null ) {
+            for(PositionDetailImpl detail:details) {
+                detail.settle(lastPrice);
+            }
+            setMoney(PosMoney_PreSettlementPrice, lastPrice);
+        }
+        setMoney(PosMoney_PreMargin, getMoney(PosMoney_UseMargin));
+        setMoney(PosMoney_Commission, 0);
+        setMoney(PosMoney_CloseProfit, 0);
+        setVolume(PosVolume_OpenVolume, 0);
+        setVolume(PosVolume_CloseVolume, 0);
+        computeAggregates(true);
+        computePositionProfit();
+    }
+
     /**
      * 根据成交删除持仓明细
      */
@@ -283,58 +353,71 @@ public class PositionImpl implements Position, TradeConstants {
     }
 
     /**
-     * 计算持仓盈亏
+     * 计算持仓盈亏: 合约乘数*(最新价*数量-开仓金额), 空仓取反.
+     * <BR>同时按最新价估算保证金占用 PosMoney_UseMargin
      */
-    private void computePositionProfit(boolean updateVolumes) {
-        TxnFeeEvaluator feeEval = account.getFeeEvaluator();
-        int longPos = 0, shortPos = 0;
-        int longTodayPos = 0, shortTodayPos=0;
-        int longYdPos = 0, shortYdPos = 0;
-        long posProfit = 0;
-        long openCost= 0;
-
-        for(PositionDetail detail:details) {
-            int detailVolume = detail.getVolume();
-            long lastValue = feeEval.computeValue(exchangeable, detailVolume, lastPrice);
-            long openValue = feeEval.computeValue(exchangeable, detailVolume, detail.getPrice());
-            long valueDiff = lastValue-openValue;
-            long valueDiffUnit = 1;
-            if ( detail.getDirection()==PosDirection.Short ) {
-                valueDiffUnit = -1;
-            }
-            posProfit += valueDiff*valueDiffUnit;
-            if ( updateVolumes ) {
-                openCost += detail.getPrice()*detail.getVolume();;
+    private void computePositionProfit() {
+        long multiple = volumeMultiple;
+        if ( multiple==0 ) {
+            multiple = loadFeeInfo();
+        }
+        int longPos = aggVolumes[AGG_LONG_TODAY]+aggVolumes[AGG_LONG_YD];
+        int shortPos = aggVolumes[AGG_SHORT_TODAY]+aggVolumes[AGG_SHORT_YD];
+        long longOpenAmount = aggOpenAmounts[AGG_LONG_TODAY]+aggOpenAmounts[AGG_LONG_YD];
+        long shortOpenAmount = aggOpenAmounts[AGG_SHORT_TODAY]+aggOpenAmounts[AGG_SHORT_YD];
+        long posProfit = multiple*( (lastPrice*longPos-longOpenAmount) - (lastPrice*shortPos-shortOpenAmount) );
+        setMoney(PosMoney_PositionProfit, posProfit);
+        setMoney(PosMoney_UseMargin, feeEvaluator.computeMargin(exchangeable, longPos, lastPrice, OrderDirection.Buy)
+                +feeEvaluator.computeMargin(exchangeable, shortPos, lastPrice, OrderDirection.Sell));
+    }
+
+    /**
+     * 从费率取得合约乘数
+     */
+    private long loadFeeInfo() {
+        if ( feeEvaluator==null ) {
+            feeEvaluator = account.getFeeEvaluator();
+        }
+        volumeMultiple = feeEvaluator.computeValue(exchangeable, 1, 1);
+        return volumeMultiple;
+    }
+
+    /**
+     * 从持仓明细重新计算汇总数据, 在成交后调用
+     */
+    private void computeAggregates(boolean updateVolumes) {
+        int[] volumes0 = new int[4];
+        long[] openAmounts0 = new long[4];
+        if ( details!=null ) {
+            for(PositionDetail detail:details) {
+                int idx;
                 if ( detail.getDirection()==PosDirection.Long ) {
-                    //多仓
-                    longPos += detailVolume;
-                    if ( detail.isToday() ) {
-                        longTodayPos += detailVolume;
-                    }else {
-                        longYdPos += detailVolume;
-                    }
-                }else {
-                    shortPos += detail.getVolume();
-                    if ( detail.isToday() ) {
-                        shortTodayPos += detailVolume;
-                    }else {
-                        shortYdPos += detailVolume;
-                    }
+                    idx = detail.isToday()?AGG_LONG_TODAY:AGG_LONG_YD;
+                } else {
+                    idx = detail.isToday()?AGG_SHORT_TODAY:AGG_SHORT_YD;
                 }
+                volumes0[idx] += detail.getVolume();
+                openAmounts0[idx] += detail.getPrice()*detail.getVolume();
             }
         }
-
-        setMoney(PosMoney_PositionProfit, posProfit);
+        aggVolumes = volumes0;
+        aggOpenAmounts = openAmounts0;
         if( updateVolumes ) {
-            openCost /= (longPos+shortPos);
+            int longPos = volumes0[AGG_LONG_TODAY]+volumes0[AGG_LONG_YD];
+            int shortPos = volumes0[AGG_SHORT_TODAY]+volumes0[AGG_SHORT_YD];
+            long openCost = 0;
+            //全部平仓后没有持仓成本
+            if ( longPos+shortPos>0 ) {
+                openCost = (openAmounts0[AGG_LONG_TODAY]+openAmounts0[AGG_LONG_YD]+openAmounts0[AGG_SHORT_TODAY]+openAmounts0[AGG_SHORT_YD])/(longPos+shortPos);
+            }
             setMoney(PosMoney_OpenCost, openCost);
 
             setVolume(PosVolume_LongPosition, longPos);
-            setVolume(PosVolume_LongTodayPosition, longTodayPos);
-            setVolume(PosVolume_LongYdPosition, longYdPos);
+            setVolume(PosVolume_LongTodayPosition, volumes0[AGG_LONG_TODAY]);
+            setVolume(PosVolume_LongYdPosition, volumes0[AGG_LONG_YD]);
             setVolume(PosVolume_ShortPosition, shortPos);
-            setVolume(PosVolume_ShortTodayPosition, shortTodayPos);
-            setVolume(PosVolume_ShortYdPosition, shortYdPos);
+            setVolume(PosVolume_ShortTodayPosition, volumes0[AGG_SHORT_TODAY]);
+            setVolume(PosVolume_ShortYdPosition, volumes0[AGG_SHORT_YD]);
         }
     }
 
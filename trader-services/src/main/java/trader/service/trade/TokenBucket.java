@@ -0,0 +1,69 @@
+package trader.service.trade;
+
+/**
+ * 令牌桶限速: 按固定速度补充令牌, 最多积累capacity个. 非线程安全
+ */
+class TokenBucket {
+
+    private final double rate;
+    private final double capacity;
+    private double tokens;
+    private long refillNanos;
+
+    /**
+     * @param rate 每秒补充的令牌数
+     * @param capacity 桶容量, 空闲后允许连续使用的令牌数
+     */
+    TokenBucket(double rate, double capacity){
+        this.rate = rate;
+        this.capacity = capacity;
+        tokens = capacity;
+        refillNanos = System.nanoTime();
+    }
+
+    double getRate() {
+        return rate;
+    }
+
+    double getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * 取得permits个令牌, 令牌不够时不扣减
+     */
+    boolean tryAcquire(int permits, long nanos) {
+        refill(nanos);
+        if ( tokens>=permits ) {
+            tokens -= permits;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 距离有permits个令牌的纳秒数, 0表示现在就有
+     */
+    long nanosToAcquire(int permits, long nanos) {
+        refill(nanos);
+        if ( tokens>=permits ) {
+            return 0;
+        }
+        return (long)((permits-tokens)*1_000_000_000L/rate)+1;
+    }
+
+    /**
+     * 归还没有使用的令牌
+     */
+    void release(int permits) {
+        tokens = Math.min(capacity, tokens+permits);
+    }
+
+    private void refill(long nanos) {
+        if ( nanos>refillNanos ) {
+            tokens = Math.min(capacity, tokens+(nanos-refillNanos)*rate/1_000_000_000L);
+            refillNanos = nanos;
+        }
+    }
+
+}
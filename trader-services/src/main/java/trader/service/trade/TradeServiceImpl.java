@@ -24,6 +24,9 @@ import trader.common.config.ConfigUtil;
 import trader.common.util.ConversionUtil;
 import trader.service.ServiceConstants.AccountState;
 import trader.service.ServiceConstants.ConnState;
+import trader.service.stats.StatsCollector;
+import trader.service.stats.StatsItem;
+import trader.service.stats.StatsItemType;
 
 /**
  * 交易事件服务代码, 并发送通知给相应的的AccountView
@@ -168,9 +171,28 @@ public class TradeServiceImpl implements TradeService {
     private AccountImpl createAccount(Map accountElem)
     {
         AccountImpl account = new AccountImpl(this, beansContainer, accountElem);
+        registerLatencyStats(account);
         return account;
     }
 
+    /**
+     * 发布报单内部延时和经纪商延时的P99
+     */
+    private void registerLatencyStats(AccountImpl account) {
+        StatsCollector statsCollector = beansContainer.getBean(StatsCollector.class);
+        if ( statsCollector==null ) {
+            return;
+        }
+        OrderLatencyStats latencyStats = account.getOrderLatencyStats();
+        for(String span:new String[] {OrderLatencyStats.SPAN_TICK_TO_SEND, OrderLatencyStats.SPAN_CREATE_TO_SEND, OrderLatencyStats.SPAN_SEND_TO_RTN_ORDER, OrderLatencyStats.SPAN_SEND_TO_RTN_TRADE}) {
+            StatsItem item = new StatsItem(TradeService.class.getSimpleName(), account.getId(), span+"P99Nanos");
+            item.setType(StatsItemType.Instant);
+            statsCollector.registerStatsItem(item, (StatsItem itemInfo)->{
+                return latencyStats.getPercentileNanos(span, 0.99);
+            });
+        }
+    }
+
     /**
      * 启动完毕后, 连接交易通道
      */
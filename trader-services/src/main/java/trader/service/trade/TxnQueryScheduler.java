@@ -0,0 +1,247 @@
+package trader.service.trade;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import trader.common.util.JsonEnabled;
+
+/**
+ * 交易通道的查询调度: 按优先级排队, 合并相同的待执行查询, 令牌桶控制查询速度.
+ * <BR>每个交易通道一个实例, 一个后台线程顺序执行查询, 同一时间只有一个查询在途.
+ * 等待令牌时新到的高优先级查询可以插队.
+ */
+public class TxnQueryScheduler implements JsonEnabled {
+    private static final Logger logger = LoggerFactory.getLogger(TxnQueryScheduler.class);
+
+    /**
+     * 查询优先级, 序号小的先执行
+     */
+    public static enum QueryPriority {
+        /**
+         * 结算单查询和确认
+         */
+        Settlement,
+        /**
+         * 资金账户
+         */
+        Accounts,
+        /**
+         * 持仓和持仓明细
+         */
+        Positions,
+        /**
+         * 合约, 保证金率, 手续费率等品种数据
+         */
+        Fees
+    }
+
+    private static class QueryTask<T> implements Comparable<QueryTask<?>> {
+        QueryPriority priority;
+        final long seq;
+        final String key;
+        final Callable<T> callable;
+        final CompletableFuture<T> future = new CompletableFuture<>();
+
+        QueryTask(QueryPriority priority, long seq, String key, Callable<T> callable){
+            this.priority = priority;
+            this.seq = seq;
+            this.key = key;
+            this.callable = callable;
+        }
+
+        @Override
+        public int compareTo(QueryTask<?> o) {
+            int result = priority.compareTo(o.priority);
+            if ( result==0 ) {
+                result = Long.compare(seq, o.seq);
+            }
+            return result;
+        }
+    }
+
+    private String name;
+    private PriorityQueue<QueryTask<?>> queue = new PriorityQueue<>();
+    /**
+     * 还没有开始执行的查询, 用于合并
+     */
+    private Map<String, QueryTask<?>> pendingTasks = new HashMap<>();
+    private long nextSeq;
+    private volatile boolean closed;
+    private Thread thread;
+    /**
+     * 只在查询线程中访问
+     */
+    private TokenBucket bucket;
+
+    private volatile long executedCount;
+    private volatile long coalescedCount;
+    private volatile long failedCount;
+    private volatile long throttledNanos;
+
+    /**
+     * @param rate 每秒查询数
+     * @param burst 令牌桶容量, 空闲后允许连续执行的查询数
+     */
+    public TxnQueryScheduler(String name, double rate, int burst) {
+        if ( rate<=0 || burst<1 ) {
+            throw new IllegalArgumentException("Invalid query rate "+rate+" burst "+burst);
+        }
+        this.name = name;
+        bucket = new TokenBucket(rate, burst);
+        thread = new Thread(this::run, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * 待执行的查询数量
+     */
+    public synchronized int getQueueDepth() {
+        return queue.size();
+    }
+
+    /**
+     * 提交查询. 相同key的查询还没有开始执行时, 合并为一个查询并返回同一个Future, 优先级取较高的一个.
+     *
+     * @param key 合并查询使用, null 表示不合并
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized <T> CompletableFuture<T> submit(QueryPriority priority, String key, Callable<T> callable){
+        if ( closed ) {
+            CompletableFuture<T> result = new CompletableFuture<>();
+            result.completeExceptionally(new IllegalStateException("Query scheduler "+name+" is closed"));
+            return result;
+        }
+        if ( key!=null ) {
+            QueryTask<T> task = (QueryTask<T>)pendingTasks.get(key);
+            if ( task!=null ) {
+                if ( priority.compareTo(task.priority)<0 ) {
+                    queue.remove(task);
+                    task.priority = priority;
+                    queue.add(task);
+                }
+                coalescedCount++;
+                return task.future;
+            }
+        }
+        QueryTask<T> task = new QueryTask<>(priority, nextSeq++, key, callable);
+        queue.add(task);
+        if ( key!=null ) {
+            pendingTasks.put(key, task);
+        }
+        notifyAll();
+        return task.future;
+    }
+
+    /**
+     * 提交查询并等待结果. 在查询线程中调用时直接执行, 避免死锁
+     */
+    public <T> T call(QueryPriority priority, String key, Callable<T> callable) throws Exception {
+        if ( Thread.currentThread()==thread ) {
+            return callable.call();
+        }
+        try {
+            return submit(priority, key, callable).get();
+        }catch(ExecutionException e) {
+            Throwable cause = e.getCause();
+            if ( cause instanceof Exception ) {
+                throw (Exception)cause;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * 停止查询线程, 未执行的查询以异常结束
+     */
+    public void close() {
+        synchronized(this) {
+            closed = true;
+            for(QueryTask<?> task:queue) {
+                task.future.completeExceptionally(new IllegalStateException("Query scheduler "+name+" is closed"));
+            }
+            queue.clear();
+            pendingTasks.clear();
+            notifyAll();
+        }
+        thread.interrupt();
+    }
+
+    @Override
+    public JsonElement toJson() {
+        JsonObject json = new JsonObject();
+        json.addProperty("name", name);
+        json.addProperty("rate", bucket.getRate());
+        json.addProperty("burst", bucket.getCapacity());
+        json.addProperty("queueDepth", getQueueDepth());
+        json.addProperty("executedCount", executedCount);
+        json.addProperty("coalescedCount", coalescedCount);
+        json.addProperty("failedCount", failedCount);
+        json.addProperty("throttledMillis", TimeUnit.NANOSECONDS.toMillis(throttledNanos));
+        return json;
+    }
+
+    private void run() {
+        while(!closed) {
+            try {
+                synchronized(this) {
+                    while( queue.isEmpty() && !closed ) {
+                        wait();
+                    }
+                }
+                //先等待令牌再取查询, 等待期间到达的高优先级查询先执行
+                acquireToken();
+                QueryTask<?> task = null;
+                synchronized(this) {
+                    task = queue.poll();
+                    if ( task!=null && task.key!=null ) {
+                        pendingTasks.remove(task.key, task);
+                    }
+                }
+                if ( task!=null ) {
+                    execute(task);
+                } else {
+                    //没有查询, 归还令牌
+                    bucket.release(1);
+                }
+            }catch(InterruptedException e) {
+                //closed
+            }
+        }
+    }
+
+    private <T> void execute(QueryTask<T> task) {
+        try {
+            task.future.complete(task.callable.call());
+        }catch(Throwable t) {
+            failedCount++;
+            logger.warn("Query "+name+" "+task.key+" failed: "+t);
+            task.future.completeExceptionally(t);
+        }
+        executedCount++;
+    }
+
+    private void acquireToken() throws InterruptedException {
+        while(!bucket.tryAcquire(1, System.nanoTime())) {
+            long waitNanos = bucket.nanosToAcquire(1, System.nanoTime());
+            throttledNanos += waitNanos;
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+
+}
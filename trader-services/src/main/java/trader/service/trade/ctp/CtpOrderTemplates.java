@@ -0,0 +1,112 @@
+package trader.service.trade.ctp;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import net.jctp.CThostFtdcInputOrderField;
+import net.jctp.JctpConstants;
+import trader.common.exchangeable.Exchangeable;
+import trader.common.util.PriceUtil;
+import trader.service.trade.OrderImpl;
+import trader.service.trade.TradeConstants;
+
+/**
+ * CTP报单请求模板: 每个合约每个方向一个, 会话内不变的字段(经纪商, 用户, 投机, 当日有效, 立即触发等)在创建时填写一次.
+ * <BR>报单时只修改 OrderRef, 价格, 数量, 开平, 价格类型和成交量条件, 枚举到CTP常量的转换预先做成数组.
+ * <BR>模板对象会被重复使用: 同一账户的报单只在账户事件线程中发送, TraderApi.ReqOrderInsert 返回前已经把字段复制为字节数组, 所以不会互相覆盖.
+ */
+class CtpOrderTemplates implements JctpConstants, TradeConstants {
+
+    private static final String[] OFFSET_FLAGS = new String[OrderOffsetFlag.values().length];
+    private static final char[] PRICE_TYPES = new char[OrderPriceType.values().length];
+    private static final char[] VOLUME_CONDITIONS = new char[OrderVolumeCondition.values().length];
+    private static final char[] DIRECTIONS = new char[OrderDirection.values().length];
+
+    static {
+        for(OrderOffsetFlag offsetFlag:OrderOffsetFlag.values()) {
+            try {
+                OFFSET_FLAGS[offsetFlag.ordinal()] = CtpTxnSession.orderOffsetFlag2ctp(offsetFlag);
+            }catch(RuntimeException e) {}
+        }
+        for(OrderPriceType priceType:OrderPriceType.values()) {
+            try {
+                PRICE_TYPES[priceType.ordinal()] = CtpTxnSession.orderPriceType2ctp(priceType);
+            }catch(RuntimeException e) {}
+        }
+        for(OrderVolumeCondition volumeCondition:OrderVolumeCondition.values()) {
+            VOLUME_CONDITIONS[volumeCondition.ordinal()] = CtpTxnSession.orderVolumeCondition2ctp(volumeCondition);
+        }
+        for(OrderDirection direction:OrderDirection.values()) {
+            DIRECTIONS[direction.ordinal()] = CtpTxnSession.orderDirection2ctp(direction);
+        }
+    }
+
+    private String brokerId;
+    private String userId;
+    /**
+     * 合约 -> 按 OrderDirection 序号索引的模板
+     */
+    private Map<Exchangeable, CThostFtdcInputOrderField[]> templates = new HashMap<>();
+
+    CtpOrderTemplates(String brokerId, String userId){
+        this.brokerId = brokerId;
+        this.userId = userId;
+    }
+
+    /**
+     * 从模板填写报单请求, 返回的对象在下一次调用前有效
+     */
+    CThostFtdcInputOrderField fill(OrderImpl order) {
+        CThostFtdcInputOrderField req = getTemplate(order.getExchangeable(), order.getDirection());
+        String offsetFlag = OFFSET_FLAGS[order.getOffsetFlags().ordinal()];
+        char priceType = PRICE_TYPES[order.getPriceType().ordinal()];
+        if ( offsetFlag==null ) {
+            throw new RuntimeException("Unsupported order comboOffsetFlags: "+order.getOffsetFlags());
+        }
+        if ( priceType==0 ) {
+            throw new RuntimeException("Unsupported order price type: "+order.getPriceType());
+        }
+        req.OrderRef = order.getRef();
+        req.CombOffsetFlag = offsetFlag;
+        req.OrderPriceType = priceType;
+        req.LimitPrice = PriceUtil.long2price(order.getLimitPrice());
+        req.VolumeTotalOriginal = order.getVolume(OdrVolume_ReqVolume);
+        req.VolumeCondition = VOLUME_CONDITIONS[order.getVolumeCondition().ordinal()];
+        return req;
+    }
+
+    int size() {
+        return templates.size();
+    }
+
+    private CThostFtdcInputOrderField getTemplate(Exchangeable e, OrderDirection direction) {
+        CThostFtdcInputOrderField[] reqs = templates.get(e);
+        if ( reqs==null ) {
+            reqs = new CThostFtdcInputOrderField[DIRECTIONS.length];
+            templates.put(e, reqs);
+        }
+        CThostFtdcInputOrderField req = reqs[direction.ordinal()];
+        if ( req==null ) {
+            req = createTemplate(e, direction);
+            reqs[direction.ordinal()] = req;
+        }
+        return req;
+    }
+
+    private CThostFtdcInputOrderField createTemplate(Exchangeable e, OrderDirection direction) {
+        CThostFtdcInputOrderField req = new CThostFtdcInputOrderField();
+        req.BrokerID = brokerId;
+        req.UserID = userId;
+        req.InvestorID = userId;
+        req.InstrumentID = e.id();
+        req.Direction = DIRECTIONS[direction.ordinal()];
+        req.TimeCondition = THOST_FTDC_TC_GFD; //当日有效
+        req.CombHedgeFlag =  STRING_THOST_FTDC_HF_Speculation; //投机
+        req.ContingentCondition = THOST_FTDC_CC_Immediately; //立即触发
+        req.ForceCloseReason = THOST_FTDC_FCC_NotForceClose; //强平原因: 非强平
+        req.IsAutoSuspend = false;
+        req.MinVolume = 1;
+        return req;
+    }
+
+}
@@ -11,6 +11,7 @@ import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
 import java.util.regex.Pattern;
 
 import com.lmax.disruptor.RingBuffer;
@@ -41,6 +42,7 @@ import trader.service.trade.PositionImpl;
 import trader.service.trade.TradeConstants;
 import trader.service.trade.TradeServiceImpl;
 import trader.service.trade.TransactionImpl;
+import trader.service.trade.TxnQueryScheduler.QueryPriority;
 import trader.service.trade.TxnFeeEvaluator;
 
 public class CtpTxnSession extends AbsTxnSession implements TraderApiListener, ServiceErrorConstants, TradeConstants, JctpConstants, AsyncEventProcessor {
@@ -64,6 +66,10 @@ public class CtpTxnSession extends AbsTxnSession implements TraderApiListener, S
     private TraderApi traderApi;
     private int frontId;
     private int sessionId;
+    /**
+     * 登录成功后创建, 会话内有效
+     */
+    private CtpOrderTemplates orderTemplates;
 
     public CtpTxnSession(TradeServiceImpl tradeService, AccountImpl account) {
         super(tradeService, account);
@@ -101,6 +107,7 @@ public class CtpTxnSession extends AbsTxnSession implements TraderApiListener, S
         }
         frontId = 0;
         sessionId = 0;
+        orderTemplates = null;
     }
 
     /**
@@ -111,14 +118,18 @@ public class CtpTxnSession extends AbsTxnSession implements TraderApiListener, S
         long t0 = System.currentTimeMillis();
         String settlement = null;
         CThostFtdcQrySettlementInfoConfirmField qryInfoField = new CThostFtdcQrySettlementInfoConfirmField(brokerId, userId, userId, null);
-        CThostFtdcSettlementInfoConfirmField infoConfirmField = traderApi.SyncReqQrySettlementInfoConfirm(qryInfoField);
+        CThostFtdcSettlementInfoConfirmField infoConfirmField = query(QueryPriority.Settlement, "qrySettlementInfoConfirm", ()->{
+            return traderApi.SyncReqQrySettlementInfoConfirm(qryInfoField);
+        });
         if ( infoConfirmField!=null && !traderApi.GetTradingDay().equals(infoConfirmField.ConfirmDate) ) {
             //未确认, 需要先查询再确认
             CThostFtdcQrySettlementInfoField qryField = new CThostFtdcQrySettlementInfoField();
             qryField.BrokerID = brokerId;
             qryField.AccountID = userId;
             qryField.InvestorID = userId;
-            CThostFtdcSettlementInfoField[] infoFields = traderApi.SyncAllReqQrySettlementInfo(qryField);
+            CThostFtdcSettlementInfoField[] infoFields = query(QueryPriority.Settlement, "qrySettlementInfo", ()->{
+                return traderApi.SyncAllReqQrySettlementInfo(qryField);
+            });
             if ( infoFields==null || infoFields.length==0 ){
                 if ( logger.isDebugEnabled() ) {
                     logger.debug("No settlement found to confirm");
@@ -134,8 +145,10 @@ public class CtpTxnSession extends AbsTxnSession implements TraderApiListener, S
                 }
                 settlement = ( BufferUtil.getStringFromByteArrays(rawByteArrays, Offset_CThostFtdcSettlementInfoField_Content, SizeOf_TThostFtdcContentType-1));
             }
-            infoConfirmField = new CThostFtdcSettlementInfoConfirmField(brokerId,userId,traderApi.GetTradingDay(),"", 0, null, null);
-            CThostFtdcSettlementInfoConfirmField confirmResult = traderApi.SyncReqSettlementInfoConfirm(infoConfirmField);
+            CThostFtdcSettlementInfoConfirmField confirmField = new CThostFtdcSettlementInfoConfirmField(brokerId,userId,traderApi.GetTradingDay(),"", 0, null, null);
+            CThostFtdcSettlementInfoConfirmField confirmResult = query(QueryPriority.Settlement, "settlementInfoConfirm", ()->{
+                return traderApi.SyncReqSettlementInfoConfirm(confirmField);
+            });
             long t1 = System.currentTimeMillis();
             logger.info("Investor "+confirmResult.InvestorID+" settlement "+confirmResult.SettlementID+" is confirmed in "+(t1-t0)+" ms");
         }
@@ -149,7 +162,9 @@ public class CtpTxnSession extends AbsTxnSession implements TraderApiListener, S
     public long[] syncQryAccounts() throws Exception {
         long[] result = new long[AccMoney_Count];
         CThostFtdcQryTradingAccountField q = new CThostFtdcQryTradingAccountField(brokerId, userId, null, THOST_FTDC_BZTP_Future, null);
-        CThostFtdcTradingAccountField r = traderApi.SyncReqQryTradingAccount(q);
+        CThostFtdcTradingAccountField r = query(QueryPriority.Accounts, "qryTradingAccount", ()->{
+            return traderApi.SyncReqQryTradingAccount(q);
+        });
 
         result[AccMoney_Balance] = PriceUtil.price2long(r.Balance);
         result[AccMoney_Available] = PriceUtil.price2long(r.Available);
@@ -179,7 +194,9 @@ public class CtpTxnSession extends AbsTxnSession implements TraderApiListener, S
         Map<Exchangeable, FutureFeeInfo> feeInfos = new LinkedHashMap<>();
         Set<String> commodityNames = new TreeSet<>();
         {//查询品种基本数据
-            CThostFtdcInstrumentField[] rr = traderApi.SyncAllReqQryInstrument(new CThostFtdcQryInstrumentField());
+            CThostFtdcInstrumentField[] rr = query(QueryPriority.Fees, "qryInstrument", ()->{
+                return traderApi.SyncAllReqQryInstrument(new CThostFtdcQryInstrumentField());
+            });
             synchronized(Exchangeable.class) {
                 for(CThostFtdcInstrumentField r:rr){
                     if ( logger.isDebugEnabled() ) {
@@ -199,15 +216,16 @@ public class CtpTxnSession extends AbsTxnSession implements TraderApiListener, S
         }
         {//查询保证金率
             CThostFtdcQryExchangeMarginRateField f = new CThostFtdcQryExchangeMarginRateField(brokerId, null, THOST_FTDC_HF_Speculation, null);
-            CThostFtdcExchangeMarginRateField[] rr = traderApi.SyncAllReqQryExchangeMarginRate(f);
+            CThostFtdcExchangeMarginRateField[] rr = query(QueryPriority.Fees, "qryExchangeMarginRate", ()->{
+                return traderApi.SyncAllReqQryExchangeMarginRate(f);
+            });
             for(int i=0;i<rr.length;i++){
                 CThostFtdcExchangeMarginRateField r = rr[i];
                 Exchangeable e = Exchangeable.fromString(r.ExchangeID, r.InstrumentID);
                 FutureFeeInfo info = feeInfos.get(e);
                 if ( info==null ){
+                    logger.info("Ignore unknown future margin rate : "+r);
                     continue;
-                } else {
-                    logger.info("Ignore unknown future commision rate : "+r);
                 }
                 info.setMarginRatio(MarginRatio_LongByMoney, r.LongMarginRatioByMoney);
                 info.setMarginRatio(MarginRatio_LongByVolume, r.LongMarginRatioByVolume);
@@ -219,7 +237,9 @@ public class CtpTxnSession extends AbsTxnSession implements TraderApiListener, S
             for(String commodity:commodityNames) {
                 CThostFtdcQryInstrumentCommissionRateField f = new CThostFtdcQryInstrumentCommissionRateField();
                 f.BrokerID = brokerId; f.InvestorID = userId; f.InstrumentID = commodity;
-                CThostFtdcInstrumentCommissionRateField r = traderApi.SyncReqQryInstrumentCommissionRate(f);
+                CThostFtdcInstrumentCommissionRateField r = query(QueryPriority.Fees, "qryInstrumentCommissionRate."+commodity, ()->{
+                    return traderApi.SyncReqQryInstrumentCommissionRate(f);
+                });
                 for(Exchangeable e:feeInfos.keySet()) {
                     if ( !e.commodity().equals(commodity)) {
                         continue;
@@ -244,7 +264,9 @@ public class CtpTxnSession extends AbsTxnSession implements TraderApiListener, S
         CtpMarketDataProducer mdProducer = new CtpMarketDataProducer();
         LocalDate actionDay = LocalDate.now();
         CThostFtdcQryDepthMarketDataField req = new CThostFtdcQryDepthMarketDataField();
-        CThostFtdcDepthMarketDataField[] marketDatas = traderApi.SyncAllReqQryDepthMarketData(req);
+        CThostFtdcDepthMarketDataField[] marketDatas = query(QueryPriority.Fees, "qryDepthMarketData", ()->{
+            return traderApi.SyncAllReqQryDepthMarketData(req);
+        });
         List<MarketData> result = new ArrayList<>(marketDatas.length);
         for(CThostFtdcDepthMarketDataField depthData:marketDatas) {
             //忽略组合
@@ -271,7 +293,9 @@ public class CtpTxnSession extends AbsTxnSession implements TraderApiListener, S
         List<PositionImpl> positions = new ArrayList<>();
         CThostFtdcQryInvestorPositionField f = new CThostFtdcQryInvestorPositionField();
         f.BrokerID = brokerId; f.InvestorID = userId;
-        CThostFtdcInvestorPositionField[] posFields= traderApi.SyncAllReqQryInvestorPosition(f);
+        CThostFtdcInvestorPositionField[] posFields= query(QueryPriority.Positions, "qryInvestorPosition", ()->{
+            return traderApi.SyncAllReqQryInvestorPosition(f);
+        });
         Map<Exchangeable, PositionInfoTuple> posInfos = new HashMap<>();
         for(int i=0;i<posFields.length;i++){
             CThostFtdcInvestorPositionField r = posFields[i];
@@ -312,7 +336,9 @@ public class CtpTxnSession extends AbsTxnSession implements TraderApiListener, S
         CThostFtdcQryInvestorPositionDetailField f2 = new CThostFtdcQryInvestorPositionDetailField();
         f2.BrokerID = brokerId;
         f2.InvestorID = userId;
-        CThostFtdcInvestorPositionDetailField[] posDetailFields = traderApi.SyncAllReqQryInvestorPositionDetail(f2);
+        CThostFtdcInvestorPositionDetailField[] posDetailFields = query(QueryPriority.Positions, "qryInvestorPositionDetail", ()->{
+            return traderApi.SyncAllReqQryInvestorPositionDetail(f2);
+        });
         for(int i=0;i<posDetailFields.length;i++){
             CThostFtdcInvestorPositionDetailField d= posDetailFields[i];
             Exchangeable e = Exchangeable.fromString(d.ExchangeID, d.InstrumentID);
@@ -351,30 +377,16 @@ public class CtpTxnSession extends AbsTxnSession implements TraderApiListener, S
         return positions;
     }
 
+    /**
+     * 从合约+方向的模板填写报单请求, 只修改报单相关字段后直接发送
+     */
     @Override
     public void asyncSendOrder(OrderImpl order) throws AppException {
-        CThostFtdcInputOrderField req = new CThostFtdcInputOrderField();
-        req.BrokerID = brokerId;
-        req.UserID = userId;
-        req.InvestorID = userId;
-        req.OrderRef = order.getRef();
-        req.Direction = orderDirection2ctp(order.getDirection());
-        req.CombOffsetFlag = orderOffsetFlag2ctp(order.getOffsetFlags());
-        req.OrderPriceType = orderPriceType2ctp(order.getPriceType());
-        req.LimitPrice = PriceUtil.long2price(order.getLimitPrice());
-        req.VolumeTotalOriginal = order.getVolume(OdrVolume_ReqVolume);
-        req.InstrumentID = order.getExchangeable().id();
-        req.VolumeCondition = orderVolumeCondition2ctp(order.getVolumeCondition());
-        req.TimeCondition = THOST_FTDC_TC_GFD; //当日有效
-        req.CombHedgeFlag =  STRING_THOST_FTDC_HF_Speculation; //投机
-        req.ContingentCondition = THOST_FTDC_CC_Immediately; //立即触发
-        req.ForceCloseReason = THOST_FTDC_FCC_NotForceClose; //强平原因: 非强平
-        req.IsAutoSuspend = false;
-        req.MinVolume = 1;
-
         orderChangeState(order, new OrderStateTuple(OrderState.Submitting, OrderSubmitState.InsertSubmitting, System.currentTimeMillis()));
         try{
-            traderApi.ReqOrderInsert(req);
+            account.traceOrder(order, OdrTrace_SendBegin);
+            traderApi.ReqOrderInsert(getOrderTemplates().fill(order));
+            account.traceOrder(order, OdrTrace_SendEnd);
             orderChangeState(order, new OrderStateTuple(OrderState.Submitted, OrderSubmitState.InsertSubmitting, System.currentTimeMillis()));
         }catch(Throwable t) {
             logger.error("ReqOrderInsert failed: "+order, t);
@@ -382,6 +394,81 @@ public class CtpTxnSession extends AbsTxnSession implements TraderApiListener, S
         }
     }
 
+    /**
+     * 按 FrontID+SessionID+OrderRef 撤单, 报单回报之前使用当前会话的FrontID/SessionID
+     */
+    @Override
+    public void asyncCancelOrder(OrderImpl order) throws AppException {
+        CThostFtdcInputOrderActionField action = new CThostFtdcInputOrderActionField();
+        action.BrokerID = brokerId;
+        action.InvestorID = userId;
+        action.UserID = userId;
+        action.OrderRef = order.getRef();
+        action.FrontID = frontId;
+        action.SessionID = sessionId;
+        String orderFrontId = order.getAttr(ATTR_FRONT_ID), orderSessionId = order.getAttr(ATTR_SESSION_ID);
+        if ( !StringUtil.isEmpty(orderFrontId) && !StringUtil.isEmpty(orderSessionId) ) {
+            action.FrontID = Integer.parseInt(orderFrontId);
+            action.SessionID = Integer.parseInt(orderSessionId);
+        }
+        action.ExchangeID = order.getExchangeable().exchange().name().toUpperCase();
+        action.OrderSysID = order.getSysId();
+        action.InstrumentID = order.getExchangeable().id();
+        action.ActionFlag = THOST_FTDC_AF_Delete;
+        try{
+            traderApi.ReqOrderAction(action);
+            orderChangeState(order, new OrderStateTuple(order.getState().getState(), OrderSubmitState.DeleteSubmitting, System.currentTimeMillis()));
+        }catch(Throwable t) {
+            logger.error("ReqOrderAction failed: "+order, t);
+            throw new AppException(t, ERRCODE_TRADE_CANCEL_ORDER_FAILED, "CTP "+frontId+" ReqOrderAction failed: "+t.toString());
+        }
+    }
+
+    /**
+     * 多腿报单: 先全部改为Submitting, 再连续调用ReqOrderInsert, 最后再改为Submitted, 腿之间没有状态通知的开销.
+     * <BR>某一腿发送失败时, 之前的腿已经发出, 之后的腿不再发送
+     */
+    @Override
+    public void asyncSendOrders(List<OrderImpl> orders) throws AppException {
+        long time = System.currentTimeMillis();
+        CtpOrderTemplates templates = getOrderTemplates();
+        int sent = 0;
+        try{
+            for(;sent<orders.size();sent++) {
+                //逐腿进入Submitting, 没有发出的腿保持初始状态, 由账户回退
+                OrderImpl order = orders.get(sent);
+                orderChangeState(order, new OrderStateTuple(OrderState.Submitting, OrderSubmitState.InsertSubmitting, time));
+                account.traceOrder(order, OdrTrace_SendBegin);
+                traderApi.ReqOrderInsert(templates.fill(order));
+                account.traceOrder(order, OdrTrace_SendEnd);
+            }
+        }catch(Throwable t) {
+            logger.error("ReqOrderInsert failed: "+orders.get(sent), t);
+            throw new AppException(t, ERRCODE_TRADE_SEND_ORDER_FAILED, "CTP "+frontId+" ReqOrderInsert failed at leg "+sent+": "+t.toString());
+        }finally {
+            time = System.currentTimeMillis();
+            for(int i=0;i<sent;i++) {
+                orderChangeState(orders.get(i), new OrderStateTuple(OrderState.Submitted, OrderSubmitState.InsertSubmitting, time));
+            }
+        }
+    }
+
+    /**
+     * CTP查询都通过调度执行, 按优先级排队并控制查询速度
+     */
+    private <T> T query(QueryPriority priority, String key, Callable<T> callable) throws Exception {
+        return getQueryScheduler().call(priority, key, callable);
+    }
+
+    private CtpOrderTemplates getOrderTemplates() {
+        CtpOrderTemplates result = orderTemplates;
+        if ( result==null ) {
+            result = new CtpOrderTemplates(brokerId, userId);
+            orderTemplates = result;
+        }
+        return result;
+    }
+
     private boolean shouldAuthenticate() {
         Properties props = account.getConnectionProps();
         return !StringUtil.isEmpty(props.getProperty("authCode"));
@@ -460,6 +547,9 @@ public class CtpTxnSession extends AbsTxnSession implements TraderApiListener, S
         if ( pRspInfo.ErrorID==0 ) {
             frontId = pRspUserLogin.FrontID;
             sessionId = pRspUserLogin.SessionID;
+            brokerId = pRspUserLogin.BrokerID;
+            userId = pRspUserLogin.UserID;
+            orderTemplates = new CtpOrderTemplates(brokerId, userId);
             changeState(ConnState.Connected);
         }else {
             changeState(ConnState.ConnectFailed);
@@ -888,6 +978,10 @@ public class CtpTxnSession extends AbsTxnSession implements TraderApiListener, S
      */
     @Override
     public void OnRtnOrder(CThostFtdcOrderField pOrder) {
+        OrderImpl order = (OrderImpl)account.getOrder(pOrder.OrderRef);
+        if ( order!=null ) {
+            account.traceOrder(order, OdrTrace_RtnOrder);
+        }
         publishAsyncEvent(DATA_TYPE_RTN_ORDER, pOrder);
     }
 
@@ -896,6 +990,10 @@ public class CtpTxnSession extends AbsTxnSession implements TraderApiListener, S
      */
     @Override
     public void OnRtnTrade(CThostFtdcTradeField pTrade) {
+        OrderImpl order = (OrderImpl)account.getOrder(pTrade.OrderRef);
+        if ( order!=null ) {
+            account.traceOrder(order, OdrTrace_RtnTrade);
+        }
         publishAsyncEvent(DATA_TYPE_RTN_TRADE, pTrade);
     }
 
@@ -1190,7 +1288,7 @@ public class CtpTxnSession extends AbsTxnSession implements TraderApiListener, S
         }
     }
 
-    private char orderVolumeCondition2ctp(OrderVolumeCondition volumeCondition) {
+    public static char orderVolumeCondition2ctp(OrderVolumeCondition volumeCondition) {
         switch(volumeCondition) {
         case All:
             return THOST_FTDC_VC_CV;
@@ -1384,7 +1482,7 @@ public class CtpTxnSession extends AbsTxnSession implements TraderApiListener, S
             processRspOrderAction((CThostFtdcInputOrderActionField)data,(CThostFtdcRspInfoField)data2);
             break;
         case DATA_TYPE_ERR_RTN_ORDER_ACTION:
-            processErrRtnOrderAction( (CThostFtdcOrderActionField) data, (CThostFtdcRspInfoField)data);
+            processErrRtnOrderAction( (CThostFtdcOrderActionField) data, (CThostFtdcRspInfoField)data2);
             break;
         }
     }
@@ -1427,6 +1525,7 @@ public class CtpTxnSession extends AbsTxnSession implements TraderApiListener, S
             default:
             }
             orderChangeState(order, new OrderStateTuple(state, submitState, System.currentTimeMillis(), failReason));
+            account.traceOrder(order, OdrTrace_RtnOrderProcessed);
         } catch (Throwable t) {
             logger.error("报单回报处理错误", t);
         }
@@ -1456,6 +1555,7 @@ public class CtpTxnSession extends AbsTxnSession implements TraderApiListener, S
                 );
 
         orderAppendTxn(order, txn);
+        account.traceOrder(order, OdrTrace_RtnTradeProcessed);
         if ( logger.isInfoEnabled() ) {
             logger.info("OnRtnTrade: "+pTrade);
         }
@@ -1529,7 +1629,8 @@ public class CtpTxnSession extends AbsTxnSession implements TraderApiListener, S
             submitState = (OrderSubmitState.CancelRejected);
             break;
         }
-        orderChangeState(order, new OrderStateTuple(OrderState.Failed, submitState, System.currentTimeMillis(), failReason));
+        //撤单/改单被拒绝, 报单本身仍然有效
+        orderChangeState(order, new OrderStateTuple(order.getState().getState(), submitState, System.currentTimeMillis(), failReason));
 
         if ( logger.isInfoEnabled() ) {
             logger.info("OnRspOrderAction: "+pInputOrderAction+" "+pRspInfo);
@@ -1562,7 +1663,8 @@ public class CtpTxnSession extends AbsTxnSession implements TraderApiListener, S
             submitState = (OrderSubmitState.CancelRejected);
             break;
         }
-        orderChangeState(order, new OrderStateTuple(OrderState.Failed, submitState, System.currentTimeMillis(), failReason));
+        //撤单/改单被拒绝, 报单本身仍然有效
+        orderChangeState(order, new OrderStateTuple(order.getState().getState(), submitState, System.currentTimeMillis(), failReason));
 
         if ( logger.isInfoEnabled() ) {
             logger.info("OnErrRtnOrderAction: "+pOrderAction+" "+pRspInfo);
@@ -0,0 +1,173 @@
+package trader.simulator;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import trader.common.util.CSVWriter;
+import trader.common.util.JsonEnabled;
+import trader.common.util.JsonUtil;
+import trader.common.util.PriceUtil;
+
+/**
+ * 一组参数的回测结果: 参数, TICK数量, 耗时, 策略处理TICK的延时统计, 模拟账户的权益/持仓盈亏/手续费, 以及策略写入KVStore的统计数据
+ */
+public class SimBatchResult implements JsonEnabled {
+
+    private int index;
+    private Properties parameters;
+    long tickCount;
+    long elapsedMillis;
+    long avgLatencyNanos;
+    long p99LatencyNanos;
+    long maxLatencyNanos;
+    long balance;
+    long positionProfit;
+    long commission;
+    Map<String, String> metrics = new TreeMap<>();
+    String error;
+
+    SimBatchResult(int index, Properties parameters){
+        this.index = index;
+        this.parameters = parameters;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public Properties getParameters() {
+        return parameters;
+    }
+
+    public long getTickCount() {
+        return tickCount;
+    }
+
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    public long getAvgLatencyNanos() {
+        return avgLatencyNanos;
+    }
+
+    /**
+     * 99%分位延时, 按2的幂次分桶统计, 返回桶的上限
+     */
+    public long getP99LatencyNanos() {
+        return p99LatencyNanos;
+    }
+
+    public long getMaxLatencyNanos() {
+        return maxLatencyNanos;
+    }
+
+    /**
+     * 回测结束时模拟账户的动态权益, 包含平仓盈亏, 持仓盈亏和手续费
+     */
+    public long getBalance() {
+        return balance;
+    }
+
+    /**
+     * 回测结束时未平仓持仓的盈亏, 多个交易日时从最后一次结算开始计算
+     */
+    public long getPositionProfit() {
+        return positionProfit;
+    }
+
+    /**
+     * 全部交易日的手续费合计
+     */
+    public long getCommission() {
+        return commission;
+    }
+
+    /**
+     * 策略写入TradletGroup.getKVStore()的数据
+     */
+    public Map<String, String> getMetrics(){
+        return metrics;
+    }
+
+    /**
+     * 回测失败原因, 成功返回null
+     */
+    public String getError() {
+        return error;
+    }
+
+    @Override
+    public JsonElement toJson() {
+        JsonObject json = new JsonObject();
+        json.addProperty("index", index);
+        json.add("parameters", JsonUtil.object2json(parameters));
+        json.addProperty("tickCount", tickCount);
+        json.addProperty("elapsedMillis", elapsedMillis);
+        json.addProperty("avgLatencyNanos", avgLatencyNanos);
+        json.addProperty("p99LatencyNanos", p99LatencyNanos);
+        json.addProperty("maxLatencyNanos", maxLatencyNanos);
+        json.addProperty("balance", PriceUtil.long2str(balance));
+        json.addProperty("positionProfit", PriceUtil.long2str(positionProfit));
+        json.addProperty("commission", PriceUtil.long2str(commission));
+        json.add("metrics", JsonUtil.object2json(metrics));
+        if ( error!=null ) {
+            json.addProperty("error", error);
+        }
+        return json;
+    }
+
+    /**
+     * 转换为CSV表格, 每个参数和统计数据一列
+     */
+    public static String toTable(List<SimBatchResult> results) {
+        LinkedHashSet<String> paramNames = new LinkedHashSet<>();
+        LinkedHashSet<String> metricNames = new LinkedHashSet<>();
+        for(SimBatchResult r:results) {
+            paramNames.addAll(r.parameters.stringPropertyNames());
+            metricNames.addAll(r.metrics.keySet());
+        }
+        List<String> columns = new ArrayList<>();
+        columns.add("Index");
+        columns.addAll(paramNames);
+        columns.add("Ticks");
+        columns.add("ElapsedMillis");
+        columns.add("AvgLatencyNanos");
+        columns.add("P99LatencyNanos");
+        columns.add("MaxLatencyNanos");
+        columns.add("Balance");
+        columns.add("PositionProfit");
+        columns.add("Commission");
+        columns.addAll(metricNames);
+        columns.add("Error");
+        CSVWriter csvWriter = new CSVWriter<>(columns.toArray(new String[columns.size()]));
+        for(SimBatchResult r:results) {
+            csvWriter.next();
+            csvWriter.set("Index", ""+r.index);
+            for(String param:paramNames) {
+                csvWriter.set(param, r.parameters.getProperty(param));
+            }
+            csvWriter.set("Ticks", ""+r.tickCount);
+            csvWriter.set("ElapsedMillis", ""+r.elapsedMillis);
+            csvWriter.set("AvgLatencyNanos", ""+r.avgLatencyNanos);
+            csvWriter.set("P99LatencyNanos", ""+r.p99LatencyNanos);
+            csvWriter.set("MaxLatencyNanos", ""+r.maxLatencyNanos);
+            csvWriter.set("Balance", PriceUtil.long2str(r.balance));
+            csvWriter.set("PositionProfit", PriceUtil.long2str(r.positionProfit));
+            csvWriter.set("Commission", PriceUtil.long2str(r.commission));
+            for(String metric:metricNames) {
+                csvWriter.set(metric, r.metrics.get(metric));
+            }
+            csvWriter.set("Error", r.error);
+        }
+        return csvWriter.toString();
+    }
+
+}
@@ -0,0 +1,302 @@
+package trader.simulator;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import trader.common.exchangeable.Exchangeable;
+import trader.common.util.PriceUtil;
+import trader.common.util.TraderHomeUtil;
+import trader.service.data.KVStoreIterator;
+import trader.service.md.MarketData;
+import trader.service.md.MarketDataService;
+import trader.service.stats.LatencyHistogram;
+import trader.service.trade.AbsTxnSession;
+import trader.service.trade.AccountImpl;
+import trader.service.trade.MarketTimeService;
+import trader.service.trade.TradeConstants;
+import trader.service.trade.TxnFeeEvaluator;
+import trader.service.tradlet.Tradlet;
+import trader.service.tradlet.TradletGroup;
+import trader.simulator.trade.SimTxnSession;
+
+/**
+ * 策略参数批量回测: 按参数网格(或者从网格中随机抽样)为每组参数创建独立的模拟容器, 在ForkJoinPool中并行运行.
+ * <BR>每组参数使用独立的影子账户和 SimTxnSession 撮合, 策略通过 TradletGroup.getAccountView() 报单, 结果中包含账户的权益, 持仓盈亏和手续费.
+ * <BR>TICK数据只加载一次, 所有回测实例共享只读的列式TICK数据块, N个并行实例不会加载N份数据.
+ * <BR>setEndTradingDay() 后每组参数连续回测多个交易日, 持仓和技术指标跨交易日保留, 每个交易日收盘后模拟账户结算.
+ * <BR>策略通过 TradletGroup.getProperties() 获取参数, 通过 TradletGroup.getKVStore() 输出统计数据(例如盈亏).
+ *
+ * <pre>
+ * List&lt;SimBatchResult&gt; results = new SimBatchRunner(MyTradlet.class, exchangeables, tradingDay, beginTime, endTime)
+ *     .addParameter("fast", "5", "10")
+ *     .addParameter("slow", "20", "30", "60")
+ *     .run(Runtime.getRuntime().availableProcessors());
+ * String table = SimBatchResult.toTable(results);
+ * </pre>
+ */
+public class SimBatchRunner implements TradeConstants {
+    private final static Logger logger = LoggerFactory.getLogger(SimBatchRunner.class);
+
+    private Class<? extends Tradlet> tradletClass;
+    private List<Exchangeable> exchangeables;
+    private LocalDate tradingDay;
+    private LocalDate endTradingDay;
+    private LocalDateTime beginTime;
+    private LocalDateTime endTime;
+    private Properties baseParameters = new Properties();
+    private LinkedHashMap<String, String[]> parameterGrid = new LinkedHashMap<>();
+    private int randomSamples;
+    private long randomSeed;
+    private Map<Exchangeable, SimTickBlock> marketDatas;
+    private TxnFeeEvaluator feeEvaluator;
+    private long initMoney = PriceUtil.price2long(1000000);
+
+    public SimBatchRunner(Class<? extends Tradlet> tradletClass, List<Exchangeable> exchangeables, LocalDate tradingDay, LocalDateTime beginTime, LocalDateTime endTime) {
+        this.tradletClass = tradletClass;
+        this.exchangeables = exchangeables;
+        this.tradingDay = tradingDay;
+        this.beginTime = beginTime;
+        this.endTime = endTime;
+    }
+
+    /**
+     * 所有组合共同的参数
+     */
+    public SimBatchRunner setParameter(String name, String value) {
+        baseParameters.setProperty(name, value);
+        return this;
+    }
+
+    /**
+     * 增加一个参数维度
+     */
+    public SimBatchRunner addParameter(String name, String ...values) {
+        parameterGrid.put(name, values);
+        return this;
+    }
+
+    /**
+     * 不遍历全部网格, 从网格中随机抽取samples组参数
+     */
+    public SimBatchRunner setRandomSearch(int samples, long seed) {
+        this.randomSamples = samples;
+        this.randomSeed = seed;
+        return this;
+    }
+
+    /**
+     * 连续回测到这个交易日(包含), 每个交易日从前一交易日夜市到当天收盘, 不再使用构造函数的开始结束时间.
+     * <BR>与开始交易日相同时按交易所时间回测单个交易日
+     * <BR>多个交易日时每个回测实例自己加载行情, 回放当前交易日的同时预加载下一个交易日, 不共享TICK数据
+     */
+    public SimBatchRunner setEndTradingDay(LocalDate endTradingDay) {
+        this.endTradingDay = endTradingDay;
+        return this;
+    }
+
+    /**
+     * 使用已加载的TICK数据, 缺省从Repository加载, 只用于单个交易日
+     */
+    public SimBatchRunner setMarketDatas(Map<Exchangeable, SimTickBlock> marketDatas) {
+        this.marketDatas = marketDatas;
+        return this;
+    }
+
+    /**
+     * 模拟账户使用的费率, 缺省加载 SimTxnSession 使用的费率快照 ${trader.home}/data/feeEvaluator.json
+     */
+    public SimBatchRunner setFeeEvaluator(TxnFeeEvaluator feeEvaluator) {
+        this.feeEvaluator = feeEvaluator;
+        return this;
+    }
+
+    /**
+     * 模拟账户的初始资金, 缺省 1000000
+     */
+    public SimBatchRunner setInitMoney(long initMoney) {
+        this.initMoney = initMoney;
+        return this;
+    }
+
+    /**
+     * 参数组合数量
+     */
+    public long getGridSize() {
+        long result = 1;
+        for(String[] values:parameterGrid.values()) {
+            result *= values.length;
+        }
+        return result;
+    }
+
+    /**
+     * 返回需要回测的参数组合
+     */
+    public List<Properties> getParameterSets(){
+        long gridSize = getGridSize();
+        List<Properties> result = new ArrayList<>();
+        if ( randomSamples<=0 || randomSamples>=gridSize ) {
+            for(long i=0;i<gridSize;i++) {
+                result.add(decodeParameters(i));
+            }
+        } else {
+            Random random = new Random(randomSeed);
+            Set<Long> indices = new LinkedHashSet<>();
+            while(indices.size()<randomSamples) {
+                indices.add( (random.nextLong()&Long.MAX_VALUE)%gridSize );
+            }
+            for(Long i:indices) {
+                result.add(decodeParameters(i));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 并行执行全部参数组合, 结果按参数组合的顺序返回
+     */
+    public List<SimBatchResult> run(int parallelism) throws Exception
+    {
+        if ( marketDatas==null && !hasTradingDayRange() ) {
+            marketDatas = SimMarketDataService.loadMarketDatas(TraderHomeUtil.getExchangeableData(), exchangeables, tradingDay);
+        }
+        if ( feeEvaluator==null ) {
+            feeEvaluator = SimTxnSession.loadFeeEvaluator(null);
+        }
+        List<Properties> parameterSets = getParameterSets();
+        long t0 = System.currentTimeMillis();
+        ForkJoinPool pool = new ForkJoinPool(Math.max(1, parallelism));
+        try {
+            List<ForkJoinTask<SimBatchResult>> tasks = new ArrayList<>();
+            for(int i=0;i<parameterSets.size();i++) {
+                final int index = i;
+                tasks.add(pool.submit(()->{
+                    return runOne(index, parameterSets.get(index));
+                }));
+            }
+            List<SimBatchResult> result = new ArrayList<>();
+            for(ForkJoinTask<SimBatchResult> task:tasks) {
+                result.add(task.get());
+            }
+            long t1 = System.currentTimeMillis();
+            logger.info(tradletClass.getSimpleName()+" 批量回测 "+result.size()+" 组参数, 并行度 "+parallelism+", 耗时 "+(t1-t0)+" ms");
+            return result;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * 在独立的模拟容器中回测一组参数
+     */
+    private SimBatchResult runOne(int index, Properties parameters) {
+        SimBatchResult result = new SimBatchResult(index, parameters);
+        Tradlet tradlet = null;
+        SimMarketDataService mdService = new SimMarketDataService();
+        try {
+            SimBeansContainer beansContainer = new SimBeansContainer();
+            SimMarketTimeService marketTime = new SimMarketTimeService();
+            SimTradletGroup group = new SimTradletGroup(tradletClass.getSimpleName()+"-"+index, exchangeables, parameters);
+            if ( hasTradingDayRange() ) {
+                marketTime.setTradingDays(exchangeables.get(0).exchange(), tradingDay, endTradingDay);
+            } else {
+                marketTime.setTimeRange(tradingDay, beginTime, endTime);
+                mdService.setMarketDatas(marketDatas);
+            }
+            beansContainer.addBean(MarketTimeService.class, marketTime);
+            beansContainer.addBean(MarketDataService.class, mdService);
+            beansContainer.addBean(TradletGroup.class, group);
+            mdService.addSubscriptions(exchangeables);
+            mdService.init(beansContainer);
+            AccountImpl account = new AccountImpl(group.getId(), beansContainer, feeEvaluator, initMoney);
+            group.setAccountView(account.getViews().get(account.getId()));
+
+            tradlet = tradletClass.getDeclaredConstructor().newInstance();
+            group.getTradlets().add(tradlet);
+            tradlet.init(beansContainer);
+            final Tradlet tradlet0 = tradlet;
+            LatencyHistogram histogram = new LatencyHistogram();
+            mdService.addListener((MarketData md)->{
+                long t0 = System.nanoTime();
+                tradlet0.onMarketData(md);
+                histogram.record(System.nanoTime()-t0);
+            });
+            //每日结算清除当日手续费, 在结算之前累计
+            long[] settledCommission = new long[1];
+            marketTime.addListener(new SimMarketTimeAware() {
+                @Override
+                public void onTimeChanged(LocalDate tradingDay, LocalDateTime actionTime) {
+                }
+
+                @Override
+                public void onTradingDayChanged(LocalDate prevTradingDay, LocalDate tradingDay) {
+                    settledCommission[0] += account.getMoney(AccMoney_Commission);
+                }
+            });
+            //策略之后撮合, 然后更新持仓盈亏
+            ((AbsTxnSession)account.getSession()).connect();
+            mdService.addListener(account::onMarketData);
+
+            long t0 = System.currentTimeMillis();
+            while(marketTime.nextTimePiece());
+            result.elapsedMillis = System.currentTimeMillis()-t0;
+            result.tickCount = histogram.getCount();
+            if ( histogram.getCount()>0 ) {
+                result.avgLatencyNanos = histogram.avg();
+                result.p99LatencyNanos = histogram.percentile(0.99);
+                result.maxLatencyNanos = histogram.getMax();
+            }
+            result.balance = account.getMoney(AccMoney_Balance);
+            result.positionProfit = account.getMoney(AccMoney_PositionProfit);
+            result.commission = settledCommission[0]+account.getMoney(AccMoney_Commission);
+            for(KVStoreIterator it=group.getKVStore().iterator(); it.hasNext();) {
+                String key = it.next();
+                result.metrics.put(key, group.getKVStore().getAsString(key));
+            }
+        }catch(Throwable t) {
+            logger.error(tradletClass.getSimpleName()+" 回测参数 "+parameters+" 失败", t);
+            result.error = t.toString();
+        } finally {
+            if ( tradlet!=null ) {
+                try{
+                    tradlet.destroy();
+                }catch(Throwable t) {}
+            }
+            mdService.destroy();
+        }
+        return result;
+    }
+
+    private boolean hasTradingDayRange() {
+        return endTradingDay!=null;
+    }
+
+    /**
+     * 按混合进制将网格序号转换为参数组合, 最后一个参数变化最快
+     */
+    private Properties decodeParameters(long gridIndex) {
+        Properties result = new Properties();
+        result.putAll(baseParameters);
+        List<String> names = new ArrayList<>(parameterGrid.keySet());
+        for(int i=names.size()-1;i>=0;i--) {
+            String[] values = parameterGrid.get(names.get(i));
+            result.setProperty(names.get(i), values[(int)(gridIndex%values.length)]);
+            gridIndex /= values.length;
+        }
+        return result;
+    }
+
+}
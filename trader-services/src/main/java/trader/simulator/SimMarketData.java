@@ -0,0 +1,67 @@
+package trader.simulator;
+
+import trader.common.util.DateUtil;
+import trader.common.util.PriceUtil;
+import trader.service.md.MarketData;
+
+/**
+ * 回测行情对象, 由 SimTickBlock 填充.
+ * <BR>发送给监听器的对象每个品种复用一个, 只在 onMarketData() 调用期间有效, 需要保留时调用 clone()
+ */
+public class SimMarketData extends MarketData {
+
+    /**
+     * CTP行情最大深度
+     */
+    public static final int MAX_DEPTH = 5;
+
+    /**
+     * 设置行情深度, 深度变化时才重新分配买卖价量数组
+     */
+    void setDepth(int depth) {
+        this.depth = depth;
+        if ( bidPrices==null || bidPrices.length!=depth ) {
+            bidPrices = new long[depth];
+            bidVolumes = new int[depth];
+            askPrices = new long[depth];
+            askVolumes = new int[depth];
+        }
+    }
+
+    @Override
+    public String getCsvHead() {
+        return "TradingDay,InstrumentID,UpdateTime,LastPrice,Volume,Turnover,OpenInterest,BidPrice1,BidVolume1,AskPrice1,AskVolume1";
+    }
+
+    @Override
+    public void toCsvRow(StringBuilder rowBuf) {
+        rowBuf.append(tradingDay)
+            .append(",").append(instrumentId.id())
+            .append(",").append(DateUtil.date2str(updateTime))
+            .append(",").append(PriceUtil.long2str(lastPrice))
+            .append(",").append(volume)
+            .append(",").append(PriceUtil.long2str(turnover))
+            .append(",").append(openInterest)
+            .append(",").append(depth>0?PriceUtil.long2str(bidPrices[0]):"")
+            .append(",").append(depth>0?bidVolumes[0]:0)
+            .append(",").append(depth>0?PriceUtil.long2str(askPrices[0]):"")
+            .append(",").append(depth>0?askVolumes[0]:0);
+    }
+
+    /**
+     * 复制全部数据, 不共享买卖价量数组
+     */
+    @Override
+    public MarketData clone() {
+        SimMarketData obj = new SimMarketData();
+        cloneImpl(obj);
+        obj.tradingDay = tradingDay;
+        obj.updateTimestamp = updateTimestamp;
+        obj.bidPrices = bidPrices.clone();
+        obj.bidVolumes = bidVolumes.clone();
+        obj.askPrices = askPrices.clone();
+        obj.askVolumes = askVolumes.clone();
+        return obj;
+    }
+
+}
@@ -1,80 +1,101 @@
 package trader.simulator;
 
+import java.io.IOException;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.lmax.disruptor.util.DaemonThreadFactory;
+
 import trader.common.beans.BeansContainer;
+import trader.common.exchangeable.Exchange;
 import trader.common.exchangeable.Exchangeable;
 import trader.common.exchangeable.ExchangeableData;
-import trader.common.exchangeable.ExchangeableData.DataInfo;
-import trader.common.util.CSVDataSet;
-import trader.common.util.CSVMarshallHelper;
-import trader.common.util.CSVUtil;
+import trader.common.util.DateUtil;
 import trader.common.util.TraderHomeUtil;
-import trader.common.util.csv.CtpCSVMarshallHelper;
 import trader.service.md.MarketData;
 import trader.service.md.MarketDataListener;
 import trader.service.md.MarketDataProducer;
 import trader.service.md.MarketDataService;
-import trader.service.md.ctp.CtpMarketDataProducer;
 
 /**
  * 模拟市场行情驱动服务
+ * <BR>TICK数据按品种保存为列式数组, 开始时间通过二分查找定位, 按时间合并只涉及还有TICK的品种.
+ * 每个品种复用一个行情对象发送给监听器.
+ * <BR>多个交易日回测时, 当前交易日回放的同时在后台线程预加载下一个交易日的数据, 切换交易日后释放前一天的数据,
+ * 内存中最多保留两个交易日的TICK.
  */
 public class SimMarketDataService implements MarketDataService, SimMarketTimeAware {
     private final static Logger logger = LoggerFactory.getLogger(SimMarketDataService.class);
+    private static final ZoneId CFFEX_ZONE_ID = Exchange.CFFEX.getZoneId();
 
     private static class SimMDInfo {
-        List<MarketData> marketDatas = new ArrayList<>();
+        final int order;
+        final Exchangeable exchangeable;
+        SimTickBlock block;
         int nextDataIndex = 0;
-
         /**
-         * 寻找下一个行情数据
+         * 发送给监听器的复用行情对象
          */
-        public MarketData seek(LocalDateTime lastTime, LocalDateTime actionTime) {
-            MarketData result = null;
-            if ( lastTime==null ) { //第一次, 寻找与市场时间相等或最后一个小于市场时间的行情切片
-                for(int i=0;i<marketDatas.size();i++) {
-                    MarketData md = marketDatas.get(i);
-                    int actionTimeCompare= actionTime.compareTo(md.updateTime);
-                    if ( actionTimeCompare>=0 ) { //actionTime >= marketDataTime
-                        nextDataIndex = i+1;
-                        result = md;
-                        continue;
-                    } else {
-                        nextDataIndex = i;
-                        break;
-                    }
-                }
-            } else { //后续, 寻找lastTime<=updateTime&&updateTime<=actionTime
-                for(int i=nextDataIndex;i<marketDatas.size();i++) {
-                    MarketData md = marketDatas.get(i);
-                    int actionTimeCompare= actionTime.compareTo(md.updateTime);
-                    if ( actionTimeCompare>=0 ) { //actionTime >= marketDataTime
-                        nextDataIndex = i+1;
-                        result = md;
-                        continue;
-                    } else {
-                        nextDataIndex = i;
-                        break;
-                    }
-                }
-            }
-            return result;
+        final SimMarketData view = new SimMarketData();
+        /**
+         * 前一个交易日的最后一个TICK
+         */
+        MarketData prevData;
+
+        SimMDInfo(int order, Exchangeable exchangeable){
+            this.order = order;
+            this.exchangeable = exchangeable;
+        }
+
+        long nextTimestamp() {
+            return block.timestamps[nextDataIndex];
         }
 
+        boolean hasNext() {
+            return block!=null && nextDataIndex<block.size;
+        }
     }
 
+    /**
+     * 按下一个TICK时间排序, 时间相同按订阅顺序
+     */
+    private static final Comparator<SimMDInfo> NEXT_TICK_COMPARATOR = (m1, m2)->{
+        int result = Long.compare(m1.nextTimestamp(), m2.nextTimestamp());
+        if ( result==0 ) {
+            result = Integer.compare(m1.order, m2.order);
+        }
+        return result;
+    };
+
     protected List<MarketDataListener> genericListeners = new ArrayList<>();
     protected Map<Exchangeable, List<MarketDataListener>> listeners = new HashMap<>();
     protected Set<Exchangeable> subscriptions = new TreeSet<>();
     protected Map<Exchangeable, SimMDInfo> mdInfos = new HashMap<>();
+    /**
+     * 每个品种的下一个TICK, 按时间排序
+     */
+    private PriorityQueue<SimMDInfo> pendingMDInfos = new PriorityQueue<>(NEXT_TICK_COMPARATOR);
+    private SimMarketTimeService marketTimeService;
+    private LocalDate loadedTradingDay;
+    private Map<Exchangeable, SimTickBlock> sharedMarketDatas;
+    private ExecutorService prefetchExecutor;
+    private LocalDate prefetchTradingDay;
+    private Future<Map<Exchangeable, SimTickBlock>> prefetchFuture;
 
-    private LocalDateTime lastTime;
+    /**
+     * 使用预先加载的行情数据, 不再从Repository加载. 数据只读, 可以在多个回测实例之间共享, 只用于单个交易日的回测
+     */
+    public void setMarketDatas(Map<Exchangeable, SimTickBlock> marketDatas) {
+        this.sharedMarketDatas = marketDatas;
+    }
 
     @Override
     public Collection<MarketDataProducer> getProducers() {
@@ -95,8 +116,8 @@ public class SimMarketDataService implements MarketDataService, SimMarketTimeAwa
     public MarketData getLastData(Exchangeable e) {
         MarketData result = null;
         SimMDInfo mdInfo = mdInfos.get(e);
-        if ( mdInfo!=null && mdInfo.nextDataIndex>0 ) {
-            result = mdInfo.marketDatas.get(mdInfo.nextDataIndex-1);
+        if ( mdInfo!=null ) {
+            result = getLastData(mdInfo);
         }
         return result;
     }
@@ -128,79 +149,146 @@ public class SimMarketDataService implements MarketDataService, SimMarketTimeAwa
      */
     @Override
     public void init(BeansContainer beansContainer) throws Exception {
-        beansContainer.getBean(SimMarketTimeService.class).addListener(this);
+        marketTimeService = beansContainer.getBean(SimMarketTimeService.class);
+        marketTimeService.addListener(this);
     }
 
     @Override
     public void destroy() {
+        if ( prefetchExecutor!=null ) {
+            prefetchExecutor.shutdownNow();
+            prefetchExecutor = null;
+        }
+    }
 
+    /**
+     * 下一个TICK的时间
+     */
+    @Override
+    public LocalDateTime nextEventTime() {
+        SimMDInfo mdInfo = pendingMDInfos.peek();
+        if ( mdInfo==null ) {
+            return null;
+        }
+        return DateUtil.long2datetime(CFFEX_ZONE_ID, mdInfo.nextTimestamp());
     }
 
+    /**
+     * 按全局时间顺序发送不晚于actionTime的全部TICK.
+     * <BR>交易日变化时切换数据, 开始时间之前的TICK只发送每个品种的最后一个
+     */
     @Override
     public void onTimeChanged(LocalDate tradingDay, LocalDateTime actionTime) {
-        //通知行情数据
-        if ( lastTime==null ) {
-            //第一次调用, 需要加载数据
+        long actionTimestamp = DateUtil.localdatetime2long(CFFEX_ZONE_ID, actionTime);
+        if ( !tradingDay.equals(loadedTradingDay) ) {
+            loadedTradingDay = tradingDay;
             loadMarketData(tradingDay);
-        }
-        for(Exchangeable e:subscriptions) {
-            SimMDInfo mdInfo = mdInfos.get(e);
-            if ( mdInfo==null ) {
-                continue;
+            prefetchMarketData();
+            for(SimMDInfo mdInfo:mdInfos.values()) {
+                if ( mdInfo.block==null ) {
+                    continue;
+                }
+                mdInfo.nextDataIndex = Math.max(0, mdInfo.block.seek(actionTimestamp)-1);
+                if ( mdInfo.hasNext() ) {
+                    pendingMDInfos.add(mdInfo);
+                }
             }
-            MarketData md = mdInfo.seek(lastTime, actionTime);
-            if ( md==null ) {
-                continue;
+        }
+        SimMDInfo mdInfo = null;
+        while( (mdInfo=pendingMDInfos.peek())!=null && mdInfo.nextTimestamp()<=actionTimestamp ) {
+            pendingMDInfos.poll();
+            SimMarketData md = mdInfo.view;
+            mdInfo.block.fill(mdInfo.nextDataIndex, md);
+            mdInfo.nextDataIndex++;
+            if ( mdInfo.hasNext() ) {
+                pendingMDInfos.add(mdInfo);
             }
             for(MarketDataListener listener:genericListeners) {
                 listener.onMarketData(md);
             }
-            List<MarketDataListener> eListeners = listeners.get(e);
+            List<MarketDataListener> eListeners = listeners.get(mdInfo.exchangeable);
             if ( eListeners!=null ) {
                 for(MarketDataListener listener:eListeners) {
                     listener.onMarketData(md);
                 }
             }
         }
-        lastTime = actionTime;
     }
 
+    /**
+     * 加载交易日数据, 替换前一个交易日的数据
+     */
     private void loadMarketData(LocalDate tradingDay) {
-        ExchangeableData data = TraderHomeUtil.getExchangeableData();
-        for(Exchangeable e:subscriptions) {
-            SimMDInfo mdInfo  =new SimMDInfo();
-            DataInfo tickInfo = ExchangeableData.TICK_CTP;
-            String tickCsv = null;
-            try{
-                tickCsv = data.load(e, tickInfo, tradingDay);
-            }catch(Throwable t) {
-                logger.error("加载 "+e+" 交易日 "+tradingDay+" TICK行情数据失败", t);
-                throw new RuntimeException(t);
+        Map<Exchangeable, SimTickBlock> marketDatas = sharedMarketDatas;
+        try {
+            if ( marketDatas==null && tradingDay.equals(prefetchTradingDay) ) {
+                marketDatas = prefetchFuture.get();
             }
-
-            CSVMarshallHelper csvMarshallHelper = createCSVMarshallHelper(tickInfo);
-            MarketDataProducer mdProducer = createMarketDataProducer(tickInfo);
-
-            CSVDataSet csvDataSet = CSVUtil.parse(tickCsv);
-            while(csvDataSet.next()) {
-                MarketData marketData = mdProducer.createMarketData(csvMarshallHelper.unmarshall(csvDataSet.getRow()), tradingDay);
-               mdInfo.marketDatas.add(marketData);
+            if ( marketDatas==null ) {
+                marketDatas = loadMarketDatas(TraderHomeUtil.getExchangeableData(), subscriptions, tradingDay);
+            }
+        }catch(Throwable t) {
+            logger.error("加载 "+subscriptions+" 交易日 "+tradingDay+" TICK行情数据失败", t);
+            throw new RuntimeException(t);
+        }
+        prefetchTradingDay = null;
+        prefetchFuture = null;
+        //替换前一个交易日的数据, 只保留最后一个TICK
+        Map<Exchangeable, SimMDInfo> prevMDInfos = mdInfos;
+        mdInfos = new HashMap<>();
+        pendingMDInfos.clear();
+        int order = 0;
+        for(Exchangeable e:subscriptions) {
+            SimMDInfo mdInfo = new SimMDInfo(order++, e);
+            SimMDInfo prevMDInfo = prevMDInfos.get(e);
+            if ( prevMDInfo!=null ) {
+                mdInfo.prevData = getLastData(prevMDInfo);
             }
+            mdInfo.block = marketDatas.get(e);
             mdInfos.put(e, mdInfo);
+            if ( !mdInfo.hasNext() ) {
+                logger.warn(e+" 交易日 "+tradingDay+" 没有TICK行情数据");
+            }
         }
     }
 
-    private CSVMarshallHelper createCSVMarshallHelper(DataInfo tickInfo) {
-        if ( tickInfo==ExchangeableData.TICK_CTP) {
-            return new CtpCSVMarshallHelper();
+    /**
+     * 最后发送的TICK, 返回独立的行情对象
+     */
+    private static MarketData getLastData(SimMDInfo mdInfo) {
+        if ( mdInfo.nextDataIndex>0 ) {
+            return mdInfo.block.toMarketData(mdInfo.nextDataIndex-1);
         }
-        return null;
+        return mdInfo.prevData;
     }
 
-    private MarketDataProducer createMarketDataProducer(DataInfo tickInfo) {
-        if ( tickInfo==ExchangeableData.TICK_CTP) {
-            return new CtpMarketDataProducer();
+    /**
+     * 后台线程预加载下一个交易日的数据
+     */
+    private void prefetchMarketData() {
+        LocalDate nextTradingDay = null;
+        if ( marketTimeService!=null ) {
+            nextTradingDay = marketTimeService.getNextTradingDay();
         }
-        return null;
+        if ( sharedMarketDatas!=null || nextTradingDay==null ) {
+            return;
+        }
+        if ( prefetchExecutor==null ) {
+            prefetchExecutor = Executors.newSingleThreadExecutor(DaemonThreadFactory.INSTANCE);
+        }
+        final List<Exchangeable> exchangeables = new ArrayList<>(subscriptions);
+        final LocalDate tradingDay = nextTradingDay;
+        prefetchTradingDay = tradingDay;
+        prefetchFuture = prefetchExecutor.submit(()->{
+            return loadMarketDatas(TraderHomeUtil.getExchangeableData(), exchangeables, tradingDay);
+        });
+    }
+
+    /**
+     * 一次查询多个品种一个交易日的TICK数据
+     */
+    public static Map<Exchangeable, SimTickBlock> loadMarketDatas(ExchangeableData data, Collection<Exchangeable> exchangeables, LocalDate tradingDay) throws IOException
+    {
+        return SimTickBlock.load(data, exchangeables, tradingDay);
     }
 }
@@ -3,8 +3,28 @@ package trader.simulator;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 
+/**
+ * 模拟市场时间的事件源/定时器回调.
+ * <BR>时间服务在开始时通知一次全部监听者, 之后只在监听者的下一个事件时间或者预约的定时器时间通知.
+ */
 public interface SimMarketTimeAware {
 
+    /**
+     * 市场时间推进到actionTime, 处理这个时间及之前的全部事件
+     */
     public void onTimeChanged(LocalDate tradingDay, LocalDateTime actionTime);
 
+    /**
+     * 下一个事件的市场时间, 没有后续事件返回null
+     */
+    public default LocalDateTime nextEventTime() {
+        return null;
+    }
+
+    /**
+     * 前一个交易日已经收盘, 切换到新交易日. 在新交易日开始时间的 onTimeChanged() 之前调用
+     */
+    public default void onTradingDayChanged(LocalDate prevTradingDay, LocalDate tradingDay) {
+    }
+
 }
@@ -2,28 +2,77 @@ package trader.simulator;
 
 import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.time.LocalTime;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.PriorityQueue;
+
+import trader.common.exchangeable.Exchange;
+import trader.common.exchangeable.Exchange.MarketType;
+import trader.common.exchangeable.MarketDayUtil;
 
 import trader.service.trade.MarketTimeService;
 
 /**
- * 模拟市场时间驱动
+ * 模拟市场时间驱动, 离散事件方式.
+ * <BR>时间直接跳到下一个事件(行情TICK或者预约的定时器), 不按固定时间片推进, 午休和夜间的空档不消耗时间.
+ * <BR>支持多个交易日连续回测, 每个交易日从前一交易日的夜市开始到当天日市收盘结束.
+ * 切换交易日时先通知全部监听者前一交易日收盘(模拟交易通道过期挂单, 账户结算), 再在开始时间通知全部监听者, 监听者根据交易日变化切换数据.
  */
 public class SimMarketTimeService implements MarketTimeService {
 
+    /**
+     * 预约的定时器, 同一时间按预约顺序触发
+     */
+    private static class SimTimer implements Comparable<SimTimer> {
+        final LocalDateTime time;
+        final long seq;
+        final SimMarketTimeAware timeAware;
+
+        SimTimer(LocalDateTime time, long seq, SimMarketTimeAware timeAware){
+            this.time = time;
+            this.seq = seq;
+            this.timeAware = timeAware;
+        }
+
+        @Override
+        public int compareTo(SimTimer o) {
+            int result = time.compareTo(o.time);
+            if ( result==0 ) {
+                result = Long.compare(seq, o.seq);
+            }
+            return result;
+        }
+    }
+
     private LocalDateTime time = LocalDateTime.now();
     private List<SimMarketTimeAware> timeListeners = new ArrayList<>();
+    private PriorityQueue<SimTimer> timers = new PriorityQueue<>();
+    private long timerSeq;
+    private boolean started;
+
+    /**
+     * 夜市开始前10分钟
+     */
+    private static final LocalTime NIGHT_BEGIN_TIME = LocalTime.of(20, 50);
+    /**
+     * 日市开始前10分钟
+     */
+    private static final LocalTime DAY_BEGIN_TIME = LocalTime.of(8, 50);
+    /**
+     * 日市收盘后
+     */
+    private static final LocalTime DAY_END_TIME = LocalTime.of(15, 30);
 
+    private Exchange exchange;
+    private List<LocalDate> tradingDays = new ArrayList<>();
+    private int tradingDayIndex;
     private LocalDate tradingDay;
     private LocalDateTime beginTime;
     private LocalDateTime endTime;
 
-    /**
-     * 最小时间间隔(ms)
-     */
-    private int minTimeInterval = 100;
-
     @Override
     public LocalDateTime getMarketTime() {
         return time;
@@ -34,34 +83,143 @@ public class SimMarketTimeService implements MarketTimeService {
         return time.toLocalDate();
     }
 
+    public LocalDate getTradingDay() {
+        return tradingDay;
+    }
+
+    /**
+     * 下一个交易日, 当前是最后一个交易日返回null
+     */
+    public LocalDate getNextTradingDay() {
+        if ( tradingDayIndex+1<tradingDays.size() ) {
+            return tradingDays.get(tradingDayIndex+1);
+        }
+        return null;
+    }
+
     public void addListener(SimMarketTimeAware timeAware) {
         timeListeners.add(timeAware);
     }
 
+    /**
+     * 预约一个定时器, 市场时间到达后调用 timeAware.onTimeChanged(). 早于当前时间的定时器在下一次推进时触发
+     */
+    public void scheduleTimer(LocalDateTime timerTime, SimMarketTimeAware timeAware) {
+        timers.add(new SimTimer(timerTime, timerSeq++, timeAware));
+    }
+
+    /**
+     * 单个交易日, 指定开始结束时间
+     */
     public void setTimeRange(LocalDate tradingDay, LocalDateTime beginTime, LocalDateTime endTime) {
+        this.exchange = null;
+        this.tradingDays = new ArrayList<>(List.of(tradingDay));
+        this.tradingDayIndex = 0;
         this.tradingDay = tradingDay;
         this.beginTime = beginTime;
         this.endTime = endTime;
         this.time = beginTime;
+        this.started = false;
+        timers.clear();
+    }
+
+    /**
+     * 多个交易日, 包含开始和结束交易日, 交易日和每天的时间范围按交易所计算
+     */
+    public void setTradingDays(Exchange exchange, LocalDate beginTradingDay, LocalDate endTradingDay) {
+        this.exchange = exchange;
+        this.tradingDays = new ArrayList<>(Arrays.asList(MarketDayUtil.getMarketDays(exchange, beginTradingDay, endTradingDay)));
+        this.tradingDayIndex = 0;
+        this.started = false;
+        timers.clear();
+        if ( !tradingDays.isEmpty() ) {
+            setTradingDay0(tradingDays.get(0));
+            time = beginTime;
+        }
+    }
+
+    public List<LocalDate> getTradingDays(){
+        return Collections.unmodifiableList(tradingDays);
     }
 
     /**
-     * 模拟走动一个时间片
+     * 推进到下一个事件时间, 通知这个时间有事件的监听者和到期的定时器.
+     * <BR>第一次调用在开始时间通知全部监听者. 没有后续事件或到达结束时间返回false
      */
     public boolean nextTimePiece()
     {
-        //提前10分钟
-        if ( time==null )
-            time = beginTime;
-        //收市一分钟后结束
-        if ( time.compareTo(endTime)>=0 )
-            return false;
-
-        LocalDateTime dt = time;
-        for(SimMarketTimeAware c:timeListeners)
-            c.onTimeChanged(tradingDay, dt);
-        time = time.plusNanos(minTimeInterval*1000000);
+        if ( !started ) {
+            if ( tradingDays.isEmpty() ) {
+                return false;
+            }
+            started = true;
+            beginTradingDay();
+            return true;
+        }
+        LocalDateTime nextTime = null;
+        for(SimMarketTimeAware c:timeListeners) {
+            LocalDateTime eventTime = c.nextEventTime();
+            if ( eventTime!=null && (nextTime==null || eventTime.isBefore(nextTime)) ) {
+                nextTime = eventTime;
+            }
+        }
+        SimTimer timer = timers.peek();
+        if ( timer!=null && (nextTime==null || timer.time.isBefore(nextTime)) ) {
+            nextTime = timer.time;
+        }
+        if ( nextTime==null || nextTime.compareTo(endTime)>=0 ) {
+            time = endTime;
+            if ( tradingDayIndex+1>=tradingDays.size() ) {
+                return false;
+            }
+            //切换到下一个交易日
+            LocalDate prevTradingDay = tradingDay;
+            tradingDayIndex++;
+            setTradingDay0(tradingDays.get(tradingDayIndex));
+            for(SimMarketTimeAware c:new ArrayList<>(timeListeners)) {
+                c.onTradingDayChanged(prevTradingDay, tradingDay);
+            }
+            beginTradingDay();
+            return true;
+        }
+        //时间不回退
+        if ( nextTime.isAfter(time) ) {
+            time = nextTime;
+        }
+        for(SimMarketTimeAware c:timeListeners) {
+            LocalDateTime eventTime = c.nextEventTime();
+            if ( eventTime!=null && eventTime.compareTo(time)<=0 ) {
+                c.onTimeChanged(tradingDay, time);
+            }
+        }
+        while( (timer=timers.peek())!=null && timer.time.compareTo(time)<=0 ) {
+            timers.poll();
+            timer.timeAware.onTimeChanged(tradingDay, time);
+        }
         return true;
     }
 
+    /**
+     * 在交易日开始时间通知全部监听者
+     */
+    private void beginTradingDay() {
+        time = beginTime;
+        for(SimMarketTimeAware c:timeListeners) {
+            c.onTimeChanged(tradingDay, time);
+        }
+    }
+
+    private void setTradingDay0(LocalDate tradingDay) {
+        this.tradingDay = tradingDay;
+        if ( exchange==null ) {
+            return;
+        }
+        if ( exchange.hasMarket(MarketType.Night) ) {
+            beginTime = MarketDayUtil.prevMarketDay(exchange, tradingDay).atTime(NIGHT_BEGIN_TIME);
+        } else {
+            beginTime = tradingDay.atTime(DAY_BEGIN_TIME);
+        }
+        endTime = tradingDay.atTime(DAY_END_TIME);
+    }
+
 }
@@ -0,0 +1,56 @@
+package trader.simulator;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+
+import trader.common.exchangeable.Exchangeable;
+import trader.service.ServiceConstants.ConnState;
+import trader.service.md.AbsMarketDataProducer;
+import trader.service.md.MarketData;
+import trader.service.md.MarketDataServiceImpl;
+
+/**
+ * 回放已记录行情的数据源, 通过与实盘相同的 notifyData() 路径把TICK交给 MarketDataServiceImpl
+ */
+class SimReplayProducer extends AbsMarketDataProducer<MarketData> {
+
+    SimReplayProducer(MarketDataServiceImpl service) {
+        super(service, null);
+        id = "replay";
+        subscriptions = new ArrayList<>();
+        state = ConnState.Connected;
+    }
+
+    @Override
+    public Type getType() {
+        return Type.ctp;
+    }
+
+    @Override
+    public boolean canSubscribe(Exchangeable e) {
+        return true;
+    }
+
+    @Override
+    public MarketData createMarketData(MarketData rawMarketData, LocalDate actionDay) {
+        return rawMarketData;
+    }
+
+    @Override
+    public void connect() {
+    }
+
+    @Override
+    public void subscribe(Collection<Exchangeable> exchangeables) {
+    }
+
+    @Override
+    protected void close0() {
+    }
+
+    void replay(MarketData md) {
+        notifyData(md);
+    }
+
+}
@@ -0,0 +1,169 @@
+package trader.simulator;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import trader.common.util.JsonEnabled;
+import trader.service.stats.LatencyHistogram;
+
+/**
+ * 行情回放的延时统计报告, 每个处理环节一个延时分布.
+ * <BR>保存为JSON后可以作为基线, 与新版本的回放结果比较
+ * <LI>total: 数据源 notifyData() 到所有监听器处理完成
+ * <LI>ta/tradlet/txn: 各环节监听器的处理时间
+ * <LI>lag: 实际发送时间比按原始间隔计划的发送时间晚多少, 处理跟不上行情时增大
+ */
+public class SimReplayReport implements JsonEnabled {
+
+    public static final String STAGE_TOTAL = "total";
+    public static final String STAGE_TA = "ta";
+    public static final String STAGE_TRADLET = "tradlet";
+    public static final String STAGE_TXN = "txn";
+    public static final String STAGE_LAG = "lag";
+
+    String tradingDay;
+    double speed;
+    long tickCount;
+    long elapsedMillis;
+    LinkedHashMap<String, LatencyHistogram> stages = new LinkedHashMap<>();
+
+    public String getTradingDay() {
+        return tradingDay;
+    }
+
+    /**
+     * 回放倍速, 0 代表不等待
+     */
+    public double getSpeed() {
+        return speed;
+    }
+
+    public long getTickCount() {
+        return tickCount;
+    }
+
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    public List<String> getStages(){
+        return new ArrayList<>(stages.keySet());
+    }
+
+    public long getCount(String stage) {
+        LatencyHistogram h = stages.get(stage);
+        return h!=null?h.getCount():0;
+    }
+
+    public long getAvgNanos(String stage) {
+        LatencyHistogram h = stages.get(stage);
+        return h!=null?h.avg():0;
+    }
+
+    /**
+     * 分位延时, 按2的幂次分桶统计, 返回桶的上限
+     */
+    public long getPercentileNanos(String stage, double percent) {
+        LatencyHistogram h = stages.get(stage);
+        return h!=null?h.percentile(percent):0;
+    }
+
+    public long getMaxNanos(String stage) {
+        LatencyHistogram h = stages.get(stage);
+        return h!=null?h.getMax():0;
+    }
+
+    LatencyHistogram getOrCreateStage(String stage) {
+        LatencyHistogram result = stages.get(stage);
+        if ( result==null ) {
+            result = new LatencyHistogram();
+            stages.put(stage, result);
+        }
+        return result;
+    }
+
+    /**
+     * 与基线比较, 返回平均或99%分位延时超过基线 (1+tolerance) 倍的环节说明, 没有退化返回空列表.
+     * <BR>lag 只在两次回放倍速相同时比较
+     */
+    public List<String> getRegressions(SimReplayReport baseline, double tolerance) {
+        List<String> result = new ArrayList<>();
+        for(String stage:stages.keySet()) {
+            if ( !baseline.stages.containsKey(stage) ) {
+                continue;
+            }
+            if ( STAGE_LAG.equals(stage) && speed!=baseline.speed ) {
+                continue;
+            }
+            long avg = getAvgNanos(stage), baseAvg = baseline.getAvgNanos(stage);
+            long p99 = getPercentileNanos(stage, 0.99), baseP99 = baseline.getPercentileNanos(stage, 0.99);
+            if ( avg>baseAvg*(1+tolerance) ) {
+                result.add(stage+" avg "+baseAvg+" -> "+avg+" ns");
+            }
+            if ( p99>baseP99*(1+tolerance) ) {
+                result.add(stage+" p99 "+baseP99+" -> "+p99+" ns");
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 与基线比较的文本报告, 每个环节一行
+     */
+    public String toComparison(SimReplayReport baseline) {
+        StringBuilder text = new StringBuilder();
+        text.append(String.format("%-8s %10s %12s %12s %8s %12s %12s %8s %12s %12s%n",
+                "stage", "count", "avg(base)", "avg", "avg%", "p99(base)", "p99", "p99%", "max(base)", "max"));
+        for(String stage:stages.keySet()) {
+            text.append(String.format("%-8s %10d %12d %12d %8s %12d %12d %8s %12d %12d%n",
+                    stage, getCount(stage),
+                    baseline.getAvgNanos(stage), getAvgNanos(stage), change(baseline.getAvgNanos(stage), getAvgNanos(stage)),
+                    baseline.getPercentileNanos(stage, 0.99), getPercentileNanos(stage, 0.99), change(baseline.getPercentileNanos(stage, 0.99), getPercentileNanos(stage, 0.99)),
+                    baseline.getMaxNanos(stage), getMaxNanos(stage)));
+        }
+        return text.toString();
+    }
+
+    private static String change(long base, long curr) {
+        if ( base==0 ) {
+            return "-";
+        }
+        return String.format("%+.1f", (curr-base)*100.0/base);
+    }
+
+    @Override
+    public JsonElement toJson() {
+        JsonObject json = new JsonObject();
+        json.addProperty("tradingDay", tradingDay);
+        json.addProperty("speed", speed);
+        json.addProperty("tickCount", tickCount);
+        json.addProperty("elapsedMillis", elapsedMillis);
+        JsonObject stagesJson = new JsonObject();
+        for(Map.Entry<String, LatencyHistogram> entry:stages.entrySet()) {
+            stagesJson.add(entry.getKey(), entry.getValue().toJson());
+        }
+        json.add("stages", stagesJson);
+        return json;
+    }
+
+    public static SimReplayReport fromJson(String text) {
+        JsonObject json = (JsonObject)(new JsonParser()).parse(text);
+        SimReplayReport result = new SimReplayReport();
+        result.tradingDay = json.get("tradingDay").getAsString();
+        result.speed = json.get("speed").getAsDouble();
+        result.tickCount = json.get("tickCount").getAsLong();
+        result.elapsedMillis = json.get("elapsedMillis").getAsLong();
+        JsonObject stagesJson = json.getAsJsonObject("stages");
+        for(String stage:stagesJson.keySet()) {
+            result.stages.put(stage, LatencyHistogram.fromJson(stagesJson.getAsJsonObject(stage)));
+        }
+        return result;
+    }
+
+}
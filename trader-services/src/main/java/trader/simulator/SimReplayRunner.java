@@ -0,0 +1,340 @@
+package trader.simulator;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import trader.common.beans.BeansContainer;
+import trader.common.exchangeable.Exchangeable;
+import trader.common.exchangeable.ExchangeableData;
+import trader.common.util.CSVDataSet;
+import trader.common.util.CSVUtil;
+import trader.common.util.DateUtil;
+import trader.common.util.FileUtil;
+import trader.common.util.PriceUtil;
+import trader.common.util.TraderHomeUtil;
+import trader.common.util.csv.CtpCSVMarshallHelper;
+import trader.service.md.MarketData;
+import trader.service.md.MarketDataListener;
+import trader.service.md.MarketDataProducer;
+import trader.service.md.MarketDataService;
+import trader.service.md.MarketDataServiceImpl;
+import trader.service.md.ctp.CtpMarketDataProducer;
+import trader.service.repository.RepositoryCursor;
+import trader.service.repository.RepositoryQuery;
+import trader.service.stats.LatencyHistogram;
+import trader.service.ta.TAService;
+import trader.service.ta.TAServiceImpl;
+import trader.service.trade.AbsTxnSession;
+import trader.service.trade.AccountImpl;
+import trader.service.trade.MarketTimeService;
+import trader.service.trade.TxnFeeEvaluator;
+import trader.service.tradlet.Tradlet;
+import trader.service.tradlet.TradletGroup;
+import trader.simulator.trade.SimTxnSession;
+
+/**
+ * 按原始间隔或N倍速回放一个交易日的已记录行情, 经过实盘使用的处理链:
+ * <BR>数据源 notifyData() -> MarketDataServiceImpl -> TAServiceImpl -> Tradlet -> 模拟交易通道
+ * <BR>策略通过影子账户报单, 影子账户的 SimTxnSession 在策略之后收到行情并撮合
+ * <BR>统计每个环节的延时, 结果可以保存为基线, 用于发布前比较新版本是否有性能退化.
+ *
+ * <pre>
+ * SimReplayReport report = new SimReplayRunner(tradingDay, exchangeables)
+ *     .loadFromRepository()
+ *     .setSpeed(10)
+ *     .setTradlet(MyTradlet.class, parameters)
+ *     .run();
+ * report.getRegressions(baseline, 0.2);
+ * </pre>
+ */
+public class SimReplayRunner {
+    private final static Logger logger = LoggerFactory.getLogger(SimReplayRunner.class);
+
+    /**
+     * 不需要等待的最短时间, 更短的等待使用自旋
+     */
+    private static final long PARK_THRESHOLD_NANOS = 100*1000;
+    private static final long INIT_MONEY = PriceUtil.price2long(1000000);
+
+    /**
+     * 回放时的市场时间为当前TICK的时间
+     */
+    static class ReplayMarketTimeService implements MarketTimeService {
+        volatile LocalDateTime marketTime;
+        LocalDate marketDay;
+
+        @Override
+        public LocalDateTime getMarketTime() {
+            return marketTime;
+        }
+
+        @Override
+        public LocalDate getMarketDay() {
+            return marketDay;
+        }
+    }
+
+    /**
+     * 为一个处理环节统计监听器处理时间的行情服务, 其它调用转发给实际的行情服务
+     */
+    private static class StageMarketDataService implements MarketDataService {
+        private MarketDataService delegate;
+        private LatencyHistogram histogram;
+
+        StageMarketDataService(MarketDataService delegate, LatencyHistogram histogram){
+            this.delegate = delegate;
+            this.histogram = histogram;
+        }
+
+        @Override
+        public void init(BeansContainer beansContainer) throws Exception {
+        }
+
+        @Override
+        public void destroy() {
+        }
+
+        @Override
+        public Collection<MarketDataProducer> getProducers() {
+            return delegate.getProducers();
+        }
+
+        @Override
+        public MarketDataProducer getProducer(String producerId) {
+            return delegate.getProducer(producerId);
+        }
+
+        @Override
+        public Collection<Exchangeable> getSubscriptions() {
+            return delegate.getSubscriptions();
+        }
+
+        @Override
+        public MarketData getLastData(Exchangeable e) {
+            return delegate.getLastData(e);
+        }
+
+        @Override
+        public void addSubscriptions(List<Exchangeable> subscriptions) {
+            delegate.addSubscriptions(subscriptions);
+        }
+
+        @Override
+        public void addListener(MarketDataListener listener, Exchangeable... exchangeables) {
+            delegate.addListener(timed(histogram, listener), exchangeables);
+        }
+    }
+
+    private LocalDate tradingDay;
+    private List<Exchangeable> exchangeables;
+    private List<MarketData> marketDatas = new ArrayList<>();
+    private double speed = 1;
+    private Class<? extends Tradlet> tradletClass;
+    private Properties tradletParameters = new Properties();
+    private TxnFeeEvaluator feeEvaluator;
+
+    public SimReplayRunner(LocalDate tradingDay, List<Exchangeable> exchangeables) {
+        this.tradingDay = tradingDay;
+        this.exchangeables = exchangeables;
+    }
+
+    /**
+     * 回放倍速: 1 按原始间隔, N 按N倍速, 0 不等待尽快回放
+     */
+    public SimReplayRunner setSpeed(double speed) {
+        this.speed = speed;
+        return this;
+    }
+
+    /**
+     * 回放时运行的策略, 缺省不运行策略
+     */
+    public SimReplayRunner setTradlet(Class<? extends Tradlet> tradletClass, Properties parameters) {
+        this.tradletClass = tradletClass;
+        if ( parameters!=null ) {
+            this.tradletParameters = parameters;
+        }
+        return this;
+    }
+
+    /**
+     * 影子账户使用的费率, 缺省加载 SimTxnSession 使用的费率快照 ${trader.home}/data/feeEvaluator.json
+     */
+    public SimReplayRunner setFeeEvaluator(TxnFeeEvaluator feeEvaluator) {
+        this.feeEvaluator = feeEvaluator;
+        return this;
+    }
+
+    public List<MarketData> getMarketDatas(){
+        return Collections.unmodifiableList(marketDatas);
+    }
+
+    /**
+     * 从行情数据仓库加载已归档的TICK
+     */
+    public SimReplayRunner loadFromRepository() throws IOException
+    {
+        RepositoryQuery query = new RepositoryQuery(TraderHomeUtil.getExchangeableData())
+                .addExchangeables(exchangeables)
+                .setData(ExchangeableData.TICK_CTP)
+                .setTradingDays(tradingDay, tradingDay);
+        try(RepositoryCursor cursor = query.open();){
+            while(cursor.next()) {
+                marketDatas.add(cursor.getMarketData());
+            }
+        }
+        return this;
+    }
+
+    /**
+     * 从 MarketDataSaver 保存的交易日目录加载原始行情, 多个数据源的重复TICK保留, 由行情服务去重
+     */
+    public SimReplayRunner loadFromMarketDataDir(File tradingDayDir) throws IOException
+    {
+        CtpCSVMarshallHelper csvMarshallHelper = new CtpCSVMarshallHelper();
+        CtpMarketDataProducer mdProducer = new CtpMarketDataProducer();
+        for(File producerDir:FileUtil.listSubDirs(tradingDayDir)) {
+            for(File csvFile:producerDir.listFiles()) {
+                if ( !csvFile.getName().endsWith(".csv") ) {
+                    continue;
+                }
+                CSVDataSet csvDataSet = CSVUtil.parse(FileUtil.read(csvFile));
+                while(csvDataSet.next()) {
+                    MarketData md = mdProducer.createMarketData(csvMarshallHelper.unmarshall(csvDataSet.getRow()), null);
+                    if ( !exchangeables.contains(md.instrumentId) ) {
+                        break;
+                    }
+                    md.producerId = producerDir.getName();
+                    marketDatas.add(md);
+                }
+            }
+        }
+        //按时间合并, 时间相同保持文件中的顺序
+        Collections.sort(marketDatas, Comparator.comparingLong((MarketData md)->md.updateTimestamp));
+        return this;
+    }
+
+    /**
+     * 在独立的服务实例中回放全部行情
+     */
+    public SimReplayReport run() throws Exception
+    {
+        SimReplayReport report = new SimReplayReport();
+        report.tradingDay = DateUtil.date2str(tradingDay);
+        report.speed = speed;
+        if ( marketDatas.isEmpty() ) {
+            logger.warn(exchangeables+" 交易日 "+tradingDay+" 没有可以回放的行情");
+            return report;
+        }
+        if ( feeEvaluator==null ) {
+            feeEvaluator = SimTxnSession.loadFeeEvaluator(null);
+        }
+        LatencyHistogram total = report.getOrCreateStage(SimReplayReport.STAGE_TOTAL);
+        LatencyHistogram lag = report.getOrCreateStage(SimReplayReport.STAGE_LAG);
+
+        ReplayMarketTimeService marketTime = new ReplayMarketTimeService();
+        marketTime.marketDay = tradingDay;
+        marketTime.marketTime = marketDatas.get(0).updateTime;
+        MarketDataServiceImpl mdService = new MarketDataServiceImpl();
+        mdService.addSubscriptions(exchangeables);
+        SimReplayProducer producer = new SimReplayProducer(mdService);
+
+        SimBeansContainer beansContainer = new SimBeansContainer();
+        beansContainer.addBean(MarketTimeService.class, marketTime);
+        beansContainer.addBean(MarketDataService.class, mdService);
+        //TAService 使用统计处理时间的行情服务注册监听
+        SimBeansContainer taBeansContainer = new SimBeansContainer();
+        taBeansContainer.addBean(MarketTimeService.class, marketTime);
+        taBeansContainer.addBean(MarketDataService.class, new StageMarketDataService(mdService, report.getOrCreateStage(SimReplayReport.STAGE_TA)));
+        TAServiceImpl taService = new TAServiceImpl();
+        taService.init(taBeansContainer);
+        beansContainer.addBean(TAService.class, taService);
+        //影子账户的 SimTxnSession 使用统计处理时间的行情服务注册监听
+        SimBeansContainer txnBeansContainer = new SimBeansContainer();
+        txnBeansContainer.addBean(MarketTimeService.class, marketTime);
+        txnBeansContainer.addBean(MarketDataService.class, new StageMarketDataService(mdService, report.getOrCreateStage(SimReplayReport.STAGE_TXN)));
+        AccountImpl account = new AccountImpl("replay", txnBeansContainer, feeEvaluator, INIT_MONEY);
+
+        Tradlet tradlet = null;
+        try {
+            if ( tradletClass!=null ) {
+                SimTradletGroup group = new SimTradletGroup(tradletClass.getSimpleName()+"-replay", exchangeables, tradletParameters);
+                group.setAccountView(account.getViews().get(account.getId()));
+                beansContainer.addBean(TradletGroup.class, group);
+                tradlet = tradletClass.getDeclaredConstructor().newInstance();
+                group.getTradlets().add(tradlet);
+                tradlet.init(beansContainer);
+                final Tradlet tradlet0 = tradlet;
+                mdService.addListener(timed(report.getOrCreateStage(SimReplayReport.STAGE_TRADLET), (MarketData md)->{
+                    tradlet0.onMarketData(md);
+                }));
+            }
+            ((AbsTxnSession)account.getSession()).connect();
+            mdService.addListener(account::onMarketData);
+
+            long firstTimestamp = marketDatas.get(0).updateTimestamp;
+            long t0 = System.currentTimeMillis(), beginNanos = System.nanoTime();
+            for(MarketData md:marketDatas) {
+                long scheduledNanos = beginNanos;
+                if ( speed>0 ) {
+                    scheduledNanos += (long)((md.updateTimestamp-firstTimestamp)*1000000/speed);
+                    waitUntil(scheduledNanos);
+                }
+                marketTime.marketTime = md.updateTime;
+                long sendNanos = System.nanoTime();
+                producer.replay(md);
+                total.record(System.nanoTime()-sendNanos);
+                if ( speed>0 ) {
+                    lag.record(sendNanos-scheduledNanos);
+                }
+                report.tickCount++;
+            }
+            report.elapsedMillis = System.currentTimeMillis()-t0;
+        } finally {
+            if ( tradlet!=null ) {
+                try{
+                    tradlet.destroy();
+                }catch(Throwable t) {}
+            }
+            account.destroy();
+            mdService.destroy();
+        }
+        if ( speed<=0 ) {
+            report.stages.remove(SimReplayReport.STAGE_LAG);
+        }
+        logger.info("回放 "+exchangeables+" 交易日 "+tradingDay+" TICK "+report.tickCount+" 倍速 "+speed+" 耗时 "+report.elapsedMillis+" ms");
+        return report;
+    }
+
+    static void waitUntil(long nanos) {
+        long remain;
+        while( (remain=nanos-System.nanoTime())>0 ) {
+            if ( remain>PARK_THRESHOLD_NANOS ) {
+                LockSupport.parkNanos(remain-PARK_THRESHOLD_NANOS);
+            } else {
+                Thread.onSpinWait();
+            }
+        }
+    }
+
+    private static MarketDataListener timed(LatencyHistogram histogram, MarketDataListener listener) {
+        return (MarketData md)->{
+            long t0 = System.nanoTime();
+            listener.onMarketData(md);
+            histogram.record(System.nanoTime()-t0);
+        };
+    }
+
+}
@@ -0,0 +1,182 @@
+package trader.simulator;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import trader.common.exchangeable.Exchangeable;
+import trader.common.util.DateUtil;
+import trader.service.md.MarketData;
+import trader.service.md.MarketDataServiceImpl;
+import trader.service.md.synthetic.SyntheticTickGenerator;
+import trader.service.stats.LatencyHistogram;
+
+/**
+ * 用合成行情对行情服务做阶梯加压测试, 找到处理能力的饱和点.
+ * <BR>每一级按 合约数 x 每合约峰值频率 x 倍数 发送TICK, 持续指定时间, 结果用 SimReplayReport 记录:
+ * speed 为倍数, total 为 notifyData() 处理时间, lag 为实际发送落后计划的时间.
+ * <BR>实际发送频率低于目标频率的95%时认为已经饱和, 行情生成时间也计算在内.
+ *
+ * <pre>
+ * SimSoakRunner runner = new SimSoakRunner(SyntheticTickGenerator.defaultInstruments(100))
+ *     .setMultipliers(1, 2, 5, 10, 20)
+ *     .setSeconds(5);
+ * List&lt;SimReplayReport&gt; reports = runner.run();
+ * int saturated = runner.findSaturation(reports);
+ * </pre>
+ */
+public class SimSoakRunner {
+    private final static Logger logger = LoggerFactory.getLogger(SimSoakRunner.class);
+
+    /**
+     * 实际频率/目标频率低于这个比例认为饱和
+     */
+    public static final double SATURATION_RATIO = 0.95;
+
+    private List<Exchangeable> instruments;
+    private LocalDate tradingDay = LocalDate.now();
+    private int peakRate = 1000/SyntheticTickGenerator.DEFAULT_STEP_MILLIS;
+    private double[] multipliers = {1, 2, 5, 10, 20};
+    private int seconds = 5;
+    private int listeners = 1;
+    private long seed;
+    private volatile long checksum;
+
+    public SimSoakRunner(List<Exchangeable> instruments) {
+        this.instruments = instruments;
+    }
+
+    /**
+     * 每个合约每秒峰值TICK数, 缺省为CTP快照频率2
+     */
+    public SimSoakRunner setPeakRate(int peakRate) {
+        this.peakRate = peakRate;
+        return this;
+    }
+
+    /**
+     * 峰值频率的倍数, 每个倍数运行一级
+     */
+    public SimSoakRunner setMultipliers(double ...multipliers) {
+        this.multipliers = multipliers;
+        return this;
+    }
+
+    /**
+     * 每一级的持续时间
+     */
+    public SimSoakRunner setSeconds(int seconds) {
+        this.seconds = seconds;
+        return this;
+    }
+
+    /**
+     * 行情服务上注册的监听器数量
+     */
+    public SimSoakRunner setListeners(int listeners) {
+        this.listeners = listeners;
+        return this;
+    }
+
+    public SimSoakRunner setSeed(long seed) {
+        this.seed = seed;
+        return this;
+    }
+
+    /**
+     * 目标频率: 每秒TICK数
+     */
+    public long getTargetRate(double multiplier) {
+        return Math.max(1, (long)(instruments.size()*peakRate*multiplier));
+    }
+
+    /**
+     * 实际频率: 每秒TICK数
+     */
+    public static long getAchievedRate(SimReplayReport report) {
+        if ( report.getElapsedMillis()<=0 ) {
+            return 0;
+        }
+        return report.getTickCount()*1000/report.getElapsedMillis();
+    }
+
+    public boolean isSaturated(SimReplayReport report) {
+        return getAchievedRate(report) < getTargetRate(report.getSpeed())*SATURATION_RATIO;
+    }
+
+    /**
+     * 返回第一个饱和级别的下标, 都没有饱和返回-1
+     */
+    public int findSaturation(List<SimReplayReport> reports) {
+        for(int i=0;i<reports.size();i++) {
+            if ( isSaturated(reports.get(i)) ) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 依次运行每一级, 饱和后不再继续加压
+     */
+    public List<SimReplayReport> run() throws Exception
+    {
+        List<SimReplayReport> result = new ArrayList<>();
+        for(double multiplier:multipliers) {
+            SimReplayReport report = runStep(multiplier);
+            result.add(report);
+            logger.info("加压 "+multiplier+"x 目标 "+getTargetRate(multiplier)+" TICK/s, 实际 "+getAchievedRate(report)+" TICK/s");
+            if ( isSaturated(report) ) {
+                break;
+            }
+        }
+        return result;
+    }
+
+    private SimReplayReport runStep(double multiplier) throws Exception
+    {
+        SimReplayReport report = new SimReplayReport();
+        report.tradingDay = DateUtil.date2str(tradingDay);
+        report.speed = multiplier;
+        LatencyHistogram total = report.getOrCreateStage(SimReplayReport.STAGE_TOTAL);
+        LatencyHistogram lag = report.getOrCreateStage(SimReplayReport.STAGE_LAG);
+
+        MarketDataServiceImpl mdService = new MarketDataServiceImpl();
+        mdService.addSubscriptions(instruments);
+        for(int i=0;i<listeners;i++) {
+            mdService.addListener((MarketData md)->{
+                checksum += md.lastPrice;
+            });
+        }
+        SimReplayProducer producer = new SimReplayProducer(mdService);
+        SyntheticTickGenerator generator = new SyntheticTickGenerator(tradingDay, seed).addInstruments(instruments, null);
+        double intervalNanos = 1000000000.0/getTargetRate(multiplier);
+        long durationNanos = seconds*1000000000L;
+        try {
+            long beginNanos = System.nanoTime();
+            for(long i=0; ;i++) {
+                long offsetNanos = (long)(i*intervalNanos);
+                //严重过载时最多运行两倍时间
+                if ( offsetNanos>=durationNanos || System.nanoTime()-beginNanos>2*durationNanos ) {
+                    break;
+                }
+                long scheduledNanos = beginNanos+offsetNanos;
+                SimReplayRunner.waitUntil(scheduledNanos);
+                MarketData md = generator.nextMarketData(producer.getId());
+                long sendNanos = System.nanoTime();
+                producer.replay(md);
+                total.record(System.nanoTime()-sendNanos);
+                lag.record(sendNanos-scheduledNanos);
+                report.tickCount++;
+            }
+            report.elapsedMillis = (System.nanoTime()-beginNanos)/1000000;
+        } finally {
+            mdService.destroy();
+        }
+        return report;
+    }
+
+}
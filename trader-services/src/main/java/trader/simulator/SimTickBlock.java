@@ -0,0 +1,245 @@
+package trader.simulator;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import trader.common.exchangeable.Exchange;
+import trader.common.exchangeable.Exchangeable;
+import trader.common.exchangeable.ExchangeableData;
+import trader.common.util.DateUtil;
+import trader.service.md.MarketData;
+import trader.service.repository.RepositoryCursor;
+import trader.service.repository.RepositoryQuery;
+
+/**
+ * 回测用的一个品种一个交易日的TICK数据, 按列保存为原始类型数组, 按时间排序.
+ * <BR>加载后只读, 可以在多个回测实例之间共享. 通过 fill() 填充到可复用的 SimMarketData 对象.
+ */
+public class SimTickBlock {
+    private static final ZoneId CFFEX_ZONE_ID = Exchange.CFFEX.getZoneId();
+
+    final Exchangeable exchangeable;
+    String producerId;
+    int size;
+    /**
+     * 最大行情深度, 买卖价量按 行*maxDepth+档位 保存
+     */
+    int maxDepth;
+    long[] timestamps;
+    long[] lastPrices;
+    long[] volumes;
+    long[] turnovers;
+    long[] openInts;
+    long[] preClosePrices;
+    long[] openPrices;
+    long[] highestPrices;
+    long[] lowestPrices;
+    long[] averagePrices;
+    byte[] depths;
+    long[] bidPrices;
+    int[] bidVolumes;
+    long[] askPrices;
+    int[] askVolumes;
+    /**
+     * 交易日, 相同的交易日共享同一个String对象
+     */
+    String[] tradingDays;
+
+    SimTickBlock(Exchangeable exchangeable, int capacity, int maxDepth){
+        this.exchangeable = exchangeable;
+        this.maxDepth = maxDepth;
+        timestamps = new long[capacity];
+        lastPrices = new long[capacity];
+        volumes = new long[capacity];
+        turnovers = new long[capacity];
+        openInts = new long[capacity];
+        preClosePrices = new long[capacity];
+        openPrices = new long[capacity];
+        highestPrices = new long[capacity];
+        lowestPrices = new long[capacity];
+        averagePrices = new long[capacity];
+        depths = new byte[capacity];
+        bidPrices = new long[capacity*maxDepth];
+        bidVolumes = new int[capacity*maxDepth];
+        askPrices = new long[capacity*maxDepth];
+        askVolumes = new int[capacity*maxDepth];
+        tradingDays = new String[capacity];
+    }
+
+    public Exchangeable getExchangeable() {
+        return exchangeable;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * 更新时间 epoch 毫秒
+     */
+    public long getTimestamp(int index) {
+        return timestamps[index];
+    }
+
+    /**
+     * 二分查找第一个更新时间晚于 timestamp 的TICK, 都不晚于时返回 size()
+     */
+    public int seek(long timestamp) {
+        int low = 0, high = size;
+        while(low<high) {
+            int mid = (low+high)>>>1;
+            if ( timestamps[mid]<=timestamp ) {
+                low = mid+1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * 将第 index 个TICK填充到复用的行情对象
+     */
+    public void fill(int index, SimMarketData md) {
+        md.producerId = producerId;
+        md.instrumentId = exchangeable;
+        md.tradingDay = tradingDays[index];
+        md.updateTimestamp = timestamps[index];
+        md.updateTime = DateUtil.long2datetime(CFFEX_ZONE_ID, timestamps[index]);
+        md.lastPrice = lastPrices[index];
+        md.volume = volumes[index];
+        md.turnover = turnovers[index];
+        md.openInterest = openInts[index];
+        md.preClosePrice = preClosePrices[index];
+        md.openPrice = openPrices[index];
+        md.highestPrice = highestPrices[index];
+        md.lowestPrice = lowestPrices[index];
+        md.averagePrice = averagePrices[index];
+        int depth = depths[index];
+        md.setDepth(depth);
+        int offset = index*maxDepth;
+        System.arraycopy(bidPrices, offset, md.bidPrices, 0, depth);
+        System.arraycopy(bidVolumes, offset, md.bidVolumes, 0, depth);
+        System.arraycopy(askPrices, offset, md.askPrices, 0, depth);
+        System.arraycopy(askVolumes, offset, md.askVolumes, 0, depth);
+    }
+
+    /**
+     * 第 index 个TICK的独立行情对象
+     */
+    public MarketData toMarketData(int index) {
+        SimMarketData md = new SimMarketData();
+        fill(index, md);
+        return md;
+    }
+
+    private void add(MarketData md) {
+        if ( size==timestamps.length ) {
+            grow(Math.max(16, size*2));
+        }
+        int i = size++;
+        if ( producerId==null ) {
+            producerId = md.producerId;
+        }
+        timestamps[i] = md.updateTimestamp;
+        lastPrices[i] = md.lastPrice;
+        volumes[i] = md.volume;
+        turnovers[i] = md.turnover;
+        openInts[i] = md.openInterest;
+        preClosePrices[i] = md.preClosePrice;
+        openPrices[i] = md.openPrice;
+        highestPrices[i] = md.highestPrice;
+        lowestPrices[i] = md.lowestPrice;
+        averagePrices[i] = md.averagePrice;
+        int depth = Math.min(md.depth, maxDepth);
+        depths[i] = (byte)depth;
+        int offset = i*maxDepth;
+        for(int j=0;j<depth;j++) {
+            bidPrices[offset+j] = md.bidPrices[j];
+            bidVolumes[offset+j] = md.bidVolumes[j];
+            askPrices[offset+j] = md.askPrices[j];
+            askVolumes[offset+j] = md.askVolumes[j];
+        }
+        if ( i>0 && tradingDays[i-1].equals(md.tradingDay) ) {
+            tradingDays[i] = tradingDays[i-1];
+        } else {
+            tradingDays[i] = md.tradingDay;
+        }
+    }
+
+    private void grow(int capacity) {
+        timestamps = Arrays.copyOf(timestamps, capacity);
+        lastPrices = Arrays.copyOf(lastPrices, capacity);
+        volumes = Arrays.copyOf(volumes, capacity);
+        turnovers = Arrays.copyOf(turnovers, capacity);
+        openInts = Arrays.copyOf(openInts, capacity);
+        preClosePrices = Arrays.copyOf(preClosePrices, capacity);
+        openPrices = Arrays.copyOf(openPrices, capacity);
+        highestPrices = Arrays.copyOf(highestPrices, capacity);
+        lowestPrices = Arrays.copyOf(lowestPrices, capacity);
+        averagePrices = Arrays.copyOf(averagePrices, capacity);
+        depths = Arrays.copyOf(depths, capacity);
+        bidPrices = Arrays.copyOf(bidPrices, capacity*maxDepth);
+        bidVolumes = Arrays.copyOf(bidVolumes, capacity*maxDepth);
+        askPrices = Arrays.copyOf(askPrices, capacity*maxDepth);
+        askVolumes = Arrays.copyOf(askVolumes, capacity*maxDepth);
+        tradingDays = Arrays.copyOf(tradingDays, capacity);
+    }
+
+    /**
+     * 一次查询多个品种一个交易日的TICK数据, 每个品种转换为按列保存的数据块.
+     * <BR>CTP行情对象只在加载单个交易日文件时临时存在
+     */
+    public static Map<Exchangeable, SimTickBlock> load(ExchangeableData data, Collection<Exchangeable> exchangeables, LocalDate tradingDay) throws IOException
+    {
+        Map<Exchangeable, SimTickBlock> result = new HashMap<>();
+        for(Exchangeable e:exchangeables) {
+            result.put(e, new SimTickBlock(e, 0, SimMarketData.MAX_DEPTH));
+        }
+        RepositoryQuery query = new RepositoryQuery(data)
+                .addExchangeables(exchangeables)
+                .setData(ExchangeableData.TICK_CTP)
+                .setTradingDays(tradingDay, tradingDay);
+        try(RepositoryCursor cursor = query.open();){
+            while(cursor.next()) {
+                result.get(cursor.getExchangeable()).add(cursor.getMarketData());
+            }
+        }
+        for(SimTickBlock block:result.values()) {
+            block.trim();
+        }
+        return result;
+    }
+
+    /**
+     * 按实际最大深度和数据量压缩数组
+     */
+    private void trim() {
+        int depth = 0;
+        for(int i=0;i<size;i++) {
+            depth = Math.max(depth, depths[i]);
+        }
+        if ( depth<maxDepth ) {
+            long[] bidPrices2 = new long[size*depth], askPrices2 = new long[size*depth];
+            int[] bidVolumes2 = new int[size*depth], askVolumes2 = new int[size*depth];
+            for(int i=0;i<size;i++) {
+                System.arraycopy(bidPrices, i*maxDepth, bidPrices2, i*depth, depth);
+                System.arraycopy(bidVolumes, i*maxDepth, bidVolumes2, i*depth, depth);
+                System.arraycopy(askPrices, i*maxDepth, askPrices2, i*depth, depth);
+                System.arraycopy(askVolumes, i*maxDepth, askVolumes2, i*depth, depth);
+            }
+            bidPrices = bidPrices2; bidVolumes = bidVolumes2;
+            askPrices = askPrices2; askVolumes = askVolumes2;
+            maxDepth = depth;
+        }
+        if ( size<timestamps.length ) {
+            grow(size);
+        }
+    }
+
+}
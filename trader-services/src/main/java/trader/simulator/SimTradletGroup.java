@@ -0,0 +1,91 @@
+package trader.simulator;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import trader.common.exchangeable.Exchangeable;
+import trader.common.util.JsonUtil;
+import trader.service.data.KVStore;
+import trader.service.data.SimKVStore;
+import trader.service.trade.AccountView;
+import trader.service.tradlet.Tradlet;
+import trader.service.tradlet.TradletGroup;
+
+/**
+ * 回测使用的策略组, 参数和品种在创建时指定
+ */
+public class SimTradletGroup implements TradletGroup {
+
+    private String id;
+    private boolean enabled = true;
+    private AccountView accountView;
+    private List<Exchangeable> exchangeables;
+    private Properties properties;
+    private List<Tradlet> tradlets = new ArrayList<>();
+    private KVStore kvStore = new SimKVStore();
+
+    public SimTradletGroup(String id, List<Exchangeable> exchangeables, Properties properties) {
+        this.id = id;
+        this.exchangeables = exchangeables;
+        this.properties = properties;
+    }
+
+    @Override
+    public String getId() {
+        return id;
+    }
+
+    @Override
+    public AccountView getAccountView() {
+        return accountView;
+    }
+
+    public void setAccountView(AccountView accountView) {
+        this.accountView = accountView;
+    }
+
+    @Override
+    public List<Exchangeable> getExchangeables() {
+        return exchangeables;
+    }
+
+    @Override
+    public Properties getProperties() {
+        return properties;
+    }
+
+    @Override
+    public List<Tradlet> getTradlets() {
+        return tradlets;
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @Override
+    public void setEnabled(boolean value) {
+        this.enabled = value;
+    }
+
+    @Override
+    public KVStore getKVStore() {
+        return kvStore;
+    }
+
+    @Override
+    public JsonElement toJson() {
+        JsonObject json = new JsonObject();
+        json.addProperty("id", getId());
+        json.addProperty("enabled", isEnabled());
+        json.add("exchangeables", JsonUtil.object2json(exchangeables));
+        json.add("properties", JsonUtil.object2json(properties));
+        return json;
+    }
+
+}
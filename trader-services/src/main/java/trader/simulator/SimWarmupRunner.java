@@ -0,0 +1,358 @@
+package trader.simulator;
+
+import java.io.IOException;
+import java.lang.management.CompilationMXBean;
+import java.lang.management.ManagementFactory;
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import trader.common.exception.AppException;
+import trader.common.exchangeable.Exchange;
+import trader.common.exchangeable.Exchangeable;
+import trader.common.exchangeable.ExchangeableData;
+import trader.common.exchangeable.MarketDayUtil;
+import trader.common.util.PriceUtil;
+import trader.common.util.TraderHomeUtil;
+import trader.service.md.MarketData;
+import trader.service.md.MarketDataService;
+import trader.service.md.MarketDataServiceImpl;
+import trader.service.md.synthetic.SyntheticTickGenerator;
+import trader.service.repository.RepositoryCursor;
+import trader.service.repository.RepositoryQuery;
+import trader.service.ta.TAService;
+import trader.service.ta.TAServiceImpl;
+import trader.service.trade.AbsTxnSession;
+import trader.service.trade.AccountImpl;
+import trader.service.trade.FutureFeeEvaluator;
+import trader.service.trade.FutureFeeEvaluator.FutureFeeInfo;
+import trader.service.trade.MarketTimeService;
+import trader.service.trade.Order;
+import trader.service.trade.OrderBuilder;
+import trader.service.trade.Position;
+import trader.service.trade.TradeConstants;
+
+/**
+ * 启动预热: 在进入Ready状态之前, 用已记录或合成的行情和模拟报单驱动完整的处理链
+ * <BR>行情数据源 -> MarketDataServiceImpl -> TAServiceImpl/TAEntry -> AccountImpl/OrderValidator/PositionImpl -> SimTxnSession 撮合
+ * <BR>使用影子对象: 独立的行情/技术分析服务实例, 内存KVStore的影子账户, 对实际账户/持仓/KVStore没有影响.
+ * <BR>每轮处理 ROUND_TICKS 个TICK, 连续 SETTLE_ROUNDS 轮JIT编译时间增长不超过 settleMillis 认为已经稳定, 或者超过时间预算后结束.
+ * <BR>优先使用行情仓库中最近交易日的TICK, 没有数据时使用合成行情.
+ */
+public class SimWarmupRunner implements TradeConstants {
+    private final static Logger logger = LoggerFactory.getLogger(SimWarmupRunner.class);
+
+    public static final int ROUND_TICKS = 5000;
+    public static final int MIN_ROUNDS = 3;
+    public static final int SETTLE_ROUNDS = 3;
+
+    /**
+     * 每个品种每隔多少个TICK报一次单
+     */
+    private static final int ORDER_INTERVAL = 10;
+    private static final long INIT_MONEY = PriceUtil.price2long(100000000);
+
+    /**
+     * 行情来源, 没有数据返回null
+     */
+    private static interface TickSource extends AutoCloseable {
+        public MarketData next() throws IOException;
+
+        @Override
+        public void close();
+    }
+
+    /**
+     * 一次预热使用的影子处理链, 行情时间不能回退, 每次重新遍历行情时新建
+     */
+    private class ShadowChain {
+        SimReplayRunner.ReplayMarketTimeService marketTime = new SimReplayRunner.ReplayMarketTimeService();
+        MarketDataServiceImpl mdService = new MarketDataServiceImpl();
+        SimReplayProducer producer = new SimReplayProducer(mdService);
+        TAServiceImpl taService = new TAServiceImpl();
+        AccountImpl account;
+        Map<Exchangeable, Order> lastOrders = new HashMap<>();
+        Map<Exchangeable, int[]> tickCounts = new HashMap<>();
+
+        ShadowChain(MarketData firstTick) throws Exception {
+            marketTime.marketDay = firstTick.updateTime.toLocalDate();
+            marketTime.marketTime = firstTick.updateTime;
+            mdService.addSubscriptions(instruments);
+            SimBeansContainer beansContainer = new SimBeansContainer();
+            beansContainer.addBean(MarketTimeService.class, marketTime);
+            beansContainer.addBean(MarketDataService.class, mdService);
+            taService.init(beansContainer);
+            beansContainer.addBean(TAService.class, taService);
+            account = new AccountImpl("warmup", beansContainer, createFeeEvaluator(), INIT_MONEY);
+            ((AbsTxnSession)account.getSession()).connect();
+            mdService.addListener(account::onMarketData);
+        }
+
+        void onTick(MarketData md) {
+            marketTime.marketTime = md.updateTime;
+            producer.replay(md);
+            int[] count = tickCounts.get(md.instrumentId);
+            if ( count==null ) {
+                count = new int[1];
+                tickCounts.put(md.instrumentId, count);
+            }
+            if ( (++count[0])%ORDER_INTERVAL==0 ) {
+                sendOrder(md);
+            }
+        }
+
+        /**
+         * 没有持仓时对价开多, 有持仓时对价平多
+         */
+        private void sendOrder(MarketData md) {
+            Order lastOrder = lastOrders.get(md.instrumentId);
+            if ( lastOrder!=null && !lastOrder.getState().getState().isDone() ) {
+                return;
+            }
+            //集合竞价等没有盘口报价的时候不报单
+            if ( md.lastBidPrice()<=0 || md.lastAskPrice()<=0 || md.lastAskPrice()==Long.MAX_VALUE ) {
+                return;
+            }
+            Position pos = account.getPosition(md.instrumentId);
+            boolean close = pos!=null && pos.getVolume(PosVolume_LongPosition)-pos.getVolume(PosVolume_LongFrozen)>0;
+            OrderBuilder builder = new OrderBuilder(account.getViews().get(account.getId()))
+                    .setExchagneable(md.instrumentId)
+                    .setPriceType(OrderPriceType.LimitPrice)
+                    .setVolume(1)
+                    .setTriggerTick(md);
+            if ( close ) {
+                builder.setDirection(OrderDirection.Sell).setOffsetFlag(OrderOffsetFlag.CLOSE).setLimitPrice(md.lastBidPrice());
+            } else {
+                builder.setDirection(OrderDirection.Buy).setOffsetFlag(OrderOffsetFlag.OPEN).setLimitPrice(md.lastAskPrice());
+            }
+            try {
+                lastOrders.put(md.instrumentId, account.createOrder(builder));
+                orderCount++;
+            } catch(AppException e) {
+                orderFailedCount++;
+            }
+        }
+
+        void destroy() {
+            account.destroy();
+            mdService.destroy();
+        }
+    }
+
+    private List<Exchangeable> instruments;
+    private LocalDate tradingDay;
+    private int seconds = 30;
+    private long settleMillis = 10;
+
+    private long tickCount;
+    private long orderCount;
+    private long orderFailedCount;
+    private int rounds;
+    private boolean settled;
+    private boolean synthetic;
+    private long elapsedMillis;
+    private long compileMillis;
+
+    public SimWarmupRunner(List<Exchangeable> instruments) {
+        this.instruments = instruments;
+    }
+
+    /**
+     * 使用这个交易日的已记录行情, 缺省为今天之前最近的交易日
+     */
+    public SimWarmupRunner setTradingDay(LocalDate tradingDay) {
+        this.tradingDay = tradingDay;
+        return this;
+    }
+
+    /**
+     * 时间预算
+     */
+    public SimWarmupRunner setSeconds(int seconds) {
+        this.seconds = seconds;
+        return this;
+    }
+
+    /**
+     * 每轮JIT编译时间增长不超过这个值认为稳定
+     */
+    public SimWarmupRunner setSettleMillis(long settleMillis) {
+        this.settleMillis = settleMillis;
+        return this;
+    }
+
+    public long getTickCount() {
+        return tickCount;
+    }
+
+    public long getOrderCount() {
+        return orderCount;
+    }
+
+    public long getOrderFailedCount() {
+        return orderFailedCount;
+    }
+
+    public int getRounds() {
+        return rounds;
+    }
+
+    /**
+     * JIT编译是否已经稳定, false 代表时间预算用完或没有行情数据
+     */
+    public boolean isSettled() {
+        return settled;
+    }
+
+    /**
+     * 是否使用了合成行情
+     */
+    public boolean isSynthetic() {
+        return synthetic;
+    }
+
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    /**
+     * 预热期间的JIT编译时间
+     */
+    public long getCompileMillis() {
+        return compileMillis;
+    }
+
+    public SimWarmupRunner run() throws Exception
+    {
+        if ( instruments.isEmpty() ) {
+            logger.info("没有需要预热的品种");
+            return this;
+        }
+        if ( tradingDay==null ) {
+            tradingDay = MarketDayUtil.prevMarketDay(Exchange.SHFE, LocalDate.now());
+        }
+        CompilationMXBean compilation = ManagementFactory.getCompilationMXBean();
+        boolean monitorCompilation = compilation!=null && compilation.isCompilationTimeMonitoringSupported();
+        long compile0 = monitorCompilation?compilation.getTotalCompilationTime():0;
+        long lastCompile = compile0;
+        int quietRounds = 0;
+        long t0 = System.currentTimeMillis(), deadline = t0+seconds*1000L;
+        //影子处理链的初始化时间也计算在预算内, 至少处理一轮
+        while( !settled && (rounds==0 || System.currentTimeMillis()<deadline) ) {
+            try(TickSource source = openTickSource();){
+                MarketData md = source.next();
+                if ( md==null ) {
+                    break;
+                }
+                ShadowChain chain = new ShadowChain(md);
+                try {
+                    while( md!=null && !settled && (rounds==0 || System.currentTimeMillis()<deadline) ) {
+                        for(int i=0; i<ROUND_TICKS && md!=null; i++) {
+                            chain.onTick(md);
+                            tickCount++;
+                            md = source.next();
+                        }
+                        rounds++;
+                        if ( monitorCompilation ) {
+                            long compile = compilation.getTotalCompilationTime();
+                            quietRounds = (compile-lastCompile)<=settleMillis ? quietRounds+1 : 0;
+                            lastCompile = compile;
+                            settled = rounds>=MIN_ROUNDS && quietRounds>=SETTLE_ROUNDS;
+                        }
+                    }
+                } finally {
+                    chain.destroy();
+                }
+            }
+        }
+        elapsedMillis = System.currentTimeMillis()-t0;
+        compileMillis = lastCompile-compile0;
+        logger.info("预热 "+(synthetic?"合成":"交易日 "+tradingDay)+" 行情, 轮数 "+rounds+" TICK "+tickCount+" 报单 "+orderCount+" 失败 "+orderFailedCount
+                +" 耗时 "+elapsedMillis+" ms, JIT编译 "+compileMillis+" ms, "+(settled?"已稳定":"未稳定"));
+        return this;
+    }
+
+    /**
+     * 打开已记录的TICK, 没有数据时使用合成行情
+     */
+    private TickSource openTickSource() throws IOException
+    {
+        if ( !synthetic ) {
+            RepositoryQuery query = new RepositoryQuery(TraderHomeUtil.getExchangeableData())
+                    .addExchangeables(instruments)
+                    .setData(ExchangeableData.TICK_CTP)
+                    .setTradingDays(tradingDay, tradingDay);
+            RepositoryCursor cursor = null;
+            try {
+                cursor = query.open();
+                if ( cursor.next() ) {
+                    RepositoryCursor cursor0 = cursor;
+                    MarketData[] first = new MarketData[] {cursor0.getMarketData()};
+                    return new TickSource() {
+                        @Override
+                        public MarketData next() throws IOException {
+                            if ( first[0]!=null ) {
+                                MarketData result = first[0];
+                                first[0] = null;
+                                return result;
+                            }
+                            return cursor0.next()?cursor0.getMarketData():null;
+                        }
+
+                        @Override
+                        public void close() {
+                            try {
+                                cursor0.close();
+                            }catch(Throwable t) {}
+                        }
+                    };
+                }
+                cursor.close();
+            }catch(Throwable t) {
+                logger.warn("加载交易日 "+tradingDay+" 行情失败, 使用合成行情预热: "+t);
+                if ( cursor!=null ) {
+                    try {
+                        cursor.close();
+                    }catch(Throwable t2) {}
+                }
+            }
+            synthetic = true;
+        }
+        SyntheticTickGenerator generator = new SyntheticTickGenerator(tradingDay, 0).addInstruments(instruments, null);
+        return new TickSource() {
+            @Override
+            public MarketData next() {
+                return generator.nextMarketData("warmup");
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    /**
+     * 影子账户使用的费率, 与实际费率无关, 只需要能够计算
+     */
+    private FutureFeeEvaluator createFeeEvaluator() {
+        Map<Exchangeable, FutureFeeInfo> feeInfos = new LinkedHashMap<>();
+        for(Exchangeable e:instruments) {
+            FutureFeeInfo feeInfo = new FutureFeeInfo();
+            feeInfo.setPriceTick(PriceUtil.price2long(1));
+            feeInfo.setVolumeMultiple(10);
+            feeInfo.setMarginRatio(MarginRatio_LongByMoney, 0.1);
+            feeInfo.setMarginRatio(MarginRatio_ShortByMoney, 0.1);
+            feeInfo.setCommissionRatio(CommissionRatio_OpenByMoney, 0.0001);
+            feeInfo.setCommissionRatio(CommissionRatio_CloseByMoney, 0.0001);
+            feeInfo.setCommissionRatio(CommissionRatio_CloseTodayByMoney, 0.0001);
+            feeInfos.put(e, feeInfo);
+        }
+        return new FutureFeeEvaluator(feeInfos);
+    }
+
+}
@@ -0,0 +1,226 @@
+package trader.simulator.trade;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import trader.common.exchangeable.Exchangeable;
+import trader.service.md.MarketData;
+import trader.service.trade.OrderImpl;
+import trader.service.trade.TradeConstants;
+
+/**
+ * 单个品种的模拟撮合, 使用回放的TICK买卖盘口撮合本地报单.
+ * <BR>报单经过 latency 毫秒后生效. 生效时先与对手盘口按价格成交, 剩余部分挂单排队,
+ * 排在同价位已有挂单量 x queuePosition 之后(0为队首, 1为队尾), 之后按该价位的成交量消耗排队量.
+ * <BR>价格被穿越(最新价或对手价优于挂单价)时剩余部分按挂单价全部成交.
+ * <BR>非线程安全, 由回测的行情线程顺序驱动.
+ */
+public class SimOrderBook implements TradeConstants {
+
+    /**
+     * 撮合成交回调
+     */
+    public static interface MatchHandler {
+        public void onMatch(OrderImpl order, long price, int volume, long time);
+    }
+
+    private static class SimOrder {
+        final OrderImpl order;
+        final boolean buy;
+        final boolean market;
+        final long limitPrice;
+        final long activeTime;
+        int remain;
+        /**
+         * 排在前面的挂单量, -1代表还没有生效
+         */
+        long queueAhead = -1;
+
+        SimOrder(OrderImpl order, long activeTime){
+            this.order = order;
+            this.buy = order.getDirection()==OrderDirection.Buy;
+            this.market = order.getPriceType()!=OrderPriceType.LimitPrice;
+            this.limitPrice = order.getLimitPrice();
+            this.activeTime = activeTime;
+            this.remain = order.getVolume(OdrVolume_ReqVolume);
+        }
+
+        /**
+         * 价格是否可以成交
+         */
+        boolean acceptable(long price) {
+            if ( market ) {
+                return true;
+            }
+            return buy ? price<=limitPrice : price>=limitPrice;
+        }
+    }
+
+    private Exchangeable exchangeable;
+    private long latency;
+    private double queuePosition;
+    private List<SimOrder> orders = new ArrayList<>();
+    private long lastVolume = -1;
+    /**
+     * 正在撮合: 成交回调中可能撤单, 这时只标记删除, 撮合结束后统一从列表中删除
+     */
+    private boolean matching;
+
+    public SimOrderBook(Exchangeable exchangeable, long latency, double queuePosition) {
+        this.exchangeable = exchangeable;
+        this.latency = latency;
+        this.queuePosition = queuePosition;
+    }
+
+    public Exchangeable getExchangeable() {
+        return exchangeable;
+    }
+
+    public boolean isEmpty() {
+        return orders.isEmpty();
+    }
+
+    /**
+     * 加入报单, sendTime为报单的市场时间(epoch 毫秒)
+     */
+    public void addOrder(OrderImpl order, long sendTime) {
+        orders.add(new SimOrder(order, sendTime+latency));
+    }
+
+    /**
+     * 删除未成交部分, 返回是否存在
+     */
+    public boolean removeOrder(OrderImpl order) {
+        for(int i=0;i<orders.size();i++) {
+            SimOrder o = orders.get(i);
+            if ( o.order!=order ) {
+                continue;
+            }
+            if ( matching ) {
+                if ( o.remain<=0 ) {
+                    return false;
+                }
+                o.remain = 0;
+            } else {
+                orders.remove(i);
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 收盘后删除全部挂单, 返回还有未成交部分的报单
+     */
+    public List<OrderImpl> clear() {
+        List<OrderImpl> result = new ArrayList<>();
+        for(SimOrder o:orders) {
+            if ( o.remain>0 ) {
+                result.add(o.order);
+            }
+        }
+        orders.clear();
+        lastVolume = -1;
+        return result;
+    }
+
+    /**
+     * 使用新的TICK撮合全部挂单
+     */
+    public void onMarketData(MarketData md, MatchHandler handler) {
+        long tradeVolume = lastVolume<0 ? 0 : Math.max(0, md.volume-lastVolume);
+        lastVolume = md.volume;
+        if ( orders.isEmpty() ) {
+            return;
+        }
+        //回调中新加入的报单在列表尾部, 这次不撮合
+        int size = orders.size();
+        matching = true;
+        try {
+            for(int i=0;i<size;i++) {
+                SimOrder o = orders.get(i);
+                if ( o.remain>0 && md.updateTimestamp>=o.activeTime ) {
+                    if ( o.queueAhead<0 ) {
+                        activate(o, md, handler);
+                    } else {
+                        matchResting(o, md, tradeVolume, handler);
+                    }
+                }
+            }
+        } finally {
+            matching = false;
+            orders.removeIf(o->o.remain<=0);
+        }
+    }
+
+    /**
+     * 报单生效: 吃掉对手盘口, 剩余部分排队
+     */
+    private void activate(SimOrder o, MarketData md, MatchHandler handler) {
+        long[] prices = o.buy ? md.askPrices : md.bidPrices;
+        int[] volumes = o.buy ? md.askVolumes : md.bidVolumes;
+        long lastMatchPrice = md.lastPrice;
+        for(int i=0; i<md.depth && o.remain>0; i++) {
+            if ( !validPrice(prices[i]) || !o.acceptable(prices[i]) ) {
+                break;
+            }
+            //部分行情数据没有盘口量, 认为盘口量足够
+            int vol = volumes[i]>0 ? Math.min(o.remain, volumes[i]) : o.remain;
+            match(o, prices[i], vol, md, handler);
+            lastMatchPrice = prices[i];
+        }
+        if ( o.remain<=0 ) {
+            return;
+        }
+        if ( o.market ) {
+            //盘口不足, 剩余部分按最后的对手价成交
+            match(o, lastMatchPrice, o.remain, md, handler);
+            return;
+        }
+        //同方向盘口中同价位的挂单排在前面
+        long[] samePrices = o.buy ? md.bidPrices : md.askPrices;
+        int[] sameVolumes = o.buy ? md.bidVolumes : md.askVolumes;
+        long ahead = 0;
+        for(int i=0;i<md.depth;i++) {
+            if ( samePrices[i]==o.limitPrice ) {
+                ahead = (long)(sameVolumes[i]*queuePosition);
+                break;
+            }
+        }
+        o.queueAhead = ahead;
+    }
+
+    /**
+     * 挂单撮合: 价格穿越全部成交, 价格相同消耗排队量
+     */
+    private void matchResting(SimOrder o, MarketData md, long tradeVolume, MatchHandler handler) {
+        long oppositePrice = o.buy ? md.lastAskPrice() : md.lastBidPrice();
+        boolean crossed = o.buy ? md.lastPrice<o.limitPrice : md.lastPrice>o.limitPrice;
+        if ( !crossed && validPrice(oppositePrice) ) {
+            crossed = o.acceptable(oppositePrice);
+        }
+        if ( crossed ) {
+            match(o, o.limitPrice, o.remain, md, handler);
+        } else if ( md.lastPrice==o.limitPrice && tradeVolume>0 ) {
+            o.queueAhead -= tradeVolume;
+            if ( o.queueAhead<0 ) {
+                int vol = (int)Math.min(o.remain, -o.queueAhead);
+                o.queueAhead = 0;
+                match(o, o.limitPrice, vol, md, handler);
+            }
+        }
+    }
+
+    /**
+     * 盘口没有报价时为0或者Long.MAX_VALUE
+     */
+    private static boolean validPrice(long price) {
+        return price>0 && price!=Long.MAX_VALUE;
+    }
+
+    private void match(SimOrder o, long price, int volume, MarketData md, MatchHandler handler) {
+        o.remain -= volume;
+        handler.onMatch(o.order, price, volume, md.updateTimestamp);
+    }
+
+}
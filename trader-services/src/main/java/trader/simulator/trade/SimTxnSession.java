@@ -0,0 +1,252 @@
+package trader.simulator.trade;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import trader.common.beans.BeansContainer;
+import trader.common.exception.AppException;
+import trader.common.exchangeable.Exchangeable;
+import trader.common.util.ConversionUtil;
+import trader.common.util.DateUtil;
+import trader.common.util.FileUtil;
+import trader.common.util.PriceUtil;
+import trader.common.util.TraderHomeUtil;
+import trader.service.ServiceConstants.ConnState;
+import trader.service.md.MarketData;
+import trader.service.md.MarketDataListener;
+import trader.service.md.MarketDataService;
+import trader.service.trade.AbsTxnSession;
+import trader.service.trade.AccountImpl;
+import trader.service.trade.FutureFeeEvaluator;
+import trader.service.trade.MarketTimeService;
+import trader.service.trade.OrderImpl;
+import trader.service.trade.OrderStateTuple;
+import trader.service.trade.PositionImpl;
+import trader.service.trade.TradeConstants;
+import trader.service.trade.TradeServiceImpl;
+import trader.service.trade.TransactionImpl;
+import trader.service.trade.TxnFeeEvaluator;
+import trader.simulator.SimMarketTimeAware;
+import trader.simulator.SimMarketTimeService;
+
+/**
+ * 模拟交易通道, 用于回测.
+ * <BR>报单在本地按回放的TICK撮合, 成交通过 orderAppendTxn 进入与实盘相同的账户/持仓计算.
+ * <BR>账户启动RingBuffer后在账户事件线程中撮合, 与CTP回报一样由账户事件线程单线程修改订单和持仓; 行情线程等待撮合完成, 回测结果与线程调度无关
+ * <BR>多个交易日连续回测时, 前一交易日收盘后未成交的挂单过期撤销, 然后账户结算, 持仓转为昨仓.
+ * <BR>连接参数:
+ * <LI>initMoney: 初始资金, 缺省 1000000
+ * <LI>latency: 报单延迟毫秒, 缺省 0
+ * <LI>queuePosition: 挂单在同价位排队的位置, 0 队首, 1 队尾, 缺省 1
+ * <LI>feeFile: FutureFeeEvaluator.toJson() 保存的费率快照, 缺省 ${trader.home}/data/feeEvaluator.json
+ */
+public class SimTxnSession extends AbsTxnSession implements MarketDataListener, SimMarketTimeAware, TradeConstants {
+
+    private MarketTimeService marketTime;
+    private Map<Exchangeable, SimOrderBook> orderBooks = new ConcurrentHashMap<>();
+    private SimOrderBook.MatchHandler matchHandler = this::onMatch;
+    /**
+     * 每个品种最近一个TICK的时间, 报单和撤单使用TICK时间, 不读取模拟时钟
+     */
+    private Map<Exchangeable, Long> tickTimes = new ConcurrentHashMap<>();
+    private long latency;
+    private double queuePosition = 1;
+    private int txnId;
+    private int sysId;
+
+    public SimTxnSession(TradeServiceImpl tradeService, AccountImpl account) {
+        super(tradeService, account);
+    }
+
+    @Override
+    public TxnProvider getTradeProvider() {
+        return TxnProvider.sim;
+    }
+
+    @Override
+    public void connect() {
+        try {
+            changeState(ConnState.Connecting);
+            Properties props = account.getConnectionProps();
+            latency = ConversionUtil.toLong(props.getProperty("latency", "0"));
+            queuePosition = ConversionUtil.toDouble(props.getProperty("queuePosition", "1"));
+            BeansContainer beansContainer = account.getBeansContainer();
+            marketTime = beansContainer.getBean(MarketTimeService.class);
+            if ( marketTime instanceof SimMarketTimeService ) {
+                ((SimMarketTimeService)marketTime).addListener(this);
+            }
+            beansContainer.getBean(MarketDataService.class).addListener(this);
+            changeState(ConnState.Connected);
+        }catch(Throwable t) {
+            logger.error("Connect failed", t);
+            changeState(ConnState.ConnectFailed);
+        }
+    }
+
+    @Override
+    protected void closeImpl() {
+        orderBooks.clear();
+        tickTimes.clear();
+    }
+
+    @Override
+    public String syncConfirmSettlement() throws Exception {
+        return null;
+    }
+
+    @Override
+    public long[] syncQryAccounts() throws Exception {
+        long[] result = new long[AccMoney_Count];
+        long initMoney = PriceUtil.str2long(account.getConnectionProps().getProperty("initMoney", "1000000"));
+        result[AccMoney_Balance] = initMoney;
+        result[AccMoney_Available] = initMoney;
+        result[AccMoney_WithdrawQuota] = initMoney;
+        return result;
+    }
+
+    /**
+     * 从本地快照加载费率
+     */
+    @Override
+    public TxnFeeEvaluator syncLoadFeeEvaluator() throws Exception {
+        return loadFeeEvaluator(account.getConnectionProps().getProperty("feeFile"));
+    }
+
+    /**
+     * 加载 FutureFeeEvaluator.toJson() 保存的费率快照, feeFile为null时使用 ${trader.home}/data/feeEvaluator.json, 文件不存在抛出IOException
+     */
+    public static FutureFeeEvaluator loadFeeEvaluator(String feeFile) throws IOException {
+        File file = null;
+        if ( feeFile!=null ) {
+            file = new File(feeFile);
+        } else {
+            file = new File(TraderHomeUtil.getDirectory(TraderHomeUtil.DIR_DATA), "feeEvaluator.json");
+        }
+        JsonObject json = (JsonObject)(new JsonParser()).parse(FileUtil.read(file));
+        return FutureFeeEvaluator.fromJson(json);
+    }
+
+    @Override
+    public List<PositionImpl> syncQryPositions() throws Exception {
+        return new ArrayList<>();
+    }
+
+    @Override
+    public List<MarketData> syncQueryMarketDatas() throws Exception {
+        return new ArrayList<>();
+    }
+
+    /**
+     * 报单立即被接受, 在后续TICK中撮合
+     */
+    @Override
+    public void asyncSendOrder(OrderImpl order) throws AppException {
+        account.traceOrder(order, OdrTrace_SendBegin);
+        long time = getMarketTime(order.getExchangeable());
+        orderChangeState(order, new OrderStateTuple(OrderState.Submitting, OrderSubmitState.InsertSubmitting, time));
+        orderChangeState(order, new OrderStateTuple(OrderState.Submitted, OrderSubmitState.InsertSubmitted, time));
+        order.setSysId(""+(++sysId));
+        orderChangeState(order, new OrderStateTuple(OrderState.Accepted, OrderSubmitState.Accepted, time));
+        SimOrderBook orderBook = orderBooks.get(order.getExchangeable());
+        if ( orderBook==null ) {
+            orderBook = new SimOrderBook(order.getExchangeable(), latency, queuePosition);
+            orderBooks.put(order.getExchangeable(), orderBook);
+        }
+        orderBook.addOrder(order, time);
+        account.traceOrder(order, OdrTrace_SendEnd);
+    }
+
+    /**
+     * 撤单立即生效, 没有挂单(已经全部成交)时撤单被拒绝
+     */
+    @Override
+    public void asyncCancelOrder(OrderImpl order) throws AppException {
+        long time = getMarketTime(order.getExchangeable());
+        SimOrderBook orderBook = orderBooks.get(order.getExchangeable());
+        if ( orderBook!=null && orderBook.removeOrder(order) ) {
+            OrderState state = order.getVolume(OdrVolume_TradeVolume)>0?OrderState.PartiallyDeleted:OrderState.Deleted;
+            orderChangeState(order, new OrderStateTuple(state, OrderSubmitState.CancelSubmitted, time));
+        } else {
+            orderChangeState(order, new OrderStateTuple(order.getState().getState(), OrderSubmitState.CancelRejected, time, "No resting order to cancel"));
+        }
+    }
+
+    /**
+     * 行情回调, 有挂单的品种撮合. 在账户事件线程中撮合并等待完成, 没有启动RingBuffer(影子账户)时直接撮合
+     */
+    @Override
+    public void onMarketData(MarketData md) {
+        tickTimes.put(md.instrumentId, md.updateTimestamp);
+        SimOrderBook orderBook = orderBooks.get(md.instrumentId);
+        if ( orderBook==null ) {
+            return;
+        }
+        try {
+            account.executeOnRing(()->{
+                orderBook.onMarketData(md, matchHandler);
+                return null;
+            });
+        }catch(Throwable t) {
+            logger.error("Match "+md.instrumentId+" failed", t);
+        }
+    }
+
+    @Override
+    public void onTimeChanged(LocalDate tradingDay, LocalDateTime actionTime) {
+    }
+
+    /**
+     * 交易日收盘: 未成交的挂单过期撤销, 然后账户结算
+     */
+    @Override
+    public void onTradingDayChanged(LocalDate prevTradingDay, LocalDate tradingDay) {
+        try {
+            account.executeOnRing(()->{
+                for(SimOrderBook orderBook:orderBooks.values()) {
+                    for(OrderImpl order:orderBook.clear()) {
+                        long time = getMarketTime(order.getExchangeable());
+                        OrderState state = order.getVolume(OdrVolume_TradeVolume)>0?OrderState.PartiallyDeleted:OrderState.Deleted;
+                        orderChangeState(order, new OrderStateTuple(state, OrderSubmitState.CancelSubmitted, time, "Expired at market close "+prevTradingDay));
+                    }
+                }
+                account.settle();
+                return null;
+            });
+        }catch(Throwable t) {
+            logger.error("Settle trading day "+prevTradingDay+" failed", t);
+        }
+    }
+
+    private void onMatch(OrderImpl order, long price, int volume, long time) {
+        TransactionImpl txn = new TransactionImpl(""+(++txnId), order, order.getDirection(), order.getOffsetFlags(), price, volume, time);
+        //撮合与成交处理在同一线程, 成交回报到达即处理完成
+        account.traceOrder(order, OdrTrace_RtnTrade);
+        orderAppendTxn(order, txn);
+        account.traceOrder(order, OdrTrace_RtnTradeProcessed);
+    }
+
+    /**
+     * 品种最近一个TICK的时间, 还没有TICK时使用市场时间
+     */
+    private long getMarketTime(Exchangeable e) {
+        Long tickTime = tickTimes.get(e);
+        if ( tickTime!=null ) {
+            return tickTime;
+        }
+        if ( marketTime==null ) {
+            return System.currentTimeMillis();
+        }
+        return DateUtil.localdatetime2long(e.exchange().getZoneId(), marketTime.getMarketTime());
+    }
+
+}
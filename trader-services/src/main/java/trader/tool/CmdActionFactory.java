@@ -34,6 +34,10 @@ public class CmdActionFactory {
         result.add(new CryptoDecryptAction());
         result.add(new MarketDataImportAction());
         result.add(new MarketDataArchiveAction());
+        result.add(new MarketDataCatalogAction());
+        result.add(new MarketDataBackfillAction());
+        result.add(new SimReplayAction());
+        result.add(new SimSoakAction());
         result.add(new ServiceAction());
         Collections.sort(result, (CmdAction a1, CmdAction a2)->{
             String cmd1 = Arrays.asList(a1.getCommand()).toString();
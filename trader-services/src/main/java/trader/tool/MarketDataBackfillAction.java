@@ -0,0 +1,154 @@
+package trader.tool;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.ta4j.core.Bar;
+
+import trader.common.exchangeable.Exchange;
+import trader.common.exchangeable.Exchangeable;
+import trader.common.exchangeable.ExchangeableData;
+import trader.common.exchangeable.ExchangeableData.DataInfo;
+import trader.common.exchangeable.MarketDayUtil;
+import trader.common.util.ConversionUtil;
+import trader.common.util.FileUtil;
+import trader.common.util.TraderHomeUtil;
+import trader.service.md.MarketData;
+import trader.service.repository.RepositoryCursor;
+import trader.service.repository.RepositoryQuery;
+import trader.service.ta.TimeSeriesLoader;
+
+/**
+ * 为行情数据仓库中已有的TICK数据回填各级别K线和日线.
+ * <BR>按品种并行, 同一品种的交易日顺序处理
+ */
+public class MarketDataBackfillAction implements CmdAction {
+
+    private static final String OPTION_THREADS = "--threads=";
+    private static final String OPTION_FORCE = "--force";
+
+    private ExchangeableData exchangeableData;
+    private MarketDataBarWriter barWriter;
+    private boolean force;
+
+    @Override
+    public String getCommand() {
+        return "data.backfill";
+    }
+
+    @Override
+    public void usage(PrintWriter writer) {
+        writer.println("marketData backfill [--threads=N] [--force]");
+        writer.println("\t从已有TICK数据生成缺少的各级别K线和日线, --force 重新生成全部K线");
+    }
+
+    @Override
+    public int execute(PrintWriter writer, List<String> options) throws Exception
+    {
+        int threads = Runtime.getRuntime().availableProcessors();
+        for(String option:options) {
+            if ( option.startsWith(OPTION_THREADS) ) {
+                threads = ConversionUtil.toInt(option.substring(OPTION_THREADS.length()));
+            } else if ( option.equals(OPTION_FORCE) ) {
+                force = true;
+            }
+        }
+        exchangeableData = new ExchangeableData(TraderHomeUtil.getDirectory(TraderHomeUtil.DIR_REPOSITORY), false);
+        barWriter = new MarketDataBarWriter(exchangeableData);
+        ExecutorService executorService = Executors.newFixedThreadPool(Math.max(1, threads));
+        try {
+            List<Exchangeable> exchangeables = new ArrayList<>();
+            List<Future<String>> futures = new ArrayList<>();
+            for(Exchange exchange:exchangeableData.getExchanges()) {
+                File exchangeDir = new File(exchangeableData.getDataDir(), exchange.name());
+                for(File edir:FileUtil.listSubDirs(exchangeDir)) {
+                    Exchangeable e = Exchangeable.fromString(exchange.name(), edir.getName());
+                    exchangeables.add(e);
+                    futures.add(executorService.submit(()->{
+                        return backfill(e);
+                    }));
+                }
+            }
+            for(int i=0;i<exchangeables.size();i++) {
+                writer.println("回填 "+exchangeables.get(i)+" : "+futures.get(i).get()); writer.flush();
+            }
+        } finally {
+            executorService.shutdownNow();
+        }
+        return 0;
+    }
+
+    /**
+     * 回填一个品种的全部交易日
+     */
+    private String backfill(Exchangeable e) throws Exception
+    {
+        List<LocalDate> tickDays = exchangeableData.listTradingDays(e, ExchangeableData.TICK_CTP);
+        Set<LocalDate> dayBarDates = new HashSet<>(barWriter.loadDayBarDates(e));
+        TreeMap<LocalDate, Bar> dayBars = new TreeMap<>();
+        int barFiles = 0;
+        LocalDate lastDay = null;
+        List<MarketData> lastTicks = null;
+        for(LocalDate tradingDay:tickDays) {
+            List<DataInfo> barDataInfos = new ArrayList<>();
+            for(DataInfo dataInfo:MarketDataBarWriter.BAR_DATA_INFOS) {
+                if ( force || !exchangeableData.exists(e, dataInfo, tradingDay) ) {
+                    barDataInfos.add(dataInfo);
+                }
+            }
+            boolean needDayBar = force || !dayBarDates.contains(tradingDay);
+            if ( barDataInfos.isEmpty() && !needDayBar ) {
+                continue;
+            }
+            List<MarketData> marketDatas = loadTicks(e, tradingDay);
+            for(DataInfo dataInfo:barDataInfos) {
+                barWriter.saveBars(tradingDay, e, dataInfo, TimeSeriesLoader.marketDatas2bars(e, dataInfo.getLevel(), marketDatas));
+                barFiles++;
+            }
+            if ( needDayBar ) {
+                //按自然日保存的旧数据, 夜市TICK在前一天的文件中
+                LocalDate prevDay = MarketDayUtil.prevMarketDay(e.exchange(), tradingDay);
+                List<MarketData> dayTicks = new ArrayList<>();
+                if ( prevDay.equals(lastDay) ) {
+                    dayTicks.addAll(lastTicks);
+                } else if ( tickDays.contains(prevDay) ) {
+                    dayTicks.addAll(loadTicks(e, prevDay));
+                }
+                dayTicks.addAll(marketDatas);
+                Bar dayBar = TimeSeriesLoader.marketDatas2dayBar(e, tradingDay, dayTicks);
+                if ( dayBar!=null ) {
+                    dayBars.put(tradingDay, dayBar);
+                }
+            }
+            lastDay = tradingDay;
+            lastTicks = marketDatas;
+        }
+        barWriter.saveDayBars(e, dayBars);
+        return "TICK交易日 "+tickDays.size()+", K线文件 "+barFiles+", 日线 "+dayBars.size();
+    }
+
+    private List<MarketData> loadTicks(Exchangeable e, LocalDate tradingDay) throws Exception
+    {
+        List<MarketData> result = new ArrayList<>();
+        RepositoryQuery query = new RepositoryQuery(exchangeableData)
+                .addExchangeables(e)
+                .setData(ExchangeableData.TICK_CTP)
+                .setTradingDays(tradingDay, tradingDay);
+        try(RepositoryCursor cursor = query.open();){
+            while(cursor.next()) {
+                result.add(cursor.getMarketData());
+            }
+        }
+        return result;
+    }
+
+}
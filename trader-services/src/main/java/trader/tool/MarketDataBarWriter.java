@@ -0,0 +1,137 @@
+package trader.tool;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.ta4j.core.Bar;
+
+import trader.common.exchangeable.Exchangeable;
+import trader.common.exchangeable.ExchangeableData;
+import trader.common.exchangeable.ExchangeableData.DataInfo;
+import trader.common.util.CSVDataSet;
+import trader.common.util.CSVUtil;
+import trader.common.util.CSVWriter;
+import trader.common.util.DateUtil;
+import trader.common.util.PriceUtil;
+import trader.service.ta.FutureBar;
+
+/**
+ * 将TICK统计的K线写入行情数据仓库, 与已有数据合并. 导入和回填命令共用
+ */
+class MarketDataBarWriter {
+
+    /**
+     * 从TICK一并生成的分钟级别K线
+     */
+    static final DataInfo[] BAR_DATA_INFOS = {ExchangeableData.MIN1, ExchangeableData.MIN3, ExchangeableData.MIN5, ExchangeableData.MIN15, ExchangeableData.MIN30, ExchangeableData.HOUR};
+
+    private ExchangeableData exchangeableData;
+
+    MarketDataBarWriter(ExchangeableData exchangeableData){
+        this.exchangeableData = exchangeableData;
+    }
+
+    /**
+     * 保存由TICK统计的K线, 与已有的K线按开始时间合并, 新统计的K线覆盖已有的同一时间K线
+     */
+    void saveBars(LocalDate date, Exchangeable exchangeable, DataInfo dataInfo, List<Bar> bars) throws IOException
+    {
+        String[] columns = dataInfo.getColumns();
+        CSVWriter csvWriter = new CSVWriter<>(columns);
+        TreeMap<String, String[]> barRows = new TreeMap<>();
+        //加载已有K线
+        if ( exchangeableData.exists(exchangeable, dataInfo, date) ) {
+            CSVDataSet csvDataSet = CSVUtil.parse(exchangeableData.load(exchangeable, dataInfo, date));
+            while(csvDataSet.next()) {
+                barRows.put(csvDataSet.get(ExchangeableData.COLUMN_BEGIN_TIME), csvDataSet.getRow());
+            }
+        }
+        for(Bar bar:bars) {
+            String[] row = new String[columns.length];
+            String beginTime = DateUtil.date2str(bar.getBeginTime().toLocalDateTime());
+            row[csvWriter.getColumnIndex(ExchangeableData.COLUMN_BEGIN_TIME)] = beginTime;
+            row[csvWriter.getColumnIndex(ExchangeableData.COLUMN_END_TIME)] = DateUtil.date2str(bar.getEndTime().toLocalDateTime());
+            fillPrices(csvWriter, row, bar);
+            barRows.put(beginTime, row);
+        }
+        for(String[] row:barRows.values()) {
+            csvWriter.next().setRow(row);
+        }
+        //保存
+        exchangeableData.save(exchangeable, dataInfo, date, csvWriter.toString());
+    }
+
+    /**
+     * 保存日线, 与已有的日线按交易日合并, 新统计的日线覆盖已有的同一交易日日线.
+     * <BR>日线是每个品种一个文件, 同一个品种的日线需要在一个线程中写入
+     */
+    void saveDayBars(Exchangeable exchangeable, Map<LocalDate, Bar> dayBars) throws IOException
+    {
+        if ( dayBars.isEmpty() ) {
+            return;
+        }
+        String[] columns = ExchangeableData.DAY_FUTURE.getColumns();
+        CSVWriter csvWriter = new CSVWriter<>(columns);
+        TreeMap<String, String[]> barRows = new TreeMap<>();
+        if ( exchangeableData.exists(exchangeable, ExchangeableData.DAY_FUTURE, null) ) {
+            CSVDataSet csvDataSet = CSVUtil.parse(exchangeableData.load(exchangeable, ExchangeableData.DAY_FUTURE, null));
+            while(csvDataSet.next()) {
+                //按列名转换, 兼容列不同的已有日线
+                String[] row = new String[columns.length];
+                for(int i=0;i<columns.length;i++) {
+                    if ( csvDataSet.hasColumn(columns[i]) ) {
+                        row[i] = csvDataSet.get(columns[i]);
+                    }
+                }
+                barRows.put(row[csvWriter.getColumnIndex(ExchangeableData.COLUMN_DATE)], row);
+            }
+        }
+        for(Map.Entry<LocalDate, Bar> entry:dayBars.entrySet()) {
+            Bar bar = entry.getValue();
+            String[] row = new String[columns.length];
+            String date = DateUtil.date2str(entry.getKey());
+            row[csvWriter.getColumnIndex(ExchangeableData.COLUMN_DATE)] = date;
+            row[csvWriter.getColumnIndex(ExchangeableData.COLUMN_BEGIN_TIME)] = DateUtil.date2str(bar.getBeginTime().toLocalDateTime());
+            row[csvWriter.getColumnIndex(ExchangeableData.COLUMN_END_TIME)] = DateUtil.date2str(bar.getEndTime().toLocalDateTime());
+            fillPrices(csvWriter, row, bar);
+            barRows.put(date, row);
+        }
+        for(String[] row:barRows.values()) {
+            csvWriter.next().setRow(row);
+        }
+        exchangeableData.save(exchangeable, ExchangeableData.DAY_FUTURE, null, csvWriter.toString());
+    }
+
+    /**
+     * 已经保存日线的交易日
+     */
+    List<LocalDate> loadDayBarDates(Exchangeable exchangeable) throws IOException
+    {
+        List<LocalDate> result = new ArrayList<>();
+        if ( exchangeableData.exists(exchangeable, ExchangeableData.DAY_FUTURE, null) ) {
+            CSVDataSet csvDataSet = CSVUtil.parse(exchangeableData.load(exchangeable, ExchangeableData.DAY_FUTURE, null));
+            while(csvDataSet.next()) {
+                result.add(DateUtil.str2localdate(csvDataSet.get(ExchangeableData.COLUMN_DATE)));
+            }
+        }
+        return result;
+    }
+
+    private static void fillPrices(CSVWriter csvWriter, String[] row, Bar bar) {
+        row[csvWriter.getColumnIndex(ExchangeableData.COLUMN_OPEN)] = PriceUtil.long2str(bar.getOpenPrice().longValue());
+        row[csvWriter.getColumnIndex(ExchangeableData.COLUMN_HIGH)] = PriceUtil.long2str(bar.getMaxPrice().longValue());
+        row[csvWriter.getColumnIndex(ExchangeableData.COLUMN_LOW)] = PriceUtil.long2str(bar.getMinPrice().longValue());
+        row[csvWriter.getColumnIndex(ExchangeableData.COLUMN_CLOSE)] = PriceUtil.long2str(bar.getClosePrice().longValue());
+
+        row[csvWriter.getColumnIndex(ExchangeableData.COLUMN_VOLUME)] = Long.toString(bar.getVolume().longValue());
+        row[csvWriter.getColumnIndex(ExchangeableData.COLUMN_TURNOVER)] = PriceUtil.long2str(bar.getAmount().longValue());
+        if ( bar instanceof FutureBar ) {
+            row[csvWriter.getColumnIndex(ExchangeableData.COLUMN_OPENINT)] = Long.toString(((FutureBar)bar).getOpenInterest().longValue());
+        }
+    }
+
+}
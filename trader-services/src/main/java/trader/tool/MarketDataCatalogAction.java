@@ -0,0 +1,49 @@
+package trader.tool;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.util.List;
+
+import trader.common.exchangeable.Exchange;
+import trader.common.exchangeable.Exchangeable;
+import trader.common.exchangeable.ExchangeableData;
+import trader.common.exchangeable.ExchangeableDataCatalog.InstrumentCatalog;
+import trader.common.util.FileUtil;
+import trader.common.util.TraderHomeUtil;
+
+/**
+ * 重建行情数据仓库的索引
+ */
+public class MarketDataCatalogAction implements CmdAction {
+
+    @Override
+    public String getCommand() {
+        return "data.catalog";
+    }
+
+    @Override
+    public void usage(PrintWriter writer) {
+        writer.println("marketData catalog");
+        writer.println("\t扫描行情数据仓库, 重建每个品种的数据索引");
+    }
+
+    @Override
+    public int execute(PrintWriter writer, List<String> options) throws Exception {
+        ExchangeableData exchangeableData = new ExchangeableData(TraderHomeUtil.getDirectory(TraderHomeUtil.DIR_REPOSITORY), false);
+        for(Exchange exchange:exchangeableData.getExchanges()) {
+            File exchangeDir = new File(exchangeableData.getDataDir(), exchange.name());
+            for(File edir:FileUtil.listSubDirs(exchangeDir)) {
+                Exchangeable e = Exchangeable.fromString(exchange.name(), edir.getName());
+                writer.print("索引 "+e+" ... "); writer.flush();
+                InstrumentCatalog catalog = exchangeableData.rebuildCatalog(e);
+                int entryCount = 0;
+                for(String data:catalog.getDatas()) {
+                    entryCount += catalog.getEntries(data).size();
+                }
+                writer.println("完成("+entryCount+")"); writer.flush();
+            }
+        }
+        return 0;
+    }
+
+}
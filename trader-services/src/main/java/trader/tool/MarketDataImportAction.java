@@ -6,11 +6,17 @@ import java.io.PrintWriter;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.ta4j.core.Bar;
 
@@ -19,24 +25,29 @@ import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
 
+import trader.common.exchangeable.Exchange.MarketType;
 import trader.common.exchangeable.Exchangeable;
 import trader.common.exchangeable.ExchangeableData;
 import trader.common.exchangeable.ExchangeableData.DataInfo;
+import trader.common.exchangeable.MarketDayUtil;
 import trader.common.exchangeable.MarketTimeStage;
 import trader.common.util.*;
 import trader.common.util.csv.CtpCSVMarshallHelper;
 import trader.service.md.MarketData;
 import trader.service.md.MarketDataProducer;
 import trader.service.md.ctp.CtpMarketDataProducer;
-import trader.service.ta.FutureBar;
 import trader.service.ta.TimeSeriesLoader;
 
 /**
  * 行情数据的归档命令.
  * <BR>行情数据的临时保存的目录结构: TraderHome/marketData/20181010/mdProducerId/shfe.ru1901.csv
+ * <BR>每个原始文件只解析一次, 同时完成质量统计和去重; 每个品种选出最好的数据源后, TICK和各级别K线以及日线一起写入.
+ * 交易日和品种都并行处理.
  */
 public class MarketDataImportAction implements CmdAction {
 
+    private static final String OPTION_THREADS = "--threads=";
+
     private static class MarketDataInfo implements Comparable<MarketDataInfo>{
         LocalDate tradingDay;
         Exchangeable exchangeable;
@@ -46,18 +57,72 @@ public class MarketDataImportAction implements CmdAction {
          * tick数量, 去除交易时间段之外的tick, 去除重复的tick
          */
         int tickCount;
+        /**
+         * 重复的tick数量
+         */
+        int duplicatedTicks;
+        /**
+         * 交易时间段之外的tick数量
+         */
+        int outOfMarketTicks;
         /**
          * 保存tick数量
          */
         int savedTicks;
+        /**
+         * 解析后的有效tick, 与原始CSV行一一对应
+         */
+        List<MarketData> marketDatas;
+        List<String[]> rows;
+        /**
+         * 合并后的全部TICK统计的日线
+         */
+        Bar dayBar;
 
         @Override
         public int compareTo(MarketDataInfo o) {
-            return tickCount-o.tickCount;
+            int result = tickCount-o.tickCount;
+            if ( result==0 ) {
+                result = o.duplicatedTicks-duplicatedTicks;
+            }
+            return result;
+        }
+
+        void release() {
+            marketDatas = null;
+            rows = null;
+        }
+    }
+
+    /**
+     * 缓存品种的交易时间段, 避免每个TICK都重新匹配合约和计算交易日. 时间段的判断使用 Exchangeable.getTimeStage
+     */
+    private static class MarketTimeCache {
+        private Exchangeable exchangeable;
+        private Map<LocalDate, LocalDateTime[]> dayMarketTimes = new HashMap<>();
+        private Map<LocalDate, LocalDateTime[]> nightMarketTimes = new HashMap<>();
+
+        MarketTimeCache(Exchangeable exchangeable){
+            this.exchangeable = exchangeable;
+        }
+
+        /**
+         * 与 Exchangeable.getTimeStage(time) 结果相同
+         */
+        MarketTimeStage getTimeStage(LocalDateTime time) {
+            LocalDate day = time.toLocalDate();
+            LocalDateTime[] marketTimes = null;
+            if ( Exchangeable.isDayMarketTime(time) ) {
+                marketTimes = dayMarketTimes.computeIfAbsent(day, d->exchangeable.getMarketTimes(MarketType.Day, d));
+            } else {
+                marketTimes = nightMarketTimes.computeIfAbsent(day, d->exchangeable.getMarketTimes(MarketType.Night, MarketDayUtil.nextMarketDay(exchangeable.exchange(), d)));
+            }
+            return Exchangeable.getTimeStage(marketTimes, time);
         }
     }
 
     private ExchangeableData exchangeableData;
+    private MarketDataBarWriter barWriter;
 
     @Override
     public String getCommand() {
@@ -66,8 +131,8 @@ public class MarketDataImportAction implements CmdAction {
 
     @Override
     public void usage(PrintWriter writer) {
-        writer.println("marketData import");
-        writer.println("\t导入行情数据");
+        writer.println("marketData import [--threads=N]");
+        writer.println("\t导入行情数据, 缺省按CPU数量并行导入");
     }
 
     @Override
@@ -77,32 +142,62 @@ public class MarketDataImportAction implements CmdAction {
         File trashDir = TraderHomeUtil.getDirectory(TraderHomeUtil.DIR_TRASH);
         writer.println("从行情数据目录导入: "+marketData.getAbsolutePath());writer.flush();
         exchangeableData = new ExchangeableData(TraderHomeUtil.getDirectory(TraderHomeUtil.DIR_REPOSITORY), false);
-        for(File tradingDayDir: FileUtil.listSubDirs(marketData)) {
-            LocalDate date = DateUtil.str2localdate(tradingDayDir.getName());
-            if ( date==null ) {
-                writer.println("忽略目录 "+tradingDayDir);
-                continue;
+        barWriter = new MarketDataBarWriter(exchangeableData);
+        ExecutorService executorService = Executors.newFixedThreadPool(parseThreads(options));
+        try {
+            //所有交易日的所有品种一起提交, 按交易日顺序等待结果
+            LinkedHashMap<File, List<Future<MarketDataInfo>>> dayFutures = new LinkedHashMap<>();
+            for(File tradingDayDir: FileUtil.listSubDirs(marketData)) {
+                LocalDate date = DateUtil.str2localdate(tradingDayDir.getName());
+                if ( date==null ) {
+                    writer.println("忽略目录 "+tradingDayDir);
+                    continue;
+                }
+                LinkedHashMap<String, List<MarketDataInfo>> marketDataInfos = loadMarketDataInfos(tradingDayDir);
+                List<String> instrumentKeys = new ArrayList<>(marketDataInfos.keySet());
+                Collections.sort(instrumentKeys);
+                List<Future<MarketDataInfo>> futures = new ArrayList<>();
+                for(String key:instrumentKeys) {
+                    List<MarketDataInfo> mdInfos = marketDataInfos.get(key);
+                    futures.add(executorService.submit(()->{
+                        return importMarketData(date, mdInfos);
+                    }));
+                }
+                dayFutures.put(tradingDayDir, futures);
             }
-            writer.print("导入交易日 "+tradingDayDir.getName()+" :"); writer.flush();
-            LinkedHashMap<Exchangeable, List<MarketDataInfo>> marketDataInfos = loadMarketDataInfos(tradingDayDir);
-            List<Exchangeable> exchangeables = new ArrayList<>(marketDataInfos.keySet());
-            Collections.sort(exchangeables);
-            for(Exchangeable e:exchangeables) {
-                //为每个品种找到最合适的文件
-                List<MarketDataInfo> mdInfos = marketDataInfos.get(e);
-                Collections.sort(mdInfos);
-                //实际导入
-                MarketDataInfo mdInfo = mdInfos.get(mdInfos.size()-1);
-                archiveMarketData(date, mdInfo);
-                writer.print(" "+mdInfo.exchangeable+"("+mdInfo.savedTicks+"/"+mdInfo.tickCount+")"); writer.flush();
+            for(File tradingDayDir:dayFutures.keySet()) {
+                writer.print("导入交易日 "+tradingDayDir.getName()+" :"); writer.flush();
+                for(Future<MarketDataInfo> future:dayFutures.get(tradingDayDir)) {
+                    MarketDataInfo mdInfo = future.get();
+                    if ( mdInfo==null ) {
+                        continue;
+                    }
+                    writer.print(" "+mdInfo.exchangeable+"("+mdInfo.savedTicks+"/"+mdInfo.tickCount+")"); writer.flush();
+                    //日线每个品种一个文件, 在主线程按交易日顺序写入
+                    if ( mdInfo.dayBar!=null ) {
+                        barWriter.saveDayBars(mdInfo.exchangeable, Collections.singletonMap(mdInfo.tradingDay, mdInfo.dayBar));
+                    }
+                }
+                writer.println();
+                //将每日目录转移trash目录中
+                moveToTrash(trashDir, tradingDayDir);
             }
-            writer.println();
-            //将每日目录转移trash目录中
-            moveToTrash(trashDir, tradingDayDir);
+        } finally {
+            executorService.shutdownNow();
         }
         return 0;
     }
 
+    private int parseThreads(List<String> options) {
+        int result = Runtime.getRuntime().availableProcessors();
+        for(String option:options) {
+            if ( option.startsWith(OPTION_THREADS) ) {
+                result = ConversionUtil.toInt(option.substring(OPTION_THREADS.length()));
+            }
+        }
+        return Math.max(1, result);
+    }
+
     private void moveToTrash(File trashDir, File dailyDir) throws IOException
     {
         trashDir.mkdirs();
@@ -110,7 +205,37 @@ public class MarketDataImportAction implements CmdAction {
     }
 
     /**
-     * 存档行情数据
+     * 解析一个品种的所有原始文件, 选择最好的数据导入
+     *
+     * @return 实际导入的数据信息, null 代表没有有效数据
+     */
+    private MarketDataInfo importMarketData(LocalDate tradingDay, List<MarketDataInfo> mdInfos) throws IOException
+    {
+        MarketDataInfo result = null;
+        for(MarketDataInfo mdInfo:mdInfos) {
+            loadMarketData(mdInfo);
+            if ( mdInfo.exchangeable==null ) {
+                mdInfo.release();
+                continue;
+            }
+            if ( result==null || mdInfo.compareTo(result)>0 ) {
+                if ( result!=null ) {
+                    result.release();
+                }
+                result = mdInfo;
+            } else {
+                mdInfo.release();
+            }
+        }
+        if ( result!=null ) {
+            archiveMarketData(tradingDay, result);
+            result.release();
+        }
+        return result;
+    }
+
+    /**
+     * 存档行情数据: 与已有的TICK合并去重后, 一起写入TICK和K线数据
      */
     private void archiveMarketData(LocalDate date, MarketDataInfo mdInfo) throws IOException
     {
@@ -125,97 +250,87 @@ public class MarketDataImportAction implements CmdAction {
         CSVMarshallHelper csvMarshallHelper = createCSVMarshallHelper(mdInfo.producerType);
         MarketDataProducer mdProducer = createMarketDataProducer(mdInfo.producerType);
 
-        Set<LocalDateTime> existsTimes = new TreeSet<>();
-        CSVWriter csvWriter = new CSVWriter<>(csvMarshallHelper);
+        List<MarketData> marketDatas = new ArrayList<>(mdInfo.marketDatas.size());
+        List<String[]> rows = new ArrayList<>(mdInfo.marketDatas.size());
+        Set<LocalDateTime> existsTimes = new HashSet<>();
         //先加载当天已有的TICK数据
         if ( exchangeableData.exists(mdInfo.exchangeable, dataInfo, date) ) {
-            String csvText = exchangeableData.load(mdInfo.exchangeable, dataInfo, date);
-            CSVDataSet csvDataSet = CSVUtil.parse(csvText);
+            CSVDataSet csvDataSet = CSVUtil.parse(exchangeableData.load(mdInfo.exchangeable, dataInfo, date));
             while(csvDataSet.next()) {
-                MarketData marketData = mdProducer.createMarketData(csvMarshallHelper.unmarshall(csvDataSet.getRow()), mdInfo.tradingDay);
+                MarketData marketData = mdProducer.createMarketData(csvMarshallHelper.unmarshall(csvDataSet.getRow()), null);
                 existsTimes.add(marketData.updateTime);
-                csvWriter.next().setRow(csvDataSet.getRow());
+                marketDatas.add(marketData);
+                rows.add(csvDataSet.getRow());
             }
         }
-        //再写入TICK数据
-        CSVDataSet csvDataSet = CSVUtil.parse(FileUtil.read(mdInfo.marketDataFile));
-        List<MarketData> savedDatas = new ArrayList<>();
-        while(csvDataSet.next()) {
-            MarketData marketData = mdProducer.createMarketData(csvMarshallHelper.unmarshall(csvDataSet.getRow()), mdInfo.tradingDay);
-            if ( existsTimes.contains(marketData.updateTime)) {
-                continue;
-            }
-            MarketTimeStage timeframe = marketData.instrumentId.getTimeStage(marketData.updateTime);
-            int tradingMillis = marketData.instrumentId.getTradingMilliSeconds(marketData.updateTime);
-            if ( timeframe!=MarketTimeStage.MarketOpen ) {
+        boolean needSort = !marketDatas.isEmpty();
+        for(int i=0;i<mdInfo.marketDatas.size();i++) {
+            MarketData marketData = mdInfo.marketDatas.get(i);
+            if ( existsTimes.contains(marketData.updateTime) ) {
                 continue;
             }
-            if ( csvDataSet.getRowIndex()<=2 && tradingMillis>3600*1000 ) {
-                continue;
-            }
-            savedDatas.add(marketData);
-            csvWriter.next().setRow(csvDataSet.getRow());
+            marketDatas.add(marketData);
+            rows.add(mdInfo.rows.get(i));
             mdInfo.savedTicks++;
         }
-        exchangeableData.save(mdInfo.exchangeable, dataInfo, date, csvWriter.toString());
-        //写入MIN1数据
-        saveMin1Bars(date, mdInfo, savedDatas);
-    }
-
-    /**
-     * 将原始日志统计为MIN1
-     */
-    private void saveMin1Bars(LocalDate date, MarketDataInfo mdInfo, List<MarketData> marketDatas) throws IOException
-    {
-        DataInfo dataInfo = ExchangeableData.MIN1;
-
-        List<Bar> bars = TimeSeriesLoader.marketDatas2bars(mdInfo.exchangeable, dataInfo.getLevel(), marketDatas);
-        CSVWriter csvWriter = new CSVWriter<>(dataInfo.getColumns());
-        //加载已有MIN1
-        if ( exchangeableData.exists(mdInfo.exchangeable, dataInfo, date) ) {
-            String csvText = exchangeableData.load(mdInfo.exchangeable, dataInfo, date);
-            CSVDataSet csvDataSet = CSVUtil.parse(csvText);
-            while(csvDataSet.next()) {
-                csvWriter.next().setRow(csvDataSet.getRow());
-            }
+        if ( mdInfo.savedTicks==0 ) {
+            return;
         }
-        for(Bar bar:bars) {
-            csvWriter.next();
-            csvWriter.set(ExchangeableData.COLUMN_BEGIN_TIME, DateUtil.date2str(bar.getBeginTime().toLocalDateTime()));
-            csvWriter.set(ExchangeableData.COLUMN_END_TIME, DateUtil.date2str(bar.getEndTime().toLocalDateTime()));
-            csvWriter.set(ExchangeableData.COLUMN_OPEN, PriceUtil.long2str(bar.getOpenPrice().longValue()));
-            csvWriter.set(ExchangeableData.COLUMN_HIGH, PriceUtil.long2str(bar.getMaxPrice().longValue()));
-            csvWriter.set(ExchangeableData.COLUMN_LOW, PriceUtil.long2str(bar.getMinPrice().longValue()));
-            csvWriter.set(ExchangeableData.COLUMN_CLOSE, PriceUtil.long2str(bar.getClosePrice().longValue()));
-
-            csvWriter.set(ExchangeableData.COLUMN_VOLUME, Long.toString(bar.getVolume().longValue()));
-            csvWriter.set(ExchangeableData.COLUMN_TURNOVER, PriceUtil.long2str(bar.getAmount().longValue()));
-            if ( bar instanceof FutureBar ) {
-                csvWriter.set(ExchangeableData.COLUMN_OPENINT, Long.toString(((FutureBar)bar).getOpenInterest().longValue()));
+        if ( needSort ) {
+            //已有TICK和新TICK按时间排序合并
+            List<MarketData> unsortedDatas = new ArrayList<>(marketDatas);
+            List<String[]> unsortedRows = new ArrayList<>(rows);
+            Integer[] indices = new Integer[unsortedDatas.size()];
+            for(int i=0;i<indices.length;i++) {
+                indices[i] = i;
             }
+            Arrays.sort(indices, (i1, i2)->Long.compare(unsortedDatas.get(i1).updateTimestamp, unsortedDatas.get(i2).updateTimestamp));
+            marketDatas.clear();
+            rows.clear();
+            for(int index:indices) {
+                marketDatas.add(unsortedDatas.get(index));
+                rows.add(unsortedRows.get(index));
+            }
+        }
+        CSVWriter csvWriter = new CSVWriter<>(csvMarshallHelper);
+        for(String[] row:rows) {
+            csvWriter.next().setRow(row);
         }
-        //保存
         exchangeableData.save(mdInfo.exchangeable, dataInfo, date, csvWriter.toString());
+        //写入K线数据
+        for(DataInfo barDataInfo:MarketDataBarWriter.BAR_DATA_INFOS) {
+            barWriter.saveBars(date, mdInfo.exchangeable, barDataInfo, TimeSeriesLoader.marketDatas2bars(mdInfo.exchangeable, barDataInfo.getLevel(), marketDatas));
+        }
+        mdInfo.dayBar = TimeSeriesLoader.marketDatas2dayBar(mdInfo.exchangeable, date, marketDatas);
     }
 
     /**
-     * 依次加载和检测行情数据信息
+     * 列出每个品种的所有原始数据文件, 此时并不解析
      */
-    private LinkedHashMap<Exchangeable, List<MarketDataInfo>> loadMarketDataInfos(File tradingDayDir) throws Exception
+    private LinkedHashMap<String, List<MarketDataInfo>> loadMarketDataInfos(File tradingDayDir) throws Exception
     {
         LocalDate tradingDay = DateUtil.str2localdate(tradingDayDir.getName());
-        LinkedHashMap<Exchangeable, List<MarketDataInfo>> result = new LinkedHashMap<>();
+        LinkedHashMap<String, List<MarketDataInfo>> result = new LinkedHashMap<>();
         for(File producerDir : FileUtil.listSubDirs(tradingDayDir)) {
             MarketDataProducer.Type producerType = detectProducerType(producerDir);
+            //压力测试的合成行情不导入
+            if ( producerType==MarketDataProducer.Type.synthetic ) {
+                continue;
+            }
             for(File csvFile:producerDir.listFiles()) {
-                if( !csvFile.getName().endsWith(".csv") ) {
+                String fileName = csvFile.getName();
+                if( !fileName.endsWith(".csv") ) {
                     continue;
                 }
-                MarketDataInfo mdInfo = loadMarketDataInfo(tradingDay, csvFile, producerType);
-                List<MarketDataInfo> mdInfos = result.get(mdInfo.exchangeable);
+                MarketDataInfo mdInfo = new MarketDataInfo();
+                mdInfo.producerType = producerType;
+                mdInfo.marketDataFile = csvFile;
+                mdInfo.tradingDay = tradingDay;
+                String instrumentKey = fileName.substring(0, fileName.length()-".csv".length()).toLowerCase();
+                List<MarketDataInfo> mdInfos = result.get(instrumentKey);
                 if ( mdInfos==null ) {
                     mdInfos = new ArrayList<>();
-                    result.put(mdInfo.exchangeable, mdInfos);
+                    result.put(instrumentKey, mdInfos);
                 }
                 mdInfos.add(mdInfo);
             }
@@ -240,31 +355,44 @@ public class MarketDataImportAction implements CmdAction {
         return result;
     }
 
-    private MarketDataInfo loadMarketDataInfo(LocalDate tradingDay, File csvFile, MarketDataProducer.Type producerType) throws IOException
+    /**
+     * 一次解析原始文件, 同时统计质量和去除交易时间之外与重复的TICK
+     */
+    private void loadMarketData(MarketDataInfo mdInfo) throws IOException
     {
-        MarketDataInfo result = new MarketDataInfo();
-        result.producerType = producerType;
-        result.marketDataFile = csvFile;
-        result.tradingDay = tradingDay;
-
-        CSVMarshallHelper csvMarshallHelper = createCSVMarshallHelper(producerType);
-        MarketDataProducer mdProducer = createMarketDataProducer(producerType);
+        CSVMarshallHelper csvMarshallHelper = createCSVMarshallHelper(mdInfo.producerType);
+        MarketDataProducer mdProducer = createMarketDataProducer(mdInfo.producerType);
+        MarketTimeCache marketTimeCache = null;
+        MarketData lastData = null;
+        mdInfo.marketDatas = new ArrayList<>();
+        mdInfo.rows = new ArrayList<>();
 
-        CSVDataSet csvDataSet = CSVUtil.parse(FileUtil.read(csvFile));
+        CSVDataSet csvDataSet = CSVUtil.parse(FileUtil.read(mdInfo.marketDataFile));
         while(csvDataSet.next()) {
-            MarketData marketData = mdProducer.createMarketData(csvMarshallHelper.unmarshall(csvDataSet.getRow()), null);
-            MarketTimeStage timeframe = marketData.instrumentId.getTimeStage(marketData.updateTime);
-            int tradingMillis = marketData.instrumentId.getTradingMilliSeconds(marketData.updateTime);
-            if ( timeframe!=MarketTimeStage.MarketOpen ) {
+            String[] row = csvDataSet.getRow();
+            MarketData marketData = mdProducer.createMarketData(csvMarshallHelper.unmarshall(row), null);
+            if ( marketTimeCache==null ) {
+                marketTimeCache = new MarketTimeCache(marketData.instrumentId);
+            }
+            if ( marketTimeCache.getTimeStage(marketData.updateTime)!=MarketTimeStage.MarketOpen ) {
+                mdInfo.outOfMarketTicks++;
+                continue;
+            }
+            //登录后收到的第一个TICK可能是上一个交易时段的旧数据
+            if ( mdInfo.tickCount==0 && marketData.instrumentId.getTradingMilliSeconds(marketData.updateTime)>3600*1000 ) {
+                mdInfo.outOfMarketTicks++;
                 continue;
             }
-            if ( result.tickCount==0 && tradingMillis>3600*1000 ) {
+            if ( lastData!=null && lastData.updateTimestamp==marketData.updateTimestamp && lastData.volume==marketData.volume ) {
+                mdInfo.duplicatedTicks++;
                 continue;
             }
-            result.tickCount++; //只计算正式开市的数据
-            result.exchangeable = marketData.instrumentId;
+            mdInfo.tickCount++; //只计算正式开市的数据
+            mdInfo.exchangeable = marketData.instrumentId;
+            mdInfo.marketDatas.add(marketData);
+            mdInfo.rows.add(row);
+            lastData = marketData;
         }
-        return result;
     }
 
     private CSVMarshallHelper createCSVMarshallHelper(MarketDataProducer.Type producerType) {
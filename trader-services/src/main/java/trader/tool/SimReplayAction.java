@@ -0,0 +1,113 @@
+package trader.tool;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import trader.common.exchangeable.Exchangeable;
+import trader.common.util.ConversionUtil;
+import trader.common.util.DateUtil;
+import trader.common.util.FileUtil;
+import trader.common.util.StringUtil;
+import trader.common.util.TraderHomeUtil;
+import trader.service.tradlet.Tradlet;
+import trader.simulator.SimReplayReport;
+import trader.simulator.SimReplayRunner;
+import trader.simulator.trade.SimTxnSession;
+
+/**
+ * 回放一个交易日的已记录行情, 统计各处理环节延时并与基线比较.
+ * <BR>有性能退化时返回1, 可以在发布前的检查脚本中使用
+ */
+public class SimReplayAction implements CmdAction {
+
+    private static final String OPTION_DAY = "--day=";
+    private static final String OPTION_INSTRUMENTS = "--instruments=";
+    private static final String OPTION_SPEED = "--speed=";
+    private static final String OPTION_SOURCE = "--source=";
+    private static final String OPTION_TRADLET = "--tradlet=";
+    private static final String OPTION_BASELINE = "--baseline=";
+    private static final String OPTION_SAVE = "--save=";
+    private static final String OPTION_TOLERANCE = "--tolerance=";
+    private static final String OPTION_FEE_FILE = "--feeFile=";
+
+    private static final String SOURCE_MARKETDATA = "marketData";
+
+    @Override
+    public String getCommand() {
+        return "sim.replay";
+    }
+
+    @Override
+    public void usage(PrintWriter writer) {
+        writer.println("sim replay --day=YYYYMMDD --instruments=ru1901,... [--speed=N] [--source=repository|marketData] [--tradlet=CLASS] [--baseline=FILE] [--save=FILE] [--tolerance=0.2] [--feeFile=FILE]");
+        writer.println("\t回放交易日行情, 统计各环节延时. --speed=0 不等待, --source=marketData 从行情数据目录读取原始CSV, 有基线时超过容差返回1, --feeFile 为模拟账户的费率快照, 缺省 ${trader.home}/data/feeEvaluator.json");
+    }
+
+    @Override
+    public int execute(PrintWriter writer, List<String> options) throws Exception
+    {
+        LocalDate tradingDay = null;
+        List<Exchangeable> exchangeables = new ArrayList<>();
+        double speed = 1, tolerance = 0.2;
+        String source = null, tradletClass = null, baselineFile = null, saveFile = null, feeFile = null;
+        for(String option:options) {
+            if ( option.startsWith(OPTION_DAY) ) {
+                tradingDay = DateUtil.str2localdate(option.substring(OPTION_DAY.length()));
+            } else if ( option.startsWith(OPTION_INSTRUMENTS) ) {
+                for(String instrument:StringUtil.split(option.substring(OPTION_INSTRUMENTS.length()), ",")) {
+                    exchangeables.add(Exchangeable.fromString(instrument));
+                }
+            } else if ( option.startsWith(OPTION_SPEED) ) {
+                speed = ConversionUtil.toDouble(option.substring(OPTION_SPEED.length()));
+            } else if ( option.startsWith(OPTION_SOURCE) ) {
+                source = option.substring(OPTION_SOURCE.length());
+            } else if ( option.startsWith(OPTION_TRADLET) ) {
+                tradletClass = option.substring(OPTION_TRADLET.length());
+            } else if ( option.startsWith(OPTION_BASELINE) ) {
+                baselineFile = option.substring(OPTION_BASELINE.length());
+            } else if ( option.startsWith(OPTION_SAVE) ) {
+                saveFile = option.substring(OPTION_SAVE.length());
+            } else if ( option.startsWith(OPTION_TOLERANCE) ) {
+                tolerance = ConversionUtil.toDouble(option.substring(OPTION_TOLERANCE.length()));
+            } else if ( option.startsWith(OPTION_FEE_FILE) ) {
+                feeFile = option.substring(OPTION_FEE_FILE.length());
+            }
+        }
+        if ( tradingDay==null || exchangeables.isEmpty() ) {
+            usage(writer);
+            return 1;
+        }
+        SimReplayRunner runner = new SimReplayRunner(tradingDay, exchangeables)
+                .setSpeed(speed)
+                .setFeeEvaluator(SimTxnSession.loadFeeEvaluator(feeFile));
+        if ( SOURCE_MARKETDATA.equals(source) ) {
+            runner.loadFromMarketDataDir(new File(TraderHomeUtil.getDirectory(TraderHomeUtil.DIR_MARKETDATA), DateUtil.date2str(tradingDay)));
+        } else {
+            runner.loadFromRepository();
+        }
+        if ( tradletClass!=null ) {
+            runner.setTradlet(Class.forName(tradletClass).asSubclass(Tradlet.class), null);
+        }
+        writer.println("回放 "+exchangeables+" 交易日 "+DateUtil.date2str(tradingDay)+" TICK "+runner.getMarketDatas().size()+" 倍速 "+speed); writer.flush();
+        SimReplayReport report = runner.run();
+        writer.println("耗时 "+report.getElapsedMillis()+" ms");
+        if ( saveFile!=null ) {
+            FileUtil.save(new File(saveFile), report.toJson().toString());
+        }
+        SimReplayReport baseline = report;
+        if ( baselineFile!=null ) {
+            baseline = SimReplayReport.fromJson(FileUtil.read(new File(baselineFile)));
+        }
+        writer.print(report.toComparison(baseline));
+        List<String> regressions = report.getRegressions(baseline, tolerance);
+        for(String regression:regressions) {
+            writer.println("延时退化: "+regression);
+        }
+        writer.flush();
+        return regressions.isEmpty()?0:1;
+    }
+
+}
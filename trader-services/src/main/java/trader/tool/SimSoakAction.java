@@ -0,0 +1,105 @@
+package trader.tool;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import trader.common.exchangeable.Exchangeable;
+import trader.common.util.ConversionUtil;
+import trader.common.util.StringUtil;
+import trader.service.md.synthetic.SyntheticTickGenerator;
+import trader.simulator.SimReplayReport;
+import trader.simulator.SimSoakRunner;
+
+/**
+ * 用合成行情对行情服务阶梯加压, 输出每一级的实际频率和延时, 以及饱和点
+ */
+public class SimSoakAction implements CmdAction {
+
+    private static final String OPTION_INSTRUMENTS = "--instruments=";
+    private static final String OPTION_INSTRUMENT_COUNT = "--instrumentCount=";
+    private static final String OPTION_PEAK_RATE = "--peakRate=";
+    private static final String OPTION_MULTIPLIERS = "--multipliers=";
+    private static final String OPTION_SECONDS = "--seconds=";
+    private static final String OPTION_LISTENERS = "--listeners=";
+    private static final String OPTION_SEED = "--seed=";
+
+    @Override
+    public String getCommand() {
+        return "sim.soak";
+    }
+
+    @Override
+    public void usage(PrintWriter writer) {
+        writer.println("sim soak [--instruments=ru1901,...|--instrumentCount=100] [--peakRate=2] [--multipliers=1,2,5,10,20] [--seconds=5] [--listeners=1] [--seed=0]");
+        writer.println("\t合成行情阶梯加压, 按 合约数 x 峰值频率 x 倍数 发送TICK, 实际频率低于目标95%为饱和");
+    }
+
+    @Override
+    public int execute(PrintWriter writer, List<String> options) throws Exception
+    {
+        List<Exchangeable> instruments = new ArrayList<>();
+        int instrumentCount = 100;
+        String[] multiplierStrs = null;
+        int peakRate = 0, seconds = 0, listeners = 0;
+        long seed = 0;
+        for(String option:options) {
+            if ( option.startsWith(OPTION_INSTRUMENTS) ) {
+                for(String instrument:StringUtil.split(option.substring(OPTION_INSTRUMENTS.length()), ",")) {
+                    instruments.add(Exchangeable.fromString(instrument));
+                }
+            } else if ( option.startsWith(OPTION_INSTRUMENT_COUNT) ) {
+                instrumentCount = ConversionUtil.toInt(option.substring(OPTION_INSTRUMENT_COUNT.length()));
+            } else if ( option.startsWith(OPTION_PEAK_RATE) ) {
+                peakRate = ConversionUtil.toInt(option.substring(OPTION_PEAK_RATE.length()));
+            } else if ( option.startsWith(OPTION_MULTIPLIERS) ) {
+                multiplierStrs = StringUtil.split(option.substring(OPTION_MULTIPLIERS.length()), ",");
+            } else if ( option.startsWith(OPTION_SECONDS) ) {
+                seconds = ConversionUtil.toInt(option.substring(OPTION_SECONDS.length()));
+            } else if ( option.startsWith(OPTION_LISTENERS) ) {
+                listeners = ConversionUtil.toInt(option.substring(OPTION_LISTENERS.length()));
+            } else if ( option.startsWith(OPTION_SEED) ) {
+                seed = ConversionUtil.toLong(option.substring(OPTION_SEED.length()));
+            }
+        }
+        if ( instruments.isEmpty() ) {
+            instruments = SyntheticTickGenerator.defaultInstruments(instrumentCount);
+        }
+        SimSoakRunner runner = new SimSoakRunner(instruments).setSeed(seed);
+        if ( peakRate>0 ) {
+            runner.setPeakRate(peakRate);
+        }
+        if ( seconds>0 ) {
+            runner.setSeconds(seconds);
+        }
+        if ( listeners>0 ) {
+            runner.setListeners(listeners);
+        }
+        if ( multiplierStrs!=null ) {
+            double[] multipliers = new double[multiplierStrs.length];
+            for(int i=0;i<multipliers.length;i++) {
+                multipliers[i] = ConversionUtil.toDouble(multiplierStrs[i]);
+            }
+            runner.setMultipliers(multipliers);
+        }
+        writer.println("合约数 "+instruments.size()); writer.flush();
+        List<SimReplayReport> reports = runner.run();
+        writer.println(String.format("%8s %12s %12s %12s %12s %12s", "x", "target/s", "actual/s", "avg(ns)", "p99(ns)", "lagP99(ns)"));
+        for(SimReplayReport report:reports) {
+            writer.println(String.format("%8.1f %12d %12d %12d %12d %12d",
+                    report.getSpeed(), runner.getTargetRate(report.getSpeed()), SimSoakRunner.getAchievedRate(report),
+                    report.getAvgNanos(SimReplayReport.STAGE_TOTAL), report.getPercentileNanos(SimReplayReport.STAGE_TOTAL, 0.99),
+                    report.getPercentileNanos(SimReplayReport.STAGE_LAG, 0.99)));
+        }
+        int saturation = runner.findSaturation(reports);
+        if ( saturation>=0 ) {
+            SimReplayReport report = reports.get(saturation);
+            writer.println("饱和点: "+report.getSpeed()+"x, 实际 "+SimSoakRunner.getAchievedRate(report)+" TICK/s");
+        } else {
+            writer.println("未饱和");
+        }
+        writer.flush();
+        return 0;
+    }
+
+}
@@ -0,0 +1,63 @@
+package trader.service.lifecycle;
+
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+import trader.service.lifecycle.StartupTimeline.Phase;
+
+public class StartupTimelineTest {
+
+    @Test
+    public void testPhases() throws Exception
+    {
+        StartupTimeline timeline = new StartupTimeline(System.currentTimeMillis());
+        ExecutorService executorService = Executors.newFixedThreadPool(2);
+        try {
+            timeline.run("md", ()->{
+                Thread.sleep(10);
+                return null;
+            });
+            //两个阶段并发执行
+            Future<?> ta = executorService.submit(()->{
+                return timeline.run("ta", ()->{
+                    Thread.sleep(100);
+                    return null;
+                });
+            });
+            Future<?> trade = executorService.submit(()->{
+                return timeline.run("trade", ()->{
+                    Thread.sleep(100);
+                    return null;
+                });
+            });
+            ta.get(); trade.get();
+            try {
+                timeline.run("failed", ()->{
+                    throw new IllegalStateException("failed");
+                });
+                assertTrue(false);
+            }catch(IllegalStateException e) {}
+        }finally {
+            executorService.shutdown();
+        }
+
+        List<Phase> phases = timeline.getPhases();
+        assertTrue(phases.size()==4 && phases.get(0).getName().equals("md"));
+        Phase md = timeline.getPhase("md"), ta = timeline.getPhase("ta"), trade = timeline.getPhase("trade");
+        assertTrue(md.isDone() && md.getDurationMillis()>=10);
+        assertTrue(ta.getBeginMillis()>=md.getBeginMillis()+md.getDurationMillis());
+        //并发阶段的时间有重叠
+        assertTrue(ta.getBeginMillis()<trade.getBeginMillis()+trade.getDurationMillis());
+        assertTrue(trade.getBeginMillis()<ta.getBeginMillis()+ta.getDurationMillis());
+        assertTrue(!ta.getThread().equals(trade.getThread()));
+        assertTrue(timeline.getPhase("failed").isDone() && timeline.getPhase("failed").getError()!=null);
+        assertTrue(timeline.toJson().toString().contains("\"trade\""));
+    }
+
+}
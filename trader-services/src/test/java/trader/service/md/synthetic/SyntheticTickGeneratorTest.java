@@ -0,0 +1,64 @@
+package trader.service.md.synthetic;
+
+import static org.junit.Assert.assertTrue;
+
+import java.time.LocalDate;
+import java.time.Month;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import trader.common.exchangeable.Exchangeable;
+import trader.common.util.PriceUtil;
+import trader.service.md.MarketData;
+
+public class SyntheticTickGeneratorTest {
+
+    @Test
+    public void testGenerate() {
+        LocalDate tradingDay = LocalDate.of(2018, Month.OCTOBER, 11);
+        List<Exchangeable> instruments = SyntheticTickGenerator.defaultInstruments(3);
+        long priceTick = PriceUtil.price2long(5);
+        SyntheticTickGenerator generator = new SyntheticTickGenerator(tradingDay, 1);
+        for(Exchangeable e:instruments) {
+            generator.addInstrument(e, priceTick, 10, PriceUtil.price2long(12000));
+        }
+
+        Map<Exchangeable, MarketData> lastDatas = new HashMap<>();
+        for(int i=0;i<3000;i++) {
+            MarketData md = generator.nextMarketData("synthetic");
+            assertTrue(instruments.get(i%3).equals(md.instrumentId));
+            assertTrue(md.depth==SyntheticTickGenerator.DEPTH);
+            assertTrue(md.lastPrice%priceTick==0);
+            assertTrue(md.askPrices[0]-md.bidPrices[0]==priceTick);
+            for(int j=1;j<md.depth;j++) {
+                assertTrue(md.bidPrices[j]<md.bidPrices[j-1] && md.askPrices[j]>md.askPrices[j-1]);
+            }
+            assertTrue(md.lowestPrice<=md.lastPrice && md.lastPrice<=md.highestPrice);
+            MarketData lastData = lastDatas.get(md.instrumentId);
+            if ( lastData!=null ) {
+                //每个合约的行情时间递增, 不会被行情服务丢弃
+                assertTrue(md.updateTimestamp>lastData.updateTimestamp);
+                assertTrue(md.volume>=lastData.volume);
+                assertTrue(Math.abs(md.lastPrice-lastData.lastPrice)<=2*priceTick);
+            }
+            lastDatas.put(md.instrumentId, md);
+        }
+        assertTrue(generator.getGeneratedCount()==3000);
+
+        //相同种子产生相同序列
+        SyntheticTickGenerator generator2 = new SyntheticTickGenerator(tradingDay, 1);
+        for(Exchangeable e:instruments) {
+            generator2.addInstrument(e, priceTick, 10, PriceUtil.price2long(12000));
+        }
+        for(int i=0;i<2999;i++) {
+            generator2.next();
+        }
+        MarketData md = generator2.nextMarketData("synthetic");
+        MarketData lastData = lastDatas.get(md.instrumentId);
+        assertTrue(md.lastPrice==lastData.lastPrice && md.volume==lastData.volume && md.updateTimestamp==lastData.updateTimestamp);
+    }
+
+}
@@ -0,0 +1,83 @@
+package trader.service.repository;
+
+import static org.junit.Assert.assertTrue;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import trader.common.exchangeable.Exchangeable;
+import trader.common.exchangeable.ExchangeableData;
+import trader.common.util.DateUtil;
+import trader.common.util.TraderHomeUtil;
+import trader.service.TraderHomeTestUtil;
+
+public class RepositoryQueryTest {
+
+    @Before
+    public void setup() {
+        TraderHomeTestUtil.initRepoistoryDir();
+    }
+
+    @Test
+    public void testTickQuery() throws Exception
+    {
+        ExchangeableData data = TraderHomeUtil.getExchangeableData();
+        Exchangeable ru1901 = Exchangeable.fromString("ru1901");
+        LocalDate tradingDay = LocalDate.of(2018, 10, 10);
+        int total = 0;
+        long lastTime = 0, minPrice = Long.MAX_VALUE, maxPrice = Long.MIN_VALUE;
+        try(RepositoryCursor cursor = new RepositoryQuery(data).addExchangeables(ru1901).setData(ExchangeableData.TICK_CTP).setTradingDays(tradingDay, tradingDay).open();){
+            while(cursor.next()) {
+                assertTrue(cursor.getMarketData()!=null);
+                assertTrue(cursor.getTime()>=lastTime);
+                lastTime = cursor.getTime();
+                minPrice = Math.min(minPrice, cursor.getClose());
+                maxPrice = Math.max(maxPrice, cursor.getClose());
+                total++;
+            }
+        }
+        assertTrue(total>0);
+
+        //时间和价格范围
+        LocalDateTime beginTime = LocalDateTime.of(2018, 10, 10, 9, 30), endTime = LocalDateTime.of(2018, 10, 10, 10, 0);
+        long midPrice = (minPrice+maxPrice)/2;
+        int count = 0;
+        try(RepositoryCursor cursor = new RepositoryQuery(data).addExchangeables(ru1901).setData(ExchangeableData.TICK_CTP)
+                .setTimeRange(beginTime, endTime).setPriceRange(midPrice, Long.MAX_VALUE).open();)
+        {
+            while(cursor.next()) {
+                assertTrue(cursor.getTime()>=DateUtil.localdatetime2long(DateUtil.CTT, beginTime));
+                assertTrue(cursor.getTime()<DateUtil.localdatetime2long(DateUtil.CTT, endTime));
+                assertTrue(cursor.getClose()>=midPrice);
+                count++;
+            }
+        }
+        assertTrue(count<total);
+    }
+
+    @Test
+    public void testBarQuery() throws Exception
+    {
+        ExchangeableData data = TraderHomeUtil.getExchangeableData();
+        Exchangeable ru1901 = Exchangeable.fromString("ru1901");
+        //10-10 只有TICK数据, 10-11 有MIN1数据
+        int count = 0;
+        long lastTime = 0;
+        try(RepositoryCursor cursor = new RepositoryQuery(data).addExchangeables(ru1901).setData(ExchangeableData.MIN1)
+                .setTradingDays(LocalDate.of(2018, 10, 10), LocalDate.of(2018, 10, 11)).open();)
+        {
+            while(cursor.next()) {
+                assertTrue(cursor.getMarketData()==null);
+                assertTrue(cursor.getTime()>lastTime);
+                assertTrue(cursor.getBeginTime()<cursor.getTime());
+                lastTime = cursor.getTime();
+                count++;
+            }
+        }
+        assertTrue(count>0);
+    }
+
+}
@@ -0,0 +1,187 @@
+package trader.service.trade;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.time.LocalDate;
+import java.time.Month;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import trader.common.exchangeable.Exchangeable;
+import trader.common.util.PriceUtil;
+import trader.service.md.MarketData;
+import trader.service.md.synthetic.SyntheticTickGenerator;
+import trader.simulator.SimBeansContainer;
+import trader.simulator.trade.SimTxnSession;
+
+public class AccountImplTest implements TradeConstants {
+
+    private static Exchangeable ru1901 = Exchangeable.fromString("ru1901");
+
+    @Test
+    public void testEquityOnMarketData() throws Exception
+    {
+        SyntheticTickGenerator generator = new SyntheticTickGenerator(LocalDate.of(2018, Month.OCTOBER, 11), 1)
+                .addInstrument(ru1901, PriceUtil.price2long(5), 10, PriceUtil.price2long(12000));
+        MarketData[] lastTick = new MarketData[] {generator.nextMarketData("test")};
+        SimBeansContainer beansContainer = TradeTestUtil.createBeansContainer(()->lastTick[0]);
+        long initMoney = PriceUtil.price2long(100000);
+        AccountImpl account = new AccountImpl("equity", beansContainer, TradeTestUtil.createFeeEvaluator(ru1901), initMoney);
+        SimTxnSession session = (SimTxnSession)account.getSession();
+        session.connect();
+        List<Boolean> riskEvents = new ArrayList<>();
+        account.addRiskListener(0.3, (Account account0, double threshold, double riskRatio, boolean exceeded)->{
+            riskEvents.add(exceeded);
+        });
+
+        OrderBuilder builder = new OrderBuilder(account.getViews().get(account.getId()))
+                .setExchagneable(ru1901)
+                .setDirection(OrderDirection.Buy)
+                .setPriceType(OrderPriceType.LimitPrice)
+                .setOffsetFlag(OrderOffsetFlag.OPEN)
+                .setVolume(4)
+                .setLimitPrice(lastTick[0].lastAskPrice()+PriceUtil.price2long(50));
+        OrderImpl order = (OrderImpl)account.createOrder(builder);
+        for(int i=0;i<20 && order.getVolume(OdrVolume_TradeVolume)<4;i++) {
+            lastTick[0] = generator.nextMarketData("test");
+            session.onMarketData(lastTick[0]);
+            account.onMarketData(lastTick[0]);
+        }
+        assertTrue(order.getVolume(OdrVolume_TradeVolume)==4);
+
+        Position pos = account.getPosition(ru1901);
+        for(int i=0;i<200;i++) {
+            lastTick[0] = generator.nextMarketData("test");
+            account.onMarketData(lastTick[0]);
+            //动态权益 = 初始资金 - 手续费 + 持仓盈亏
+            long balance = account.getMoney(AccMoney_Balance);
+            assertTrue(balance == initMoney-account.getMoney(AccMoney_Commission)+pos.getMoney(PosMoney_PositionProfit));
+            assertTrue(account.getMoney(AccMoney_PositionProfit)==pos.getMoney(PosMoney_PositionProfit));
+            assertTrue(account.getMoney(AccMoney_CurrMargin)==pos.getMoney(PosMoney_UseMargin));
+            //资金守恒: 可用 + 保证金 + 冻结 = 动态权益
+            assertTrue(account.getMoney(AccMoney_Available)+account.getMoney(AccMoney_CurrMargin)+account.getMoney(AccMoney_FrozenMargin)+account.getMoney(AccMoney_FrozenCommission)==balance);
+        }
+        //4手ru约48万市值, 10%保证金约4.8万, 风险度超过0.3
+        assertTrue(account.getRiskRatio()>0.3);
+        assertTrue(riskEvents.size()>0 && riskEvents.get(0));
+    }
+
+    /**
+     * 撤单后剩余冻结资金全部解冻, 批量撤单只撤销未结束的报单
+     */
+    @Test
+    public void testCancelOrder() throws Exception
+    {
+        SyntheticTickGenerator generator = new SyntheticTickGenerator(LocalDate.of(2018, Month.OCTOBER, 11), 1)
+                .addInstrument(ru1901, PriceUtil.price2long(5), 10, PriceUtil.price2long(12000));
+        MarketData[] lastTick = new MarketData[] {generator.nextMarketData("test")};
+        SimBeansContainer beansContainer = TradeTestUtil.createBeansContainer(()->lastTick[0]);
+        long initMoney = PriceUtil.price2long(100000);
+        AccountImpl account = new AccountImpl("cancel", beansContainer, TradeTestUtil.createFeeEvaluator(ru1901), initMoney);
+        SimTxnSession session = (SimTxnSession)account.getSession();
+        session.connect();
+
+        //远离市场价格的限价单, 不会成交
+        List<OrderImpl> orders = new ArrayList<>();
+        for(int i=0;i<3;i++) {
+            OrderBuilder builder = new OrderBuilder(account.getViews().get(account.getId()))
+                    .setExchagneable(ru1901)
+                    .setDirection(OrderDirection.Buy)
+                    .setPriceType(OrderPriceType.LimitPrice)
+                    .setOffsetFlag(OrderOffsetFlag.OPEN)
+                    .setVolume(1)
+                    .setLimitPrice(lastTick[0].lastBidPrice()-PriceUtil.price2long(500));
+            orders.add((OrderImpl)account.createOrder(builder));
+        }
+        assertTrue(account.getMoney(AccMoney_Available)<initMoney);
+        assertTrue(account.getMoney(AccMoney_FrozenMargin)>0);
+
+        assertTrue(account.cancelOrder(orders.get(0).getRef()));
+        assertEquals(OrderState.Deleted, orders.get(0).getState().getState());
+        //已经撤销的报单不能再撤
+        assertFalse(account.cancelOrder(orders.get(0).getRef()));
+        assertEquals(2, account.cancelOrders(null, ru1901));
+        for(OrderImpl order:orders) {
+            assertEquals(OrderState.Deleted, order.getState().getState());
+        }
+        assertEquals(0, account.cancelOrders(account.getViews().get(account.getId()), null));
+        assertEquals(initMoney, account.getMoney(AccMoney_Available));
+        assertEquals(0, account.getMoney(AccMoney_FrozenMargin));
+        assertEquals(0, account.getMoney(AccMoney_FrozenCommission));
+        PositionImpl pos = (PositionImpl)account.getPosition(ru1901);
+        assertEquals(0, pos.getMoney(PosMoney_FrozenMargin));
+        assertEquals(0, pos.getMoney(PosMoney_LongFrozenAmount));
+    }
+
+    /**
+     * 交易日切换: 挂单过期撤销, 今仓转为昨仓, 当日手续费和持仓盈亏结算后清零, 动态权益不变
+     */
+    @Test
+    public void testSettle() throws Exception
+    {
+        SyntheticTickGenerator generator = new SyntheticTickGenerator(LocalDate.of(2018, Month.OCTOBER, 11), 1)
+                .addInstrument(ru1901, PriceUtil.price2long(5), 10, PriceUtil.price2long(12000));
+        MarketData[] lastTick = new MarketData[] {generator.nextMarketData("test")};
+        SimBeansContainer beansContainer = TradeTestUtil.createBeansContainer(()->lastTick[0]);
+        long initMoney = PriceUtil.price2long(1000000);
+        AccountImpl account = new AccountImpl("settle", beansContainer, TradeTestUtil.createFeeEvaluator(ru1901), initMoney);
+        SimTxnSession session = (SimTxnSession)account.getSession();
+        session.connect();
+
+        OrderBuilder builder = new OrderBuilder(account.getViews().get(account.getId()))
+                .setExchagneable(ru1901)
+                .setDirection(OrderDirection.Buy)
+                .setPriceType(OrderPriceType.LimitPrice)
+                .setOffsetFlag(OrderOffsetFlag.OPEN)
+                .setVolume(2)
+                .setLimitPrice(lastTick[0].lastAskPrice()+PriceUtil.price2long(50));
+        OrderImpl order = (OrderImpl)account.createOrder(builder);
+        for(int i=0;i<20 && order.getVolume(OdrVolume_TradeVolume)<2;i++) {
+            lastTick[0] = generator.nextMarketData("test");
+            session.onMarketData(lastTick[0]);
+            account.onMarketData(lastTick[0]);
+        }
+        assertTrue(order.getVolume(OdrVolume_TradeVolume)==2);
+        //远离市场价格的挂单, 收盘时过期
+        builder.setLimitPrice(lastTick[0].lastBidPrice()-PriceUtil.price2long(500)).setVolume(1);
+        OrderImpl resting = (OrderImpl)account.createOrder(builder);
+        for(int i=0;i<20;i++) {
+            lastTick[0] = generator.nextMarketData("test");
+            session.onMarketData(lastTick[0]);
+            account.onMarketData(lastTick[0]);
+        }
+        Position pos = account.getPosition(ru1901);
+        assertEquals(2, pos.getVolume(PosVolume_LongTodayPosition));
+        assertTrue(account.getMoney(AccMoney_Commission)>0);
+        long balance = account.getMoney(AccMoney_Balance);
+        Position snapshotPos = account.getSnapshot().getPosition(ru1901);
+        assertTrue(snapshotPos!=pos);
+
+        session.onTradingDayChanged(LocalDate.of(2018, Month.OCTOBER, 11), LocalDate.of(2018, Month.OCTOBER, 12));
+        assertEquals(OrderState.Deleted, resting.getState().getState());
+        assertEquals(0, account.getMoney(AccMoney_FrozenMargin));
+        assertEquals(0, account.getMoney(AccMoney_FrozenCommission));
+        assertEquals(0, account.getMoney(AccMoney_Commission));
+        assertEquals(0, account.getMoney(AccMoney_PositionProfit));
+        assertEquals(0, pos.getMoney(PosMoney_PositionProfit));
+        assertEquals(balance, account.getMoney(AccMoney_Balance));
+        assertEquals(0, pos.getVolume(PosVolume_LongTodayPosition));
+        assertEquals(2, pos.getVolume(PosVolume_LongYdPosition));
+        assertEquals(0, pos.getVolume(PosVolume_OpenVolume));
+        //结算前的快照不受影响
+        assertEquals(2, snapshotPos.getVolume(PosVolume_LongTodayPosition));
+        assertEquals(2, snapshotPos.getVolume(PosVolume_OpenVolume));
+        assertTrue(account.getOrders().isEmpty());
+        assertEquals(balance, account.getMoney(AccMoney_Available)+account.getMoney(AccMoney_CurrMargin));
+
+        //新交易日的持仓盈亏按结算价计算
+        lastTick[0] = generator.nextMarketData("test");
+        account.onMarketData(lastTick[0]);
+        assertEquals(balance+pos.getMoney(PosMoney_PositionProfit), account.getMoney(AccMoney_Balance));
+    }
+
+}
@@ -0,0 +1,147 @@
+package trader.service.trade;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import trader.common.exchangeable.Exchangeable;
+import trader.common.util.PriceUtil;
+import trader.service.trade.FutureFeeEvaluator.FutureFeeInfo;
+
+public class FutureFeeEvaluatorTest implements TradeConstants {
+
+    private static Exchangeable ru1901 = Exchangeable.fromString("ru1901");
+    private static Exchangeable au1812 = Exchangeable.fromString("au1812");
+    private static Exchangeable cu1812 = Exchangeable.fromString("cu1812");
+
+    @Test
+    public void testByMoney() {
+        FutureFeeEvaluator feeEvaluator = createFeeEvaluator();
+        long price = PriceUtil.price2long(12000);
+        long[] fees = feeEvaluator.compute(ru1901, 2, price, OrderDirection.Buy, OrderOffsetFlag.OPEN);
+        //合约价值: 2手*10吨*12000
+        assertEquals(PriceUtil.price2long(240000), fees[FutureFeeTable.FEE_TURNOVER]);
+        //保证金: 多头10%
+        assertEquals(PriceUtil.price2long(24000), fees[FutureFeeTable.FEE_MARGIN]);
+        //空头12%
+        assertEquals(PriceUtil.price2long(28800), feeEvaluator.computeMargin(ru1901, 2, price, OrderDirection.Sell));
+        //手续费: 万分之0.45
+        assertEquals(PriceUtil.price2long(10.8), fees[FutureFeeTable.FEE_COMMISSION]);
+        //平今: 万分之0.9
+        fees = feeEvaluator.compute(ru1901, 2, price, OrderDirection.Sell, OrderOffsetFlag.CLOSE_TODAY);
+        assertEquals(PriceUtil.price2long(21.6), fees[FutureFeeTable.FEE_COMMISSION]);
+    }
+
+    @Test
+    public void testByVolume() {
+        FutureFeeEvaluator feeEvaluator = createFeeEvaluator();
+        long price = PriceUtil.price2long(280);
+        long[] fees = feeEvaluator.compute(au1812, 3, price, OrderDirection.Sell, OrderOffsetFlag.OPEN);
+        //保证金: 8% + 每手100
+        assertEquals(PriceUtil.price2long(3*280*1000*0.08+3*100), fees[FutureFeeTable.FEE_MARGIN]);
+        //手续费: 每手10元
+        assertEquals(PriceUtil.price2long(30), fees[FutureFeeTable.FEE_COMMISSION]);
+        fees = feeEvaluator.compute(au1812, 3, price, OrderDirection.Buy, OrderOffsetFlag.CLOSE);
+        assertEquals(PriceUtil.price2long(15), fees[FutureFeeTable.FEE_COMMISSION]);
+    }
+
+    @Test
+    public void testComputeNoAlloc() {
+        FutureFeeEvaluator feeEvaluator = createFeeEvaluator();
+        long[] result = new long[FutureFeeTable.FEE_COUNT];
+        for(int i=0;i<100;i++) {
+            long price = PriceUtil.price2long(11000+5*i);
+            OrderDirection direction = (i%2==0)?OrderDirection.Buy:OrderDirection.Sell;
+            OrderOffsetFlag offsetFlag = OrderOffsetFlag.values()[i%OrderOffsetFlag.values().length];
+            long[] fees = feeEvaluator.compute(ru1901, 1+i%5, price, direction, offsetFlag);
+            assertTrue(feeEvaluator.compute(ru1901, 1+i%5, price, direction, offsetFlag, result));
+            for(int j=0;j<FutureFeeTable.FEE_COUNT;j++) {
+                assertEquals(fees[j], result[j]);
+            }
+            assertEquals(fees[FutureFeeTable.FEE_MARGIN], feeEvaluator.computeMargin(ru1901, 1+i%5, price, direction));
+        }
+    }
+
+    @Test
+    public void testNoFeeInfo() {
+        FutureFeeEvaluator feeEvaluator = createFeeEvaluator();
+        long[] result = new long[FutureFeeTable.FEE_COUNT];
+        long price = PriceUtil.price2long(50000);
+        assertFalse(feeEvaluator.compute(cu1812, 1, price, OrderDirection.Buy, OrderOffsetFlag.OPEN, result));
+        assertNull(feeEvaluator.compute(cu1812, 1, price, OrderDirection.Buy, OrderOffsetFlag.OPEN));
+        assertEquals(0, feeEvaluator.computeMargin(cu1812, 1, price, OrderDirection.Buy));
+        assertEquals(0, feeEvaluator.computeValue(cu1812, 1, price));
+        assertEquals(0, feeEvaluator.getPriceTick(cu1812));
+    }
+
+    /**
+     * 从缓存的JSON恢复, 后台刷新后只更新有变化的品种
+     */
+    @Test
+    public void testCacheDiffUpdate() {
+        FutureFeeEvaluator feeEvaluator = createFeeEvaluator();
+        FutureFeeEvaluator cached = FutureFeeEvaluator.fromJson((JsonObject)(new JsonParser()).parse(feeEvaluator.toJson().toString()));
+        assertTrue(cached.diff(feeEvaluator).isEmpty());
+
+        FutureFeeEvaluator refreshed = createFeeEvaluator();
+        refreshed.getFeeInfo(ru1901).setMarginRatio(MarginRatio_LongByMoney, 0.15);
+        FutureFeeInfo cuFeeInfo = new FutureFeeInfo();
+        cuFeeInfo.setPriceTick(PriceUtil.price2long(10));
+        cuFeeInfo.setVolumeMultiple(5);
+        cuFeeInfo.setMarginRatio(MarginRatio_LongByMoney, 0.1);
+        Map<Exchangeable, FutureFeeInfo> cuFeeInfos = new HashMap<>();
+        cuFeeInfos.put(cu1812, cuFeeInfo);
+        refreshed.update(cuFeeInfos);
+
+        Map<Exchangeable, FutureFeeInfo> changed = cached.diff(refreshed);
+        assertEquals(2, changed.size());
+        assertTrue(changed.containsKey(ru1901));
+        assertTrue(changed.containsKey(cu1812));
+        cached.update(changed);
+        assertTrue(cached.diff(refreshed).isEmpty());
+        assertEquals(3, cached.getExchangeables().size());
+        long price = PriceUtil.price2long(12000);
+        assertEquals(PriceUtil.price2long(18000), cached.computeMargin(ru1901, 1, price, OrderDirection.Buy));
+        assertEquals(PriceUtil.price2long(6000), cached.computeMargin(cu1812, 1, price, OrderDirection.Buy));
+        assertEquals(PriceUtil.price2long(10), cached.getPriceTick(cu1812));
+    }
+
+    private static FutureFeeEvaluator createFeeEvaluator() {
+        Map<Exchangeable, FutureFeeInfo> feeInfos = new HashMap<>();
+        {//ru: 10吨/手, 保证金多10%空12%, 手续费按金额万分之0.45, 平今万分之0.9
+            FutureFeeInfo feeInfo = new FutureFeeInfo();
+            feeInfo.setPriceTick(PriceUtil.price2long(5));
+            feeInfo.setVolumeMultiple(10);
+            feeInfo.setMarginRatio(MarginRatio_LongByMoney, 0.1);
+            feeInfo.setMarginRatio(MarginRatio_ShortByMoney, 0.12);
+            feeInfo.setCommissionRatio(CommissionRatio_OpenByMoney, 0.000045);
+            feeInfo.setCommissionRatio(CommissionRatio_CloseByMoney, 0.000045);
+            feeInfo.setCommissionRatio(CommissionRatio_CloseTodayByMoney, 0.00009);
+            feeInfos.put(ru1901, feeInfo);
+        }
+        {//au: 1000克/手, 保证金8%+每手100, 手续费每手10元, 平仓每手5元
+            FutureFeeInfo feeInfo = new FutureFeeInfo();
+            feeInfo.setPriceTick(PriceUtil.price2long(0.05));
+            feeInfo.setVolumeMultiple(1000);
+            feeInfo.setMarginRatio(MarginRatio_LongByMoney, 0.08);
+            feeInfo.setMarginRatio(MarginRatio_ShortByMoney, 0.08);
+            feeInfo.setMarginRatio(MarginRatio_LongByVolume, 100);
+            feeInfo.setMarginRatio(MarginRatio_ShortByVolume, 100);
+            feeInfo.setCommissionRatio(CommissionRatio_OpenByVolume, 10);
+            feeInfo.setCommissionRatio(CommissionRatio_CloseByVolume, 5);
+            feeInfo.setCommissionRatio(CommissionRatio_CloseTodayByVolume, 5);
+            feeInfos.put(au1812, feeInfo);
+        }
+        return new FutureFeeEvaluator(feeInfos);
+    }
+
+}
@@ -0,0 +1,79 @@
+package trader.service.trade;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import trader.common.exchangeable.Exchangeable;
+import trader.common.util.PriceUtil;
+
+public class OrderActionQueueTest implements TradeConstants {
+
+    private static Exchangeable ru1901 = Exchangeable.fromString("ru1901");
+    private static final long SECOND = 1_000_000_000L;
+
+    @Test
+    public void testThrottle() {
+        OrderActionQueue queue = new OrderActionQueue(2, 0);
+        long nanos = System.nanoTime();
+        //桶容量2, 第三个报单需要排队
+        assertTrue(queue.tryInsert(1, nanos));
+        assertTrue(queue.tryInsert(1, nanos));
+        assertFalse(queue.tryInsert(1, nanos));
+        OrderImpl order = createOrder("3");
+        queue.queueInsert(order);
+        assertTrue(queue.nanosToNext(nanos)>0);
+        assertNull(queue.pollInsert(nanos));
+        //排队时新报单也排队, 保持顺序
+        assertFalse(queue.tryInsert(1, nanos+SECOND));
+        assertSame(order, queue.pollInsert(nanos+SECOND));
+        assertEquals(-1, queue.nanosToNext(nanos+SECOND));
+        //撤单不限速
+        for(int i=0;i<100;i++) {
+            assertTrue(queue.tryCancel(nanos));
+        }
+    }
+
+    @Test
+    public void testCancelFirst() {
+        OrderActionQueue queue = new OrderActionQueue(1, 1);
+        long nanos = System.nanoTime();
+        assertTrue(queue.tryInsert(1, nanos));
+        assertTrue(queue.tryCancel(nanos));
+        OrderImpl insert = createOrder("1");
+        OrderImpl cancel = createOrder("2");
+        queue.queueInsert(insert);
+        queue.queueCancel(cancel);
+        assertTrue(queue.isCancelQueued(cancel));
+        //令牌补充后先发送撤单, 有撤单排队时不发送报单
+        nanos += SECOND;
+        assertNull(queue.pollInsert(nanos));
+        assertSame(cancel, queue.pollCancel(nanos));
+        assertSame(insert, queue.pollInsert(nanos));
+        assertEquals(0, queue.getInsertQueueDepth());
+        assertEquals(0, queue.getCancelQueueDepth());
+    }
+
+    @Test
+    public void testRemoveInsert() {
+        OrderActionQueue queue = new OrderActionQueue(1, 0);
+        long nanos = System.nanoTime();
+        assertTrue(queue.tryInsert(1, nanos));
+        OrderImpl order = createOrder("1");
+        queue.queueInsert(order);
+        assertTrue(queue.isInsertQueued(order));
+        assertTrue(queue.removeInsert(order));
+        assertFalse(queue.removeInsert(order));
+        assertEquals(-1, queue.nanosToNext(nanos));
+        assertEquals(1, queue.toJson().getAsJsonObject().get("maxQueueDepth").getAsInt());
+    }
+
+    private static OrderImpl createOrder(String ref) {
+        return new OrderImpl(ru1901, ref, OrderDirection.Buy, OrderPriceType.LimitPrice, OrderOffsetFlag.OPEN, PriceUtil.price2long(12000), 1, OrderVolumeCondition.Any);
+    }
+
+}
@@ -0,0 +1,63 @@
+package trader.service.trade;
+
+import static org.junit.Assert.assertTrue;
+
+import java.time.LocalDate;
+import java.time.Month;
+
+import org.junit.Test;
+
+import trader.common.exchangeable.Exchangeable;
+import trader.common.util.PriceUtil;
+import trader.service.md.MarketData;
+import trader.service.md.synthetic.SyntheticTickGenerator;
+import trader.simulator.SimBeansContainer;
+import trader.simulator.trade.SimTxnSession;
+
+public class OrderLatencyStatsTest implements TradeConstants {
+
+    private static Exchangeable ru1901 = Exchangeable.fromString("ru1901");
+
+    @Test
+    public void testTrace() throws Exception
+    {
+        SyntheticTickGenerator generator = new SyntheticTickGenerator(LocalDate.of(2018, Month.OCTOBER, 11), 1)
+                .addInstrument(ru1901, PriceUtil.price2long(5), 10, PriceUtil.price2long(12000));
+        MarketData tick = generator.nextMarketData("test");
+        tick.receiveNanos = System.nanoTime();
+        //报单校验只需要最新行情, 模拟撮合需要行情时间
+        SimBeansContainer beansContainer = TradeTestUtil.createBeansContainer(()->tick);
+        AccountImpl account = new AccountImpl("latency", beansContainer, TradeTestUtil.createFeeEvaluator(ru1901), PriceUtil.price2long(1000000));
+        SimTxnSession session = (SimTxnSession)account.getSession();
+        session.connect();
+        OrderBuilder builder = new OrderBuilder(account.getViews().get(account.getId()))
+                .setExchagneable(ru1901)
+                .setDirection(OrderDirection.Buy)
+                .setPriceType(OrderPriceType.LimitPrice)
+                .setOffsetFlag(OrderOffsetFlag.OPEN)
+                .setVolume(1)
+                .setLimitPrice(tick.lastAskPrice())
+                .setTriggerTick(tick);
+        OrderImpl order = (OrderImpl)account.createOrder(builder);
+        for(int i=0;i<10 && order.getVolume(OdrVolume_TradeVolume)==0;i++) {
+            session.onMarketData(generator.nextMarketData("test"));
+        }
+        assertTrue(order.getVolume(OdrVolume_TradeVolume)==1);
+
+        //跟踪点按顺序到达
+        int[] traces = {OdrTrace_TickReceived, OdrTrace_TradletDecision, OdrTrace_CreateOrder, OdrTrace_Validated, OdrTrace_SendBegin, OdrTrace_SendEnd, OdrTrace_RtnTrade, OdrTrace_RtnTradeProcessed};
+        for(int i=1;i<traces.length;i++) {
+            assertTrue(order.getTraceNanos(traces[i])>=order.getTraceNanos(traces[i-1]) && order.getTraceNanos(traces[i-1])>0);
+        }
+        //模拟交易没有报单回报
+        assertTrue(order.getTraceNanos(OdrTrace_RtnOrder)==0);
+
+        OrderLatencyStats stats = account.getOrderLatencyStats();
+        assertTrue(stats.getCount(OrderLatencyStats.SPAN_TICK_TO_SEND)==1);
+        assertTrue(stats.getCount(OrderLatencyStats.SPAN_SEND_TO_RTN_TRADE)==1);
+        assertTrue(stats.getCount(OrderLatencyStats.SPAN_SEND_TO_RTN_ORDER)==0);
+        assertTrue(stats.getMaxNanos(OrderLatencyStats.SPAN_TICK_TO_SEND)==order.getTraceNanos(OdrTrace_SendEnd)-tick.receiveNanos);
+        assertTrue(stats.toJson().toString().contains(OrderLatencyStats.SPAN_RTN_TRADE_QUEUE));
+    }
+
+}
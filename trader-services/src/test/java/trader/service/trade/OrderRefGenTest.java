@@ -0,0 +1,90 @@
+package trader.service.trade;
+
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.Test;
+
+import trader.service.data.KVStore;
+import trader.service.data.SimKVStore;
+
+public class OrderRefGenTest {
+
+    @Test
+    public void testFormatAndParse() {
+        KVStore kvStore = new SimKVStore();
+        OrderRefGen refGen = new OrderRefGen(createAccount(kvStore), null);
+        assertTrue(refGen.nextRefId().equals("000001"));
+        assertTrue(refGen.nextRefId().equals("000002"));
+        assertTrue(OrderRefGen.parseRef("00a3f1")==0xa3f1);
+        assertTrue(OrderRefGen.parseRef("  00A3F1")==0xa3f1);
+        assertTrue(OrderRefGen.parseRef("x1")<0 && OrderRefGen.parseRef("")<0);
+
+        //报单回报的OrderRef超出预留块时, 预留新的块
+        refGen.compareAndSetRef("00a3f1");
+        assertTrue(refGen.nextRefId().equals("00a3f2"));
+        assertTrue(refGen.getReservedRefId()>=0xa3f2);
+        refGen.compareAndSetRef("000003");
+        assertTrue(refGen.nextRefId().equals("00a3f3"));
+    }
+
+    @Test
+    public void testWriteAhead() {
+        KVStore kvStore = new SimKVStore();
+        OrderRefGen refGen = new OrderRefGen(createAccount(kvStore), null);
+        String lastRef = null;
+        for(int i=0;i<OrderRefGen.BLOCK_SIZE+10;i++) {
+            lastRef = refGen.nextRefId();
+            //使用前已经写入KVStore
+            assertTrue(Integer.parseInt(kvStore.getAsString("test.orderRef"))>=OrderRefGen.parseRef(lastRef));
+        }
+        //模拟崩溃后重启, 不会重用已经分配的OrderRef
+        OrderRefGen refGen2 = new OrderRefGen(createAccount(kvStore), null);
+        assertTrue(OrderRefGen.parseRef(refGen2.nextRefId())>OrderRefGen.parseRef(lastRef));
+    }
+
+    @Test
+    public void testConcurrent() throws Exception {
+        OrderRefGen refGen = new OrderRefGen(createAccount(new SimKVStore()), null);
+        Set<String> refs = ConcurrentHashMap.newKeySet();
+        List<Thread> threads = new ArrayList<>();
+        for(int i=0;i<4;i++) {
+            Thread thread = new Thread(()->{
+                for(int j=0;j<5000;j++) {
+                    refs.add(refGen.nextRefId());
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for(Thread thread:threads) {
+            thread.join();
+        }
+        assertTrue(refs.size()==20000);
+        Set<Integer> values = new HashSet<>();
+        for(String ref:refs) {
+            assertTrue(ref.length()==OrderRefGen.REF_WIDTH);
+            values.add(OrderRefGen.parseRef(ref));
+        }
+        assertTrue(values.size()==20000 && refGen.getRefId()==20000);
+    }
+
+    private static Account createAccount(KVStore kvStore) {
+        return (Account)Proxy.newProxyInstance(Account.class.getClassLoader(), new Class[] {Account.class}, (proxy, method, args)->{
+            if ( method.getName().equals("getId") ) {
+                return "test";
+            }
+            if ( method.getName().equals("getStore") ) {
+                return kvStore;
+            }
+            return null;
+        });
+    }
+
+}
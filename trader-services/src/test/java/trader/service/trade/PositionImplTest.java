@@ -0,0 +1,88 @@
+package trader.service.trade;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import trader.common.exchangeable.Exchangeable;
+import trader.common.util.PriceUtil;
+import trader.service.md.MarketData;
+import trader.service.trade.FutureFeeEvaluator.FutureFeeInfo;
+import trader.simulator.SimMarketData;
+
+public class PositionImplTest implements TradeConstants {
+
+    private static Exchangeable ru1901 = Exchangeable.fromString("ru1901");
+
+    @Test
+    public void testPositionProfit() {
+        FutureFeeEvaluator feeEvaluator = TradeTestUtil.createFeeEvaluator(ru1901);
+
+        List<PositionDetailImpl> details = new ArrayList<>();
+        LocalDateTime openTime = LocalDateTime.of(2018, 10, 11, 9, 0);
+        for(int i=0;i<100;i++) {
+            PosDirection direction = (i%3==0)?PosDirection.Short:PosDirection.Long;
+            details.add(new PositionDetailImpl(direction, 1+(i%4), PriceUtil.price2long(12000+5*(i%20)), openTime.plusSeconds(i), i%2==0));
+        }
+        PositionImpl pos = new PositionImpl(feeEvaluator, ru1901, PosDirection.Net, details);
+        int longPos = 0, shortPos = 0, longToday = 0, shortYd = 0;
+        for(PositionDetailImpl d:details) {
+            if ( d.getDirection()==PosDirection.Long ) {
+                longPos += d.getVolume();
+                longToday += d.isToday()?d.getVolume():0;
+            } else {
+                shortPos += d.getVolume();
+                shortYd += d.isToday()?0:d.getVolume();
+            }
+        }
+        assertTrue(pos.getVolume(PosVolume_LongPosition)==longPos && pos.getVolume(PosVolume_ShortPosition)==shortPos);
+        assertTrue(pos.getVolume(PosVolume_LongTodayPosition)==longToday && pos.getVolume(PosVolume_ShortYdPosition)==shortYd);
+
+        //增量计算的盈亏和逐个明细计算的结果一致
+        MarketData md = new SimMarketData();
+        for(int price=11900;price<=12200;price+=35) {
+            md.lastPrice = PriceUtil.price2long(price);
+            pos.onMarketData(md);
+            long profit = 0;
+            for(PositionDetailImpl d:details) {
+                long valueDiff = feeEvaluator.computeValue(ru1901, d.getVolume(), md.lastPrice)-feeEvaluator.computeValue(ru1901, d.getVolume(), d.getPrice());
+                profit += d.getDirection()==PosDirection.Long?valueDiff:-valueDiff;
+            }
+            assertTrue(pos.getMoney(PosMoney_PositionProfit)==profit);
+        }
+    }
+
+    @Test
+    public void testFeeInfoChanged() {
+        FutureFeeEvaluator feeEvaluator = TradeTestUtil.createFeeEvaluator(ru1901);
+        List<PositionDetailImpl> details = new ArrayList<>();
+        details.add(new PositionDetailImpl(PosDirection.Long, 2, PriceUtil.price2long(12000), LocalDateTime.of(2018, 10, 11, 9, 0), true));
+        PositionImpl pos = new PositionImpl(feeEvaluator, ru1901, PosDirection.Long, details);
+
+        MarketData md = new SimMarketData();
+        md.lastPrice = PriceUtil.price2long(12100);
+        pos.onMarketData(md);
+        assertEquals(PriceUtil.price2long(10*100*2), pos.getMoney(PosMoney_PositionProfit));
+
+        //合约乘数变化后, 清除缓存的乘数才会按新费率计算
+        FutureFeeInfo feeInfo = new FutureFeeInfo();
+        feeInfo.setPriceTick(PriceUtil.price2long(5));
+        feeInfo.setVolumeMultiple(5);
+        feeInfo.setMarginRatio(MarginRatio_LongByMoney, 0.1);
+        feeInfo.setMarginRatio(MarginRatio_ShortByMoney, 0.1);
+        Map<Exchangeable, FutureFeeInfo> changed = new HashMap<>();
+        changed.put(ru1901, feeInfo);
+        feeEvaluator.update(changed);
+        pos.onFeeInfoChanged();
+        pos.onMarketData(md);
+        assertEquals(PriceUtil.price2long(5*100*2), pos.getMoney(PosMoney_PositionProfit));
+    }
+
+}
@@ -0,0 +1,52 @@
+package trader.service.trade;
+
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import trader.common.exchangeable.Exchangeable;
+import trader.common.util.PriceUtil;
+import trader.service.md.MarketData;
+import trader.service.md.MarketDataService;
+import trader.service.trade.FutureFeeEvaluator.FutureFeeInfo;
+import trader.simulator.SimBeansContainer;
+
+/**
+ * 交易测试共用的费率和模拟环境
+ */
+public class TradeTestUtil implements TradeConstants {
+
+    /**
+     * 每个品种: 最小变动价位5, 10吨/手, 保证金多空10%, 开平手续费按金额万分之一
+     */
+    public static FutureFeeEvaluator createFeeEvaluator(Exchangeable ...instruments) {
+        Map<Exchangeable, FutureFeeInfo> feeInfos = new HashMap<>();
+        for(Exchangeable e:instruments) {
+            FutureFeeInfo feeInfo = new FutureFeeInfo();
+            feeInfo.setPriceTick(PriceUtil.price2long(5));
+            feeInfo.setVolumeMultiple(10);
+            feeInfo.setMarginRatio(MarginRatio_LongByMoney, 0.1);
+            feeInfo.setMarginRatio(MarginRatio_ShortByMoney, 0.1);
+            feeInfo.setCommissionRatio(CommissionRatio_OpenByMoney, 0.0001);
+            feeInfo.setCommissionRatio(CommissionRatio_CloseByMoney, 0.0001);
+            feeInfos.put(e, feeInfo);
+        }
+        return new FutureFeeEvaluator(feeInfos);
+    }
+
+    /**
+     * 影子账户需要的 MarketTimeService 和 MarketDataService: 报单校验使用最新行情, 模拟撮合使用行情时间
+     */
+    public static SimBeansContainer createBeansContainer(Supplier<MarketData> lastTick) {
+        SimBeansContainer beansContainer = new SimBeansContainer();
+        beansContainer.addBean(MarketTimeService.class, Proxy.newProxyInstance(TradeTestUtil.class.getClassLoader(), new Class[] {MarketTimeService.class}, (proxy, method, args)->{
+            return method.getName().equals("getMarketTime") ? lastTick.get().updateTime : null;
+        }));
+        beansContainer.addBean(MarketDataService.class, Proxy.newProxyInstance(TradeTestUtil.class.getClassLoader(), new Class[] {MarketDataService.class}, (proxy, method, args)->{
+            return method.getName().equals("getLastData") ? lastTick.get() : null;
+        }));
+        return beansContainer;
+    }
+
+}
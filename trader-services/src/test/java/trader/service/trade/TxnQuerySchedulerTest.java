@@ -0,0 +1,97 @@
+package trader.service.trade;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import trader.service.trade.TxnQueryScheduler.QueryPriority;
+
+public class TxnQuerySchedulerTest {
+
+    @Test
+    public void testPriority() throws Exception {
+        TxnQueryScheduler scheduler = new TxnQueryScheduler("test", 1000, 1);
+        try {
+            //第一个查询阻塞查询线程, 之后提交的查询按优先级执行
+            CountDownLatch started = new CountDownLatch(1);
+            CountDownLatch latch = new CountDownLatch(1);
+            scheduler.submit(QueryPriority.Fees, "block", ()->{
+                started.countDown();
+                latch.await();
+                return null;
+            });
+            started.await();
+            List<String> executed = new ArrayList<>();
+            List<CompletableFuture<String>> futures = new ArrayList<>();
+            QueryPriority[] priorities = {QueryPriority.Fees, QueryPriority.Positions, QueryPriority.Accounts, QueryPriority.Settlement, QueryPriority.Accounts};
+            for(int i=0;i<priorities.length;i++) {
+                String name = priorities[i]+"-"+i;
+                futures.add(scheduler.submit(priorities[i], name, ()->{
+                    executed.add(name);
+                    return name;
+                }));
+            }
+            latch.countDown();
+            for(CompletableFuture<String> f:futures) {
+                f.get();
+            }
+            assertEquals("[Settlement-3, Accounts-2, Accounts-4, Positions-1, Fees-0]", executed.toString());
+        }finally {
+            scheduler.close();
+        }
+    }
+
+    @Test
+    public void testCoalesce() throws Exception {
+        TxnQueryScheduler scheduler = new TxnQueryScheduler("test", 1000, 1);
+        try {
+            CountDownLatch started = new CountDownLatch(1);
+            CountDownLatch latch = new CountDownLatch(1);
+            scheduler.submit(QueryPriority.Fees, "block", ()->{
+                started.countDown();
+                latch.await();
+                return null;
+            });
+            started.await();
+            AtomicInteger count = new AtomicInteger();
+            CompletableFuture<Integer> f1 = scheduler.submit(QueryPriority.Fees, "qryTradingAccount", ()->count.incrementAndGet());
+            CompletableFuture<Integer> f2 = scheduler.submit(QueryPriority.Accounts, "qryTradingAccount", ()->count.incrementAndGet());
+            CompletableFuture<Integer> f3 = scheduler.submit(QueryPriority.Positions, "qryInvestorPosition", ()->count.incrementAndGet());
+            assertSame(f1, f2);
+            assertEquals(2, scheduler.getQueueDepth());
+            latch.countDown();
+            //合并后的查询提升为Accounts优先级, 先于持仓查询执行
+            assertEquals(1, f1.get().intValue());
+            assertEquals(2, f3.get().intValue());
+            //已经执行的查询不再合并
+            assertEquals(3, scheduler.call(QueryPriority.Accounts, "qryTradingAccount", ()->count.incrementAndGet()).intValue());
+        }finally {
+            scheduler.close();
+        }
+    }
+
+    @Test
+    public void testRate() throws Exception {
+        TxnQueryScheduler scheduler = new TxnQueryScheduler("test", 20, 1);
+        try {
+            long t0 = System.currentTimeMillis();
+            for(int i=0;i<5;i++) {
+                scheduler.call(QueryPriority.Accounts, null, ()->null);
+            }
+            long t1 = System.currentTimeMillis();
+            //第一个查询使用桶内令牌, 之后每个间隔50ms
+            assertTrue("elapsed "+(t1-t0), t1-t0>=190);
+        }finally {
+            scheduler.close();
+        }
+    }
+
+}
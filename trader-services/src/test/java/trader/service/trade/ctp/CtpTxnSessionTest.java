@@ -6,7 +6,14 @@ import java.util.regex.Pattern;
 
 import org.junit.Test;
 
-public class CtpTxnSessionTest {
+import net.jctp.CThostFtdcInputOrderField;
+import net.jctp.JctpConstants;
+import trader.common.exchangeable.Exchangeable;
+import trader.common.util.PriceUtil;
+import trader.service.trade.OrderImpl;
+import trader.service.trade.TradeConstants;
+
+public class CtpTxnSessionTest implements TradeConstants, JctpConstants {
 
     @Test
     public void testContract() {
@@ -14,4 +21,28 @@ public class CtpTxnSessionTest {
         assertTrue( contractPattern.matcher("l1908").matches() );
         assertTrue( !contractPattern.matcher("m1812-C-3150").matches() );
     }
+
+    @Test
+    public void testOrderTemplates() {
+        Exchangeable ru1901 = Exchangeable.fromString("ru1901");
+        CtpOrderTemplates templates = new CtpOrderTemplates("9999", "000001");
+        OrderImpl open = new OrderImpl(ru1901, "000001", OrderDirection.Buy, OrderPriceType.LimitPrice, OrderOffsetFlag.OPEN, PriceUtil.price2long(12000), 2, OrderVolumeCondition.Any);
+        CThostFtdcInputOrderField req = templates.fill(open);
+        assertTrue(req.BrokerID.equals("9999") && req.InvestorID.equals("000001") && req.InstrumentID.equals("ru1901"));
+        assertTrue(req.Direction==THOST_FTDC_D_Buy && req.CombOffsetFlag.equals(STRING_THOST_FTDC_OF_Open));
+        assertTrue(req.OrderPriceType==THOST_FTDC_OPT_LimitPrice && req.LimitPrice==12000 && req.VolumeTotalOriginal==2);
+        assertTrue(req.CombHedgeFlag.equals(STRING_THOST_FTDC_HF_Speculation) && req.TimeCondition==THOST_FTDC_TC_GFD && req.MinVolume==1);
+
+        //同合约同方向重用模板, 只修改报单字段
+        OrderImpl close = new OrderImpl(ru1901, "000002", OrderDirection.Buy, OrderPriceType.AnyPrice, OrderOffsetFlag.CLOSE_TODAY, 0, 1, OrderVolumeCondition.All);
+        CThostFtdcInputOrderField req2 = templates.fill(close);
+        assertTrue(req2==req);
+        assertTrue(req2.OrderRef.equals("000002") && req2.CombOffsetFlag.equals(STRING_THOST_FTDC_OF_CloseToday));
+        assertTrue(req2.OrderPriceType==THOST_FTDC_OPT_AnyPrice && req2.VolumeCondition==THOST_FTDC_VC_CV && req2.VolumeTotalOriginal==1);
+
+        OrderImpl sell = new OrderImpl(ru1901, "000003", OrderDirection.Sell, OrderPriceType.LimitPrice, OrderOffsetFlag.OPEN, PriceUtil.price2long(12005), 1, OrderVolumeCondition.Any);
+        CThostFtdcInputOrderField req3 = templates.fill(sell);
+        assertTrue(req3!=req && req3.Direction==THOST_FTDC_D_Sell);
+        assertTrue(templates.size()==1);
+    }
 }
@@ -0,0 +1,193 @@
+package trader.simulator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.Month;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import trader.common.beans.BeansContainer;
+import trader.common.exchangeable.Exchangeable;
+import trader.common.util.ConversionUtil;
+import trader.common.util.PriceUtil;
+import trader.service.TraderHomeTestUtil;
+import trader.service.md.MarketData;
+import trader.service.ta.LeveledTimeSeries;
+import trader.service.trade.OrderBuilder;
+import trader.service.trade.TradeTestUtil;
+import trader.service.trade.TradeConstants.OrderDirection;
+import trader.service.trade.TradeConstants.OrderOffsetFlag;
+import trader.service.trade.TradeConstants.OrderPriceType;
+import trader.service.tradlet.Tradlet;
+import trader.service.tradlet.TradletGroup;
+import trader.service.tradlet.TradletMetadata;
+
+public class SimBatchRunnerTest {
+
+    /**
+     * 统计最新价高于参数threshold的TICK数量
+     */
+    public static class CountTradlet implements Tradlet {
+        private TradletGroup group;
+        private long threshold;
+        private int count;
+
+        @Override
+        public void init(BeansContainer beansContainer) throws Exception {
+            group = beansContainer.getBean(TradletGroup.class);
+            threshold = PriceUtil.price2long(ConversionUtil.toDouble(group.getProperties().getProperty("threshold")));
+        }
+
+        @Override
+        public void destroy() {
+        }
+
+        @Override
+        public TradletMetadata getMetadata() {
+            return null;
+        }
+
+        @Override
+        public void onMarketData(MarketData marketData) {
+            if ( marketData.lastPrice>threshold ) {
+                count++;
+                group.getKVStore().put("count", ""+count);
+            }
+        }
+
+        @Override
+        public void onNewBar(LeveledTimeSeries series) {
+        }
+    }
+
+    /**
+     * 第一个有盘口报价的TICK对价开多1手
+     */
+    public static class OpenTradlet implements Tradlet {
+        private TradletGroup group;
+        private boolean sent;
+
+        @Override
+        public void init(BeansContainer beansContainer) throws Exception {
+            group = beansContainer.getBean(TradletGroup.class);
+        }
+
+        @Override
+        public void destroy() {
+        }
+
+        @Override
+        public TradletMetadata getMetadata() {
+            return null;
+        }
+
+        @Override
+        public void onMarketData(MarketData marketData) {
+            if ( sent || marketData.lastAskPrice()<=0 || marketData.lastAskPrice()==Long.MAX_VALUE ) {
+                return;
+            }
+            OrderBuilder builder = new OrderBuilder(group.getAccountView())
+                    .setExchagneable(marketData.instrumentId)
+                    .setDirection(OrderDirection.Buy)
+                    .setOffsetFlag(OrderOffsetFlag.OPEN)
+                    .setPriceType(OrderPriceType.LimitPrice)
+                    .setLimitPrice(marketData.lastAskPrice())
+                    .setVolume(1);
+            try {
+                group.getAccountView().getAccount().createOrder(builder);
+                sent = true;
+            }catch(Exception e) {
+                group.getKVStore().put("error", e.toString());
+            }
+        }
+
+        @Override
+        public void onNewBar(LeveledTimeSeries series) {
+        }
+    }
+
+    @Before
+    public void setup() {
+        TraderHomeTestUtil.initRepoistoryDir();
+    }
+
+    @Test
+    public void testGrid() throws Exception
+    {
+        LocalDate tradingDay = LocalDate.of(2018,  Month.OCTOBER, 11);
+        LocalDateTime beginTime = LocalDateTime.of(2018, Month.OCTOBER, 11, 8, 50);
+        LocalDateTime endTime = LocalDateTime.of(2018, Month.OCTOBER, 11, 15, 04);
+        List<Exchangeable> exchangeables = Arrays.asList(new Exchangeable[] {Exchangeable.fromString("ru1901")});
+        SimBatchRunner runner = new SimBatchRunner(CountTradlet.class, exchangeables, tradingDay, beginTime, endTime)
+                .addParameter("threshold", "0", "12200", "99999")
+                .addParameter("unused", "a", "b")
+                .setFeeEvaluator(TradeTestUtil.createFeeEvaluator(exchangeables.get(0)));
+        assertTrue(runner.getGridSize()==6);
+        List<SimBatchResult> results = runner.run(3);
+        assertTrue(results.size()==6);
+        long tickCount = results.get(0).getTickCount();
+        assertTrue(tickCount>0);
+        for(SimBatchResult r:results) {
+            assertTrue(r.getError()==null);
+            assertTrue(r.getTickCount()==tickCount);
+        }
+        //threshold=0 全部计数, 99999 没有计数
+        assertTrue(ConversionUtil.toLong(results.get(0).getMetrics().get("count"))==tickCount);
+        assertTrue(results.get(5).getMetrics().get("count")==null);
+        assertTrue(SimBatchResult.toTable(results).split("\n").length==7);
+
+        runner.setRandomSearch(4, 1);
+        assertTrue(runner.getParameterSets().size()==4);
+    }
+
+    @Test
+    public void testAccount() throws Exception
+    {
+        LocalDate tradingDay = LocalDate.of(2018,  Month.OCTOBER, 11);
+        LocalDateTime beginTime = LocalDateTime.of(2018, Month.OCTOBER, 11, 8, 50);
+        LocalDateTime endTime = LocalDateTime.of(2018, Month.OCTOBER, 11, 15, 04);
+        List<Exchangeable> exchangeables = Arrays.asList(new Exchangeable[] {Exchangeable.fromString("ru1901")});
+        long initMoney = PriceUtil.price2long(1000000);
+        List<SimBatchResult> results = new SimBatchRunner(OpenTradlet.class, exchangeables, tradingDay, beginTime, endTime)
+                .setFeeEvaluator(TradeTestUtil.createFeeEvaluator(exchangeables.get(0)))
+                .setInitMoney(initMoney)
+                .run(1);
+        SimBatchResult r = results.get(0);
+        assertTrue(r.getError()==null);
+        assertTrue(r.getMetrics().get("error")==null);
+        //成交后有手续费, 动态权益=初始资金+持仓盈亏-手续费
+        assertTrue(r.getCommission()>0);
+        assertEquals(initMoney+r.getPositionProfit()-r.getCommission(), r.getBalance());
+    }
+
+    /**
+     * 连续回测多个交易日, 持仓跨交易日保留, 手续费按全部交易日合计
+     */
+    @Test
+    public void testMultiDays() throws Exception
+    {
+        LocalDate tradingDay = LocalDate.of(2018,  Month.OCTOBER, 10);
+        List<Exchangeable> exchangeables = Arrays.asList(new Exchangeable[] {Exchangeable.fromString("ru1901")});
+        SimBatchResult oneDay = new SimBatchRunner(OpenTradlet.class, exchangeables, tradingDay, null, null)
+                .setEndTradingDay(tradingDay)
+                .setFeeEvaluator(TradeTestUtil.createFeeEvaluator(exchangeables.get(0)))
+                .run(1).get(0);
+        SimBatchResult r = new SimBatchRunner(OpenTradlet.class, exchangeables, tradingDay, null, null)
+                .setEndTradingDay(LocalDate.of(2018,  Month.OCTOBER, 12))
+                .setFeeEvaluator(TradeTestUtil.createFeeEvaluator(exchangeables.get(0)))
+                .run(1).get(0);
+        assertTrue(r.getError()==null);
+        assertTrue(r.getMetrics().get("error")==null);
+        //只在第一个交易日开仓一次, 结算后手续费仍然计入结果
+        assertTrue(oneDay.getError()==null && oneDay.getCommission()>0);
+        assertEquals(oneDay.getCommission(), r.getCommission());
+        assertTrue(r.getTickCount()>oneDay.getTickCount());
+    }
+
+}
@@ -0,0 +1,157 @@
+package trader.simulator;
+
+import static org.junit.Assert.assertTrue;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.Month;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import trader.common.exchangeable.Exchangeable;
+import trader.common.exchangeable.ExchangeableData;
+import trader.common.util.DateUtil;
+import trader.common.util.TraderHomeUtil;
+import trader.service.TraderHomeTestUtil;
+import trader.service.md.MarketData;
+import trader.service.md.MarketDataService;
+import trader.service.repository.RepositoryCursor;
+import trader.service.repository.RepositoryQuery;
+import trader.service.trade.MarketTimeService;
+
+public class SimMarketDataServiceTest {
+
+    @Before
+    public void setup() {
+        TraderHomeTestUtil.initRepoistoryDir();
+    }
+
+    @Test
+    public void testAllTicksInOrder() throws Exception
+    {
+        LocalDate tradingDay = LocalDate.of(2018,  Month.OCTOBER, 11);
+        LocalDateTime beginTime = LocalDateTime.of(2018, Month.OCTOBER, 11, 8, 50);
+        LocalDateTime endTime = LocalDateTime.of(2018, Month.OCTOBER, 11, 15, 04);
+        Exchangeable ru1901 = Exchangeable.fromString("ru1901");
+        SimBeansContainer beansContainer = new SimBeansContainer();
+        SimMarketTimeService marketTime = new SimMarketTimeService();
+        SimMarketDataService mdService = new SimMarketDataService();
+        marketTime.setTimeRange(tradingDay, beginTime, endTime);
+        beansContainer.addBean(MarketTimeService.class, marketTime);
+        beansContainer.addBean(MarketDataService.class, mdService);
+        mdService.addSubscriptions(Arrays.asList(new Exchangeable[] {ru1901}));
+        mdService.init(beansContainer);
+
+        List<MarketData> received = new ArrayList<>();
+        mdService.addListener((MarketData md)->{
+            assertTrue(md.updateTime.compareTo(marketTime.getMarketTime())<=0);
+            //行情对象复用, 需要保留时复制
+            received.add(md.clone());
+        });
+        //定时器在预约时间触发
+        LocalDateTime timerTime = LocalDateTime.of(2018, Month.OCTOBER, 11, 11, 30, 0, 500*1000000);
+        List<LocalDateTime> timerFired = new ArrayList<>();
+        marketTime.scheduleTimer(timerTime, (LocalDate day, LocalDateTime actionTime)->{
+            timerFired.add(actionTime);
+        });
+
+        int steps = 0;
+        while(marketTime.nextTimePiece()) {
+            steps++;
+        }
+        assertTrue(timerFired.size()==1 && timerFired.get(0).equals(timerTime));
+        assertTrue(marketTime.getMarketTime().equals(endTime));
+
+        int expected = 0;
+        try(RepositoryCursor cursor = new RepositoryQuery(TraderHomeUtil.getExchangeableData()).addExchangeables(ru1901)
+                .setData(ExchangeableData.TICK_CTP).setTradingDays(tradingDay, tradingDay).setTimeRange(beginTime, endTime).open();)
+        {
+            while(cursor.next()) {
+                expected++;
+            }
+        }
+        //没有丢弃TICK, 并且按时间顺序发送
+        assertTrue(received.size()==expected);
+        for(int i=1;i<received.size();i++) {
+            assertTrue(received.get(i-1).updateTimestamp<=received.get(i).updateTimestamp);
+        }
+        //事件驱动的步数不超过TICK数+定时器+开始
+        assertTrue(steps<=expected+2);
+    }
+
+    @Test
+    public void testMultiDays() throws Exception
+    {
+        Exchangeable ru1901 = Exchangeable.fromString("ru1901");
+        SimBeansContainer beansContainer = new SimBeansContainer();
+        SimMarketTimeService marketTime = new SimMarketTimeService();
+        SimMarketDataService mdService = new SimMarketDataService();
+        marketTime.setTradingDays(ru1901.exchange(), LocalDate.of(2018, Month.OCTOBER, 8), LocalDate.of(2018, Month.OCTOBER, 12));
+        assertTrue(marketTime.getTradingDays().size()==5);
+        beansContainer.addBean(MarketTimeService.class, marketTime);
+        beansContainer.addBean(MarketDataService.class, mdService);
+        mdService.addSubscriptions(Arrays.asList(new Exchangeable[] {ru1901}));
+        mdService.init(beansContainer);
+
+        Set<String> tradingDays = new TreeSet<>();
+        long[] lastTimestamp = new long[1];
+        mdService.addListener((MarketData md)->{
+            assertTrue(md.updateTimestamp>=lastTimestamp[0]);
+            lastTimestamp[0] = md.updateTimestamp;
+            tradingDays.add(DateUtil.date2str(marketTime.getTradingDay()));
+        });
+        while(marketTime.nextTimePiece());
+        //每个交易日都有数据, 交易日之间保持时间顺序
+        assertTrue(tradingDays.size()==5);
+        assertTrue(marketTime.getTradingDay().equals(LocalDate.of(2018, Month.OCTOBER, 12)));
+        assertTrue(mdService.getLastData(ru1901)!=null);
+        mdService.destroy();
+    }
+
+    @Test
+    public void testTickBlock() throws Exception
+    {
+        LocalDate tradingDay = LocalDate.of(2018,  Month.OCTOBER, 11);
+        Exchangeable ru1901 = Exchangeable.fromString("ru1901");
+        SimTickBlock block = SimTickBlock.load(TraderHomeUtil.getExchangeableData(), Arrays.asList(ru1901), tradingDay).get(ru1901);
+        List<MarketData> ticks = new ArrayList<>();
+        try(RepositoryCursor cursor = new RepositoryQuery(TraderHomeUtil.getExchangeableData()).addExchangeables(ru1901)
+                .setData(ExchangeableData.TICK_CTP).setTradingDays(tradingDay, tradingDay).open();)
+        {
+            while(cursor.next()) {
+                ticks.add(cursor.getMarketData());
+            }
+        }
+        assertTrue(block.size()==ticks.size() && block.size()>0);
+        //列式数据还原的行情与原始TICK一致
+        SimMarketData view = new SimMarketData();
+        for(int i=0;i<ticks.size();i++) {
+            MarketData tick = ticks.get(i);
+            block.fill(i, view);
+            assertTrue(view.updateTime.equals(tick.updateTime));
+            assertTrue(view.updateTimestamp==tick.updateTimestamp);
+            assertTrue(view.tradingDay.equals(tick.tradingDay));
+            assertTrue(view.lastPrice==tick.lastPrice && view.volume==tick.volume && view.turnover==tick.turnover && view.openInterest==tick.openInterest);
+            assertTrue(view.depth==tick.depth && Arrays.equals(view.bidPrices, tick.bidPrices) && Arrays.equals(view.askVolumes, tick.askVolumes));
+        }
+        //复制的对象不受复用影响
+        block.fill(0, view);
+        MarketData first = view.clone();
+        block.fill(block.size()-1, view);
+        assertTrue(first.updateTimestamp==ticks.get(0).updateTimestamp && first.bidPrices[0]==ticks.get(0).bidPrices[0]);
+        //二分查找定位
+        assertTrue(block.seek(Long.MIN_VALUE)==0);
+        assertTrue(block.seek(Long.MAX_VALUE)==block.size());
+        int mid = block.size()/2;
+        int index = block.seek(block.getTimestamp(mid));
+        assertTrue(block.getTimestamp(index-1)==block.getTimestamp(mid));
+        assertTrue(index==block.size() || block.getTimestamp(index)>block.getTimestamp(mid));
+    }
+
+}
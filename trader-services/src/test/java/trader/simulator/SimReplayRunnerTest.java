@@ -0,0 +1,82 @@
+package trader.simulator;
+
+import static org.junit.Assert.assertTrue;
+
+import java.time.LocalDate;
+import java.time.Month;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import trader.common.exchangeable.Exchangeable;
+import trader.service.TraderHomeTestUtil;
+import trader.service.trade.TradeTestUtil;
+
+public class SimReplayRunnerTest {
+
+    @Before
+    public void setup() {
+        TraderHomeTestUtil.initRepoistoryDir();
+    }
+
+    @Test
+    public void testReplay() throws Exception
+    {
+        Exchangeable ru1901 = Exchangeable.fromString("ru1901");
+        Properties parameters = new Properties();
+        parameters.setProperty("threshold", "0");
+        SimReplayRunner runner = new SimReplayRunner(LocalDate.of(2018, Month.OCTOBER, 11), Arrays.asList(ru1901))
+                .loadFromRepository()
+                .setSpeed(0)
+                .setTradlet(SimBatchRunnerTest.CountTradlet.class, parameters)
+                .setFeeEvaluator(TradeTestUtil.createFeeEvaluator(ru1901));
+        SimReplayReport report = runner.run();
+
+        assertTrue(report.getTickCount()>0 && report.getTickCount()==runner.getMarketDatas().size());
+        assertTrue(report.getCount(SimReplayReport.STAGE_TOTAL)==report.getTickCount());
+        //行情服务丢弃时间重复的TICK, 各环节收到相同的TICK
+        long delivered = report.getCount(SimReplayReport.STAGE_TA);
+        assertTrue(delivered>0 && delivered<=report.getTickCount());
+        assertTrue(report.getCount(SimReplayReport.STAGE_TRADLET)==delivered);
+        assertTrue(report.getCount(SimReplayReport.STAGE_TXN)==delivered);
+        assertTrue(!report.getStages().contains(SimReplayReport.STAGE_LAG));
+        assertTrue(report.getPercentileNanos(SimReplayReport.STAGE_TOTAL, 0.99)<=report.getMaxNanos(SimReplayReport.STAGE_TOTAL));
+
+        //保存的基线与自身比较没有退化
+        SimReplayReport baseline = SimReplayReport.fromJson(report.toJson().toString());
+        assertTrue(baseline.getAvgNanos(SimReplayReport.STAGE_TOTAL)==report.getAvgNanos(SimReplayReport.STAGE_TOTAL));
+        assertTrue(report.getRegressions(baseline, 0).isEmpty());
+        assertTrue(report.toComparison(baseline).contains(SimReplayReport.STAGE_TRADLET));
+
+        //比基线慢时报告退化
+        SimReplayReport fastBaseline = new SimReplayReport();
+        fastBaseline.getOrCreateStage(SimReplayReport.STAGE_TOTAL).record(1);
+        List<String> regressions = report.getRegressions(fastBaseline, 0.2);
+        assertTrue(regressions.size()==2 && regressions.get(0).startsWith(SimReplayReport.STAGE_TOTAL));
+    }
+
+    /**
+     * 策略通过影子账户报单, 模拟交易通道撮合, 回放报告和基线比较中包含撮合环节
+     */
+    @Test
+    public void testTxnStage() throws Exception
+    {
+        Exchangeable ru1901 = Exchangeable.fromString("ru1901");
+        SimReplayRunner runner = new SimReplayRunner(LocalDate.of(2018, Month.OCTOBER, 11), Arrays.asList(ru1901))
+                .loadFromRepository()
+                .setSpeed(0)
+                .setTradlet(SimBatchRunnerTest.OpenTradlet.class, null)
+                .setFeeEvaluator(TradeTestUtil.createFeeEvaluator(ru1901));
+        SimReplayReport report = runner.run();
+
+        assertTrue(report.getStages().contains(SimReplayReport.STAGE_TXN));
+        assertTrue(report.getCount(SimReplayReport.STAGE_TXN)==report.getCount(SimReplayReport.STAGE_TRADLET));
+        SimReplayReport baseline = SimReplayReport.fromJson(report.toJson().toString());
+        assertTrue(baseline.getCount(SimReplayReport.STAGE_TXN)==report.getCount(SimReplayReport.STAGE_TXN));
+        assertTrue(report.toComparison(baseline).contains(SimReplayReport.STAGE_TXN));
+    }
+
+}
@@ -0,0 +1,29 @@
+package trader.simulator;
+
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import trader.service.md.synthetic.SyntheticTickGenerator;
+
+public class SimSoakRunnerTest {
+
+    @Test
+    public void testSoak() throws Exception
+    {
+        SimSoakRunner runner = new SimSoakRunner(SyntheticTickGenerator.defaultInstruments(10))
+                .setMultipliers(1, 10)
+                .setSeconds(1);
+        List<SimReplayReport> reports = runner.run();
+        assertTrue(reports.size()>=1);
+        SimReplayReport report = reports.get(0);
+        //10个合约x每秒2个TICK
+        assertTrue(runner.getTargetRate(1)==20);
+        assertTrue(report.getTickCount()==20);
+        assertTrue(report.getCount(SimReplayReport.STAGE_TOTAL)==report.getTickCount());
+        assertTrue(!runner.isSaturated(report));
+    }
+
+}
@@ -0,0 +1,49 @@
+package trader.simulator;
+
+import static org.junit.Assert.assertTrue;
+
+import java.time.LocalDate;
+import java.time.Month;
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import trader.common.exchangeable.Exchangeable;
+import trader.service.TraderHomeTestUtil;
+import trader.service.md.synthetic.SyntheticTickGenerator;
+
+public class SimWarmupRunnerTest {
+
+    @Before
+    public void setup() {
+        TraderHomeTestUtil.initRepoistoryDir();
+    }
+
+    @Test
+    public void testRecordedWarmup() throws Exception
+    {
+        Exchangeable ru1901 = Exchangeable.fromString("ru1901");
+        SimWarmupRunner runner = new SimWarmupRunner(Arrays.asList(ru1901))
+                .setTradingDay(LocalDate.of(2018, Month.OCTOBER, 11))
+                .setSeconds(2)
+                .run();
+        assertTrue(!runner.isSynthetic());
+        assertTrue(runner.getTickCount()>0 && runner.getRounds()>0);
+        assertTrue(runner.getOrderCount()>0);
+    }
+
+    @Test
+    public void testSyntheticWarmup() throws Exception
+    {
+        //行情仓库中没有这个交易日的数据
+        SimWarmupRunner runner = new SimWarmupRunner(SyntheticTickGenerator.defaultInstruments(3))
+                .setTradingDay(LocalDate.of(2018, Month.OCTOBER, 15))
+                .setSeconds(1)
+                .run();
+        assertTrue(runner.isSynthetic());
+        assertTrue(runner.getTickCount()>=SimWarmupRunner.ROUND_TICKS);
+        assertTrue(runner.getOrderCount()>0);
+    }
+
+}
@@ -0,0 +1,129 @@
+package trader.simulator.trade;
+
+import static org.junit.Assert.assertTrue;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import trader.common.exchangeable.Exchangeable;
+import trader.common.exchangeable.ExchangeableData;
+import trader.common.util.TraderHomeUtil;
+import trader.service.TraderHomeTestUtil;
+import trader.service.md.MarketData;
+import trader.service.repository.RepositoryCursor;
+import trader.service.repository.RepositoryQuery;
+import trader.service.trade.OrderImpl;
+import trader.service.trade.TradeConstants.OrderDirection;
+import trader.service.trade.TradeConstants.OrderOffsetFlag;
+import trader.service.trade.TradeConstants.OrderPriceType;
+import trader.service.trade.TradeConstants.OrderVolumeCondition;
+
+public class SimOrderBookTest {
+
+    private static Exchangeable ru1901 = Exchangeable.fromString("ru1901");
+
+    @Before
+    public void setup() {
+        TraderHomeTestUtil.initRepoistoryDir();
+    }
+
+    @Test
+    public void testMatch() throws Exception
+    {
+        List<MarketData> ticks = loadTicks(LocalDate.of(2018, 10, 11));
+        MarketData first = ticks.get(100);
+        SimOrderBook orderBook = new SimOrderBook(ru1901, 0, 1.0);
+        List<long[]> matches = new ArrayList<>();
+        SimOrderBook.MatchHandler handler = (OrderImpl order, long price, int volume, long time)->{
+            matches.add(new long[] {price, volume});
+        };
+        //市价单立即按对手价成交
+        OrderImpl marketOrder = new OrderImpl(ru1901, "1", OrderDirection.Buy, OrderPriceType.AnyPrice, OrderOffsetFlag.OPEN, 0, 1, OrderVolumeCondition.Any);
+        orderBook.addOrder(marketOrder, first.updateTimestamp);
+        orderBook.onMarketData(first, handler);
+        assertTrue(matches.size()==1 && matches.get(0)[0]==first.lastAskPrice());
+        assertTrue(orderBook.isEmpty());
+
+        //买一价挂单, 排队后按挂单价成交
+        matches.clear();
+        long limitPrice = first.lastBidPrice();
+        OrderImpl limitOrder = new OrderImpl(ru1901, "2", OrderDirection.Buy, OrderPriceType.LimitPrice, OrderOffsetFlag.OPEN, limitPrice, 2, OrderVolumeCondition.Any);
+        orderBook.addOrder(limitOrder, first.updateTimestamp);
+        orderBook.onMarketData(first, handler);
+        assertTrue(matches.isEmpty());
+        for(int i=101;i<ticks.size();i++) {
+            orderBook.onMarketData(ticks.get(i), handler);
+        }
+        int volume = 0;
+        for(long[] match:matches) {
+            assertTrue(match[0]==limitPrice);
+            volume += match[1];
+        }
+        assertTrue(volume==2);
+        assertTrue(orderBook.isEmpty());
+    }
+
+    /**
+     * 成交回调中撤单: 被撤的报单不再撮合, 不影响其它报单
+     */
+    @Test
+    public void testCancelInHandler() throws Exception
+    {
+        List<MarketData> ticks = loadTicks(LocalDate.of(2018, 10, 11));
+        MarketData first = ticks.get(100);
+        SimOrderBook orderBook = new SimOrderBook(ru1901, 0, 1.0);
+        OrderImpl order1 = new OrderImpl(ru1901, "1", OrderDirection.Buy, OrderPriceType.AnyPrice, OrderOffsetFlag.OPEN, 0, 1, OrderVolumeCondition.Any);
+        OrderImpl order2 = new OrderImpl(ru1901, "2", OrderDirection.Buy, OrderPriceType.AnyPrice, OrderOffsetFlag.OPEN, 0, 1, OrderVolumeCondition.Any);
+        OrderImpl order3 = new OrderImpl(ru1901, "3", OrderDirection.Sell, OrderPriceType.AnyPrice, OrderOffsetFlag.OPEN, 0, 1, OrderVolumeCondition.Any);
+        orderBook.addOrder(order1, first.updateTimestamp);
+        orderBook.addOrder(order2, first.updateTimestamp);
+        orderBook.addOrder(order3, first.updateTimestamp);
+        List<OrderImpl> matched = new ArrayList<>();
+        boolean[] removed = new boolean[2];
+        orderBook.onMarketData(first, (OrderImpl order, long price, int volume, long time)->{
+            matched.add(order);
+            if ( order==order1 ) {
+                removed[0] = orderBook.removeOrder(order2);
+                removed[1] = orderBook.removeOrder(order1);
+            }
+        });
+        assertTrue(removed[0] && !removed[1]);
+        assertTrue(matched.size()==2 && matched.get(0)==order1 && matched.get(1)==order3);
+        assertTrue(orderBook.isEmpty());
+    }
+
+    @Test
+    public void testLatency() throws Exception
+    {
+        List<MarketData> ticks = loadTicks(LocalDate.of(2018, 10, 11));
+        MarketData first = ticks.get(100);
+        SimOrderBook orderBook = new SimOrderBook(ru1901, 2000, 1.0);
+        List<Long> matchTimes = new ArrayList<>();
+        OrderImpl marketOrder = new OrderImpl(ru1901, "1", OrderDirection.Sell, OrderPriceType.AnyPrice, OrderOffsetFlag.OPEN, 0, 1, OrderVolumeCondition.Any);
+        orderBook.addOrder(marketOrder, first.updateTimestamp);
+        for(int i=100;i<ticks.size() && matchTimes.isEmpty();i++) {
+            orderBook.onMarketData(ticks.get(i), (OrderImpl order, long price, int volume, long time)->{
+                matchTimes.add(time);
+            });
+        }
+        assertTrue(matchTimes.size()==1 && matchTimes.get(0)>=first.updateTimestamp+2000);
+    }
+
+    private static List<MarketData> loadTicks(LocalDate tradingDay) throws Exception
+    {
+        List<MarketData> result = new ArrayList<>();
+        try(RepositoryCursor cursor = new RepositoryQuery(TraderHomeUtil.getExchangeableData()).addExchangeables(ru1901)
+                .setData(ExchangeableData.TICK_CTP).setTradingDays(tradingDay, tradingDay).open();)
+        {
+            while(cursor.next()) {
+                result.add(cursor.getMarketData());
+            }
+        }
+        return result;
+    }
+
+}